@@ -0,0 +1,146 @@
+package com.medobsmind.app;
+
+import android.content.Intent;
+import android.view.View;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Binding, measuring and laying out one row of a 1,000-message transcript on the main thread,
+ * as scrolling does: through {@link ChatAdapter} once {@link TextLayoutCache} holds the
+ * precomputed layouts, and with a plain setText as the baseline. The test build is debuggable,
+ * so compare the two rather than reading either as a release number.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatBindBenchmark {
+    private static final int MESSAGES = 1000;
+    // A phone-sized row, so text wraps as it does on screen
+    private static final int ROW_WIDTH_PX = 1080;
+    private static final String[] USER_TEXTS = {
+        "Blood pressure 128/84, heart rate 88.",
+        "SpO2 94% on room air.",
+        "Is a respiratory rate of 22 a concern for a 70 year old after surgery?"
+    };
+    private static final String ANSWER = "A respiratory rate of 22 is mildly raised. Re-check in 30 minutes "
+        + "and review the NEWS2 score; consider oxygen therapy if saturation falls below 92%. Document the "
+        + "findings in the chart and inform the nurse in charge. ";
+
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private ActivityScenario<ChatActivity> scenario;
+    private ThumbnailLoader thumbnailLoader;
+    private ChatAdapter adapter;
+    private RecyclerView parent;
+    private final List<ChatMessage> transcript = new ArrayList<>();
+
+    @Before
+    public void setUp() throws InterruptedException {
+        Intent intent = new Intent(ApplicationProvider.getApplicationContext(), ChatActivity.class)
+            .putExtra(ChatActivity.EXTRA_SKIP_VOICE_WARM_UP, true);
+        scenario = ActivityScenario.launch(intent);
+        for (int i = 0; i < MESSAGES; i++) {
+            boolean isUser = i % 2 == 0;
+            // Answers of one to three paragraphs, all long enough to be precomputed
+            String text = isUser ? USER_TEXTS[(i / 2) % USER_TEXTS.length] : repeat(ANSWER, 1 + (i / 2) % 3);
+            transcript.add(new ChatMessage(i, i * 1000L, text, isUser));
+        }
+        CountDownLatch committed = new CountDownLatch(1);
+        scenario.onActivity(activity -> {
+            thumbnailLoader = new ThumbnailLoader(new AttachmentStore(activity),
+                new File(activity.getCacheDir(), "bind-benchmark"), 0, 1, 1);
+            adapter = new ChatAdapter(thumbnailLoader);
+            parent = new RecyclerView(activity);
+            parent.setLayoutManager(new LinearLayoutManager(activity));
+            adapter.submitList(transcript, committed::countDown);
+        });
+        assertTrue(committed.await(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        scenario.onActivity(activity -> thumbnailLoader.shutdown());
+        scenario.close();
+    }
+
+    @Test
+    public void bindPrecomputed() {
+        scenario.onActivity(activity -> {
+            ChatAdapter.MessageViewHolder[] holders = new ChatAdapter.MessageViewHolder[3];
+            // One pass fills the cache, as the first scroll through the transcript does
+            for (int i = 0; i < MESSAGES; i++) {
+                bindAndLayout(holders, i);
+            }
+            BenchmarkState state = benchmarkRule.getState();
+            int position = 0;
+            while (state.keepRunning()) {
+                bindAndLayout(holders, position);
+                position = (position + 1) % MESSAGES;
+            }
+        });
+    }
+
+    @Test
+    public void bindPlainText() {
+        scenario.onActivity(activity -> {
+            ChatAdapter.MessageViewHolder[] holders = new ChatAdapter.MessageViewHolder[3];
+            BenchmarkState state = benchmarkRule.getState();
+            int position = 0;
+            while (state.keepRunning()) {
+                ChatAdapter.MessageViewHolder holder = holderFor(holders, position);
+                holder.messageText.setText(transcript.get(position).getMessage());
+                layout(holder.itemView);
+                position = (position + 1) % MESSAGES;
+            }
+        });
+    }
+
+    private void bindAndLayout(ChatAdapter.MessageViewHolder[] holders, int position) {
+        ChatAdapter.MessageViewHolder holder = holderFor(holders, position);
+        adapter.bindViewHolder(holder, position);
+        layout(holder.itemView);
+    }
+
+    // One holder per view type, rebound for every row like a recycled one
+    private ChatAdapter.MessageViewHolder holderFor(ChatAdapter.MessageViewHolder[] holders, int position) {
+        int viewType = adapter.getItemViewType(position);
+        if (holders[viewType] == null) {
+            holders[viewType] = adapter.createViewHolder(parent, viewType);
+        }
+        return holders[viewType];
+    }
+
+    private static void layout(View row) {
+        row.measure(View.MeasureSpec.makeMeasureSpec(ROW_WIDTH_PX, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        row.layout(0, 0, row.getMeasuredWidth(), row.getMeasuredHeight());
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,13 @@
+package com.medobsmind.app;
+
+import java.io.IOException;
+
+/**
+ * A request's attached image could not be read, for example because its file was deleted.
+ * Sending the request again fails the same way.
+ */
+public class AttachmentException extends IOException {
+    public AttachmentException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
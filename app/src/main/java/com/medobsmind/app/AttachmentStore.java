@@ -0,0 +1,172 @@
+package com.medobsmind.app;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Keeps the images attached to chat messages as JPEGs in the app's files directory. Each image
+ * is downscaled once, when it is attached, to fit the video resolution of the performance mode
+ * in use, which is the size it is uploaded at; the full-size original is never kept or sent.
+ * Decoding and encoding happen on the caller's thread; call from a worker.
+ */
+public class AttachmentStore {
+    private static final String DIRECTORY = "attachments";
+    private static final String FILE_SUFFIX = ".jpg";
+    private static final int JPEG_QUALITY = 85;
+
+    private final File directory;
+
+    public AttachmentStore(Context context) {
+        directory = new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    public File fileFor(ImageAttachment attachment) {
+        return new File(directory, attachment.getFileName());
+    }
+
+    /**
+     * Copies the image at {@code uri} into the store, upright and no larger than
+     * {@code maxWidth} x {@code maxHeight} (or the same box turned for a portrait image).
+     */
+    public ImageAttachment importImage(ContentResolver resolver, Uri uri, int maxWidth, int maxHeight)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = open(resolver, uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not a decodable image: " + uri);
+        }
+        int rotation = readRotation(resolver, uri);
+        // Only decode as many pixels as the upload needs; a 12 MP photo would not fit the heap
+        int longSide = Math.max(maxWidth, maxHeight);
+        int shortSide = Math.min(maxWidth, maxHeight);
+        boolean wide = options.outWidth >= options.outHeight;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight,
+            wide ? longSide : shortSide, wide ? shortSide : longSide);
+        options.inJustDecodeBounds = false;
+        Bitmap decoded;
+        try (InputStream in = open(resolver, uri)) {
+            decoded = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (decoded == null) {
+            throw new IOException("Not a decodable image: " + uri);
+        }
+        try {
+            return save(decoded, rotation, maxWidth, maxHeight);
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * Stores {@code bitmap}, for example a snapshot of the video preview, scaled down to fit
+     * {@code maxWidth} x {@code maxHeight} (or the same box turned). The bitmap is not recycled.
+     */
+    public ImageAttachment save(Bitmap bitmap, int maxWidth, int maxHeight) throws IOException {
+        return save(bitmap, 0, maxWidth, maxHeight);
+    }
+
+    /**
+     * Deletes an attachment that was never sent.
+     */
+    public void delete(ImageAttachment attachment) {
+        fileFor(attachment).delete();
+    }
+
+    private ImageAttachment save(Bitmap source, int rotation, int maxWidth, int maxHeight) throws IOException {
+        boolean turned = rotation == 90 || rotation == 270;
+        int uprightWidth = turned ? source.getHeight() : source.getWidth();
+        int uprightHeight = turned ? source.getWidth() : source.getHeight();
+        float scale = Math.min(1f, Math.min(
+            (float) Math.max(maxWidth, maxHeight) / Math.max(uprightWidth, uprightHeight),
+            (float) Math.min(maxWidth, maxHeight) / Math.min(uprightWidth, uprightHeight)));
+        Bitmap upright = source;
+        if (scale < 1f || rotation != 0) {
+            Matrix matrix = new Matrix();
+            matrix.postRotate(rotation);
+            matrix.postScale(scale, scale);
+            upright = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+        }
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            String fileName = UUID.randomUUID() + FILE_SUFFIX;
+            File file = new File(directory, fileName);
+            File temp = new File(directory, fileName + ".tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                if (!upright.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                    throw new IOException("Could not encode attachment");
+                }
+            } catch (IOException e) {
+                temp.delete();
+                throw e;
+            }
+            // Rename so a message never points at a half-written file
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not store attachment " + file);
+            }
+            return new ImageAttachment(fileName, upright.getWidth(), upright.getHeight());
+        } finally {
+            if (upright != source) {
+                upright.recycle();
+            }
+        }
+    }
+
+    /**
+     * Largest power-of-two subsampling that still leaves the image at least
+     * {@code targetWidth} x {@code targetHeight}.
+     */
+    static int sampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sample = 1;
+        while (width / (sample * 2) >= targetWidth && height / (sample * 2) >= targetHeight) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    private static InputStream open(ContentResolver resolver, Uri uri) throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        return in;
+    }
+
+    private static int readRotation(ContentResolver resolver, Uri uri) {
+        try (InputStream in = open(resolver, uri)) {
+            int orientation = new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            // Not a JPEG, or no EXIF data: show it as stored
+            return 0;
+        }
+    }
+}
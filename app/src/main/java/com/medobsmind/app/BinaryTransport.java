@@ -0,0 +1,73 @@
+package com.medobsmind.app;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+
+/**
+ * Streams from the MedObsMind LLMM API using the {@link WireFormat} binary envelopes
+ * instead of JSON and SSE. The request is encoded straight into the connection and the
+ * response is decoded token by token as it arrives.
+ */
+public class BinaryTransport implements LlmmTransport {
+    private final LlmmApiClient apiClient;
+
+    public BinaryTransport(LlmmApiClient apiClient) {
+        this.apiClient = apiClient;
+    }
+
+    @Override
+    public void stream(final LlmmRequest request, TokenSink sink) throws IOException {
+        RequestBody body = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return LlmmApiClient.WIRE;
+            }
+
+            @Override
+            public void writeTo(BufferedSink out) throws IOException {
+                WireEncoder encoder = new WireEncoder(out.outputStream());
+                encoder.writeChatRequest(request);
+                encoder.flush();
+            }
+        };
+        Request httpRequest = new Request.Builder()
+            .url(apiClient.getEndpoint())
+            .header("Accept", WireFormat.CONTENT_TYPE)
+            .post(body)
+            .build();
+        // The performance mode decides how long a slow generation may take
+        Call call = apiClient.withReadTimeout(request.getTimeoutMs()).newCall(httpRequest);
+        try (Response response = call.execute()) {
+            if (response.code() != 200) {
+                throw new LlmmHttpException(response.code());
+            }
+            readTokens(new WireDecoder(response.body().byteStream()), sink);
+        } catch (InterruptedIOException e) {
+            // Release the stream on the shared connection instead of leaving it half-read
+            call.cancel();
+            throw e;
+        }
+    }
+
+    static void readTokens(WireDecoder decoder, TokenSink sink) throws IOException {
+        int type;
+        while ((type = decoder.next()) >= 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("LLMM stream cancelled");
+            }
+            if (type == WireFormat.TYPE_TOKEN) {
+                sink.onToken(decoder.readToken());
+            } else if (type == WireFormat.TYPE_DONE) {
+                return;
+            }
+            // Other envelope types are skipped by the next call to next()
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.medobsmind.app;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded pool of equally sized bitmaps, so decoding a thumbnail while scrolling reuses the
+ * pixels of one that scrolled away instead of allocating new ones. Bitmaps of another size or
+ * config, and any beyond the pool size, are dropped on release and left to the GC.
+ */
+public class BitmapPool {
+    private final ArrayDeque<Bitmap> free = new ArrayDeque<>();
+    private final int width;
+    private final int height;
+    private final Bitmap.Config config;
+    private final int maxPooled;
+    private int allocated;
+
+    public BitmapPool(int width, int height, Bitmap.Config config, int maxPooled) {
+        this.width = width;
+        this.height = height;
+        this.config = config;
+        this.maxPooled = maxPooled;
+    }
+
+    public synchronized Bitmap acquire() {
+        Bitmap bitmap = free.poll();
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+            allocated++;
+        }
+        return bitmap;
+    }
+
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap.isMutable() && !bitmap.isRecycled() && bitmap.getWidth() == width
+                && bitmap.getHeight() == height && bitmap.getConfig() == config && free.size() < maxPooled) {
+            free.add(bitmap);
+        }
+    }
+
+    public synchronized void clear() {
+        free.clear();
+    }
+
+    /**
+     * Number of bitmaps allocated over the pool's lifetime; flat once scrolling has warmed it.
+     */
+    public synchronized int getAllocatedCount() {
+        return allocated;
+    }
+}
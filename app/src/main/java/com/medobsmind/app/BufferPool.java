@@ -0,0 +1,48 @@
+package com.medobsmind.app;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Bounded pool of equally sized direct buffers, so per-frame encoding reuses memory instead of
+ * allocating megabytes for every frame. Buffers beyond the pool size are simply dropped on
+ * release and left to the GC.
+ */
+public class BufferPool {
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private final int bufferCapacity;
+    private final int maxPooled;
+    private int allocated;
+
+    public BufferPool(int bufferCapacity, int maxPooled) {
+        this.bufferCapacity = bufferCapacity;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    public synchronized ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferCapacity);
+            allocated++;
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferCapacity && buffer.isDirect() && free.size() < maxPooled) {
+            free.add(buffer);
+        }
+    }
+
+    /**
+     * Number of buffers allocated over the pool's lifetime; flat once the pool is warm.
+     */
+    public synchronized int getAllocatedCount() {
+        return allocated;
+    }
+}
@@ -0,0 +1,452 @@
+package com.medobsmind.app;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.OutputConfiguration;
+import android.hardware.camera2.params.SessionConfiguration;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.os.ConditionVariable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the video screen's camera on one long-lived handler thread. Cameras are chosen by
+ * {@link CameraCharacteristics#LENS_FACING}, and their characteristics are read once per
+ * process. The preview and analysis stream sizes are picked from the sizes every camera
+ * supports, so switching between the front and back camera only reopens the device: the
+ * thread, the preview surface and the analysis ImageReader all stay. Camera state is only
+ * touched on the camera thread; the public methods post to it.
+ */
+public class CameraController {
+    public interface Listener {
+        /**
+         * Called on the camera thread when a camera cannot be opened or configured.
+         */
+        void onCameraError(int messageResId);
+    }
+
+    private static final String TAG = "CameraController";
+    // Upper bound for the preview stream; larger buffers cost memory bandwidth for no visible gain
+    private static final int MAX_PREVIEW_WIDTH = 1920;
+    private static final int MAX_PREVIEW_HEIGHT = 1080;
+    private static final float ASPECT_TOLERANCE = 0.01f;
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+
+    private static final class CameraInfo {
+        final String id;
+        final int lensFacing;
+        final int sensorOrientation;
+        final List<Size> previewSizes;
+        final List<Size> analysisSizes;
+
+        CameraInfo(String id, CameraCharacteristics characteristics) {
+            this.id = id;
+            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            this.lensFacing = facing != null ? facing : CameraCharacteristics.LENS_FACING_EXTERNAL;
+            this.sensorOrientation = orientation != null ? orientation : 0;
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            this.previewSizes = map != null
+                ? Arrays.asList(map.getOutputSizes(SurfaceTexture.class)) : Collections.<Size>emptyList();
+            this.analysisSizes = map != null
+                ? Arrays.asList(map.getOutputSizes(ImageFormat.YUV_420_888)) : Collections.<Size>emptyList();
+        }
+    }
+
+    // Characteristics never change while the process lives; reading them is a binder call per camera
+    private static List<CameraInfo> cameraCache;
+
+    private final CameraManager cameraManager;
+    private final Listener listener;
+    private final List<CameraInfo> cameras;
+    private final Size analysisSize;
+    private final HandlerThread cameraThread;
+    private final Handler cameraHandler;
+
+    // Only touched on the camera thread
+    private SurfaceTexture surfaceTexture;
+    private Surface previewSurface;
+    private Surface analysisSurface;
+    private CameraInfo current;
+    private CameraDevice cameraDevice;
+    private CameraCaptureSession captureSession;
+    // Bumped on every open, so callbacks from a camera that was switched away from are ignored
+    private int openGeneration;
+    private long openStartNanos;
+    private MetricsRegistry.Stage openStage;
+    // Mirrors current.lensFacing for the main thread
+    private volatile int lensFacing = CameraCharacteristics.LENS_FACING_FRONT;
+
+    public CameraController(Context context, int targetWidth, int targetHeight, Listener listener) {
+        this.cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        this.listener = listener;
+        this.cameras = loadCameras(cameraManager);
+        this.analysisSize = chooseSize(commonSizes(true), targetWidth, targetHeight, null);
+        cameraThread = new HandlerThread("camera");
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+    }
+
+    private static synchronized List<CameraInfo> loadCameras(CameraManager manager) {
+        if (cameraCache == null) {
+            List<CameraInfo> cameras = new ArrayList<>();
+            try {
+                for (String id : manager.getCameraIdList()) {
+                    cameras.add(new CameraInfo(id, manager.getCameraCharacteristics(id)));
+                }
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Could not read the camera characteristics", e);
+                // Not cached, so the next screen tries again
+                return cameras;
+            }
+            cameraCache = Collections.unmodifiableList(cameras);
+        }
+        return cameraCache;
+    }
+
+    public boolean hasCamera() {
+        return !cameras.isEmpty();
+    }
+
+    public boolean hasCamera(int lensFacing) {
+        return findCamera(lensFacing) != null;
+    }
+
+    /**
+     * Size of the YUV analysis stream; the ImageReader behind the analysis surface must match it.
+     */
+    public Size getAnalysisSize() {
+        return analysisSize;
+    }
+
+    /**
+     * Preview stream size for a view of the given size in portrait: the smallest supported size
+     * with the analysis stream's aspect ratio that covers the view, so both streams show the
+     * same field of view.
+     */
+    public Size choosePreviewSize(int viewWidth, int viewHeight) {
+        boolean swapped = isSensorRotated();
+        int width = Math.min(swapped ? viewHeight : viewWidth, MAX_PREVIEW_WIDTH);
+        int height = Math.min(swapped ? viewWidth : viewHeight, MAX_PREVIEW_HEIGHT);
+        List<Size> candidates = new ArrayList<>();
+        for (Size size : commonSizes(false)) {
+            if (size.getWidth() <= MAX_PREVIEW_WIDTH && size.getHeight() <= MAX_PREVIEW_HEIGHT) {
+                candidates.add(size);
+            }
+        }
+        return chooseSize(candidates, width, height, analysisSize);
+    }
+
+    /**
+     * Opens the camera facing {@code lensFacing} (or any camera if there is none) and starts
+     * streaming into the two surfaces. The preview texture must already have its default
+     * buffer size set to a size from {@link #choosePreviewSize}.
+     */
+    public void start(final SurfaceTexture previewTexture, final Surface analysisTarget, final int preferredFacing) {
+        final long startNanos = System.nanoTime();
+        cameraHandler.post(() -> {
+            if (previewSurface == null || surfaceTexture != previewTexture) {
+                // Created once per texture; later switches stream into the same surface
+                if (previewSurface != null) {
+                    previewSurface.release();
+                }
+                surfaceTexture = previewTexture;
+                previewSurface = new Surface(previewTexture);
+            }
+            analysisSurface = analysisTarget;
+            open(chooseCamera(preferredFacing), startNanos, MetricsRegistry.Stage.VIDEO_CAMERA_OPEN);
+        });
+    }
+
+    /**
+     * Switches between the front and back camera, keeping the thread and surfaces.
+     */
+    public void switchCamera() {
+        final long startNanos = System.nanoTime();
+        cameraHandler.post(() -> {
+            if (current == null) {
+                return;
+            }
+            int facing = current.lensFacing == CameraCharacteristics.LENS_FACING_FRONT
+                ? CameraCharacteristics.LENS_FACING_BACK : CameraCharacteristics.LENS_FACING_FRONT;
+            CameraInfo next = findCamera(facing);
+            if (next != null) {
+                open(next, startNanos, MetricsRegistry.Stage.VIDEO_CAMERA_SWITCH);
+            }
+        });
+    }
+
+    /**
+     * Whether the sensor is mounted at 90 or 270 degrees, so a portrait view shows the
+     * stream's width as its height.
+     */
+    public boolean isSensorRotated() {
+        // Sensors are mounted landscape on phones; every camera of a device agrees on this
+        int sensorOrientation = cameras.isEmpty() ? 90 : cameras.get(0).sensorOrientation;
+        return sensorOrientation == 90 || sensorOrientation == 270;
+    }
+
+    public int getLensFacing() {
+        return lensFacing;
+    }
+
+    /**
+     * Closes the camera and waits for it, so the analysis ImageReader can be closed safely
+     * afterwards. The thread and preview surface stay for the next {@link #start}.
+     */
+    public void stop() {
+        final ConditionVariable closed = new ConditionVariable();
+        cameraHandler.post(() -> {
+            openGeneration++;
+            closeDevice();
+            current = null;
+            analysisSurface = null;
+            closed.open();
+        });
+        closed.block(CLOSE_TIMEOUT_MS);
+    }
+
+    /**
+     * Stops the camera and ends the camera thread; call from onDestroy.
+     */
+    public void release() {
+        stop();
+        cameraHandler.post(() -> {
+            if (previewSurface != null) {
+                previewSurface.release();
+                previewSurface = null;
+                surfaceTexture = null;
+            }
+        });
+        cameraThread.quitSafely();
+    }
+
+    /**
+     * The camera thread's handler, for ImageReader callbacks that belong on the same thread.
+     */
+    public Handler getHandler() {
+        return cameraHandler;
+    }
+
+    private void open(CameraInfo camera, long startNanos, MetricsRegistry.Stage stage) {
+        if (camera == null) {
+            listener.onCameraError(R.string.error_camera_unavailable);
+            return;
+        }
+        // close() disconnects synchronously, so the next camera can be opened straight away
+        closeDevice();
+        current = camera;
+        lensFacing = camera.lensFacing;
+        openStartNanos = startNanos;
+        openStage = stage;
+        final int generation = ++openGeneration;
+        try {
+            cameraManager.openCamera(camera.id, new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(@NonNull CameraDevice device) {
+                    if (generation != openGeneration) {
+                        device.close();
+                        return;
+                    }
+                    cameraDevice = device;
+                    createSession(device, generation);
+                }
+
+                @Override
+                public void onDisconnected(@NonNull CameraDevice device) {
+                    device.close();
+                    if (device == cameraDevice) {
+                        cameraDevice = null;
+                    }
+                }
+
+                @Override
+                public void onError(@NonNull CameraDevice device, int error) {
+                    device.close();
+                    if (device == cameraDevice) {
+                        cameraDevice = null;
+                    }
+                    if (generation == openGeneration) {
+                        listener.onCameraError(R.string.error_camera_open);
+                    }
+                }
+            }, cameraHandler);
+        } catch (CameraAccessException | SecurityException e) {
+            Log.e(TAG, "Could not open camera " + camera.id, e);
+            listener.onCameraError(R.string.error_camera_open);
+        }
+    }
+
+    private void createSession(final CameraDevice device, final int generation) {
+        try {
+            final CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            builder.addTarget(previewSurface);
+            builder.addTarget(analysisSurface);
+            builder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+            CameraCaptureSession.StateCallback callback = new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    if (generation != openGeneration) {
+                        session.close();
+                        return;
+                    }
+                    captureSession = session;
+                    try {
+                        session.setRepeatingRequest(builder.build(), firstFrameCallback(generation), cameraHandler);
+                    } catch (CameraAccessException | IllegalStateException e) {
+                        // The device was closed or disconnected while the session was configured
+                        Log.w(TAG, "Could not start the preview", e);
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    if (generation == openGeneration) {
+                        listener.onCameraError(R.string.error_camera_configure);
+                    }
+                }
+            };
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                createSessionP(device, callback);
+            } else {
+                createSessionLegacy(device, callback);
+            }
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Could not configure the capture session", e);
+            listener.onCameraError(R.string.error_camera_configure);
+        }
+    }
+
+    @RequiresApi(Build.VERSION_CODES.P)
+    private void createSessionP(CameraDevice device, CameraCaptureSession.StateCallback callback)
+            throws CameraAccessException {
+        List<OutputConfiguration> outputs = Arrays.asList(new OutputConfiguration(previewSurface),
+            new OutputConfiguration(analysisSurface));
+        // Callbacks run on the camera thread, as with the handler of the legacy call
+        device.createCaptureSession(new SessionConfiguration(SessionConfiguration.SESSION_REGULAR, outputs,
+            cameraHandler::post, callback));
+    }
+
+    // Deprecated in API 30; SessionConfiguration only exists from API 28
+    @SuppressWarnings("deprecation")
+    private void createSessionLegacy(CameraDevice device, CameraCaptureSession.StateCallback callback)
+            throws CameraAccessException {
+        device.createCaptureSession(Arrays.asList(previewSurface, analysisSurface), callback, cameraHandler);
+    }
+
+    /**
+     * Records the open or switch latency when the first frame of a session starts exposing.
+     */
+    private CameraCaptureSession.CaptureCallback firstFrameCallback(final int generation) {
+        return new CameraCaptureSession.CaptureCallback() {
+            private boolean recorded;
+
+            @Override
+            public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                         long timestamp, long frameNumber) {
+                if (!recorded && generation == openGeneration) {
+                    recorded = true;
+                    MetricsRegistry.get().recordNanos(openStage, System.nanoTime() - openStartNanos);
+                }
+            }
+        };
+    }
+
+    private void closeDevice() {
+        if (captureSession != null) {
+            captureSession.close();
+            captureSession = null;
+        }
+        if (cameraDevice != null) {
+            cameraDevice.close();
+            cameraDevice = null;
+        }
+    }
+
+    private CameraInfo chooseCamera(int lensFacing) {
+        CameraInfo camera = findCamera(lensFacing);
+        return camera != null || cameras.isEmpty() ? camera : cameras.get(0);
+    }
+
+    private CameraInfo findCamera(int lensFacing) {
+        for (CameraInfo camera : cameras) {
+            if (camera.lensFacing == lensFacing) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sizes every camera supports for the stream, so one surface fits them all; if the cameras
+     * share none, the first camera's sizes.
+     */
+    private List<Size> commonSizes(boolean analysis) {
+        if (cameras.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Size> common = new ArrayList<>(analysis ? cameras.get(0).analysisSizes : cameras.get(0).previewSizes);
+        for (int i = 1; i < cameras.size(); i++) {
+            common.retainAll(analysis ? cameras.get(i).analysisSizes : cameras.get(i).previewSizes);
+        }
+        if (common.isEmpty()) {
+            return analysis ? cameras.get(0).analysisSizes : cameras.get(0).previewSizes;
+        }
+        return common;
+    }
+
+    /**
+     * The smallest size covering width x height, preferring the aspect ratio of {@code aspect}
+     * (or of the target itself); failing that the largest size. Falls back to the target when
+     * no sizes are known.
+     */
+    static Size chooseSize(List<Size> sizes, int width, int height, Size aspect) {
+        float targetAspect = aspect != null
+            ? (float) aspect.getWidth() / aspect.getHeight() : (float) width / height;
+        Size best = null;
+        boolean bestMatchesAspect = false;
+        Size largest = null;
+        for (Size size : sizes) {
+            if (largest == null || area(size) > area(largest)) {
+                largest = size;
+            }
+            if (size.getWidth() < width || size.getHeight() < height) {
+                continue;
+            }
+            boolean matchesAspect =
+                Math.abs((float) size.getWidth() / size.getHeight() - targetAspect) <= ASPECT_TOLERANCE * targetAspect;
+            if (best == null || (matchesAspect && !bestMatchesAspect)
+                    || (matchesAspect == bestMatchesAspect && area(size) < area(best))) {
+                best = size;
+                bestMatchesAspect = matchesAspect;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        return largest != null ? largest : new Size(width, height);
+    }
+
+    private static long area(Size size) {
+        return (long) size.getWidth() * size.getHeight();
+    }
+}
@@ -1,51 +1,125 @@
 package com.medobsmind.app;
 
 import android.Manifest;
+import android.content.ActivityNotFoundException;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.speech.RecognitionListener;
 import android.speech.RecognizerIntent;
 import android.speech.SpeechRecognizer;
-import android.speech.tts.TextToSpeech;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.Toast;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class ChatActivity extends AppCompatActivity {
     private RecyclerView chatRecyclerView;
     private ChatAdapter chatAdapter;
     private EditText messageInput;
     private Button sendButton, voiceButton, videoButton;
-    private List<ChatMessage> messages;
-    private String selectedModel;
+    private ImageButton attachButton;
+    private ImageView attachmentPreview;
+    private MessageWindow messageWindow;
+    private ConversationStore conversationStore;
+    private ExecutorService storeExecutor;
+    private ChatMessage streamingMessage;
+    // The answer streamed so far; streamingMessage keeps the text it was created with
+    private StringBuilder streamingText;
+    private PromptAssembler promptAssembler;
+    private boolean historySeeded = false;
+    private boolean isLoadingPage = false;
+    private PerformanceProfile performanceProfile;
+    private AttachmentStore attachmentStore;
+    private ThumbnailLoader thumbnailLoader;
+    private ExecutorService attachmentExecutor;
+    // Goes out with the next message
+    private ImageAttachment pendingAttachment;
     
-    private SpeechRecognizer speechRecognizer;
-    private TextToSpeech textToSpeech;
+    private VoiceServices voiceServices;
+    private IncrementalSpeaker speaker;
+    private long firstFrameLatencyMs = -1;
+    private final MetricsRegistry metrics = MetricsRegistry.get();
+    private MetricsOverlay metricsOverlay;
+    private long sendStartNanos;
     private boolean isListening = false;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable prefetchRunnable = this::startSpeculativePrefetch;
+    private String lastPartial;
+    private PrefetchedResponse speculativePrefetch;
+
+    private InferenceDispatcher inferenceDispatcher;
+    private LlmmStreamingClient streamingClient;
+    // Set on the main thread once the journal has been read; also read on the connectivity thread
+    private volatile Outbox outbox;
+    private ConnectivityMonitor connectivityMonitor;
     
-    private static final String PREFS_NAME = "MedObsMindPrefs";
-    private static final String PREF_MODEL = "selected_model";
+    // Set by startup benchmarks to measure cold start without the text-to-speech warm-up
+    public static final String EXTRA_SKIP_VOICE_WARM_UP = "com.medobsmind.app.SKIP_VOICE_WARM_UP";
+
+    private static final String TAG = "ChatActivity";
     private static final int REQUEST_RECORD_AUDIO_PERMISSION = 200;
     private static final int REQUEST_CAMERA_PERMISSION = 201;
+    private static final int REQUEST_PICK_IMAGE = 202;
+    private static final int REQUEST_VIDEO_CALL = 203;
+    private static final long SIMULATED_TOKEN_DELAY_MS = 30;
+    private static final int INFERENCE_WORKERS = 2;
+    private static final int INFERENCE_QUEUE_CAPACITY = 4;
+    private static final String RESPONSE_CACHE_DIR = "llmm_responses";
+    private static final int RESPONSE_CACHE_MEMORY_ENTRIES = 100;
+    private static final long RESPONSE_CACHE_DISK_BYTES = 4 * 1024 * 1024;
+    private static final String OUTBOX_JOURNAL = "llmm_outbox.journal";
+    private static final String LOCAL_MODEL_DIR = "models";
+    private static final String LOCAL_MODEL_FILE = "medobsmind-local-q8.bin";
+    private static final String LOCAL_TOKENIZER_FILE = "medobsmind-local-tokenizer.bin";
+    // With two workers, one answer already streaming from the service is a backlog
+    private static final int REMOTE_BACKLOG_LIMIT = 1;
+    private static final int LOCAL_QUEUE_LIMIT = 2;
+    private static final int HISTORY_PAGE_SIZE = 50;
+    private static final int HISTORY_WINDOW_CAPACITY = 200;
+    private static final int PAGE_PREFETCH_DISTANCE = 10;
+    private static final int SUMMARY_INTERVAL_TURNS = 8;
+    private static final long PARTIAL_STABLE_MS = 600;
+    private static final int SEARCH_INDEX_BATCH = 500;
+    private static final int SEARCH_RESULT_LIMIT = 50;
+    private static final int SEARCH_SNIPPET_CHARS = 100;
+    private static final String THUMBNAIL_CACHE_DIR = "thumbnails";
+    private static final long THUMBNAIL_DISK_BYTES = 16 * 1024 * 1024;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long createStartMs = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_chat);
+        // Voice engines are not built here; text-to-speech warms up once the first frame is drawn
+        warmUpVoiceAfterFirstFrame(createStartMs);
 
         // Initialize UI components
         chatRecyclerView = findViewById(R.id.chatRecyclerView);
@@ -53,24 +127,40 @@ public class ChatActivity extends AppCompatActivity {
         sendButton = findViewById(R.id.sendButton);
         voiceButton = findViewById(R.id.voiceButton);
         videoButton = findViewById(R.id.videoButton);
+        attachButton = findViewById(R.id.attachButton);
+        attachmentPreview = findViewById(R.id.attachmentPreview);
 
-        // Setup RecyclerView
-        messages = new ArrayList<>();
-        chatAdapter = new ChatAdapter(messages);
+        // Attachment thumbnails are decoded off the main thread at their display size
+        attachmentStore = new AttachmentStore(this);
+        attachmentExecutor = Executors.newSingleThreadExecutor();
+        thumbnailLoader = new ThumbnailLoader(attachmentStore, new File(getCacheDir(), THUMBNAIL_CACHE_DIR),
+            THUMBNAIL_DISK_BYTES, getResources().getDimensionPixelSize(R.dimen.attachment_thumbnail_width),
+            getResources().getDimensionPixelSize(R.dimen.attachment_thumbnail_height));
+
+        // Setup RecyclerView over a bounded window of the persisted conversation
+        messageWindow = new MessageWindow(HISTORY_WINDOW_CAPACITY);
+        chatAdapter = new ChatAdapter(thumbnailLoader);
         chatRecyclerView.setLayoutManager(new LinearLayoutManager(this));
         chatRecyclerView.setAdapter(chatAdapter);
+        chatRecyclerView.addOnScrollListener(historyScrollListener);
+
+        conversationStore = new ConversationStore(this);
+        storeExecutor = Executors.newSingleThreadExecutor();
 
         // Load selected model
         loadSelectedModel();
 
-        // Initialize Speech Recognition
-        initializeSpeechRecognizer();
-        
-        // Initialize Text-to-Speech
-        initializeTextToSpeech();
+        // Initialize the streaming LLMM client
+        initializeStreamingClient();
+
+        // Shared speech engines, created lazily
+        voiceServices = VoiceServices.get(this);
+        metricsOverlay = new MetricsOverlay(this);
 
-        // Add welcome message
-        addWelcomeMessage();
+        // Load the latest page of history (or the welcome message on first launch)
+        loadLatestHistory();
+        // Index the stored history for search in batches queued behind the first page
+        indexHistory(0);
 
         // Setup send button click listener
         sendButton.setOnClickListener(v -> sendMessage());
@@ -80,159 +170,821 @@ public class ChatActivity extends AppCompatActivity {
         
         // Setup video button click listener
         videoButton.setOnClickListener(v -> startVideoCall());
+
+        // Images go out with the next message, downscaled to the current mode's resolution
+        attachButton.setOnClickListener(v -> pickImage());
+        attachmentPreview.setOnClickListener(v -> removePendingAttachment());
     }
 
     @Override
     protected void onResume() {
         super.onResume();
         loadSelectedModel();
+        metricsOverlay.show();
+    }
+
+    @Override
+    protected void onPause() {
+        metricsOverlay.hide();
+        super.onPause();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        thumbnailLoader.trimMemory(level);
     }
     
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (speechRecognizer != null) {
-            speechRecognizer.destroy();
+        mainHandler.removeCallbacks(prefetchRunnable);
+        if (connectivityMonitor != null) {
+            connectivityMonitor.stop();
+        }
+        if (outbox != null) {
+            // Anything still queued stays in the journal for the next launch
+            outbox.shutdown();
         }
-        if (textToSpeech != null) {
-            textToSpeech.stop();
-            textToSpeech.shutdown();
+        if (inferenceDispatcher != null) {
+            // Cancel in-flight requests so they stop streaming into a destroyed activity
+            inferenceDispatcher.shutdown();
         }
+        // Keep whatever part of a cancelled answer has streamed so far
+        persistStreamingMessage();
+        storeExecutor.execute(conversationStore::close);
+        storeExecutor.shutdown();
+        attachmentExecutor.shutdown();
+        thumbnailLoader.shutdown();
+        // The engines are shared; only stop what this activity started
+        voiceServices.removeTextToSpeechCallback(textToSpeechCallback);
+        voiceServices.releaseSpeechRecognizer(recognitionListener);
+        stopSpeaking();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.chat_menu, menu);
+        menu.findItem(R.id.action_metrics_overlay).setChecked(MetricsOverlay.isEnabled(this));
         return true;
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
-        if (item.getItemId() == R.id.action_settings) {
+        if (item.getItemId() == R.id.action_search) {
+            showSearchDialog();
+            return true;
+        } else if (item.getItemId() == R.id.action_settings) {
             Intent intent = new Intent(this, SettingsActivity.class);
             startActivity(intent);
             return true;
+        } else if (item.getItemId() == R.id.action_metrics_overlay) {
+            boolean show = !item.isChecked();
+            item.setChecked(show);
+            MetricsOverlay.setEnabled(this, show);
+            if (show) {
+                metricsOverlay.show();
+            } else {
+                metricsOverlay.hide();
+            }
+            return true;
+        } else if (item.getItemId() == R.id.action_share_metrics) {
+            // Field report: the JSON dump goes to whatever app the user picks (mail, chat, files)
+            Intent share = new Intent(Intent.ACTION_SEND);
+            share.setType("application/json");
+            share.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metrics_report_subject));
+            share.putExtra(Intent.EXTRA_TEXT, metrics.toJson());
+            startActivity(Intent.createChooser(share, getString(R.string.menu_share_metrics)));
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     private void loadSelectedModel() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        selectedModel = prefs.getString(PREF_MODEL, "Balanced");
-        setTitle(getString(R.string.chat_title) + " - " + selectedModel + " Mode");
+        // Shared with VideoCallActivity and refreshed whenever Settings saves a new mode
+        performanceProfile = PerformanceProfile.current(this);
+        setTitle(getString(R.string.chat_title) + " - " + performanceProfile.getDisplayName() + " Mode");
+
+        // Leave room in the mode's context window for the system prompt and the answer
+        int contextBudget = Math.max(0, performanceProfile.getContextWindowTokens()
+            - performanceProfile.getMaxTokens()
+            - PromptAssembler.estimateTokens(getString(R.string.system_prompt)));
+        if (promptAssembler == null) {
+            promptAssembler = new PromptAssembler(contextBudget, SUMMARY_INTERVAL_TURNS, null);
+        } else {
+            promptAssembler.setBudgetTokens(contextBudget);
+        }
+    }
+
+    private void initializeStreamingClient() {
+        LlmmApiClient apiClient = LlmmApiClient.get(this);
+        LlmmTransport transport;
+        if (apiClient == null) {
+            // No backend configured yet, so stream the placeholder answer locally
+            transport = new SimulatedTransport(SIMULATED_TOKEN_DELAY_MS);
+        } else {
+            // Warm the shared connection while the user is still typing
+            apiClient.preconnect();
+            transport = new NegotiatedTransport(apiClient);
+        }
+        connectivityMonitor = new ConnectivityMonitor(this, this::retryOutbox);
+        // Short questions in the fast modes, and those modes while offline, stay on the device
+        File modelDir = new File(getFilesDir(), LOCAL_MODEL_DIR);
+        InferenceRouter router = new InferenceRouter(
+            new RemoteInferenceEngine(transport, connectivityMonitor::isOnline),
+            new LocalInferenceEngine(new File(modelDir, LOCAL_MODEL_FILE), new File(modelDir, LOCAL_TOKENIZER_FILE)),
+            REMOTE_BACKLOG_LIMIT, LOCAL_QUEUE_LIMIT);
+        inferenceDispatcher = new InferenceDispatcher(INFERENCE_WORKERS, INFERENCE_QUEUE_CAPACITY);
+        ResponseCache responseCache = new ResponseCache(new File(getCacheDir(), RESPONSE_CACHE_DIR),
+            RESPONSE_CACHE_MEMORY_ENTRIES, RESPONSE_CACHE_DISK_BYTES);
+        streamingClient = new LlmmStreamingClient(router, inferenceDispatcher,
+            ContextCompat.getMainExecutor(this), responseCache);
+        initializeOutbox(transport);
+        connectivityMonitor.start();
+    }
+
+    private void initializeOutbox(LlmmTransport transport) {
+        File journalFile = new File(getFilesDir(), OUTBOX_JOURNAL);
+        // Reading and replaying the journal is disk I/O, kept off the cold-start path
+        storeExecutor.execute(() -> {
+            Outbox opened;
+            try {
+                // Requests that failed offline, including ones left by a previous process; they are
+                // replayed to the service only
+                opened = new Outbox(new OutboxJournal(journalFile), transport, new Outbox.DeliveryListener() {
+                    @Override
+                    public void onDelivered(long messageId, String response) throws Exception {
+                        reconcileQueuedAnswer(messageId, response);
+                    }
+
+                    @Override
+                    public void onFailed(long messageId, IOException error) throws Exception {
+                        failQueuedAnswer(messageId);
+                    }
+                });
+            } catch (IOException e) {
+                // Requests are sent but not queued while offline for the rest of this session
+                Log.w(TAG, "Could not open the outbox journal", e);
+                return;
+            }
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    // onDestroy has run without seeing it; the journal keeps what was queued
+                    opened.shutdown();
+                } else {
+                    outbox = opened;
+                }
+            });
+        });
+    }
+
+    // Runs on the connectivity callback thread
+    private void retryOutbox() {
+        if (outbox != null) {
+            outbox.retryNow();
+        }
+    }
+
+    // Runs on the outbox thread; the answer must be stored before the outbox forgets the request
+    private void reconcileQueuedAnswer(long messageId, String response) throws Exception {
+        storeExecutor.submit(() -> conversationStore.updateText(messageId, response)).get();
+        runOnUiThread(() -> {
+            int index = messageWindow.indexOf(messageId);
+            if (index >= 0) {
+                ChatMessage answer = messageWindow.get(index).withText(response);
+                messageWindow.set(index, answer);
+                promptAssembler.append(answer);
+                submitWindow(false);
+            }
+        });
+    }
+
+    // Runs on the outbox thread; the placeholder is replaced before the outbox forgets the request
+    private void failQueuedAnswer(long messageId) throws Exception {
+        String text = getString(R.string.llmm_queued_failed);
+        storeExecutor.submit(() -> conversationStore.updateText(messageId, text)).get();
+        metrics.increment(MetricsRegistry.Counter.CHAT_ERRORS);
+        runOnUiThread(() -> {
+            int index = messageWindow.indexOf(messageId);
+            if (index >= 0) {
+                // Like the placeholder, kept out of the prompt context
+                messageWindow.set(index, messageWindow.get(index).withText(text));
+                submitWindow(false);
+            }
+            Toast.makeText(this, R.string.llmm_queued_failed, Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    private final RecyclerView.OnScrollListener historyScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+            if (layoutManager == null || isLoadingPage) {
+                return;
+            }
+            if (dy < 0 && messageWindow.hasOlder()
+                    && layoutManager.findFirstVisibleItemPosition() <= PAGE_PREFETCH_DISTANCE) {
+                loadOlderPage();
+            } else if (dy > 0 && messageWindow.hasNewer()
+                    && layoutManager.findLastVisibleItemPosition() >= messageWindow.size() - 1 - PAGE_PREFETCH_DISTANCE) {
+                loadNewerPage();
+            }
+        }
+    };
+
+    private void loadLatestHistory() {
+        isLoadingPage = true;
+        String welcomeText = getString(R.string.welcome_message);
+        storeExecutor.execute(() -> {
+            List<ChatMessage> latest = conversationStore.loadLatest(HISTORY_PAGE_SIZE);
+            if (latest.isEmpty()) {
+                ChatMessage welcomeMsg = conversationStore.newMessage(welcomeText, false);
+                conversationStore.append(welcomeMsg);
+                latest = Collections.singletonList(welcomeMsg);
+            }
+            List<ChatMessage> page = latest;
+            runOnUiThread(() -> {
+                isLoadingPage = false;
+                // Keep messages sent while the page was loading; their inserts were queued after this read
+                List<ChatMessage> pending = new ArrayList<>(messageWindow.getMessages());
+                messageWindow.reset(page, page.size() == HISTORY_PAGE_SIZE);
+                for (ChatMessage message : pending) {
+                    if (message.getId() > messageWindow.getLastId()) {
+                        messageWindow.append(message);
+                    }
+                }
+                if (!historySeeded) {
+                    // Prime the prompt context with the most recent turns from the last session
+                    historySeeded = true;
+                    for (ChatMessage message : page) {
+                        promptAssembler.append(message);
+                    }
+                }
+                submitWindow(true);
+            });
+        });
+    }
+
+    private void loadOlderPage() {
+        isLoadingPage = true;
+        long firstId = messageWindow.getFirstId();
+        storeExecutor.execute(() -> {
+            List<ChatMessage> page = conversationStore.loadBefore(firstId, HISTORY_PAGE_SIZE);
+            runOnUiThread(() -> {
+                isLoadingPage = false;
+                if (messageWindow.getFirstId() != firstId) {
+                    return;
+                }
+                messageWindow.prependOlder(page, page.size() == HISTORY_PAGE_SIZE);
+                messageWindow.trimNewest();
+                submitWindow(false);
+            });
+        });
     }
 
-    private void addWelcomeMessage() {
-        if (messages.isEmpty()) {
-            ChatMessage welcomeMsg = new ChatMessage(
-                getString(R.string.welcome_message),
-                false
-            );
-            messages.add(welcomeMsg);
-            chatAdapter.notifyItemInserted(messages.size() - 1);
+    private void loadNewerPage() {
+        isLoadingPage = true;
+        long lastId = messageWindow.getLastId();
+        storeExecutor.execute(() -> {
+            List<ChatMessage> page = conversationStore.loadAfter(lastId, HISTORY_PAGE_SIZE);
+            runOnUiThread(() -> {
+                isLoadingPage = false;
+                if (messageWindow.getLastId() != lastId) {
+                    return;
+                }
+                messageWindow.appendNewer(page, page.size() == HISTORY_PAGE_SIZE);
+                messageWindow.trimOldest();
+                submitWindow(false);
+            });
+        });
+    }
+
+    private void indexHistory(long afterId) {
+        try {
+            storeExecutor.execute(() -> {
+                long lastId = conversationStore.indexAfter(afterId, SEARCH_INDEX_BATCH);
+                if (lastId != afterId) {
+                    indexHistory(lastId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The activity was destroyed part way; the next launch indexes from the start
+        }
+    }
+
+    private void showSearchDialog() {
+        EditText queryInput = new EditText(this);
+        queryInput.setHint(R.string.search_hint);
+        queryInput.setSingleLine(true);
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.menu_search)
+            .setView(queryInput)
+            .setPositiveButton(R.string.search_button,
+                (dialog, which) -> searchHistory(queryInput.getText().toString()))
+            .setNegativeButton(android.R.string.cancel, null)
+            .show();
+    }
+
+    private void searchHistory(String query) {
+        // The index is in memory, so even a long consult is searched well within a frame
+        long startNanos = System.nanoTime();
+        long[] ids = conversationStore.getSearchIndex().search(query, SEARCH_RESULT_LIMIT);
+        metrics.recordNanos(MetricsRegistry.Stage.CHAT_SEARCH, System.nanoTime() - startNanos);
+        if (ids.length == 0) {
+            Toast.makeText(this, R.string.search_no_results, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        storeExecutor.execute(() -> {
+            List<ChatMessage> results = conversationStore.loadByIds(ids);
+            runOnUiThread(() -> showSearchResults(results));
+        });
+    }
+
+    private void showSearchResults(List<ChatMessage> results) {
+        if (isFinishing() || results.isEmpty()) {
+            return;
+        }
+        CharSequence[] snippets = new CharSequence[results.size()];
+        for (int i = 0; i < snippets.length; i++) {
+            ChatMessage result = results.get(i);
+            String text = result.getMessage().replaceAll("\\s+", " ").trim();
+            if (text.length() > SEARCH_SNIPPET_CHARS) {
+                text = text.substring(0, SEARCH_SNIPPET_CHARS) + "\u2026";
+            }
+            snippets[i] = getString(result.isUser() ? R.string.search_result_user : R.string.search_result_ai, text);
+        }
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.search_results_title)
+            .setItems(snippets, (dialog, which) -> jumpToMessage(results.get(which).getId()))
+            .show();
+    }
+
+    private void jumpToMessage(long id) {
+        int index = messageWindow.indexOf(id);
+        if (index >= 0) {
+            scrollToMessage(index);
+            return;
+        }
+        // Outside the window: load a page either side of the hit, which becomes the new window
+        isLoadingPage = true;
+        storeExecutor.execute(() -> {
+            List<ChatMessage> older = conversationStore.loadBefore(id + 1, HISTORY_PAGE_SIZE);
+            List<ChatMessage> newer = conversationStore.loadAfter(id, HISTORY_PAGE_SIZE);
+            runOnUiThread(() -> {
+                isLoadingPage = false;
+                List<ChatMessage> pending = new ArrayList<>(messageWindow.getMessages());
+                List<ChatMessage> page = new ArrayList<>(older);
+                page.addAll(newer);
+                messageWindow.reset(page, older.size() == HISTORY_PAGE_SIZE, newer.size() == HISTORY_PAGE_SIZE);
+                if (!messageWindow.hasNewer()) {
+                    // The page reaches the end; keep messages sent while it was loading
+                    for (ChatMessage message : pending) {
+                        if (message.getId() > messageWindow.getLastId()) {
+                            messageWindow.append(message);
+                        }
+                    }
+                }
+                restoreStreamingMessage();
+                int target = messageWindow.indexOf(id);
+                chatAdapter.submitList(messageWindow.snapshot(), () -> scrollToMessage(target));
+            });
+        });
+    }
+
+    private void scrollToMessage(int index) {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) chatRecyclerView.getLayoutManager();
+        if (index >= 0 && layoutManager != null) {
+            // Put the hit at the top rather than just anywhere on screen
+            layoutManager.scrollToPositionWithOffset(index, 0);
+        }
+    }
+
+    private void appendMessage(ChatMessage message) {
+        storeExecutor.execute(() -> conversationStore.append(message));
+        if (messageWindow.hasNewer()) {
+            // Scrolled back through history: jump to the latest page, which now ends with this message
+            loadLatestHistory();
+            return;
+        }
+        messageWindow.append(message);
+        messageWindow.trimOldest();
+        submitWindow(true);
+    }
+
+    private void submitWindow(boolean scrollToEnd) {
+        restoreStreamingMessage();
+        // The adapter diffs each snapshot in the background and only rebinds what changed
+        chatAdapter.submitList(messageWindow.snapshot(), scrollToEnd
+            ? () -> chatRecyclerView.scrollToPosition(chatAdapter.getItemCount() - 1)
+            : null);
+    }
+
+    private void restoreStreamingMessage() {
+        // Tokens only grow streamingText, and a page read from the store holds a stale copy of
+        // the answer too; copy the text into the window just before a snapshot is taken
+        if (streamingMessage != null) {
+            int index = messageWindow.indexOf(streamingMessage.getId());
+            if (index >= 0) {
+                messageWindow.set(index, streamingMessage.withText(streamingText.toString()));
+            }
+        }
+    }
+
+    private void persistStreamingMessage() {
+        if (streamingMessage != null) {
+            ChatMessage answer = streamingMessage.withText(streamingText.toString());
+            long id = answer.getId();
+            String text = answer.getMessage();
+            storeExecutor.execute(() -> conversationStore.updateText(id, text));
+            if (!text.isEmpty()) {
+                promptAssembler.append(answer);
+            }
+            int index = messageWindow.indexOf(id);
+            if (index >= 0) {
+                messageWindow.set(index, answer);
+            }
+            streamingMessage = null;
+            streamingText = null;
+            chatAdapter.setStreamingMessageId(-1);
+            // The adapter only saw the streamed text as payloads; bring its list up to date
+            submitWindow(false);
         }
     }
 
     private void sendMessage() {
+        if (!historySeeded) {
+            // Message ids continue from the stored history, which is still loading; the text
+            // stays in the input
+            return;
+        }
+        sendStartNanos = System.nanoTime();
         String messageText = messageInput.getText().toString().trim();
         
-        if (messageText.isEmpty()) {
+        if (messageText.isEmpty() && pendingAttachment == null) {
             Toast.makeText(this, R.string.error_empty_message, Toast.LENGTH_SHORT).show();
             return;
         }
 
+        // Reuse the answer prefetched from the partial transcript if the final one matches
+        LlmmRequest request = buildRequest(messageText);
+        PrefetchedResponse prefetched = null;
+        if (speculativePrefetch != null && speculativePrefetch.matches(request)) {
+            prefetched = speculativePrefetch;
+            speculativePrefetch = null;
+        } else {
+            // Coalesce a rapid duplicate send, or a re-fired voice result, into the request that
+            // is already streaming; a second copy would also cancel the first on its channel
+            String key = LlmmStreamingClient.requestKey(request);
+            if (inferenceDispatcher.isInFlight(InferenceDispatcher.CHANNEL_CHAT, key)
+                    || inferenceDispatcher.isInFlight(InferenceDispatcher.CHANNEL_PREFETCH, key)) {
+                messageInput.setText("");
+                metrics.increment(MetricsRegistry.Counter.CHAT_COALESCED);
+                return;
+            }
+            cancelSpeculativePrefetch();
+        }
+
         // Add user message
-        ChatMessage userMessage = new ChatMessage(messageText, true);
-        messages.add(userMessage);
-        chatAdapter.notifyItemInserted(messages.size() - 1);
-        chatRecyclerView.scrollToPosition(messages.size() - 1);
+        ChatMessage userMessage = conversationStore.newMessage(messageText, true, pendingAttachment);
+        appendMessage(userMessage);
+        promptAssembler.append(userMessage);
 
-        // Clear input
+        // Clear input; the attachment now belongs to the message
         messageInput.setText("");
+        pendingAttachment = null;
+        showAttachmentPreview();
 
-        // Simulate AI response (in a real app, this would call an API)
-        simulateAIResponse(messageText);
+        // Stream the AI response into the chat as it is generated
+        requestAIResponse(request, prefetched);
+        metrics.increment(MetricsRegistry.Counter.CHAT_MESSAGES);
+        metrics.recordNanos(MetricsRegistry.Stage.CHAT_SEND, System.nanoTime() - sendStartNanos);
     }
 
-    private void simulateAIResponse(String userMessage) {
-        // This is a placeholder. In a real app, you would:
-        // 1. Send the message to MedObsMind LLMM API with the selected performance mode
-        // 2. Get the response from the MedObsMind (Large Language Medical Model)
-        // 3. Display it in the chat
-        
-        String systemPrompt = getString(R.string.system_prompt);
-        String response = "This is a simulated response from MedObsMind LLMM (running in " + selectedModel + " mode).\n\n" +
-            "MedObsMind is a Large Language Medical Model specialized for healthcare and medical informatics.\n\n" +
-            "In a production app, Dsquare Med-assist platform would connect to the MedObsMind LLMM API.\n\n" +
-            "Your message: \"" + userMessage + "\"";
-
-        ChatMessage aiMessage = new ChatMessage(response, false);
-        messages.add(aiMessage);
-        chatAdapter.notifyItemInserted(messages.size() - 1);
-        chatRecyclerView.scrollToPosition(messages.size() - 1);
-        
-        // Speak the AI response
-        speakText(response);
+    private LlmmRequest buildRequest(String prompt) {
+        if (pendingAttachment == null) {
+            return new LlmmRequest(prompt, promptAssembler.getContext(),
+                getString(R.string.system_prompt), performanceProfile);
+        }
+        // An image sent on its own still needs a question for the model
+        return new LlmmRequest(prompt.isEmpty() ? getString(R.string.attachment_default_prompt) : prompt,
+            promptAssembler.getContext(), getString(R.string.system_prompt), performanceProfile,
+            attachmentStore.fileFor(pendingAttachment).getPath());
     }
-    
-    private void initializeSpeechRecognizer() {
-        if (SpeechRecognizer.isRecognitionAvailable(this)) {
-            speechRecognizer = SpeechRecognizer.createSpeechRecognizer(this);
-            speechRecognizer.setRecognitionListener(new RecognitionListener() {
-                @Override
-                public void onReadyForSpeech(Bundle params) {
-                    voiceButton.setText(R.string.listening);
-                }
 
-                @Override
-                public void onBeginningOfSpeech() {}
+    private void pickImage() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("image/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        try {
+            startActivityForResult(intent, REQUEST_PICK_IMAGE);
+        } catch (ActivityNotFoundException e) {
+            Toast.makeText(this, R.string.error_attachment, Toast.LENGTH_SHORT).show();
+        }
+    }
 
-                @Override
-                public void onRmsChanged(float rmsdB) {}
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null) {
+            return;
+        }
+        if (requestCode == REQUEST_PICK_IMAGE && data.getData() != null) {
+            importAttachment(data.getData());
+        } else if (requestCode == REQUEST_VIDEO_CALL && data.hasExtra(VideoCallActivity.EXTRA_ATTACHMENT_FILE)) {
+            // A snapshot taken during the call, already stored at the upload size
+            setPendingAttachment(new ImageAttachment(
+                data.getStringExtra(VideoCallActivity.EXTRA_ATTACHMENT_FILE),
+                data.getIntExtra(VideoCallActivity.EXTRA_ATTACHMENT_WIDTH, 0),
+                data.getIntExtra(VideoCallActivity.EXTRA_ATTACHMENT_HEIGHT, 0)));
+        }
+    }
+
+    private void importAttachment(Uri uri) {
+        // Decoding a camera photo takes far too long for the main thread
+        final PerformanceProfile profile = performanceProfile;
+        attachmentExecutor.execute(() -> {
+            try {
+                ImageAttachment attachment = attachmentStore.importImage(getContentResolver(), uri,
+                    profile.getVideoWidth(), profile.getVideoHeight());
+                runOnUiThread(() -> setPendingAttachment(attachment));
+            } catch (IOException | SecurityException e) {
+                Log.w(TAG, "Could not import the attachment", e);
+                runOnUiThread(() -> Toast.makeText(this, R.string.error_attachment, Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    private void setPendingAttachment(ImageAttachment attachment) {
+        removePendingAttachment();
+        pendingAttachment = attachment;
+        showAttachmentPreview();
+        Toast.makeText(this, R.string.attachment_added, Toast.LENGTH_SHORT).show();
+    }
 
-                @Override
-                public void onBufferReceived(byte[] buffer) {}
+    private void removePendingAttachment() {
+        if (pendingAttachment != null) {
+            // Never sent, so nothing else refers to the file
+            ImageAttachment unsent = pendingAttachment;
+            attachmentExecutor.execute(() -> attachmentStore.delete(unsent));
+            pendingAttachment = null;
+            showAttachmentPreview();
+        }
+    }
+
+    private void showAttachmentPreview() {
+        if (pendingAttachment == null) {
+            thumbnailLoader.clear(attachmentPreview);
+            attachmentPreview.setVisibility(View.GONE);
+        } else {
+            attachmentPreview.setVisibility(View.VISIBLE);
+            thumbnailLoader.load(pendingAttachment, attachmentPreview);
+        }
+    }
 
-                @Override
-                public void onEndOfSpeech() {
-                    isListening = false;
-                    voiceButton.setText(R.string.voice_input_button);
+    private void requestAIResponse(LlmmRequest request, PrefetchedResponse prefetched) {
+        // Insert an empty AI message and grow it as tokens arrive
+        ChatMessage aiMessage = conversationStore.newMessage("", false);
+        final long startNanos = sendStartNanos;
+
+        LlmmStreamingClient.Listener listener = new LlmmStreamingClient.Listener() {
+            @Override
+            public void onToken(String token) {
+                if (!isCurrent()) {
+                    return;
+                }
+                if (streamingText.length() == 0) {
+                    metrics.recordNanos(MetricsRegistry.Stage.CHAT_FIRST_TOKEN, System.nanoTime() - startNanos);
+                }
+                metrics.increment(MetricsRegistry.Counter.CHAT_TOKENS);
+                // Appending in place keeps a long answer linear; the text is copied into a
+                // ChatMessage only when a snapshot or a full rebind needs it
+                streamingText.append(token);
+                // Speech starts as soon as the first sentence is complete
+                speakIncrementally(token);
+                if (messageWindow.indexOf(aiMessage.getId()) >= 0) {
+                    long renderStartNanos = System.nanoTime();
+                    // Only the answer's row changes; no snapshot is copied or diffed per token
+                    chatAdapter.appendStreamingText(aiMessage.getId(), streamingText, token);
+                    metrics.recordNanos(MetricsRegistry.Stage.CHAT_RENDER, System.nanoTime() - renderStartNanos);
                 }
+            }
 
-                @Override
-                public void onError(int error) {
-                    isListening = false;
-                    voiceButton.setText(R.string.voice_input_button);
-                    Toast.makeText(ChatActivity.this, R.string.error_speech_recognition, Toast.LENGTH_SHORT).show();
+            @Override
+            public void onComplete(String fullText) {
+                if (!isCurrent()) {
+                    return;
+                }
+                persistStreamingMessage();
+                int index = messageWindow.indexOf(aiMessage.getId());
+                if (index >= 0) {
+                    chatRecyclerView.scrollToPosition(index);
+                }
+                // Speak whatever followed the last complete sentence
+                if (speaker != null) {
+                    speaker.finish();
                 }
+            }
 
-                @Override
-                public void onResults(Bundle results) {
-                    isListening = false;
-                    voiceButton.setText(R.string.voice_input_button);
-                    ArrayList<String> matches = results.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
-                    if (matches != null && !matches.isEmpty()) {
-                        messageInput.setText(matches.get(0));
-                        sendMessage();
-                    }
+            @Override
+            public void onError(Exception e) {
+                if (!isCurrent()) {
+                    return;
+                }
+                if (outbox != null && streamingText.length() == 0 && !Outbox.isPermanentFailure(e)
+                        && (Outbox.isConnectivityFailure(e) || !connectivityMonitor.isOnline())) {
+                    // Nothing arrived and the link is down: queue the request and fill this answer in later
+                    queueForReplay(aiMessage.getId(), request);
+                    return;
                 }
+                metrics.increment(MetricsRegistry.Counter.CHAT_ERRORS);
+                persistStreamingMessage();
+                Toast.makeText(ChatActivity.this, R.string.error_llmm_request, Toast.LENGTH_SHORT).show();
+            }
 
-                @Override
-                public void onPartialResults(Bundle partialResults) {}
+            // A superseded stream must not write into the answer that replaced it
+            private boolean isCurrent() {
+                return streamingMessage != null && streamingMessage.getId() == aiMessage.getId();
+            }
+        };
 
-                @Override
-                public void onEvent(int eventType, Bundle params) {}
-            });
+        if (prefetched == null) {
+            try {
+                // A new message supersedes any response still streaming on the chat channel
+                inferenceDispatcher.cancel(InferenceDispatcher.CHANNEL_PREFETCH);
+                streamingClient.stream(InferenceDispatcher.CHANNEL_CHAT, request, listener);
+            } catch (RejectedExecutionException e) {
+                Toast.makeText(this, R.string.error_llmm_busy, Toast.LENGTH_SHORT).show();
+                return;
+            }
+        } else {
+            // The prefetched stream becomes the answer and moves to the chat channel, superseding
+            // anything older there; the next prefetch must not cancel it
+            inferenceDispatcher.transfer(InferenceDispatcher.CHANNEL_PREFETCH, InferenceDispatcher.CHANNEL_CHAT);
+        }
+
+        // The superseded answer is cancelled; save the part that streamed
+        persistStreamingMessage();
+        if (speaker != null) {
+            speaker.begin();
+        }
+        streamingMessage = aiMessage;
+        // A new builder, as the adapter binds the previous answer from the old one until its
+        // final snapshot is committed
+        streamingText = new StringBuilder();
+        chatAdapter.setStreamingMessageId(aiMessage.getId());
+        appendMessage(aiMessage);
+        if (prefetched != null) {
+            // Replays the tokens buffered so far, then keeps forwarding the stream
+            prefetched.attach(listener);
+        }
+    }
+
+    private void queueForReplay(long messageId, LlmmRequest request) {
+        ChatMessage placeholder = streamingMessage.withText(getString(R.string.llmm_queued));
+        // The placeholder is stored but kept out of the prompt context
+        storeExecutor.execute(() -> conversationStore.updateText(messageId, placeholder.getMessage()));
+        streamingMessage = null;
+        streamingText = null;
+        chatAdapter.setStreamingMessageId(-1);
+        int index = messageWindow.indexOf(messageId);
+        if (index >= 0) {
+            messageWindow.set(index, placeholder);
+            submitWindow(false);
+        }
+        outbox.enqueue(messageId, request);
+        metrics.increment(MetricsRegistry.Counter.CHAT_QUEUED_OFFLINE);
+    }
+
+    private void onPartialTranscript(String text) {
+        if (text.isEmpty() || text.equals(lastPartial)) {
+            return;
+        }
+        lastPartial = text;
+        messageInput.setText(text);
+        messageInput.setSelection(text.length());
+        // Prefetch only once the hypothesis has stopped changing for a while
+        mainHandler.removeCallbacks(prefetchRunnable);
+        mainHandler.postDelayed(prefetchRunnable, PARTIAL_STABLE_MS);
+    }
+
+    private void startSpeculativePrefetch() {
+        if (lastPartial == null) {
+            return;
+        }
+        LlmmRequest request = buildRequest(lastPartial);
+        if (speculativePrefetch != null && speculativePrefetch.matches(request)) {
+            return;
+        }
+        PrefetchedResponse prefetch = new PrefetchedResponse(request);
+        try {
+            // Replaces any earlier prefetch for a hypothesis that has since changed
+            streamingClient.stream(InferenceDispatcher.CHANNEL_PREFETCH, request, prefetch);
+            speculativePrefetch = prefetch;
+        } catch (RejectedExecutionException e) {
+            // Prefetching is best effort; the final transcript is sent normally
+            speculativePrefetch = null;
+        }
+    }
+
+    private void cancelSpeculativePrefetch() {
+        mainHandler.removeCallbacks(prefetchRunnable);
+        lastPartial = null;
+        if (speculativePrefetch != null) {
+            inferenceDispatcher.cancel(InferenceDispatcher.CHANNEL_PREFETCH);
+            speculativePrefetch = null;
         }
     }
     
-    private void initializeTextToSpeech() {
-        textToSpeech = new TextToSpeech(this, status -> {
-            if (status == TextToSpeech.SUCCESS) {
-                int result = textToSpeech.setLanguage(Locale.US);
-                if (result == TextToSpeech.LANG_MISSING_DATA || result == TextToSpeech.LANG_NOT_SUPPORTED) {
-                    Toast.makeText(this, "Text-to-speech language not supported", Toast.LENGTH_SHORT).show();
-                }
+    private final RecognitionListener recognitionListener = new RecognitionListener() {
+        @Override
+        public void onReadyForSpeech(Bundle params) {
+            voiceButton.setText(R.string.listening);
+        }
+
+        @Override
+        public void onBeginningOfSpeech() {
+            // Barge-in: stop reading the previous answer once the user talks over it
+            stopSpeaking();
+        }
+
+        @Override
+        public void onRmsChanged(float rmsdB) {}
+
+        @Override
+        public void onBufferReceived(byte[] buffer) {}
+
+        @Override
+        public void onEndOfSpeech() {
+            isListening = false;
+            voiceButton.setText(R.string.voice_input_button);
+        }
+
+        @Override
+        public void onError(int error) {
+            isListening = false;
+            voiceButton.setText(R.string.voice_input_button);
+            cancelSpeculativePrefetch();
+            Toast.makeText(ChatActivity.this, R.string.error_speech_recognition, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onResults(Bundle results) {
+            isListening = false;
+            voiceButton.setText(R.string.voice_input_button);
+            mainHandler.removeCallbacks(prefetchRunnable);
+            lastPartial = null;
+            ArrayList<String> matches = results.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+            if (matches != null && !matches.isEmpty()) {
+                // sendMessage adopts the prefetched answer or cancels it if the transcript changed
+                messageInput.setText(matches.get(0));
+                sendMessage();
+            } else {
+                cancelSpeculativePrefetch();
+            }
+        }
+
+        @Override
+        public void onPartialResults(Bundle partialResults) {
+            ArrayList<String> partial = partialResults.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+            if (partial != null && !partial.isEmpty()) {
+                onPartialTranscript(partial.get(0).trim());
+            }
+        }
+
+        @Override
+        public void onEvent(int eventType, Bundle params) {}
+    };
+
+    private final VoiceServices.TextToSpeechCallback textToSpeechCallback = (engine, languageSupported) -> {
+        if (!languageSupported) {
+            Toast.makeText(this, "Text-to-speech language not supported", Toast.LENGTH_SHORT).show();
+        }
+        Log.i(TAG, "Text-to-speech ready " + voiceServices.getTextToSpeechReadyLatencyMs() + " ms after warm-up");
+        speaker = new IncrementalSpeaker(engine);
+    };
+
+    private void warmUpVoiceAfterFirstFrame(final long createStartMs) {
+        final boolean warmUp = !getIntent().getBooleanExtra(EXTRA_SKIP_VOICE_WARM_UP, false);
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                // Listeners cannot be removed while the tree is dispatching onDraw
+                mainHandler.post(() -> {
+                    if (!decorView.getViewTreeObserver().isAlive()) {
+                        return;
+                    }
+                    decorView.getViewTreeObserver().removeOnDrawListener(this);
+                    if (firstFrameLatencyMs >= 0) {
+                        return;
+                    }
+                    firstFrameLatencyMs = SystemClock.elapsedRealtime() - createStartMs;
+                    Log.i(TAG, "First frame " + firstFrameLatencyMs + " ms after onCreate (voice warm-up "
+                            + (warmUp ? "on" : "off") + ")");
+                    if (warmUp) {
+                        voiceServices.whenTextToSpeechReady(textToSpeechCallback);
+                    }
+                });
             }
         });
     }
@@ -254,6 +1006,13 @@ public class ChatActivity extends AppCompatActivity {
             return;
         }
         
+        stopSpeaking();
+        // Created on first use rather than in onCreate
+        SpeechRecognizer speechRecognizer = voiceServices.acquireSpeechRecognizer(recognitionListener);
+        if (speaker == null) {
+            // Answers arriving before the engine is ready are not spoken, so make sure it is warming up
+            voiceServices.whenTextToSpeechReady(textToSpeechCallback);
+        }
         if (speechRecognizer != null) {
             Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
             intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
@@ -269,6 +1028,7 @@ public class ChatActivity extends AppCompatActivity {
     }
     
     private void stopListening() {
+        SpeechRecognizer speechRecognizer = voiceServices.acquireSpeechRecognizer(recognitionListener);
         if (speechRecognizer != null) {
             speechRecognizer.stopListening();
         }
@@ -285,9 +1045,9 @@ public class ChatActivity extends AppCompatActivity {
             return;
         }
         
+        // A snapshot taken during the call comes back as the result
         Intent intent = new Intent(this, VideoCallActivity.class);
-        intent.putExtra("selected_model", selectedModel);
-        startActivity(intent);
+        startActivityForResult(intent, REQUEST_VIDEO_CALL);
     }
     
     @Override
@@ -309,9 +1069,15 @@ public class ChatActivity extends AppCompatActivity {
         }
     }
     
-    private void speakText(String text) {
-        if (textToSpeech != null) {
-            textToSpeech.speak(text, TextToSpeech.QUEUE_FLUSH, null, null);
+    private void speakIncrementally(String text) {
+        if (speaker != null) {
+            speaker.append(text);
+        }
+    }
+
+    private void stopSpeaking() {
+        if (speaker != null) {
+            speaker.cancel();
         }
     }
 }
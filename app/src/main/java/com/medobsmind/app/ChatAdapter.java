@@ -3,25 +3,138 @@ package com.medobsmind.app;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.List;
 
 public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHolder> {
-    private List<ChatMessage> messages;
     private static final int VIEW_TYPE_USER = 1;
     private static final int VIEW_TYPE_AI = 2;
+    // Short messages lay out quickly enough that a background pass would only add overhead
+    private static final int PRECOMPUTE_MIN_CHARS = 200;
 
-    public ChatAdapter(List<ChatMessage> messages) {
-        this.messages = messages;
+    // Payload carrying the text appended to a message since its last bind
+    static final class AppendPayload {
+        final String appendedText;
+
+        AppendPayload(String appendedText) {
+            this.appendedText = appendedText;
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<ChatMessage> DIFF_CALLBACK = new DiffUtil.ItemCallback<ChatMessage>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ChatMessage oldItem, @NonNull ChatMessage newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ChatMessage oldItem, @NonNull ChatMessage newItem) {
+            return oldItem.hasSameContent(newItem);
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull ChatMessage oldItem, @NonNull ChatMessage newItem) {
+            String appended = newItem.appendedSince(oldItem);
+            return appended != null ? new AppendPayload(appended) : null;
+        }
+    };
+
+    private final AsyncListDiffer<ChatMessage> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private final TextLayoutCache layoutCache = new TextLayoutCache();
+    private final ThumbnailLoader thumbnailLoader;
+    private long streamingMessageId = -1;
+    // Live text of the message being streamed into, newer than the copy in the differ's list. It
+    // grows in place and is only copied when its row is bound in full.
+    private long streamingTextId = -1;
+    private CharSequence streamingText;
+    private int layoutWidth;
+
+    public ChatAdapter(ThumbnailLoader thumbnailLoader) {
+        this.thumbnailLoader = thumbnailLoader;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Diffs the new snapshot against the current one on a background thread, then dispatches
+     * the changes and runs {@code commitCallback} on the main thread.
+     */
+    public void submitList(List<ChatMessage> messages, Runnable commitCallback) {
+        long streamingAtSubmit = streamingMessageId;
+        differ.submitList(messages, () -> {
+            if (streamingText != null && streamingTextId != streamingAtSubmit) {
+                // Streaming had ended when this snapshot was taken, so it holds the final text
+                streamingText = null;
+                streamingTextId = -1;
+            }
+            if (commitCallback != null) {
+                commitCallback.run();
+            }
+        });
+    }
+
+    /**
+     * Shows {@code text}, the streaming message's text grown by {@code appendedText}, without a
+     * new snapshot: its row is handed the appended text as a payload and nothing is copied or
+     * diffed. {@code text} may keep growing in place until the next call. Submit a snapshot once
+     * streaming ends so the differ's list catches up.
+     */
+    public void appendStreamingText(long messageId, CharSequence text, String appendedText) {
+        streamingTextId = messageId;
+        streamingText = text;
+        List<ChatMessage> current = differ.getCurrentList();
+        // The streaming answer is almost always the last row
+        for (int i = current.size() - 1; i >= 0; i--) {
+            if (current.get(i).getId() == messageId) {
+                notifyItemChanged(i, new AppendPayload(appendedText));
+                return;
+            }
+        }
+        // Not committed yet: the pending snapshot inserts the row, which binds from streamingText
+    }
+
+    public List<ChatMessage> getCurrentList() {
+        return differ.getCurrentList();
+    }
+
+    /**
+     * Marks the message whose text is still growing; it is bound directly instead of through a
+     * precomputed layout that later appends would race with.
+     */
+    public void setStreamingMessageId(long messageId) {
+        streamingMessageId = messageId;
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        recyclerView.addOnLayoutChangeListener((v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) -> {
+            int width = right - left;
+            if (width != layoutWidth) {
+                // Cached layouts were measured for the old width
+                layoutWidth = width;
+                layoutCache.clear();
+            }
+        });
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).getId();
     }
 
     @Override
     public int getItemViewType(int position) {
-        return messages.get(position).isUser() ? VIEW_TYPE_USER : VIEW_TYPE_AI;
+        return differ.getCurrentList().get(position).isUser() ? VIEW_TYPE_USER : VIEW_TYPE_AI;
     }
 
     @NonNull
@@ -40,21 +153,106 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHol
 
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        ChatMessage message = messages.get(position);
-        holder.messageText.setText(message.getMessage());
+        ChatMessage message = getItem(position);
+        bindAttachment(holder, message.getAttachment());
+        String text = message.getMessage();
+        // An image sent without a question shows no empty text bubble under it
+        holder.messageText.setVisibility(text.isEmpty() && message.getAttachment() != null
+            ? View.GONE : View.VISIBLE);
+        if (text.length() < PRECOMPUTE_MIN_CHARS || message.getId() == streamingMessageId) {
+            holder.messageText.setText(text);
+            return;
+        }
+
+        String key = TextLayoutCache.key(message.getId(), holder.getItemViewType(), layoutWidth, text.length());
+        PrecomputedTextCompat cached = layoutCache.get(key);
+        if (cached != null) {
+            TextViewCompat.setPrecomputedText(holder.messageText, cached);
+        } else if (holder.messageText instanceof AppCompatTextView) {
+            // Measured in the background; the view only waits if it is laid out before that finishes
+            ((AppCompatTextView) holder.messageText).setTextFuture(layoutCache.precompute(key, text,
+                TextViewCompat.getTextMetricsParams(holder.messageText)));
+        } else {
+            holder.messageText.setText(text);
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        int appendedLength = 0;
+        for (Object payload : payloads) {
+            if (!(payload instanceof AppendPayload)) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+            appendedLength += ((AppendPayload) payload).appendedText.length();
+        }
+        // A snapshot diffed against the differ's older copy of a streamed message would append
+        // text the row already shows; rebind in full whenever the lengths disagree
+        if (holder.messageText.length() + appendedLength != textLength(position)) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        // Streaming updates only append, so skip re-setting the whole text
+        for (Object payload : payloads) {
+            holder.messageText.append(((AppendPayload) payload).appendedText);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull MessageViewHolder holder) {
+        // The bitmap can go back to the pool once it is neither shown nor cached
+        if (holder.attachmentImage != null) {
+            thumbnailLoader.clear(holder.attachmentImage);
+        }
     }
 
     @Override
     public int getItemCount() {
-        return messages.size();
+        return differ.getCurrentList().size();
+    }
+
+    private ChatMessage getItem(int position) {
+        ChatMessage message = differ.getCurrentList().get(position);
+        return isStreaming(message) ? message.withText(streamingText.toString()) : message;
+    }
+
+    // Checked on every streamed token, so it does not copy the streaming text
+    private int textLength(int position) {
+        ChatMessage message = differ.getCurrentList().get(position);
+        return isStreaming(message) ? streamingText.length() : message.getMessage().length();
+    }
+
+    private boolean isStreaming(ChatMessage message) {
+        return streamingText != null && streamingTextId == message.getId();
+    }
+
+    private void bindAttachment(MessageViewHolder holder, ImageAttachment attachment) {
+        if (holder.attachmentImage == null) {
+            return;
+        }
+        if (attachment == null) {
+            thumbnailLoader.clear(holder.attachmentImage);
+            holder.attachmentImage.setVisibility(View.GONE);
+        } else {
+            holder.attachmentImage.setVisibility(View.VISIBLE);
+            thumbnailLoader.load(attachment, holder.attachmentImage);
+        }
     }
 
     static class MessageViewHolder extends RecyclerView.ViewHolder {
         TextView messageText;
+        // Only user rows have one
+        ImageView attachmentImage;
 
         MessageViewHolder(@NonNull View itemView) {
             super(itemView);
             messageText = itemView.findViewById(R.id.messageText);
+            attachmentImage = itemView.findViewById(R.id.attachmentImage);
         }
     }
 }
@@ -1,12 +1,35 @@
 package com.medobsmind.app;
 
-public class ChatMessage {
-    private String message;
-    private boolean isUser;
+/**
+ * Immutable chat message. Streaming answers grow by replacing the message with a copy carrying
+ * the longer text, so lists handed to {@link ChatAdapter} are never changed underneath it.
+ * A user message may carry one {@link ImageAttachment}; its text can then be empty.
+ */
+public final class ChatMessage {
+    private final long id;
+    private final long timestamp;
+    private final String message;
+    private final boolean isUser;
+    private final ImageAttachment attachment;
 
-    public ChatMessage(String message, boolean isUser) {
+    public ChatMessage(long id, long timestamp, String message, boolean isUser) {
+        this(id, timestamp, message, isUser, null);
+    }
+
+    public ChatMessage(long id, long timestamp, String message, boolean isUser, ImageAttachment attachment) {
+        this.id = id;
+        this.timestamp = timestamp;
         this.message = message;
         this.isUser = isUser;
+        this.attachment = attachment;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
     }
 
     public String getMessage() {
@@ -16,4 +39,40 @@ public class ChatMessage {
     public boolean isUser() {
         return isUser;
     }
+
+    /**
+     * The attached image, or null.
+     */
+    public ImageAttachment getAttachment() {
+        return attachment;
+    }
+
+    public ChatMessage withAppendedText(String text) {
+        return new ChatMessage(id, timestamp, message + text, isUser, attachment);
+    }
+
+    public ChatMessage withText(String text) {
+        return new ChatMessage(id, timestamp, text, isUser, attachment);
+    }
+
+    /**
+     * Whether this message renders the same as {@code other}; the adapter's diff relies on it.
+     */
+    public boolean hasSameContent(ChatMessage other) {
+        // Unchanged messages are the same instance in consecutive snapshots, which keeps this cheap
+        return this == other || (isUser == other.isUser && message.equals(other.message)
+            && (attachment == null ? other.attachment == null : attachment.equals(other.attachment)));
+    }
+
+    /**
+     * The text added since {@code older}, an earlier copy of this message, or null if the
+     * text changed in some other way than growing at the end.
+     */
+    public String appendedSince(ChatMessage older) {
+        String oldText = older.message;
+        if (message.length() > oldText.length() && message.startsWith(oldText)) {
+            return message.substring(oldText.length());
+        }
+        return null;
+    }
 }
@@ -0,0 +1,57 @@
+package com.medobsmind.app;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+
+/**
+ * Runs a callback whenever a default network becomes available, so queued work can be
+ * retried as soon as ward Wi-Fi comes back instead of waiting out its backoff. Also tracks
+ * whether there is a network at all, for routing requests to the on-device model.
+ */
+public class ConnectivityMonitor {
+    private final ConnectivityManager connectivityManager;
+    private final Runnable onAvailable;
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(Network network) {
+            online = true;
+            onAvailable.run();
+        }
+
+        @Override
+        public void onLost(Network network) {
+            online = false;
+        }
+    };
+    private boolean registered = false;
+    private volatile boolean online = true;
+
+    public ConnectivityMonitor(Context context, Runnable onAvailable) {
+        this.connectivityManager = (ConnectivityManager) context.getApplicationContext()
+            .getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.onAvailable = onAvailable;
+    }
+
+    /**
+     * Whether there is a default network. Assumed true until {@link #start} has been called.
+     */
+    public boolean isOnline() {
+        return online;
+    }
+
+    public void start() {
+        if (!registered && connectivityManager != null) {
+            online = connectivityManager.getActiveNetwork() != null;
+            connectivityManager.registerDefaultNetworkCallback(networkCallback);
+            registered = true;
+        }
+    }
+
+    public void stop() {
+        if (registered) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+            registered = false;
+        }
+    }
+}
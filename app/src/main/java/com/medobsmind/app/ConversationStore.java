@@ -0,0 +1,197 @@
+package com.medobsmind.app;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SQLite-backed log of chat messages, read back in pages by id so the full history never has to
+ * sit in memory. Messages are only appended; the one exception is the final text of a streamed
+ * AI answer, which is written once the stream ends. Every write also updates the search index,
+ * so the index always matches what is stored. Call from a background thread, except
+ * {@link #newMessage}, which does no I/O.
+ */
+public class ConversationStore extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "conversation.db";
+    // Version 2 added the image attachment columns
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE_MESSAGES = "messages";
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_TIMESTAMP = "timestamp";
+    private static final String COLUMN_IS_USER = "is_user";
+    private static final String COLUMN_MESSAGE = "message";
+    private static final String COLUMN_ATTACHMENT = "attachment";
+    private static final String COLUMN_ATTACHMENT_WIDTH = "attachment_width";
+    private static final String COLUMN_ATTACHMENT_HEIGHT = "attachment_height";
+    private static final String[] COLUMNS = {COLUMN_ID, COLUMN_TIMESTAMP, COLUMN_IS_USER, COLUMN_MESSAGE,
+        COLUMN_ATTACHMENT, COLUMN_ATTACHMENT_WIDTH, COLUMN_ATTACHMENT_HEIGHT};
+
+    private final MessageSearchIndex searchIndex = new MessageSearchIndex();
+    // Guarded by this; known once loadLatest has read the newest row
+    private long nextId = -1;
+
+    public ConversationStore(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGES + " (" +
+            COLUMN_ID + " INTEGER PRIMARY KEY, " +
+            COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
+            COLUMN_IS_USER + " INTEGER NOT NULL, " +
+            COLUMN_MESSAGE + " TEXT NOT NULL, " +
+            COLUMN_ATTACHMENT + " TEXT, " +
+            COLUMN_ATTACHMENT_WIDTH + " INTEGER NOT NULL DEFAULT 0, " +
+            COLUMN_ATTACHMENT_HEIGHT + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_MESSAGES + " ADD COLUMN " + COLUMN_ATTACHMENT + " TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_MESSAGES + " ADD COLUMN " + COLUMN_ATTACHMENT_WIDTH
+                + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_MESSAGES + " ADD COLUMN " + COLUMN_ATTACHMENT_HEIGHT
+                + " INTEGER NOT NULL DEFAULT 0");
+        }
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    /**
+     * Creates a message with the next id so the UI can show it before the insert has run. Safe
+     * on the main thread, but only after the first {@link #loadLatest}.
+     */
+    public ChatMessage newMessage(String text, boolean isUser) {
+        return newMessage(text, isUser, null);
+    }
+
+    public synchronized ChatMessage newMessage(String text, boolean isUser, ImageAttachment attachment) {
+        if (nextId < 0) {
+            throw new IllegalStateException("Message ids are not known before loadLatest");
+        }
+        return new ChatMessage(nextId++, System.currentTimeMillis(), text, isUser, attachment);
+    }
+
+    public void append(ChatMessage message) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, message.getId());
+        values.put(COLUMN_TIMESTAMP, message.getTimestamp());
+        values.put(COLUMN_IS_USER, message.isUser() ? 1 : 0);
+        values.put(COLUMN_MESSAGE, message.getMessage());
+        ImageAttachment attachment = message.getAttachment();
+        if (attachment != null) {
+            values.put(COLUMN_ATTACHMENT, attachment.getFileName());
+            values.put(COLUMN_ATTACHMENT_WIDTH, attachment.getWidth());
+            values.put(COLUMN_ATTACHMENT_HEIGHT, attachment.getHeight());
+        }
+        getWritableDatabase().insertWithOnConflict(TABLE_MESSAGES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        searchIndex.add(message);
+    }
+
+    public void updateText(long id, String text) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_MESSAGE, text);
+        getWritableDatabase().update(TABLE_MESSAGES, values, COLUMN_ID + " = ?",
+            new String[]{String.valueOf(id)});
+        searchIndex.add(id, text);
+    }
+
+    /**
+     * The index is safe to search from any thread. It starts empty; see {@link #indexAfter}.
+     */
+    public MessageSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Adds the next {@code limit} stored messages after {@code id} to the search index and
+     * returns the last id indexed, or {@code id} once the history is fully indexed. Building
+     * in batches lets new messages be written between them.
+     */
+    public long indexAfter(long id, int limit) {
+        long lastId = id;
+        for (ChatMessage message : loadAfter(id, limit)) {
+            searchIndex.add(message);
+            lastId = message.getId();
+        }
+        return lastId;
+    }
+
+    /**
+     * Loads the given messages in the order of {@code ids}, skipping any that no longer exist.
+     */
+    public List<ChatMessage> loadByIds(long[] ids) {
+        if (ids.length == 0) {
+            return new ArrayList<>();
+        }
+        StringBuilder selection = new StringBuilder(COLUMN_ID).append(" IN (");
+        String[] args = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            args[i] = String.valueOf(ids[i]);
+        }
+        selection.append(')');
+        Map<Long, ChatMessage> byId = new HashMap<>();
+        for (ChatMessage message : query(selection.toString(), args, null, ids.length)) {
+            byId.put(message.getId(), message);
+        }
+        List<ChatMessage> messages = new ArrayList<>(byId.size());
+        for (long id : ids) {
+            ChatMessage message = byId.get(id);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    public List<ChatMessage> loadLatest(int limit) {
+        List<ChatMessage> page = query(null, null, COLUMN_ID + " DESC", limit);
+        // The newest row has the largest id, so this read also tells newMessage where to continue
+        long after = page.isEmpty() ? 1 : page.get(0).getId() + 1;
+        synchronized (this) {
+            nextId = Math.max(nextId, after);
+        }
+        Collections.reverse(page);
+        return page;
+    }
+
+    public List<ChatMessage> loadBefore(long id, int limit) {
+        List<ChatMessage> page = query(COLUMN_ID + " < ?", new String[]{String.valueOf(id)},
+            COLUMN_ID + " DESC", limit);
+        Collections.reverse(page);
+        return page;
+    }
+
+    public List<ChatMessage> loadAfter(long id, int limit) {
+        return query(COLUMN_ID + " > ?", new String[]{String.valueOf(id)}, COLUMN_ID + " ASC", limit);
+    }
+
+    private List<ChatMessage> query(String selection, String[] args, String orderBy, int limit) {
+        List<ChatMessage> page = new ArrayList<>(limit);
+        try (Cursor cursor = getReadableDatabase().query(TABLE_MESSAGES, COLUMNS, selection, args,
+                null, null, orderBy, String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                ImageAttachment attachment = cursor.isNull(4) ? null
+                    : new ImageAttachment(cursor.getString(4), cursor.getInt(5), cursor.getInt(6));
+                page.add(new ChatMessage(cursor.getLong(0), cursor.getLong(1),
+                    cursor.getString(3), cursor.getInt(2) != 0, attachment));
+            }
+        }
+        return page;
+    }
+}
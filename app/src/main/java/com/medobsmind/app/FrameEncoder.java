@@ -0,0 +1,159 @@
+package com.medobsmind.app;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Crops a region of interest out of YUV_420_888 planes and downscales it straight into a pooled
+ * direct buffer, either as packed RGB888 or as NV21 for the JPEG stage, without building an
+ * intermediate Bitmap. Sampling tables are rebuilt only when the source size or region changes.
+ * Not thread-safe: use one encoder per thread.
+ */
+public class FrameEncoder {
+    private final int targetWidth;
+    private final int targetHeight;
+    private final BufferPool rgbPool;
+    private final BufferPool nv21Pool;
+
+    // Region of interest as fractions of the source frame
+    private float roiLeft = 0f;
+    private float roiTop = 0f;
+    private float roiRight = 1f;
+    private float roiBottom = 1f;
+
+    private int mappedWidth = -1;
+    private int mappedHeight = -1;
+    private final int[] sourceX;
+    private final int[] sourceY;
+
+    public FrameEncoder(int targetWidth, int targetHeight, int pooledBuffers) {
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.rgbPool = new BufferPool(targetWidth * targetHeight * 3, pooledBuffers);
+        this.nv21Pool = new BufferPool(YuvFrame.sizeOf(targetWidth, targetHeight), pooledBuffers);
+        this.sourceX = new int[targetWidth];
+        this.sourceY = new int[targetHeight];
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    public int getTargetHeight() {
+        return targetHeight;
+    }
+
+    /**
+     * Restricts encoding to a region given as fractions (0..1) of the source frame.
+     */
+    public void setRegionOfInterest(float left, float top, float right, float bottom) {
+        if (left < 0f || top < 0f || right > 1f || bottom > 1f || left >= right || top >= bottom) {
+            throw new IllegalArgumentException("Invalid region of interest");
+        }
+        roiLeft = left;
+        roiTop = top;
+        roiRight = right;
+        roiBottom = bottom;
+        mappedWidth = -1;
+    }
+
+    /**
+     * Returns a pooled buffer of targetWidth * targetHeight * 3 bytes; hand it back with
+     * {@link #releaseRgb}.
+     */
+    public ByteBuffer encodeRgb(YuvPlanes src) {
+        updateSampling(src.width, src.height);
+        ByteBuffer out = rgbPool.acquire();
+        int yBase = src.y.position();
+        int uBase = src.u.position();
+        int vBase = src.v.position();
+        for (int ty = 0; ty < targetHeight; ty++) {
+            int sy = sourceY[ty];
+            int yRow = yBase + sy * src.yRowStride;
+            int uvRow = (sy >> 1) * src.uvRowStride;
+            for (int tx = 0; tx < targetWidth; tx++) {
+                int sx = sourceX[tx];
+                int uvIndex = uvRow + (sx >> 1) * src.uvPixelStride;
+                int c = (src.y.get(yRow + sx) & 0xFF) - 16;
+                int d = (src.u.get(uBase + uvIndex) & 0xFF) - 128;
+                int e = (src.v.get(vBase + uvIndex) & 0xFF) - 128;
+                // BT.601 limited range to RGB in 8.8 fixed point
+                int scaledLuma = 298 * Math.max(c, 0) + 128;
+                out.put(clamp((scaledLuma + 409 * e) >> 8));
+                out.put(clamp((scaledLuma - 100 * d - 208 * e) >> 8));
+                out.put(clamp((scaledLuma + 516 * d) >> 8));
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Returns a pooled buffer holding the scaled frame as NV21 (Y plane then interleaved V/U);
+     * hand it back with {@link #releaseNv21}.
+     */
+    public ByteBuffer encodeNv21(YuvPlanes src) {
+        ByteBuffer out = nv21Pool.acquire();
+        encodeNv21(src, out);
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Writes the scaled frame as NV21 into {@code out} from its current position.
+     */
+    public void encodeNv21(YuvPlanes src, ByteBuffer out) {
+        updateSampling(src.width, src.height);
+        int yBase = src.y.position();
+        for (int ty = 0; ty < targetHeight; ty++) {
+            int yRow = yBase + sourceY[ty] * src.yRowStride;
+            for (int tx = 0; tx < targetWidth; tx++) {
+                out.put(src.y.get(yRow + sourceX[tx]));
+            }
+        }
+        int uBase = src.u.position();
+        int vBase = src.v.position();
+        for (int ty = 0; ty < targetHeight; ty += 2) {
+            int uvRow = (sourceY[ty] >> 1) * src.uvRowStride;
+            for (int tx = 0; tx < targetWidth; tx += 2) {
+                int uvIndex = uvRow + (sourceX[tx] >> 1) * src.uvPixelStride;
+                out.put(src.v.get(vBase + uvIndex));
+                out.put(src.u.get(uBase + uvIndex));
+            }
+        }
+    }
+
+    public void releaseRgb(ByteBuffer buffer) {
+        rgbPool.release(buffer);
+    }
+
+    public void releaseNv21(ByteBuffer buffer) {
+        nv21Pool.release(buffer);
+    }
+
+    public int getAllocatedBufferCount() {
+        return rgbPool.getAllocatedCount() + nv21Pool.getAllocatedCount();
+    }
+
+    private void updateSampling(int width, int height) {
+        if (width == mappedWidth && height == mappedHeight) {
+            return;
+        }
+        // Nearest-neighbour sampling positions for every target column and row
+        int left = (int) (roiLeft * width);
+        int top = (int) (roiTop * height);
+        int cropWidth = Math.max(1, (int) (roiRight * width) - left);
+        int cropHeight = Math.max(1, (int) (roiBottom * height) - top);
+        for (int tx = 0; tx < targetWidth; tx++) {
+            sourceX[tx] = Math.min(width - 1, left + (int) ((tx + 0.5f) * cropWidth / targetWidth));
+        }
+        for (int ty = 0; ty < targetHeight; ty++) {
+            sourceY[ty] = Math.min(height - 1, top + (int) ((ty + 0.5f) * cropHeight / targetHeight));
+        }
+        mappedWidth = width;
+        mappedHeight = height;
+    }
+
+    private static byte clamp(int value) {
+        return (byte) (value < 0 ? 0 : (value > 255 ? 255 : value));
+    }
+}
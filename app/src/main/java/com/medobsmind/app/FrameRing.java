@@ -0,0 +1,65 @@
+package com.medobsmind.app;
+
+import java.util.ArrayDeque;
+
+/**
+ * Fixed pool of {@link YuvFrame}s shared by the camera callback (producer) and the analysis
+ * thread (consumer). When every frame is waiting to be analysed, the producer reclaims the
+ * oldest one, so a slow consumer drops stale frames instead of stalling the camera.
+ */
+public class FrameRing {
+    private final ArrayDeque<YuvFrame> free = new ArrayDeque<>();
+    private final ArrayDeque<YuvFrame> ready = new ArrayDeque<>();
+    private long droppedFrames;
+    private boolean closed;
+
+    public FrameRing(int capacity, int width, int height) {
+        for (int i = 0; i < capacity; i++) {
+            free.add(new YuvFrame(width, height));
+        }
+    }
+
+    /**
+     * Returns a frame to write into, or null if every frame is currently being analysed.
+     */
+    public synchronized YuvFrame acquire() {
+        YuvFrame frame = free.poll();
+        if (frame == null) {
+            frame = ready.pollFirst();
+            if (frame != null) {
+                droppedFrames++;
+            }
+        }
+        return frame;
+    }
+
+    public synchronized void publish(YuvFrame frame) {
+        ready.addLast(frame);
+        notifyAll();
+    }
+
+    /**
+     * Blocks until a frame is ready; returns null once the ring is closed.
+     */
+    public synchronized YuvFrame take() throws InterruptedException {
+        while (ready.isEmpty() && !closed) {
+            wait();
+        }
+        return closed ? null : ready.pollFirst();
+    }
+
+    public synchronized void release(YuvFrame frame) {
+        free.addLast(frame);
+    }
+
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        free.addAll(ready);
+        ready.clear();
+        notifyAll();
+    }
+}
@@ -0,0 +1,111 @@
+package com.medobsmind.app;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.view.Surface;
+
+/**
+ * Second camera target next to the preview. Frames arrive from an {@link ImageReader} on the
+ * camera background thread, are throttled to the performance mode's frame rate, copied into a
+ * {@link FrameRing} and handed to a {@link FrameAnalyzer} on a dedicated analysis thread.
+ * Images are closed immediately after the copy so the preview never waits on analysis.
+ */
+public class FrameSampler {
+    public interface FrameAnalyzer {
+        void analyze(YuvFrame frame);
+    }
+
+    // One frame in the camera's hands, one being copied
+    private static final int MAX_IMAGES = 2;
+    // One frame being written, one being analysed, one waiting
+    private static final int RING_CAPACITY = 3;
+
+    private final ImageReader imageReader;
+    private final FrameRing frameRing;
+    private final FrameAnalyzer analyzer;
+    private final long minFrameIntervalNanos;
+    private long lastSampleNanos;
+    private long sampledFrames;
+    private Thread analysisThread;
+
+    public FrameSampler(int width, int height, int framesPerSecond, FrameAnalyzer analyzer) {
+        this.imageReader = ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, MAX_IMAGES);
+        this.frameRing = new FrameRing(RING_CAPACITY, width, height);
+        this.analyzer = analyzer;
+        this.minFrameIntervalNanos = 1_000_000_000L / Math.max(1, framesPerSecond);
+    }
+
+    public Surface getSurface() {
+        return imageReader.getSurface();
+    }
+
+    public void start(Handler cameraHandler) {
+        analysisThread = new Thread(this::runAnalysis, "frame-analysis");
+        analysisThread.start();
+        imageReader.setOnImageAvailableListener(this::onImageAvailable, cameraHandler);
+    }
+
+    public void stop() {
+        imageReader.setOnImageAvailableListener(null, null);
+        frameRing.close();
+        if (analysisThread != null) {
+            analysisThread.interrupt();
+            analysisThread = null;
+        }
+        imageReader.close();
+    }
+
+    public long getSampledFrames() {
+        return sampledFrames;
+    }
+
+    public long getDroppedFrames() {
+        return frameRing.getDroppedFrames();
+    }
+
+    private void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) {
+            return;
+        }
+        try {
+            long timestamp = image.getTimestamp();
+            if (lastSampleNanos != 0 && timestamp - lastSampleNanos < minFrameIntervalNanos) {
+                return;
+            }
+            long copyStartNanos = System.nanoTime();
+            YuvFrame frame = frameRing.acquire();
+            if (frame == null) {
+                return;
+            }
+            Image.Plane[] planes = image.getPlanes();
+            frame.copyFrom(planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(),
+                planes[1].getRowStride(), planes[1].getPixelStride(), timestamp);
+            frameRing.publish(frame);
+            lastSampleNanos = timestamp;
+            sampledFrames++;
+            MetricsRegistry.get().recordNanos(MetricsRegistry.Stage.VIDEO_CAPTURE, System.nanoTime() - copyStartNanos);
+            MetricsRegistry.get().increment(MetricsRegistry.Counter.VIDEO_FRAMES_SAMPLED);
+        } finally {
+            image.close();
+        }
+    }
+
+    private void runAnalysis() {
+        try {
+            YuvFrame frame;
+            while ((frame = frameRing.take()) != null) {
+                try {
+                    analyzer.analyze(frame);
+                } finally {
+                    frameRing.release(frame);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
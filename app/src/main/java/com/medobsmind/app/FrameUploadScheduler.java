@@ -0,0 +1,126 @@
+package com.medobsmind.app;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides which sampled frames are worth uploading for interpretation. Each frame gets a 64-bit
+ * difference hash of its luma; frames within a small Hamming distance of the last one sent are
+ * skipped. The minimum gap between uploads follows the measured round-trip time, so a slow link
+ * or a busy model gets fewer frames instead of a growing backlog.
+ */
+public class FrameUploadScheduler {
+    // 9x8 samples give 8 left/right comparisons per row over 8 rows
+    private static final int HASH_COLUMNS = 9;
+    private static final int HASH_ROWS = 8;
+    private static final int BLOCK_RADIUS = 2;
+    // Smoothing factor for the round-trip moving average
+    private static final double RTT_ALPHA = 0.3;
+
+    private final int duplicateThreshold;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final long maxStaleMs;
+
+    private long lastSentHash;
+    private long lastSentAtMs = -1;
+    private double averageRoundTripMs = -1;
+    private long currentIntervalMs;
+
+    private long sentFrames;
+    private long skippedDuplicates;
+    private long skippedThrottled;
+
+    /**
+     * @param duplicateThreshold max differing hash bits (of 64) for a frame to count as unchanged
+     * @param maxStaleMs         an unchanged scene is still re-sent after this long
+     */
+    public FrameUploadScheduler(int duplicateThreshold, long minIntervalMs, long maxIntervalMs, long maxStaleMs) {
+        this.duplicateThreshold = duplicateThreshold;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.maxStaleMs = maxStaleMs;
+        this.currentIntervalMs = minIntervalMs;
+    }
+
+    public synchronized boolean shouldSend(YuvPlanes frame, long nowMs) {
+        if (lastSentAtMs >= 0 && nowMs - lastSentAtMs < currentIntervalMs) {
+            skippedThrottled++;
+            return false;
+        }
+        long hash = differenceHash(frame);
+        if (lastSentAtMs >= 0 && nowMs - lastSentAtMs < maxStaleMs
+                && Long.bitCount(hash ^ lastSentHash) <= duplicateThreshold) {
+            skippedDuplicates++;
+            return false;
+        }
+        lastSentHash = hash;
+        lastSentAtMs = nowMs;
+        sentFrames++;
+        return true;
+    }
+
+    public synchronized void recordRoundTrip(long roundTripMs) {
+        averageRoundTripMs = averageRoundTripMs < 0
+            ? roundTripMs
+            : RTT_ALPHA * roundTripMs + (1 - RTT_ALPHA) * averageRoundTripMs;
+        // Leave headroom so the next upload starts after the previous answer is back
+        long interval = (long) (averageRoundTripMs * 1.5);
+        currentIntervalMs = Math.max(minIntervalMs, Math.min(maxIntervalMs, interval));
+    }
+
+    /**
+     * Hash of the frame last chosen for upload, usable as a cheap frame fingerprint.
+     */
+    public synchronized long getLastSentHash() {
+        return lastSentHash;
+    }
+
+    public synchronized long getCurrentIntervalMs() {
+        return currentIntervalMs;
+    }
+
+    public synchronized long getSentFrames() {
+        return sentFrames;
+    }
+
+    public synchronized long getSkippedDuplicates() {
+        return skippedDuplicates;
+    }
+
+    public synchronized long getSkippedThrottled() {
+        return skippedThrottled;
+    }
+
+    static long differenceHash(YuvPlanes frame) {
+        long hash = 0;
+        for (int row = 0; row < HASH_ROWS; row++) {
+            int centerY = (int) ((row + 0.5f) * frame.height / HASH_ROWS);
+            int previous = blockLuma(frame, (int) (0.5f * frame.width / HASH_COLUMNS), centerY);
+            for (int col = 1; col < HASH_COLUMNS; col++) {
+                int current = blockLuma(frame, (int) ((col + 0.5f) * frame.width / HASH_COLUMNS), centerY);
+                hash = (hash << 1) | (current > previous ? 1 : 0);
+                previous = current;
+            }
+        }
+        return hash;
+    }
+
+    // Averages a small block instead of reading one pixel, so sensor noise does not flip bits
+    private static int blockLuma(YuvPlanes frame, int centerX, int centerY) {
+        ByteBuffer y = frame.y;
+        int base = y.position();
+        int left = Math.max(0, centerX - BLOCK_RADIUS);
+        int right = Math.min(frame.width, centerX + BLOCK_RADIUS);
+        int top = Math.max(0, centerY - BLOCK_RADIUS);
+        int bottom = Math.min(frame.height, centerY + BLOCK_RADIUS);
+        int sum = 0;
+        for (int row = top; row < bottom; row++) {
+            int rowStart = base + row * frame.yRowStride;
+            for (int col = left; col < right; col++) {
+                sum += y.get(rowStart + col) & 0xFF;
+            }
+        }
+        int count = (right - left) * (bottom - top);
+        return count == 0 ? 0 : sum / count;
+    }
+}
@@ -0,0 +1,47 @@
+package com.medobsmind.app;
+
+/**
+ * An image attached to a chat message: the name of its JPEG in the attachment directory and
+ * its size in pixels, so a thumbnail slot can be laid out before the image is decoded. The
+ * JPEG is already downscaled to the size it is uploaded at.
+ */
+public final class ImageAttachment {
+    private final String fileName;
+    private final int width;
+    private final int height;
+
+    public ImageAttachment(String fileName, int width, int height) {
+        this.fileName = fileName;
+        this.width = width;
+        this.height = height;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ImageAttachment)) {
+            return false;
+        }
+        ImageAttachment other = (ImageAttachment) o;
+        return fileName.equals(other.fileName) && width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return fileName.hashCode();
+    }
+}
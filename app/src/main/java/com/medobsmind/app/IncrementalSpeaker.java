@@ -0,0 +1,129 @@
+package com.medobsmind.app;
+
+import android.os.SystemClock;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.util.Log;
+
+/**
+ * Speaks a streamed answer sentence by sentence. Each completed sentence is queued with
+ * {@link TextToSpeech#QUEUE_ADD} under its own utterance id, so audio starts on the first
+ * sentence. {@link #cancel()} stops playback at once when the user starts talking.
+ * Call {@link #append}, {@link #finish} and {@link #cancel} from the main thread.
+ */
+public class IncrementalSpeaker {
+    private static final String TAG = "IncrementalSpeaker";
+    private static final String UTTERANCE_PREFIX = "medobsmind-";
+    // Very short fragments sound choppy when spoken on their own
+    private static final int MIN_CHUNK_CHARS = 24;
+
+    private final TextToSpeech textToSpeech;
+    private final SentenceChunker chunker = new SentenceChunker(MIN_CHUNK_CHARS);
+    // Utterance ids carry the answer number so callbacks from a cancelled answer are ignored
+    private volatile int answerNumber;
+    private int chunkNumber;
+    private long answerStartMs;
+    // Set by a barge-in so the rest of the interrupted answer stays silent
+    private boolean muted;
+    private volatile long lastSpeechStartLatencyMs = -1;
+    private volatile int queuedChunks;
+    private volatile int spokenChunks;
+
+    public IncrementalSpeaker(TextToSpeech textToSpeech) {
+        this.textToSpeech = textToSpeech;
+        textToSpeech.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+                if (isCurrent(utteranceId) && utteranceId.endsWith("-0")) {
+                    lastSpeechStartLatencyMs = SystemClock.elapsedRealtime() - answerStartMs;
+                    MetricsRegistry.get().recordMillis(MetricsRegistry.Stage.CHAT_TTS_START, lastSpeechStartLatencyMs);
+                }
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+                if (isCurrent(utteranceId)) {
+                    spokenChunks++;
+                }
+            }
+
+            @SuppressWarnings("deprecation")
+            @Override
+            public void onError(String utteranceId) {
+                // Still abstract; the framework calls the overload with an error code instead
+                onError(utteranceId, TextToSpeech.ERROR);
+            }
+
+            @Override
+            public void onError(String utteranceId, int errorCode) {
+                if (isCurrent(utteranceId)) {
+                    // A failed sentence is skipped, so it counts as spoken
+                    spokenChunks++;
+                    Log.w(TAG, "Utterance " + utteranceId + " failed with error " + errorCode);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts a new answer, cutting off anything still being spoken.
+     */
+    public void begin() {
+        cancel();
+        muted = false;
+        answerStartMs = SystemClock.elapsedRealtime();
+    }
+
+    public void append(String text) {
+        if (muted) {
+            return;
+        }
+        for (String sentence : chunker.append(text)) {
+            speak(sentence);
+        }
+    }
+
+    public void finish() {
+        if (muted) {
+            return;
+        }
+        String rest = chunker.flush();
+        if (rest != null) {
+            speak(rest);
+        }
+    }
+
+    /**
+     * Barge-in: drops queued sentences and stops the one being spoken.
+     */
+    public void cancel() {
+        answerNumber++;
+        muted = true;
+        chunkNumber = 0;
+        queuedChunks = 0;
+        spokenChunks = 0;
+        chunker.reset();
+        textToSpeech.stop();
+    }
+
+    public boolean isSpeaking() {
+        return spokenChunks < queuedChunks;
+    }
+
+    /**
+     * Time from the start of the last answer to its first audio, or -1 if none has played yet.
+     */
+    public long getLastSpeechStartLatencyMs() {
+        return lastSpeechStartLatencyMs;
+    }
+
+    private void speak(String sentence) {
+        String utteranceId = UTTERANCE_PREFIX + answerNumber + "-" + chunkNumber++;
+        textToSpeech.speak(sentence, TextToSpeech.QUEUE_ADD, null, utteranceId);
+        queuedChunks++;
+    }
+
+    private boolean isCurrent(String utteranceId) {
+        return utteranceId != null && utteranceId.startsWith(UTTERANCE_PREFIX + answerNumber + "-");
+    }
+}
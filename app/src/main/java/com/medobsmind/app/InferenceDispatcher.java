@@ -0,0 +1,120 @@
+package com.medobsmind.app;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs LLMM requests on a small worker pool with a bounded queue so nothing touches the UI thread.
+ * Each channel (for example the chat) has at most one live request: submitting a new one
+ * cancels the request it supersedes. When the queue is full, submit throws
+ * {@link RejectedExecutionException} so callers can push back instead of piling up work.
+ */
+public class InferenceDispatcher {
+    public static final String CHANNEL_CHAT = "chat";
+    public static final String CHANNEL_PREFETCH = "prefetch";
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, InFlight> inFlight = new HashMap<>();
+
+    private static final class InFlight {
+        final String key;
+        final Future<?> future;
+
+        InFlight(String key, Future<?> future) {
+            this.key = key;
+            this.future = future;
+        }
+    }
+
+    public InferenceDispatcher(int workerCount, int queueCapacity) {
+        executor = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), new WorkerThreadFactory(),
+            new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public synchronized <T> Future<T> submit(String channel, String key, Callable<T> task) {
+        InFlight previous = inFlight.get(channel);
+        if (previous != null && !previous.future.isDone()) {
+            previous.future.cancel(true);
+            // Drop the cancelled task from the queue right away so it frees its slot
+            executor.purge();
+        }
+        Future<T> future = executor.submit(task);
+        inFlight.put(channel, new InFlight(key, future));
+        return future;
+    }
+
+    /**
+     * Returns true while a request with the same key is still running on the channel, so a
+     * rapid duplicate send can be coalesced into it instead of starting another one.
+     */
+    public synchronized boolean isInFlight(String channel, String key) {
+        InFlight current = inFlight.get(channel);
+        return current != null && !current.future.isDone() && current.key.equals(key);
+    }
+
+    public synchronized void cancel(String channel) {
+        InFlight current = inFlight.remove(channel);
+        if (current != null) {
+            current.future.cancel(true);
+            executor.purge();
+        }
+    }
+
+    /**
+     * Moves the request running on {@code from} to {@code to}, cancelling the one {@code to}
+     * held, so that a prefetched answer the user adopted is only superseded as a chat answer
+     * would be, not by the next prefetch.
+     */
+    public synchronized void transfer(String from, String to) {
+        InFlight moved = inFlight.remove(from);
+        InFlight previous = moved != null ? inFlight.put(to, moved) : inFlight.remove(to);
+        if (previous != null) {
+            previous.future.cancel(true);
+            executor.purge();
+        }
+    }
+
+    public synchronized void cancelAll() {
+        for (InFlight current : inFlight.values()) {
+            current.future.cancel(true);
+        }
+        inFlight.clear();
+        executor.purge();
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public void shutdown() {
+        cancelAll();
+        executor.shutdownNow();
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "llmm-inference-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            // Keep inference below the UI thread so frames are not starved
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
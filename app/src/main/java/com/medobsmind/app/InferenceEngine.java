@@ -0,0 +1,18 @@
+package com.medobsmind.app;
+
+/**
+ * Somewhere a chat request can be answered: the MedObsMind LLMM service or the model on the
+ * device. {@link InferenceRouter} asks each engine before every request.
+ */
+public interface InferenceEngine extends LlmmTransport {
+    /**
+     * Whether a request started now could be answered, e.g. the network is up or the model
+     * file is present.
+     */
+    boolean isAvailable();
+
+    /**
+     * Requests this engine is running or has waiting.
+     */
+    int getPendingCount();
+}
@@ -0,0 +1,83 @@
+package com.medobsmind.app;
+
+import java.io.IOException;
+
+/**
+ * Picks the engine for each chat request. In modes that allow it, short questions are answered
+ * on the device, and so is every request while offline or while the service already has a
+ * backlog; the device's own queue is kept short by sending work to the service once a few
+ * requests are waiting on the CPU. Everything else goes to the MedObsMind LLMM service.
+ *
+ * <p>If the chosen engine fails before its first token, the request is tried once on the
+ * other one, so a dropped connection can still get a local answer and a missing or broken
+ * model file falls back to the service. Runs on the inference worker thread.
+ */
+public class InferenceRouter implements LlmmTransport {
+    public enum Route {
+        LOCAL,
+        REMOTE
+    }
+
+    // About two sentences; longer questions usually need the full model
+    private static final int SHORT_PROMPT_TOKENS = 48;
+
+    private final InferenceEngine remote;
+    private final InferenceEngine local;
+    private final int maxRemotePending;
+    private final int maxLocalPending;
+    private final MetricsRegistry metrics = MetricsRegistry.get();
+
+    /**
+     * @param maxRemotePending service requests in flight before eligible ones stay on the device
+     * @param maxLocalPending device requests running or waiting before eligible ones go remote
+     */
+    public InferenceRouter(InferenceEngine remote, InferenceEngine local, int maxRemotePending, int maxLocalPending) {
+        this.remote = remote;
+        this.local = local;
+        this.maxRemotePending = maxRemotePending;
+        this.maxLocalPending = maxLocalPending;
+    }
+
+    public Route choose(LlmmRequest request) {
+        if (!request.allowsLocalInference() || !local.isAvailable()) {
+            return Route.REMOTE;
+        }
+        if (!remote.isAvailable()) {
+            return Route.LOCAL;
+        }
+        if (local.getPendingCount() >= maxLocalPending) {
+            return Route.REMOTE;
+        }
+        if (PromptAssembler.estimateTokens(request.getPrompt()) <= SHORT_PROMPT_TOKENS
+                || remote.getPendingCount() >= maxRemotePending) {
+            return Route.LOCAL;
+        }
+        return Route.REMOTE;
+    }
+
+    @Override
+    public void stream(LlmmRequest request, TokenSink sink) throws IOException {
+        Route route = choose(request);
+        InferenceEngine first = route == Route.LOCAL ? local : remote;
+        InferenceEngine second = route == Route.LOCAL ? remote : local;
+        metrics.increment(route == Route.LOCAL
+            ? MetricsRegistry.Counter.CHAT_ROUTED_LOCAL
+            : MetricsRegistry.Counter.CHAT_ROUTED_REMOTE);
+        final int[] delivered = {0};
+        try {
+            first.stream(request, token -> {
+                delivered[0]++;
+                sink.onToken(token);
+            });
+        } catch (IOException e) {
+            // A partly streamed answer cannot be continued by the other engine
+            boolean retry = !Thread.currentThread().isInterrupted() && delivered[0] == 0
+                && (second == remote || request.allowsLocalInference() && local.isAvailable());
+            if (!retry) {
+                throw e;
+            }
+            metrics.increment(MetricsRegistry.Counter.CHAT_FALLBACKS);
+            second.stream(request, sink);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.medobsmind.app;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes camera frames to JPEG for upload. The frame is cropped and scaled by
+ * {@link FrameEncoder} into one reused NV21 array (the only input {@link YuvImage} accepts) and
+ * the JPEG is written straight into a pooled direct buffer, so steady-state encoding allocates
+ * no frame-sized memory. Not thread-safe: use one encoder per thread.
+ */
+public class JpegFrameEncoder {
+    private static final int POOLED_BUFFERS = 3;
+
+    private final FrameEncoder frameEncoder;
+    private final byte[] nv21;
+    private final ByteBuffer nv21Buffer;
+    private final BufferPool jpegPool;
+    private final BufferOutputStream jpegStream = new BufferOutputStream();
+    private final Rect bounds;
+    private final int quality;
+
+    public JpegFrameEncoder(int targetWidth, int targetHeight, int quality) {
+        this.frameEncoder = new FrameEncoder(targetWidth, targetHeight, 0);
+        this.nv21 = new byte[YuvFrame.sizeOf(targetWidth, targetHeight)];
+        this.nv21Buffer = ByteBuffer.wrap(nv21);
+        // A JPEG never comes close to the size of the raw RGB frame
+        this.jpegPool = new BufferPool(targetWidth * targetHeight * 3, POOLED_BUFFERS);
+        this.bounds = new Rect(0, 0, targetWidth, targetHeight);
+        this.quality = quality;
+    }
+
+    public static YuvPlanes planesOf(Image image, YuvPlanes reuse) {
+        Image.Plane[] planes = image.getPlanes();
+        return reuse.set(image.getWidth(), image.getHeight(),
+            planes[0].getBuffer(), planes[0].getRowStride(),
+            planes[1].getBuffer(), planes[2].getBuffer(),
+            planes[1].getRowStride(), planes[1].getPixelStride());
+    }
+
+    public FrameEncoder getFrameEncoder() {
+        return frameEncoder;
+    }
+
+    /**
+     * Returns a pooled buffer holding the JPEG bytes; hand it back with {@link #release}.
+     */
+    public ByteBuffer encode(YuvPlanes src) {
+        nv21Buffer.clear();
+        frameEncoder.encodeNv21(src, nv21Buffer);
+        ByteBuffer jpeg = jpegPool.acquire();
+        jpegStream.target = jpeg;
+        new YuvImage(nv21, ImageFormat.NV21, bounds.width(), bounds.height(), null)
+            .compressToJpeg(bounds, quality, jpegStream);
+        jpegStream.target = null;
+        jpeg.flip();
+        return jpeg;
+    }
+
+    public void release(ByteBuffer jpeg) {
+        jpegPool.release(jpeg);
+    }
+
+    private static final class BufferOutputStream extends OutputStream {
+        ByteBuffer target;
+
+        @Override
+        public void write(int b) {
+            target.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            target.put(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.medobsmind.app;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * The one HTTP client for the MedObsMind LLMM API, shared by chat and video so both reuse
+ * the same warm connection pool. Over TLS the client negotiates HTTP/2, which multiplexes
+ * chat streams and frame uploads to the same host on a single connection. JSON bodies
+ * above a small threshold are gzip-compressed.
+ */
+public final class LlmmApiClient {
+    static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    static final MediaType JPEG = MediaType.get("image/jpeg");
+    static final MediaType WIRE = MediaType.get(WireFormat.CONTENT_TYPE);
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    // An idle HTTP/2 connection is cheap to keep; reconnecting costs a TLS handshake
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final long PING_INTERVAL_SECONDS = 30;
+    // Compressing tiny bodies costs more than it saves
+    private static final int GZIP_MIN_BYTES = 1024;
+    private static final int FRAME_FLIGHT_STRIPES = 8;
+    // Lists the request media types a server accepts in reply to the pre-connect probe
+    private static final String ACCEPT_POST = "Accept-Post";
+
+    private static LlmmApiClient instance;
+
+    private final String endpoint;
+    private final boolean binaryWire;
+    // Set once the server has advertised the binary wire format
+    private volatile boolean binaryNegotiated;
+    private final OkHttpClient client;
+    private final AtomicInteger callCount = new AtomicInteger();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    // Process-wide, so an upload from a session being torn down is shared with its successor
+    private final SingleFlight<String> frameFlights = new SingleFlight<>(FRAME_FLIGHT_STRIPES,
+        MetricsRegistry.Counter.VIDEO_COALESCED);
+
+    // Package-private so the JVM benchmark can point a client at its mock server
+    LlmmApiClient(String endpoint, boolean binaryWire) {
+        this(endpoint, binaryWire, false);
+    }
+
+    /**
+     * With {@code priorKnowledge} the client speaks HTTP/2 over cleartext without negotiating it
+     * (h2c), as the benchmark's mock server and the test stubs do; only a server known to accept
+     * that may be given it.
+     */
+    LlmmApiClient(String endpoint, boolean binaryWire, boolean priorKnowledge) {
+        this.endpoint = endpoint;
+        this.binaryWire = binaryWire;
+        this.client = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .protocols(priorKnowledge ? Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE)
+                : Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            // Keeps the idle connection alive through ward NATs between turns
+            .pingInterval(PING_INTERVAL_SECONDS, TimeUnit.SECONDS)
+            .addInterceptor(new GzipRequestInterceptor())
+            .eventListener(new EventListener() {
+                @Override
+                public void callStart(Call call) {
+                    callCount.incrementAndGet();
+                }
+
+                @Override
+                public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+                    connectionCount.incrementAndGet();
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Returns the shared client for the configured endpoint, or null when none is set and the
+     * app runs on simulated responses.
+     */
+    public static synchronized LlmmApiClient get(Context context) {
+        if (instance == null) {
+            String endpoint = context.getString(R.string.llmm_endpoint);
+            if (endpoint.isEmpty()) {
+                return null;
+            }
+            instance = new LlmmApiClient(endpoint, context.getResources().getBoolean(R.bool.llmm_binary_wire));
+        }
+        return instance;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Whether the API speaks the {@link WireFormat} binary envelopes rather than JSON: because
+     * {@code llmm_binary_wire} is set, or because the server listed the format in
+     * {@code Accept-Post} when answering {@link #preconnect()}.
+     */
+    public boolean isBinaryWire() {
+        return binaryWire || binaryNegotiated;
+    }
+
+    /**
+     * A client sharing this one's pool and interceptors but with its own read timeout, for
+     * calls whose performance mode allows slower generation.
+     */
+    public OkHttpClient withReadTimeout(int readTimeoutMs) {
+        return client.newBuilder().readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * Opens (DNS, TCP, TLS and HTTP/2 set-up) a pooled connection to the API host in the
+     * background, so the first real request skips the handshake. The response also tells
+     * whether the server accepts the binary wire format.
+     */
+    public void preconnect() {
+        HttpUrl url = HttpUrl.parse(endpoint);
+        if (url == null) {
+            return;
+        }
+        Request request = new Request.Builder()
+            .url(url.newBuilder().encodedPath("/").query(null).build())
+            .head()
+            .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // Offline: the first real request connects, or the outbox queues it
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (acceptsWireFormat(response.header(ACCEPT_POST))) {
+                    binaryNegotiated = true;
+                }
+                // It returns the connection to the pool
+                response.close();
+            }
+        });
+    }
+
+    /**
+     * Posts one encoded video frame to {@code url} and returns the interpretation text.
+     * Runs on the calling thread; {@code jpeg} is read between its position and limit and
+     * left unchanged, so a pooled buffer can be released afterwards. With the binary wire
+     * format the frame travels in a {@link WireFormat#TYPE_FRAME} envelope with its size and
+     * timestamp; otherwise as a bare JPEG.
+     */
+    public String postFrame(String url, final ByteBuffer jpeg, final PerformanceProfile profile,
+                            final int width, final int height, final long timestampNs) throws IOException {
+        final long startNanos = System.nanoTime();
+        final long[] bodySentNanos = {0};
+        // Read once, so a negotiation finishing mid-call cannot change the body's type
+        final boolean binary = isBinaryWire();
+        RequestBody body = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return binary ? WIRE : JPEG;
+            }
+
+            @Override
+            public long contentLength() {
+                return binary ? -1 : jpeg.remaining();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                if (binary) {
+                    WireEncoder encoder = new WireEncoder(sink.outputStream());
+                    encoder.writeFrame(profile, width, height, timestampNs, jpeg);
+                    encoder.flush();
+                } else {
+                    // A duplicate per attempt, so a retried request sends the whole frame again
+                    sink.write(jpeg.duplicate());
+                }
+                bodySentNanos[0] = System.nanoTime();
+            }
+        };
+        Request request = new Request.Builder()
+            .url(url)
+            .header("X-Performance-Mode", profile.getDisplayName())
+            .post(body)
+            .build();
+        String interpretation;
+        try (Response response = withReadTimeout(profile.getTimeoutMs()).newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new LlmmHttpException(response.code());
+            }
+            interpretation = response.body() != null ? response.body().string() : "";
+        }
+        // Upload covers connecting and writing the frame; response is the server's turnaround
+        MetricsRegistry metrics = MetricsRegistry.get();
+        metrics.recordNanos(MetricsRegistry.Stage.VIDEO_UPLOAD, bodySentNanos[0] - startNanos);
+        metrics.recordNanos(MetricsRegistry.Stage.VIDEO_RESPONSE, System.nanoTime() - bodySentNanos[0]);
+        return interpretation;
+    }
+
+    /**
+     * Like {@link #postFrame(String, ByteBuffer, PerformanceProfile, int, int, long)}, but a
+     * frame whose {@code frameHash} matches one still being uploaded at the same size and mode
+     * is not sent: the caller waits for that upload and gets its interpretation.
+     */
+    public String postFrame(final String url, final ByteBuffer jpeg, final PerformanceProfile profile,
+                            final int width, final int height, final long timestampNs, long frameHash)
+            throws IOException {
+        String key = url + '\u0000' + profile.getDisplayName() + '\u0000' + width + 'x' + height
+            + '\u0000' + Long.toHexString(frameHash);
+        StringBuilder interpretation = new StringBuilder();
+        frameFlights.execute(key, interpretation::append,
+            sink -> sink.onToken(postFrame(url, jpeg, profile, width, height, timestampNs)));
+        return interpretation.toString();
+    }
+
+    static boolean acceptsWireFormat(String acceptPost) {
+        if (acceptPost == null) {
+            return false;
+        }
+        for (String type : acceptPost.split(",")) {
+            MediaType mediaType = MediaType.parse(type.trim());
+            if (mediaType != null && WIRE.type().equals(mediaType.type())
+                    && WIRE.subtype().equals(mediaType.subtype())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getCallCount() {
+        return callCount.get();
+    }
+
+    /**
+     * New connections opened so far; far below {@link #getCallCount()} when pooling and
+     * multiplexing work.
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public int getIdleConnectionCount() {
+        return client.connectionPool().idleConnectionCount();
+    }
+
+    /**
+     * Gzips JSON request bodies; images are already compressed and are sent as they are.
+     */
+    static final class GzipRequestInterceptor implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request original = chain.request();
+            RequestBody body = original.body();
+            if (body == null || original.header("Content-Encoding") != null
+                    || !JSON.equals(body.contentType()) || body.contentLength() < GZIP_MIN_BYTES) {
+                return chain.proceed(original);
+            }
+            return chain.proceed(original.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(original.method(), gzip(body))
+                .build());
+        }
+
+        private static RequestBody gzip(final RequestBody body) {
+            return new RequestBody() {
+                @Override
+                public MediaType contentType() {
+                    return body.contentType();
+                }
+
+                @Override
+                public long contentLength() {
+                    // Unknown until compressed, so the body is sent chunked / as HTTP/2 data frames
+                    return -1;
+                }
+
+                @Override
+                public void writeTo(BufferedSink sink) throws IOException {
+                    BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+                    body.writeTo(gzipSink);
+                    gzipSink.close();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.medobsmind.app;
+
+import java.io.IOException;
+
+/**
+ * The LLMM API answered with an HTTP status other than 200. {@link #isRetryable()} separates a
+ * server that may answer later from one that will keep refusing the same request.
+ */
+public class LlmmHttpException extends IOException {
+    private final int statusCode;
+
+    public LlmmHttpException(int statusCode) {
+        super("LLMM API returned HTTP " + statusCode);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * True for a timeout, rate limiting or a server error; false for other client errors.
+     */
+    public boolean isRetryable() {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+}
@@ -0,0 +1,169 @@
+package com.medobsmind.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import okio.ByteString;
+
+public class LlmmRequest {
+    private final String prompt;
+    private final String context;
+    private final String systemPrompt;
+    private final String performanceMode;
+    private final int maxTokens;
+    private final boolean streaming;
+    private final int timeoutMs;
+    private final long cacheTtlMs;
+    private final boolean localInference;
+    private final String imagePath;
+
+    public LlmmRequest(String prompt, String context, String systemPrompt, PerformanceProfile profile) {
+        this(prompt, context, systemPrompt, profile, null);
+    }
+
+    /**
+     * @param imagePath a JPEG already downscaled to the profile's upload size, or null
+     */
+    public LlmmRequest(String prompt, String context, String systemPrompt, PerformanceProfile profile,
+                       String imagePath) {
+        this.prompt = prompt;
+        this.context = context;
+        this.systemPrompt = systemPrompt;
+        this.performanceMode = profile.getDisplayName();
+        this.maxTokens = profile.getMaxTokens();
+        this.streaming = profile.isStreaming();
+        this.timeoutMs = profile.getTimeoutMs();
+        this.cacheTtlMs = profile.getCachePolicy().getTtlMs();
+        // The on-device model reads text only
+        this.localInference = profile.allowsLocalInference() && imagePath == null;
+        this.imagePath = imagePath;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    public String getSystemPrompt() {
+        return systemPrompt;
+    }
+
+    public String getPerformanceMode() {
+        return performanceMode;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public long getCacheTtlMs() {
+        return cacheTtlMs;
+    }
+
+    public boolean allowsLocalInference() {
+        return localInference;
+    }
+
+    /**
+     * Path of the attached JPEG, or null.
+     */
+    public String getImagePath() {
+        return imagePath;
+    }
+
+    /**
+     * Reads the attached JPEG, or returns null if there is none. The file is only read when
+     * the request is sent, so queued requests do not hold image bytes in memory.
+     *
+     * @throws AttachmentException if the file is gone, unreadable or shorter than it was
+     */
+    public byte[] readImage() throws AttachmentException {
+        if (imagePath == null) {
+            return null;
+        }
+        File file = new File(imagePath);
+        byte[] bytes = new byte[(int) file.length()];
+        int offset = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+        } catch (IOException e) {
+            throw new AttachmentException("Could not read attachment " + imagePath, e);
+        }
+        if (offset < bytes.length) {
+            throw new AttachmentException("Truncated attachment " + imagePath, null);
+        }
+        return bytes;
+    }
+
+    public String toJson() {
+        return toJson(null);
+    }
+
+    /**
+     * @param imageJpeg the attached image from {@link #readImage()}, sent base64-encoded, or null
+     */
+    public String toJson(byte[] imageJpeg) {
+        return "{\"prompt\":" + quote(prompt) +
+            ",\"context\":" + quote(context) +
+            ",\"system_prompt\":" + quote(systemPrompt) +
+            ",\"performance_mode\":" + quote(performanceMode) +
+            ",\"max_tokens\":" + maxTokens +
+            ",\"stream\":" + streaming +
+            (imageJpeg != null ? ",\"image_jpeg\":\"" + ByteString.of(imageJpeg).base64() + '"' : "") + "}";
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package com.medobsmind.app;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a {@link LlmmTransport} on the {@link InferenceDispatcher} and hands each token to a
+ * {@link Listener} on the callback executor (the main thread in the activities). Callbacks
+ * stop as soon as the returned {@link Future} is cancelled.
+ */
+public class LlmmStreamingClient {
+    public interface Listener {
+        void onToken(String token);
+
+        void onComplete(String fullText);
+
+        void onError(Exception e);
+    }
+
+    // Few requests are ever in flight at once, so a handful of stripes keeps contention at zero
+    private static final int FLIGHT_STRIPES = 8;
+
+    private final LlmmTransport transport;
+    private final InferenceDispatcher dispatcher;
+    private final Executor callbackExecutor;
+    private final ResponseCache responseCache;
+    private final StreamMetrics metrics = new StreamMetrics();
+    private final SingleFlight<String> flights = new SingleFlight<>(FLIGHT_STRIPES,
+        MetricsRegistry.Counter.CHAT_COALESCED);
+
+    public LlmmStreamingClient(LlmmTransport transport, InferenceDispatcher dispatcher, Executor callbackExecutor,
+                               ResponseCache responseCache) {
+        this.transport = transport;
+        this.dispatcher = dispatcher;
+        this.callbackExecutor = callbackExecutor;
+        this.responseCache = responseCache;
+    }
+
+    public StreamMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Fingerprint of everything that shapes the answer; requests with equal keys get the same one.
+     */
+    public static String requestKey(LlmmRequest request) {
+        return request.getPerformanceMode() + '\u0000' + request.getSystemPrompt() + '\u0000'
+            + request.getContext() + '\u0000' + request.getPrompt() + '\u0000' + request.getImagePath();
+    }
+
+    /**
+     * Backend calls saved by identical requests joining one already in flight.
+     */
+    public long getCoalescedCount() {
+        return flights.getSavedCount();
+    }
+
+    /**
+     * Streams {@code request} on {@code channel}. Answers to {@link InferenceDispatcher#CHANNEL_PREFETCH}
+     * requests may be served from the cache but are never stored in it, as they answer a partial
+     * transcript the user may never send.
+     */
+    public Future<?> stream(String channel, LlmmRequest request, Listener listener) {
+        StreamCall call = new StreamCall(request, listener, !InferenceDispatcher.CHANNEL_PREFETCH.equals(channel));
+        call.future = dispatcher.submit(channel, requestKey(request), call);
+        return call.future;
+    }
+
+    private final class StreamCall implements Callable<Void> {
+        private final LlmmRequest request;
+        private final Listener listener;
+        private final boolean storeAnswer;
+        volatile Future<?> future;
+
+        StreamCall(LlmmRequest request, Listener listener, boolean storeAnswer) {
+            this.request = request;
+            this.listener = listener;
+            this.storeAnswer = storeAnswer;
+        }
+
+        @Override
+        public Void call() {
+            final long startNanos = System.nanoTime();
+            final long[] firstTokenNanos = {0};
+            final int[] tokenCount = {0};
+            final StringBuilder fullText = new StringBuilder();
+            String cacheKey = null;
+            if (responseCache != null && request.getCacheTtlMs() > 0) {
+                cacheKey = ResponseCache.key(request);
+                String cached = responseCache.get(cacheKey);
+                if (cached != null) {
+                    // Repeated questions are answered from the cache in one piece, even offline
+                    deliver(() -> listener.onToken(cached));
+                    deliver(() -> listener.onComplete(cached));
+                    return null;
+                }
+            }
+            try {
+                // An identical request already streaming is joined rather than sent again
+                flights.execute(requestKey(request), token -> {
+                    if (tokenCount[0]++ == 0) {
+                        firstTokenNanos[0] = System.nanoTime();
+                        metrics.recordFirstToken((firstTokenNanos[0] - startNanos) / 1_000_000);
+                    }
+                    fullText.append(token);
+                    if (request.isStreaming()) {
+                        deliver(() -> listener.onToken(token));
+                    }
+                }, sink -> transport.stream(request, sink));
+                MetricsRegistry.get().recordNanos(MetricsRegistry.Stage.CHAT_NETWORK, System.nanoTime() - startNanos);
+                if (tokenCount[0] > 0) {
+                    metrics.recordCompletion(tokenCount[0], (System.nanoTime() - firstTokenNanos[0]) / 1_000_000);
+                }
+                String result = fullText.toString();
+                if (cacheKey != null && storeAnswer && !Thread.currentThread().isInterrupted()) {
+                    responseCache.recordMissLatency((System.nanoTime() - startNanos) / 1_000_000);
+                    responseCache.put(cacheKey, result, request.getCacheTtlMs());
+                }
+                if (!request.isStreaming() && !result.isEmpty()) {
+                    // Non-streaming modes show the answer in one piece once it is complete
+                    deliver(() -> listener.onToken(result));
+                }
+                deliver(() -> listener.onComplete(result));
+            } catch (Exception e) {
+                deliver(() -> listener.onError(e));
+            }
+            return null;
+        }
+
+        private void deliver(Runnable callback) {
+            if (isCancelled()) {
+                return;
+            }
+            callbackExecutor.execute(() -> {
+                // Re-check on the callback thread: the request may have been superseded meanwhile
+                if (!isCancelled()) {
+                    callback.run();
+                }
+            });
+        }
+
+        private boolean isCancelled() {
+            Future<?> current = future;
+            return Thread.currentThread().isInterrupted() || (current != null && current.isCancelled());
+        }
+    }
+}
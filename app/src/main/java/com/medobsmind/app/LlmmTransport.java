@@ -0,0 +1,15 @@
+package com.medobsmind.app;
+
+import java.io.IOException;
+
+/**
+ * Delivers a streamed MedObsMind LLMM response token by token. Implementations block the
+ * calling thread until the stream ends and must stop early once the thread is interrupted.
+ */
+public interface LlmmTransport {
+    void stream(LlmmRequest request, TokenSink sink) throws IOException;
+
+    interface TokenSink {
+        void onToken(String token);
+    }
+}
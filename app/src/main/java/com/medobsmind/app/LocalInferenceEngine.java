@@ -0,0 +1,169 @@
+package com.medobsmind.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Answers on the device with a {@link LocalModel} on the CPU. Meant for short questions in the
+ * fast modes and for when there is no network: the prompt is cut to the question and the end
+ * of the conversation, and answers are capped, so the reply starts well within a second and
+ * finishes in about one. One generation runs at a time; others wait their turn.
+ *
+ * <p>The model and tokenizer files are provisioned separately (they are not in the APK). The
+ * engine reports itself unavailable until both exist, and for good if they fail to load.
+ */
+public class LocalInferenceEngine implements InferenceEngine {
+    // Prefill costs one forward pass per prompt token, so the prompt is kept short
+    private static final int MAX_CONTEXT_CHARS = 400;
+    private static final int MAX_PROMPT_TOKENS = 128;
+    private static final int MAX_ANSWER_TOKENS = 64;
+    private static final float TEMPERATURE = 0.7f;
+    private static final float TOP_P = 0.9f;
+    // The model starts writing the next question once its answer is done
+    private static final String STOP_SEQUENCE = "\nUser:";
+
+    private final File modelFile;
+    private final File tokenizerFile;
+    private final ReentrantLock generationLock = new ReentrantLock();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Random random = new Random();
+    private volatile boolean loadFailed = false;
+    private LocalModel model;
+    private LocalTokenizer tokenizer;
+
+    public LocalInferenceEngine(File modelFile, File tokenizerFile) {
+        this.modelFile = modelFile;
+        this.tokenizerFile = tokenizerFile;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !loadFailed && modelFile.isFile() && tokenizerFile.isFile();
+    }
+
+    @Override
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    @Override
+    public void stream(LlmmRequest request, TokenSink sink) throws IOException {
+        pending.incrementAndGet();
+        try {
+            try {
+                generationLock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Local generation cancelled");
+            }
+            try {
+                generate(request, sink);
+            } finally {
+                generationLock.unlock();
+            }
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    private void generate(LlmmRequest request, TokenSink sink) throws IOException {
+        load();
+        int seqLen = model.getSeqLen();
+        int maxAnswerTokens = Math.min(Math.min(request.getMaxTokens(), MAX_ANSWER_TOKENS), seqLen / 2);
+        int[] prompt = tokenizer.encode(promptText(request));
+        int promptLength = Math.min(prompt.length, Math.min(MAX_PROMPT_TOKENS, seqLen - maxAnswerTokens));
+        // Keep BOS and the end of the prompt, where the question is
+        int skipped = prompt.length - promptLength;
+        float[] logits = null;
+        int pos = 0;
+        for (int i = 0; i < prompt.length; i++) {
+            if (i > 0 && i <= skipped) {
+                continue;
+            }
+            checkCancelled();
+            logits = model.forward(prompt[i], pos++);
+        }
+
+        StringBuilder bytes = new StringBuilder();
+        StringBuilder answer = new StringBuilder();
+        int emitted = 0;
+        int previous = prompt[prompt.length - 1];
+        for (int generated = 0; generated < maxAnswerTokens && pos < seqLen; generated++) {
+            int next = model.sample(logits, TEMPERATURE, TOP_P, random);
+            if (next == LocalTokenizer.EOS || next == LocalTokenizer.BOS) {
+                break;
+            }
+            tokenizer.appendBytes(previous, next, bytes);
+            String text = LocalTokenizer.takeText(bytes);
+            // The prompt ends at "MedObsMind:", so the answer's first piece starts with a space
+            answer.append(answer.length() == 0 ? text.replaceFirst("^\\s+", "") : text);
+            int stop = answer.indexOf(STOP_SEQUENCE, Math.max(0, emitted - STOP_SEQUENCE.length()));
+            if (stop >= 0) {
+                emit(answer, emitted, stop, sink);
+                return;
+            }
+            // Hold back anything that could be the start of the stop sequence
+            emitted = emit(answer, emitted, answer.length() - heldBack(answer), sink);
+            previous = next;
+            checkCancelled();
+            logits = model.forward(next, pos++);
+        }
+        emit(answer, emitted, answer.length(), sink);
+    }
+
+    private synchronized void load() throws IOException {
+        if (model != null) {
+            return;
+        }
+        try {
+            LocalModel loaded = new LocalModel(modelFile);
+            tokenizer = new LocalTokenizer(tokenizerFile, loaded.getVocabSize());
+            model = loaded;
+        } catch (IOException | RuntimeException e) {
+            // A bad file will not get better; route everything remotely from now on
+            loadFailed = true;
+            throw e instanceof IOException ? (IOException) e : new IOException("Local model failed to load", e);
+        }
+    }
+
+    private static String promptText(LlmmRequest request) {
+        StringBuilder text = new StringBuilder();
+        String context = request.getContext();
+        if (context != null && !context.isEmpty()) {
+            text.append(context, Math.max(0, context.length() - MAX_CONTEXT_CHARS), context.length());
+            if (text.charAt(text.length() - 1) != '\n') {
+                text.append('\n');
+            }
+        }
+        return text.append("User: ").append(request.getPrompt()).append("\nMedObsMind:").toString();
+    }
+
+    private static int emit(StringBuilder answer, int from, int to, TokenSink sink) {
+        if (to > from) {
+            sink.onToken(answer.substring(from, to));
+            return to;
+        }
+        return from;
+    }
+
+    // Length of the longest end of the answer that the stop sequence starts with
+    private static int heldBack(StringBuilder answer) {
+        for (int length = Math.min(STOP_SEQUENCE.length() - 1, answer.length()); length > 0; length--) {
+            int start = answer.length() - length;
+            if (answer.indexOf(STOP_SEQUENCE.substring(0, length), start) == start) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    private static void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Local generation cancelled");
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.medobsmind.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Pure-Java CPU runtime for a small Llama-architecture model in the llama2.c int8 export
+ * format (version 2): RMS norms in float, every matrix quantised to int8 in groups with one
+ * float scale per group. The weights file is memory-mapped, so opening it costs milliseconds
+ * and only the pages being read are resident; the key/value cache and activations are
+ * allocated once. Not thread-safe: {@link LocalInferenceEngine} runs one generation at a time.
+ */
+public class LocalModel {
+    private static final int MAGIC = 0x616b3432; // "ak42"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 256;
+    // Smaller matrices finish faster on one core than it takes to hand rows to other threads
+    private static final long PARALLEL_MIN_WEIGHTS = 256 * 1024;
+    private static final int ROWS_PER_TASK = 64;
+
+    /**
+     * One quantised matrix in the mapped file: the int8 weights, then a float scale per group.
+     */
+    private static final class QuantizedTensor {
+        final int values;
+        final int scales;
+
+        QuantizedTensor(int values, int scales) {
+            this.values = values;
+            this.scales = scales;
+        }
+    }
+
+    private final ByteBuffer weights;
+    private final int dim;
+    private final int hiddenDim;
+    private final int layers;
+    private final int heads;
+    private final int vocabSize;
+    private final int seqLen;
+    private final int groupSize;
+    private final int headSize;
+    private final int kvDim;
+    private final int kvMul;
+
+    private final int rmsAttOffset;
+    private final int rmsFfnOffset;
+    private final int rmsFinalOffset;
+    private final QuantizedTensor tokenEmbedding;
+    private final QuantizedTensor[] wq;
+    private final QuantizedTensor[] wk;
+    private final QuantizedTensor[] wv;
+    private final QuantizedTensor[] wo;
+    private final QuantizedTensor[] w1;
+    private final QuantizedTensor[] w2;
+    private final QuantizedTensor[] w3;
+    private final QuantizedTensor wcls;
+
+    // Activations, reused for every token
+    private final float[] x;
+    private final float[] xb;
+    private final float[] xb2;
+    private final float[] hb;
+    private final float[] hb2;
+    private final float[] q;
+    private final float[] k;
+    private final float[] v;
+    private final float[] att;
+    private final float[] logits;
+    private final float[] keyCache;
+    private final float[] valueCache;
+    private final byte[] xq;
+    private final float[] xqScales;
+    private final byte[] hq;
+    private final float[] hqScales;
+    private final long[] sampleKeys;
+    private final byte[] rowScratch;
+
+    public LocalModel(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            weights = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (weights.getInt(0) != MAGIC || weights.getInt(4) != VERSION) {
+            throw new IOException("Not an int8 (version 2) model file: " + file);
+        }
+        dim = weights.getInt(8);
+        hiddenDim = weights.getInt(12);
+        layers = weights.getInt(16);
+        heads = weights.getInt(20);
+        int kvHeads = weights.getInt(24);
+        vocabSize = weights.getInt(28);
+        seqLen = weights.getInt(32);
+        boolean sharedClassifier = weights.get(36) != 0;
+        groupSize = weights.getInt(37);
+        headSize = dim / heads;
+        kvDim = kvHeads * headSize;
+        kvMul = heads / kvHeads;
+        if (dim % groupSize != 0 || hiddenDim % groupSize != 0) {
+            throw new IOException("Group size " + groupSize + " does not divide the model dimensions");
+        }
+
+        int offset = HEADER_BYTES;
+        rmsAttOffset = offset;
+        offset += layers * dim * 4;
+        rmsFfnOffset = offset;
+        offset += layers * dim * 4;
+        rmsFinalOffset = offset;
+        offset += dim * 4;
+        int[] cursor = {offset};
+        tokenEmbedding = nextTensor(cursor, vocabSize * dim);
+        wq = nextTensors(cursor, dim * dim);
+        wk = nextTensors(cursor, dim * kvDim);
+        wv = nextTensors(cursor, dim * kvDim);
+        wo = nextTensors(cursor, dim * dim);
+        w1 = nextTensors(cursor, dim * hiddenDim);
+        w2 = nextTensors(cursor, hiddenDim * dim);
+        w3 = nextTensors(cursor, dim * hiddenDim);
+        wcls = sharedClassifier ? tokenEmbedding : nextTensor(cursor, dim * vocabSize);
+        if (cursor[0] > weights.capacity()) {
+            throw new IOException("Model file is truncated: " + file);
+        }
+
+        x = new float[dim];
+        xb = new float[dim];
+        xb2 = new float[dim];
+        hb = new float[hiddenDim];
+        hb2 = new float[hiddenDim];
+        q = new float[dim];
+        k = new float[kvDim];
+        v = new float[kvDim];
+        att = new float[heads * seqLen];
+        logits = new float[vocabSize];
+        keyCache = new float[layers * seqLen * kvDim];
+        valueCache = new float[layers * seqLen * kvDim];
+        xq = new byte[dim];
+        xqScales = new float[dim / groupSize];
+        hq = new byte[hiddenDim];
+        hqScales = new float[hiddenDim / groupSize];
+        sampleKeys = new long[vocabSize];
+        rowScratch = new byte[Math.max(dim, hiddenDim)];
+    }
+
+    private QuantizedTensor nextTensor(int[] cursor, int size) {
+        QuantizedTensor tensor = new QuantizedTensor(cursor[0], cursor[0] + size);
+        cursor[0] += size + (size / groupSize) * 4;
+        return tensor;
+    }
+
+    private QuantizedTensor[] nextTensors(int[] cursor, int size) {
+        QuantizedTensor[] tensors = new QuantizedTensor[layers];
+        for (int l = 0; l < layers; l++) {
+            tensors[l] = nextTensor(cursor, size);
+        }
+        return tensors;
+    }
+
+    public int getVocabSize() {
+        return vocabSize;
+    }
+
+    public int getSeqLen() {
+        return seqLen;
+    }
+
+    /**
+     * Runs one token at position {@code pos} through the model and returns the logits for the
+     * next one. Positions must be fed in order from 0; the returned array is reused.
+     */
+    public float[] forward(int token, int pos) {
+        // Only the token's own row of the embedding is read and dequantised
+        int rowStart = token * dim;
+        for (int i = 0; i < dim; i++) {
+            x[i] = weights.get(tokenEmbedding.values + rowStart + i)
+                * weights.getFloat(tokenEmbedding.scales + ((rowStart + i) / groupSize) * 4);
+        }
+        for (int l = 0; l < layers; l++) {
+            // Attention: norm, project to q/k/v, rotate, attend over the cache, project back
+            rmsNorm(xb, x, rmsAttOffset + l * dim * 4);
+            quantize(xq, xqScales, xb, dim);
+            matmul(q, xq, xqScales, wq[l], dim, dim);
+            matmul(k, xq, xqScales, wk[l], dim, kvDim);
+            matmul(v, xq, xqScales, wv[l], dim, kvDim);
+            rotate(pos);
+            int layerOffset = l * seqLen * kvDim;
+            System.arraycopy(k, 0, keyCache, layerOffset + pos * kvDim, kvDim);
+            System.arraycopy(v, 0, valueCache, layerOffset + pos * kvDim, kvDim);
+            attend(layerOffset, pos);
+            quantize(xq, xqScales, xb, dim);
+            matmul(xb2, xq, xqScales, wo[l], dim, dim);
+            for (int i = 0; i < dim; i++) {
+                x[i] += xb2[i];
+            }
+
+            // Feed-forward: SwiGLU
+            rmsNorm(xb, x, rmsFfnOffset + l * dim * 4);
+            quantize(xq, xqScales, xb, dim);
+            matmul(hb, xq, xqScales, w1[l], dim, hiddenDim);
+            matmul(hb2, xq, xqScales, w3[l], dim, hiddenDim);
+            for (int i = 0; i < hiddenDim; i++) {
+                float value = hb[i];
+                hb[i] = value / (1f + (float) Math.exp(-value)) * hb2[i];
+            }
+            quantize(hq, hqScales, hb, hiddenDim);
+            matmul(xb, hq, hqScales, w2[l], hiddenDim, dim);
+            for (int i = 0; i < dim; i++) {
+                x[i] += xb[i];
+            }
+        }
+        rmsNorm(x, x, rmsFinalOffset);
+        quantize(xq, xqScales, x, dim);
+        matmul(logits, xq, xqScales, wcls, dim, vocabSize);
+        return logits;
+    }
+
+    private void rmsNorm(float[] out, float[] in, int weightOffset) {
+        float sumOfSquares = 0;
+        for (int i = 0; i < dim; i++) {
+            sumOfSquares += in[i] * in[i];
+        }
+        float scale = (float) (1.0 / Math.sqrt(sumOfSquares / dim + 1e-5f));
+        for (int i = 0; i < dim; i++) {
+            out[i] = weights.getFloat(weightOffset + i * 4) * (scale * in[i]);
+        }
+    }
+
+    private void quantize(byte[] out, float[] outScales, float[] in, int size) {
+        for (int group = 0; group < size / groupSize; group++) {
+            int start = group * groupSize;
+            float max = 0;
+            for (int i = start; i < start + groupSize; i++) {
+                max = Math.max(max, Math.abs(in[i]));
+            }
+            float scale = max / 127f;
+            outScales[group] = scale;
+            float inverse = scale == 0 ? 0 : 1f / scale;
+            for (int i = start; i < start + groupSize; i++) {
+                out[i] = (byte) Math.round(in[i] * inverse);
+            }
+        }
+    }
+
+    // out[i] = sum over j of W[i][j] * in[j], for an n-wide input and d outputs
+    private void matmul(float[] out, byte[] in, float[] inScales, QuantizedTensor w, int n, int d) {
+        if ((long) n * d >= PARALLEL_MIN_WEIGHTS) {
+            int tasks = (d + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+            IntStream.range(0, tasks).parallel().forEach(task -> matmulRows(out, in, inScales, w, n,
+                task * ROWS_PER_TASK, Math.min(d, (task + 1) * ROWS_PER_TASK), new byte[n]));
+        } else {
+            matmulRows(out, in, inScales, w, n, 0, d, rowScratch);
+        }
+    }
+
+    private void matmulRows(float[] out, byte[] in, float[] inScales, QuantizedTensor w, int n,
+                            int firstRow, int endRow, byte[] row) {
+        // Each task reads through its own view; rows are copied out in bulk, which is far
+        // cheaper than reading the mapped file a byte at a time
+        ByteBuffer view = weights.duplicate();
+        view.position(w.values + firstRow * n);
+        int groups = n / groupSize;
+        for (int i = firstRow; i < endRow; i++) {
+            view.get(row, 0, n);
+            int scaleStart = w.scales + i * groups * 4;
+            float sum = 0;
+            for (int group = 0; group < groups; group++) {
+                int groupSum = 0;
+                for (int j = group * groupSize, end = j + groupSize; j < end; j++) {
+                    groupSum += in[j] * row[j];
+                }
+                sum += groupSum * weights.getFloat(scaleStart + group * 4) * inScales[group];
+            }
+            out[i] = sum;
+        }
+    }
+
+    // Rotary position encoding of the query and key heads
+    private void rotate(int pos) {
+        for (int i = 0; i < dim; i += 2) {
+            int headDim = i % headSize;
+            double angle = pos / Math.pow(10000.0, headDim / (double) headSize);
+            float cos = (float) Math.cos(angle);
+            float sin = (float) Math.sin(angle);
+            rotatePair(q, i, cos, sin);
+            if (i < kvDim) {
+                rotatePair(k, i, cos, sin);
+            }
+        }
+    }
+
+    private static void rotatePair(float[] vector, int i, float cos, float sin) {
+        float v0 = vector[i];
+        float v1 = vector[i + 1];
+        vector[i] = v0 * cos - v1 * sin;
+        vector[i + 1] = v0 * sin + v1 * cos;
+    }
+
+    private void attend(int layerOffset, int pos) {
+        float scale = (float) (1.0 / Math.sqrt(headSize));
+        for (int h = 0; h < heads; h++) {
+            int queryStart = h * headSize;
+            int attStart = h * seqLen;
+            // Grouped-query attention: several query heads share each key/value head
+            int kvHeadStart = (h / kvMul) * headSize;
+            for (int t = 0; t <= pos; t++) {
+                int keyStart = layerOffset + t * kvDim + kvHeadStart;
+                float score = 0;
+                for (int i = 0; i < headSize; i++) {
+                    score += q[queryStart + i] * keyCache[keyStart + i];
+                }
+                att[attStart + t] = score * scale;
+            }
+            softmax(att, attStart, pos + 1);
+            Arrays.fill(xb, queryStart, queryStart + headSize, 0f);
+            for (int t = 0; t <= pos; t++) {
+                int valueStart = layerOffset + t * kvDim + kvHeadStart;
+                float weight = att[attStart + t];
+                for (int i = 0; i < headSize; i++) {
+                    xb[queryStart + i] += weight * valueCache[valueStart + i];
+                }
+            }
+        }
+    }
+
+    private static void softmax(float[] values, int start, int size) {
+        float max = values[start];
+        for (int i = start + 1; i < start + size; i++) {
+            max = Math.max(max, values[i]);
+        }
+        float sum = 0;
+        for (int i = start; i < start + size; i++) {
+            values[i] = (float) Math.exp(values[i] - max);
+            sum += values[i];
+        }
+        for (int i = start; i < start + size; i++) {
+            values[i] /= sum;
+        }
+    }
+
+    /**
+     * Picks the next token from {@code logits}: the most likely one at temperature 0, otherwise
+     * a draw from the smallest set of tokens whose probabilities add up to {@code topP}.
+     */
+    public int sample(float[] logits, float temperature, float topP, Random random) {
+        if (temperature == 0f) {
+            int best = 0;
+            for (int i = 1; i < vocabSize; i++) {
+                if (logits[i] > logits[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+        for (int i = 0; i < vocabSize; i++) {
+            logits[i] /= temperature;
+        }
+        softmax(logits, 0, vocabSize);
+        // Tokens below this probability can never be in the nucleus, so skip sorting them
+        float cutoff = (1f - topP) / (vocabSize - 1);
+        int candidates = 0;
+        for (int i = 0; i < vocabSize; i++) {
+            if (logits[i] >= cutoff) {
+                // A positive float's bits sort like the float, so this orders by probability
+                sampleKeys[candidates++] = ((long) Float.floatToIntBits(logits[i]) << 32) | i;
+            }
+        }
+        Arrays.sort(sampleKeys, 0, candidates);
+        float cumulative = 0;
+        int last = 0;
+        for (int i = candidates - 1; i >= 0; i--) {
+            cumulative += logits[(int) sampleKeys[i]];
+            last = i;
+            if (cumulative > topP) {
+                break;
+            }
+        }
+        float r = random.nextFloat() * cumulative;
+        float running = 0;
+        for (int i = candidates - 1; i > last; i--) {
+            running += logits[(int) sampleKeys[i]];
+            if (r < running) {
+                return (int) sampleKeys[i];
+            }
+        }
+        return (int) sampleKeys[last];
+    }
+}
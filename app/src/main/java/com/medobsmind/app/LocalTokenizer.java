@@ -0,0 +1,152 @@
+package com.medobsmind.app;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Byte-pair tokenizer for {@link LocalModel}, read from a llama2.c {@code tokenizer.bin}: each
+ * piece's merge score, then its UTF-8 bytes. Pieces are held as ISO-8859-1 strings, one char
+ * per byte, so merging and lookup work on raw bytes and a character split across two tokens
+ * is only turned back into text once all of its bytes have arrived.
+ */
+public class LocalTokenizer {
+    public static final int BOS = 1;
+    public static final int EOS = 2;
+    // Byte-fallback pieces <0x00>..<0xFF> follow the three special tokens
+    private static final int BYTE_TOKEN_OFFSET = 3;
+
+    private final String[] pieces;
+    private final float[] scores;
+    private final Map<String, Integer> ids;
+
+    public LocalTokenizer(File file, int vocabSize) throws IOException {
+        pieces = new String[vocabSize];
+        scores = new float[vocabSize];
+        ids = new HashMap<>(vocabSize * 2);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            // Little-endian like the model file; the maximum piece length is not needed here
+            ByteBuffer field = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            readInt(in, field);
+            for (int i = 0; i < vocabSize; i++) {
+                scores[i] = Float.intBitsToFloat(readInt(in, field));
+                byte[] bytes = new byte[readInt(in, field)];
+                in.readFully(bytes);
+                pieces[i] = new String(bytes, StandardCharsets.ISO_8859_1);
+                if (!ids.containsKey(pieces[i])) {
+                    ids.put(pieces[i], i);
+                }
+            }
+        }
+    }
+
+    private static int readInt(DataInputStream in, ByteBuffer field) throws IOException {
+        field.clear();
+        in.readFully(field.array());
+        return field.getInt(0);
+    }
+
+    /**
+     * Encodes text with a leading BOS token and the dummy space prefix the model was trained with.
+     */
+    public int[] encode(String text) {
+        List<Integer> tokens = new ArrayList<>();
+        tokens.add(BOS);
+        if (!text.isEmpty()) {
+            Integer space = ids.get(" ");
+            if (space != null) {
+                tokens.add(space);
+            }
+        }
+        // Start from one token per character, falling back to one per byte for unknown characters
+        String bytes = new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+        int i = 0;
+        while (i < bytes.length()) {
+            int end = i + 1;
+            while (end < bytes.length() && (bytes.charAt(end) & 0xC0) == 0x80) {
+                end++;
+            }
+            Integer id = ids.get(bytes.substring(i, end));
+            if (id != null) {
+                tokens.add(id);
+            } else {
+                for (int b = i; b < end; b++) {
+                    tokens.add(bytes.charAt(b) + BYTE_TOKEN_OFFSET);
+                }
+            }
+            i = end;
+        }
+        // Repeatedly merge the adjacent pair whose merged piece scores highest
+        while (true) {
+            float bestScore = -Float.MAX_VALUE;
+            int bestId = -1;
+            int bestIndex = -1;
+            for (int t = 1; t < tokens.size() - 1; t++) {
+                Integer merged = ids.get(pieces[tokens.get(t)] + pieces[tokens.get(t + 1)]);
+                if (merged != null && scores[merged] > bestScore) {
+                    bestScore = scores[merged];
+                    bestId = merged;
+                    bestIndex = t;
+                }
+            }
+            if (bestIndex < 0) {
+                break;
+            }
+            tokens.set(bestIndex, bestId);
+            tokens.remove(bestIndex + 1);
+        }
+        int[] result = new int[tokens.size()];
+        for (int t = 0; t < result.length; t++) {
+            result[t] = tokens.get(t);
+        }
+        return result;
+    }
+
+    /**
+     * Appends the raw bytes of {@code token}, as ISO-8859-1 chars, to {@code bytes}.
+     */
+    public void appendBytes(int previous, int token, StringBuilder bytes) {
+        String piece = pieces[token];
+        if (previous == BOS && piece.startsWith(" ")) {
+            // The dummy prefix added by encode is not part of the answer
+            piece = piece.substring(1);
+        }
+        if (piece.length() == 6 && piece.startsWith("<0x") && piece.endsWith(">")) {
+            bytes.append((char) Integer.parseInt(piece.substring(3, 5), 16));
+        } else {
+            bytes.append(piece);
+        }
+    }
+
+    /**
+     * Removes and returns the text of every complete UTF-8 character at the start of
+     * {@code bytes}, leaving a trailing partial character for the next token.
+     */
+    public static String takeText(StringBuilder bytes) {
+        int complete = bytes.length();
+        // Step back over continuation bytes to the last lead byte and check its sequence is whole
+        int lead = complete - 1;
+        while (lead >= 0 && (bytes.charAt(lead) & 0xC0) == 0x80) {
+            lead--;
+        }
+        if (lead >= 0) {
+            int c = bytes.charAt(lead);
+            int needed = c >= 0xF0 ? 4 : c >= 0xE0 ? 3 : c >= 0xC0 ? 2 : 1;
+            if (complete - lead < needed) {
+                complete = lead;
+            }
+        }
+        byte[] raw = bytes.substring(0, complete).getBytes(StandardCharsets.ISO_8859_1);
+        bytes.delete(0, complete);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+}
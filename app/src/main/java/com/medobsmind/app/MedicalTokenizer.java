@@ -0,0 +1,93 @@
+package com.medobsmind.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits message text into lower-case search terms the way clinical text is written. Decimals
+ * stay whole ("2.5"), thousands separators are dropped ("1,500" is "1500"), a dose is split
+ * from its unit ("500mg" is "500" then "mg", the same as "500 mg"), and letter-first codes
+ * keep their digits ("spo2", "hba1c", "news2"). Ratios and ranges such as "128/84" or "5-10"
+ * become separate numbers, and the micro sign spellings of micrograms all read as "mcg".
+ */
+public final class MedicalTokenizer {
+    private MedicalTokenizer() {}
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (Character.isDigit(c)) {
+                i = readNumber(text, i, token);
+            } else if (Character.isLetter(c)) {
+                i = readWord(text, i, token);
+            } else {
+                i++;
+                continue;
+            }
+            tokens.add(normalize(token.toString()));
+            token.setLength(0);
+        }
+        return tokens;
+    }
+
+    private static int readNumber(String text, int i, StringBuilder token) {
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (Character.isDigit(c)) {
+                token.append(c);
+                i++;
+            } else if (c == '.' && isDigitAt(text, i + 1) && token.indexOf(".") < 0) {
+                token.append(c);
+                i++;
+            } else if (c == ',' && isThousandsGroup(text, i + 1) && token.indexOf(".") < 0) {
+                // Part of the same number; the comma itself is not searched for
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int readWord(String text, int i, StringBuilder token) {
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+                i++;
+            } else if ((c == '\'' || c == '\u2019') && i + 1 < length && Character.isLetter(text.charAt(i + 1))) {
+                // "patient's" is indexed as "patients" rather than "patient" and "s"
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static boolean isDigitAt(String text, int i) {
+        return i < text.length() && Character.isDigit(text.charAt(i));
+    }
+
+    // Exactly three digits follow, so "1,500" is one number but "3,4" and "1,5000" are not
+    private static boolean isThousandsGroup(String text, int i) {
+        return isDigitAt(text, i) && isDigitAt(text, i + 1) && isDigitAt(text, i + 2) && !isDigitAt(text, i + 3);
+    }
+
+    private static String normalize(String token) {
+        switch (token) {
+            case "ug":
+            case "\u00b5g": // micro sign
+            case "\u03bcg": // Greek mu
+                return "mcg";
+            default:
+                return token;
+        }
+    }
+}
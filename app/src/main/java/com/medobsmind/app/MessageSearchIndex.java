@@ -0,0 +1,384 @@
+package com.medobsmind.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index over the conversation, kept up to date one message at a time so
+ * searching never rescans the history. Text is split by {@link MedicalTokenizer} and each term
+ * keeps the documents and word positions it occurs at.
+ *
+ * <p>A query is a list of words, all of which must match. A word ending in {@code *} matches
+ * as a prefix, and words in double quotes must appear next to each other, in order. Results
+ * are message ids, newest first.
+ *
+ * <p>Rewriting a message (a streamed answer's final text) adds a new document and marks the
+ * old one dead; dead documents are dropped in bulk once they outnumber the live ones. Updated
+ * from the store thread and searched from the main thread.
+ */
+public class MessageSearchIndex {
+    // Below this, dead documents cost less than rewriting every postings list to drop them
+    private static final int MIN_DEAD_TO_COMPACT = 1024;
+    private static final long[] NO_RESULTS = new long[0];
+
+    /**
+     * Where one term occurs: ascending document numbers, and for each of them a run of
+     * ascending word positions in {@code positions}, starting at {@code starts[i]}.
+     */
+    private static final class Postings {
+        int[] docs = new int[2];
+        int[] starts = new int[2];
+        int[] positions = new int[2];
+        int docCount;
+        int positionCount;
+
+        void add(int doc, int position) {
+            if (docCount == 0 || docs[docCount - 1] != doc) {
+                if (docCount == docs.length) {
+                    docs = Arrays.copyOf(docs, docCount * 2);
+                    starts = Arrays.copyOf(starts, docCount * 2);
+                }
+                docs[docCount] = doc;
+                starts[docCount] = positionCount;
+                docCount++;
+            }
+            if (positionCount == positions.length) {
+                positions = Arrays.copyOf(positions, positionCount * 2);
+            }
+            positions[positionCount++] = position;
+        }
+
+        int end(int index) {
+            return index + 1 < docCount ? starts[index + 1] : positionCount;
+        }
+
+        int indexOf(int doc) {
+            return Arrays.binarySearch(docs, 0, docCount, doc);
+        }
+
+        boolean hasPosition(int doc, int position) {
+            int index = indexOf(doc);
+            return index >= 0 && Arrays.binarySearch(positions, starts[index], end(index), position) >= 0;
+        }
+
+        void addDocsTo(BitSet set) {
+            for (int i = 0; i < docCount; i++) {
+                set.set(docs[i]);
+            }
+        }
+
+        // Renumbers documents after a compaction; -1 in remap drops the document
+        void remap(int[] remap) {
+            int docsOut = 0;
+            int positionsOut = 0;
+            for (int i = 0; i < docCount; i++) {
+                int from = starts[i];
+                int to = end(i);
+                int doc = remap[docs[i]];
+                if (doc < 0) {
+                    continue;
+                }
+                docs[docsOut] = doc;
+                starts[docsOut] = positionsOut;
+                System.arraycopy(positions, from, positions, positionsOut, to - from);
+                positionsOut += to - from;
+                docsOut++;
+            }
+            docCount = docsOut;
+            positionCount = positionsOut;
+        }
+    }
+
+    /**
+     * One query word or quoted phrase. A word such as "500mg" tokenizes to several terms and is
+     * matched as a phrase, the same way it was indexed.
+     */
+    static final class Clause {
+        final List<String> terms;
+        final boolean prefix;
+
+        Clause(List<String> terms, boolean prefix) {
+            this.terms = terms;
+            this.prefix = prefix;
+        }
+    }
+
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+    private final Map<Long, Integer> docByMessage = new HashMap<>();
+    private final BitSet dead = new BitSet();
+    private long[] messageIds = new long[64];
+    private int docCount;
+    private int deadCount;
+
+    public void add(ChatMessage message) {
+        add(message.getId(), message.getMessage());
+    }
+
+    /**
+     * Indexes a message, replacing whatever text was indexed for it before.
+     */
+    public synchronized void add(long messageId, String text) {
+        remove(messageId);
+        List<String> terms = MedicalTokenizer.tokenize(text);
+        if (terms.isEmpty()) {
+            // Nothing to find; the empty answer that a stream starts with takes no document
+            return;
+        }
+        int doc = docCount++;
+        if (doc == messageIds.length) {
+            messageIds = Arrays.copyOf(messageIds, doc * 2);
+        }
+        messageIds[doc] = messageId;
+        docByMessage.put(messageId, doc);
+        for (int position = 0; position < terms.size(); position++) {
+            String term = terms.get(position);
+            Postings termPostings = postings.get(term);
+            if (termPostings == null) {
+                termPostings = new Postings();
+                postings.put(term, termPostings);
+            }
+            termPostings.add(doc, position);
+        }
+    }
+
+    public synchronized void remove(long messageId) {
+        Integer doc = docByMessage.remove(messageId);
+        if (doc == null) {
+            return;
+        }
+        dead.set(doc);
+        deadCount++;
+        if (deadCount >= MIN_DEAD_TO_COMPACT && deadCount > docCount - deadCount) {
+            compact();
+        }
+    }
+
+    /**
+     * Number of messages with searchable text.
+     */
+    public synchronized int size() {
+        return docByMessage.size();
+    }
+
+    /**
+     * Returns the ids of up to {@code limit} matching messages, newest first.
+     */
+    public synchronized long[] search(String query, int limit) {
+        List<Clause> clauses = parse(query);
+        if (clauses.isEmpty() || limit <= 0) {
+            return NO_RESULTS;
+        }
+        BitSet matches = null;
+        for (Clause clause : clauses) {
+            matches = match(clause, matches);
+            if (matches.isEmpty()) {
+                return NO_RESULTS;
+            }
+        }
+        return newest(matches, limit);
+    }
+
+    static List<Clause> parse(String query) {
+        List<Clause> clauses = new ArrayList<>();
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            String text;
+            if (c == '"') {
+                // An unclosed quote runs to the end of the query
+                int end = query.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = length;
+                }
+                text = query.substring(i + 1, end).trim();
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < length && !Character.isWhitespace(query.charAt(end)) && query.charAt(end) != '"') {
+                    end++;
+                }
+                text = query.substring(i, end);
+                i = end;
+            }
+            List<String> terms = MedicalTokenizer.tokenize(text);
+            if (!terms.isEmpty()) {
+                clauses.add(new Clause(terms, text.endsWith("*")));
+            }
+        }
+        return clauses;
+    }
+
+    // Live documents matching the clause, narrowed to those already in within if it is not null
+    private BitSet match(Clause clause, BitSet within) {
+        int termCount = clause.terms.size();
+        List<Collection<Postings>> expansions = new ArrayList<>(termCount);
+        BitSet docs = null;
+        for (int i = 0; i < termCount; i++) {
+            Collection<Postings> termPostings = lookup(clause.terms.get(i), clause.prefix && i == termCount - 1);
+            BitSet termDocs = new BitSet(docCount);
+            for (Postings candidate : termPostings) {
+                candidate.addDocsTo(termDocs);
+            }
+            if (docs == null) {
+                docs = termDocs;
+            } else {
+                docs.and(termDocs);
+            }
+            if (docs.isEmpty()) {
+                return docs;
+            }
+            expansions.add(termPostings);
+        }
+        if (within != null) {
+            docs.and(within);
+        }
+        docs.andNot(dead);
+        if (termCount > 1) {
+            // Every term occurs in these documents; keep those where they occur in sequence
+            for (int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+                if (!containsPhrase(doc, expansions)) {
+                    docs.clear(doc);
+                }
+            }
+        }
+        return docs;
+    }
+
+    private Collection<Postings> lookup(String term, boolean prefix) {
+        if (prefix) {
+            // Every term that sorts between the prefix and the prefix followed by the highest char
+            return postings.subMap(term, term + Character.MAX_VALUE).values();
+        }
+        Postings termPostings = postings.get(term);
+        return termPostings == null ? Collections.<Postings>emptyList() : Collections.singletonList(termPostings);
+    }
+
+    private static boolean containsPhrase(int doc, List<Collection<Postings>> expansions) {
+        for (Postings first : expansions.get(0)) {
+            int index = first.indexOf(doc);
+            if (index < 0) {
+                continue;
+            }
+            for (int i = first.starts[index]; i < first.end(index); i++) {
+                if (followsFrom(doc, first.positions[i], expansions)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean followsFrom(int doc, int start, List<Collection<Postings>> expansions) {
+        for (int i = 1; i < expansions.size(); i++) {
+            boolean found = false;
+            for (Postings termPostings : expansions.get(i)) {
+                if (termPostings.hasPosition(doc, start + i)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long[] newest(BitSet matches, int limit) {
+        // Min-heap of the largest ids seen. Walking from the newest document means the heap
+        // fills with recent ids first and almost every older match is rejected by one compare.
+        long[] heap = new long[Math.min(limit, matches.cardinality())];
+        int size = 0;
+        for (int doc = matches.previousSetBit(docCount - 1); doc >= 0; doc = matches.previousSetBit(doc - 1)) {
+            long id = messageIds[doc];
+            if (size < heap.length) {
+                heap[size] = id;
+                siftUp(heap, size++);
+            } else if (id > heap[0]) {
+                heap[0] = id;
+                siftDown(heap, size);
+            }
+        }
+        Arrays.sort(heap);
+        for (int i = 0, j = heap.length - 1; i < j; i++, j--) {
+            long swap = heap[i];
+            heap[i] = heap[j];
+            heap[j] = swap;
+        }
+        return heap;
+    }
+
+    private static void siftUp(long[] heap, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (heap[parent] <= heap[index]) {
+                return;
+            }
+            long swap = heap[parent];
+            heap[parent] = heap[index];
+            heap[index] = swap;
+            index = parent;
+        }
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        int index = 0;
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && heap[left] < heap[smallest]) {
+                smallest = left;
+            }
+            if (right < size && heap[right] < heap[smallest]) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            long swap = heap[smallest];
+            heap[smallest] = heap[index];
+            heap[index] = swap;
+            index = smallest;
+        }
+    }
+
+    private void compact() {
+        int[] remap = new int[docCount];
+        int live = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (dead.get(doc)) {
+                remap[doc] = -1;
+            } else {
+                remap[doc] = live;
+                messageIds[live] = messageIds[doc];
+                docByMessage.put(messageIds[live], live);
+                live++;
+            }
+        }
+        Iterator<Postings> it = postings.values().iterator();
+        while (it.hasNext()) {
+            Postings termPostings = it.next();
+            termPostings.remap(remap);
+            if (termPostings.docCount == 0) {
+                it.remove();
+            }
+        }
+        docCount = live;
+        dead.clear();
+        deadCount = 0;
+    }
+}
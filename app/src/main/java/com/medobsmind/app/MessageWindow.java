@@ -0,0 +1,126 @@
+package com.medobsmind.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The slice of the conversation currently held in memory. Pages are added at either end as the
+ * user scrolls and the far end is trimmed, so heap use stays constant however long the
+ * consult gets. Only touched from the main thread.
+ */
+public class MessageWindow {
+    private final List<ChatMessage> messages = new ArrayList<>();
+    private final int capacity;
+    private boolean hasOlder;
+    private boolean hasNewer;
+
+    public MessageWindow(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns an unmodifiable copy to hand to {@link ChatAdapter#submitList}.
+     */
+    public List<ChatMessage> snapshot() {
+        return Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+
+    public List<ChatMessage> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    public ChatMessage get(int index) {
+        return messages.get(index);
+    }
+
+    public void set(int index, ChatMessage message) {
+        messages.set(index, message);
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public boolean hasOlder() {
+        return hasOlder;
+    }
+
+    public boolean hasNewer() {
+        return hasNewer;
+    }
+
+    public long getFirstId() {
+        return messages.isEmpty() ? Long.MAX_VALUE : messages.get(0).getId();
+    }
+
+    public long getLastId() {
+        return messages.isEmpty() ? 0 : messages.get(messages.size() - 1).getId();
+    }
+
+    public int indexOf(long id) {
+        // Lookups are almost always for the newest messages, so search from the end
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i).getId() == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void reset(List<ChatMessage> latest, boolean hasOlder) {
+        reset(latest, hasOlder, false);
+    }
+
+    /**
+     * Replaces the window with a page from the middle of the history, e.g. around a search hit.
+     */
+    public void reset(List<ChatMessage> page, boolean hasOlder, boolean hasNewer) {
+        messages.clear();
+        messages.addAll(page);
+        this.hasOlder = hasOlder;
+        this.hasNewer = hasNewer;
+    }
+
+    public void append(ChatMessage message) {
+        messages.add(message);
+    }
+
+    public int prependOlder(List<ChatMessage> page, boolean hasMore) {
+        messages.addAll(0, page);
+        hasOlder = hasMore;
+        return page.size();
+    }
+
+    public int appendNewer(List<ChatMessage> page, boolean hasMore) {
+        messages.addAll(page);
+        hasNewer = hasMore;
+        return page.size();
+    }
+
+    /**
+     * Drops messages from the newest end beyond the capacity and returns how many were removed.
+     */
+    public int trimNewest() {
+        int excess = messages.size() - capacity;
+        if (excess <= 0) {
+            return 0;
+        }
+        messages.subList(capacity, messages.size()).clear();
+        hasNewer = true;
+        return excess;
+    }
+
+    /**
+     * Drops messages from the oldest end beyond the capacity and returns how many were removed.
+     */
+    public int trimOldest() {
+        int excess = messages.size() - capacity;
+        if (excess <= 0) {
+            return 0;
+        }
+        messages.subList(0, excess).clear();
+        hasOlder = true;
+        return excess;
+    }
+}
@@ -0,0 +1,86 @@
+package com.medobsmind.app;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+/**
+ * Debug overlay showing {@link MetricsRegistry#toSummary()} over an activity's content,
+ * refreshed once a second. Whether it is shown is a shared preference, so turning it on in
+ * the chat screen also shows it during video calls.
+ */
+public class MetricsOverlay {
+    public static final String PREF_SHOW_METRICS = "show_metrics_overlay";
+    private static final long REFRESH_INTERVAL_MS = 1000;
+    private static final int BACKGROUND_COLOR = 0xB0000000;
+
+    private final Activity activity;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private TextView overlayView;
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            overlayView.setText(MetricsRegistry.get().toSummary());
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    public MetricsOverlay(Activity activity) {
+        this.activity = activity;
+    }
+
+    public static boolean isEnabled(Context context) {
+        return context.getSharedPreferences(PerformanceProfile.PREFS_NAME, Context.MODE_PRIVATE)
+            .getBoolean(PREF_SHOW_METRICS, false);
+    }
+
+    public static void setEnabled(Context context, boolean enabled) {
+        context.getSharedPreferences(PerformanceProfile.PREFS_NAME, Context.MODE_PRIVATE)
+            .edit().putBoolean(PREF_SHOW_METRICS, enabled).apply();
+    }
+
+    /**
+     * Shows the overlay if it is enabled; call from onResume.
+     */
+    public void show() {
+        if (!isEnabled(activity) || overlayView != null) {
+            return;
+        }
+        overlayView = new TextView(activity);
+        overlayView.setTypeface(Typeface.MONOSPACE);
+        overlayView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 10);
+        overlayView.setTextColor(Color.WHITE);
+        overlayView.setBackgroundColor(BACKGROUND_COLOR);
+        int padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 6,
+            activity.getResources().getDisplayMetrics());
+        overlayView.setPadding(padding, padding, padding, padding);
+        // Purely informational: touches go through to the screen underneath
+        overlayView.setClickable(false);
+        overlayView.setFocusable(false);
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+            ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT,
+            Gravity.TOP | Gravity.END);
+        ((FrameLayout) activity.findViewById(android.R.id.content)).addView(overlayView, params);
+        refresh.run();
+    }
+
+    /**
+     * Removes the overlay; call from onPause.
+     */
+    public void hide() {
+        if (overlayView == null) {
+            return;
+        }
+        handler.removeCallbacks(refresh);
+        ((ViewGroup) overlayView.getParent()).removeView(overlayView);
+        overlayView = null;
+    }
+}
@@ -0,0 +1,177 @@
+package com.medobsmind.app;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide latency histograms and counters for the chat and video pipelines. Stages
+ * and counters are enums, so recording is an array lookup plus atomic adds: no maps, no
+ * boxing and no allocation on the hot path. {@link #toJson()} produces the field report.
+ */
+public final class MetricsRegistry {
+    /**
+     * Pipeline stages timed by the app. Send, first token and TTS start are measured from the
+     * send tap; network runs from request start to end of stream on the worker; render is
+     * handing one streamed token to the adapter as a payload; thumbnail is decoding one
+     * attachment thumbnail on a background thread. Video stages are per frame, except camera
+     * open and switch, which run from the request to the first frame exposed, and record sync,
+     * which is one batched fsync of the session recording.
+     */
+    public enum Stage {
+        CHAT_SEND("chat.send"),
+        CHAT_NETWORK("chat.network"),
+        CHAT_FIRST_TOKEN("chat.first_token"),
+        CHAT_RENDER("chat.render"),
+        CHAT_TTS_START("chat.tts_start"),
+        CHAT_SEARCH("chat.search"),
+        CHAT_THUMBNAIL("chat.thumbnail"),
+        VIDEO_CAPTURE("video.capture"),
+        VIDEO_ENCODE("video.encode"),
+        VIDEO_UPLOAD("video.upload"),
+        VIDEO_RESPONSE("video.response"),
+        VIDEO_CAMERA_OPEN("video.camera_open"),
+        VIDEO_CAMERA_SWITCH("video.camera_switch"),
+        VIDEO_RECORD_SYNC("video.record_sync");
+
+        private final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    public enum Counter {
+        CHAT_MESSAGES("chat.messages"),
+        CHAT_TOKENS("chat.tokens"),
+        CHAT_ERRORS("chat.errors"),
+        CHAT_QUEUED_OFFLINE("chat.queued_offline"),
+        CHAT_ROUTED_LOCAL("chat.routed_local"),
+        CHAT_ROUTED_REMOTE("chat.routed_remote"),
+        CHAT_FALLBACKS("chat.fallbacks"),
+        CHAT_COALESCED("chat.coalesced"),
+        VIDEO_FRAMES_SAMPLED("video.frames_sampled"),
+        VIDEO_FRAMES_SENT("video.frames_sent"),
+        VIDEO_FRAMES_SKIPPED("video.frames_skipped"),
+        VIDEO_UPLOAD_ERRORS("video.upload_errors"),
+        VIDEO_COALESCED("video.coalesced"),
+        VIDEO_RECORD_DROPS("video.record_drops");
+
+        private final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final Counter[] COUNTERS = Counter.values();
+    // Declared after the arrays above, which the constructor reads
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS.length);
+    private final long startedAtMs = System.currentTimeMillis();
+
+    private MetricsRegistry() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static MetricsRegistry get() {
+        return INSTANCE;
+    }
+
+    public void recordNanos(Stage stage, long nanos) {
+        histograms[stage.ordinal()].recordNanos(nanos);
+    }
+
+    public void recordMillis(Stage stage, long millis) {
+        histograms[stage.ordinal()].recordMicros(millis * 1000);
+    }
+
+    public void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    public void add(Counter counter, long delta) {
+        counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    /**
+     * One line per recorded stage and counter, for the debug overlay.
+     */
+    public String toSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : STAGES) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            sb.append(String.format(Locale.US, "%-19s p50 %6.1f  p99 %6.1f  n=%d%n", stage.getKey(),
+                histogram.getPercentileMillis(50), histogram.getPercentileMillis(99), histogram.getCount()));
+        }
+        for (Counter counter : COUNTERS) {
+            long value = counters.get(counter.ordinal());
+            if (value != 0) {
+                sb.append(String.format(Locale.US, "%-19s %d%n", counter.getKey(), value));
+            }
+        }
+        return sb.length() == 0 ? "No metrics recorded yet" : sb.toString().trim();
+    }
+
+    /**
+     * All stages (latencies in milliseconds) and counters as a JSON object.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"started_at_ms\":").append(startedAtMs)
+            .append(",\"captured_at_ms\":").append(System.currentTimeMillis())
+            .append(",\"stages\":{");
+        for (int i = 0; i < STAGES.length; i++) {
+            LatencyHistogram histogram = histograms[i];
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(STAGES[i].getKey()).append("\":")
+                .append(String.format(Locale.US,
+                    "{\"count\":%d,\"mean\":%.2f,\"p50\":%.2f,\"p90\":%.2f,\"p99\":%.2f,\"max\":%.2f}",
+                    histogram.getCount(), histogram.getMeanMillis(), histogram.getPercentileMillis(50),
+                    histogram.getPercentileMillis(90), histogram.getPercentileMillis(99),
+                    histogram.getMaxMillis()));
+        }
+        sb.append("},\"counters\":{");
+        for (int i = 0; i < COUNTERS.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(COUNTERS[i].getKey()).append("\":").append(counters.get(i));
+        }
+        return sb.append("}}").toString();
+    }
+}
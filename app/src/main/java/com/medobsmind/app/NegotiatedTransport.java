@@ -0,0 +1,26 @@
+package com.medobsmind.app;
+
+import java.io.IOException;
+
+/**
+ * Streams with {@link BinaryTransport} once the API speaks the {@link WireFormat} envelopes,
+ * configured or negotiated, and with {@link SseTransport} until then. Chosen per request, as
+ * negotiation finishes after the activity has built its transport; an attachment then goes
+ * up as raw bytes rather than base64 inside JSON.
+ */
+public class NegotiatedTransport implements LlmmTransport {
+    private final LlmmApiClient apiClient;
+    private final BinaryTransport binary;
+    private final SseTransport sse;
+
+    public NegotiatedTransport(LlmmApiClient apiClient) {
+        this.apiClient = apiClient;
+        this.binary = new BinaryTransport(apiClient);
+        this.sse = new SseTransport(apiClient);
+    }
+
+    @Override
+    public void stream(LlmmRequest request, TokenSink sink) throws IOException {
+        (apiClient.isBinaryWire() ? binary : sse).stream(request, sink);
+    }
+}
@@ -0,0 +1,220 @@
+package com.medobsmind.app;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds LLMM requests that failed for lack of a connection and replays them from an
+ * {@link OutboxJournal} until they are answered. Failed replays back off exponentially with
+ * jitter; {@link #retryNow()} skips the wait when connectivity returns. A request that fails
+ * in a way a retry cannot fix ({@link #isPermanentFailure}) leaves the queue with its error. Each replay pass
+ * sends up to {@link #MAX_BATCH} queued prompts back to back on one thread, so they share
+ * the transport's kept-alive connection instead of reconnecting per prompt.
+ */
+public class Outbox {
+    /**
+     * Receives each outcome on the outbox thread. The request stays queued, and is replayed
+     * later, if a callback throws; it is removed from the journal only after one returns.
+     */
+    public interface DeliveryListener {
+        void onDelivered(long messageId, String response) throws Exception;
+
+        /**
+         * The request failed permanently and will not be sent again.
+         */
+        void onFailed(long messageId, IOException error) throws Exception;
+    }
+
+    private static final String TAG = "Outbox";
+    static final int MAX_BATCH = 8;
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60000;
+
+    private final OutboxJournal journal;
+    private final LlmmTransport transport;
+    private final DeliveryListener listener;
+    private final ScheduledExecutorService executor;
+    private final Random jitter = new Random();
+
+    // Only touched on the outbox thread
+    private long backoffMs = INITIAL_BACKOFF_MS;
+    private ScheduledFuture<?> scheduledReplay;
+    private volatile int deliveredCount;
+    private volatile int rejectedCount;
+    private volatile int failedAttempts;
+
+    public Outbox(OutboxJournal journal, LlmmTransport transport, DeliveryListener listener) {
+        this.journal = journal;
+        this.transport = transport;
+        this.listener = listener;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "llmm-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Requests left over from a previous process are retried straight away
+        if (journal.size() > 0) {
+            retryNow();
+        }
+    }
+
+    /**
+     * Queues a request whose answer belongs in the chat message {@code messageId}. The journal
+     * write happens on the outbox thread, off the caller's.
+     */
+    public void enqueue(long messageId, LlmmRequest request) {
+        executor.execute(() -> {
+            try {
+                journal.enqueue(messageId, request);
+            } catch (IOException e) {
+                // The request is lost; the message keeps its placeholder
+                Log.w(TAG, "Could not queue the request for message " + messageId, e);
+                return;
+            }
+            // The request just failed, so wait out the current backoff before replaying it
+            schedule(backoffDelay());
+        });
+    }
+
+    /**
+     * Replays at once with a fresh backoff, e.g. when the network comes back.
+     */
+    public void retryNow() {
+        executor.execute(() -> {
+            backoffMs = INITIAL_BACKOFF_MS;
+            schedule(0);
+        });
+    }
+
+    public int getPendingCount() {
+        return journal.size();
+    }
+
+    public int getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * Requests dropped from the queue because they failed permanently.
+     */
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    public void shutdown() {
+        // Interrupts a replay in progress; the journal keeps the request for next time
+        executor.shutdownNow();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not close the outbox journal", e);
+        }
+    }
+
+    private void schedule(long delayMs) {
+        if (scheduledReplay != null && !scheduledReplay.isDone()) {
+            if (scheduledReplay.getDelay(TimeUnit.MILLISECONDS) <= delayMs) {
+                return;
+            }
+            scheduledReplay.cancel(false);
+        }
+        scheduledReplay = executor.schedule(this::replay, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void replay() {
+        // This run is the scheduled replay; clear it so a retry can be scheduled from here
+        scheduledReplay = null;
+        List<OutboxJournal.Entry> pending = journal.getPending();
+        int batch = Math.min(pending.size(), MAX_BATCH);
+        for (int i = 0; i < batch; i++) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            OutboxJournal.Entry entry = pending.get(i);
+            StringBuilder response = new StringBuilder();
+            try {
+                IOException permanent = null;
+                try {
+                    transport.stream(entry.getRequest(), response::append);
+                } catch (IOException e) {
+                    if (!isPermanentFailure(e)) {
+                        throw e;
+                    }
+                    permanent = e;
+                }
+                if (permanent == null) {
+                    listener.onDelivered(entry.getMessageId(), response.toString());
+                } else {
+                    // Sending it again would fail the same way, so it leaves the queue with its error
+                    listener.onFailed(entry.getMessageId(), permanent);
+                }
+                journal.complete(entry.getMessageId());
+                if (permanent == null) {
+                    deliveredCount++;
+                } else {
+                    rejectedCount++;
+                }
+            } catch (Exception e) {
+                // The link is most likely still down; keep the rest of the batch for the next attempt
+                failedAttempts++;
+                schedule(backoffDelay());
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+                return;
+            }
+        }
+        backoffMs = INITIAL_BACKOFF_MS;
+        if (journal.size() > 0) {
+            schedule(0);
+        }
+    }
+
+    /**
+     * Whether {@code e}, or an exception it wraps, means the request can never succeed as it is:
+     * the API refused it with a client error, or its attachment cannot be read.
+     */
+    static boolean isPermanentFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof LlmmHttpException) {
+                return !((LlmmHttpException) t).isRetryable();
+            }
+            if (t instanceof AttachmentException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether {@code e}, or an exception it wraps, means the API could not be reached or the
+     * connection broke: the failures worth queueing a request for.
+     */
+    static boolean isConnectivityFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            // SocketException covers refused, reset and unroutable connections
+            if (t instanceof UnknownHostException || t instanceof SocketException
+                    || t instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long backoffDelay() {
+        // Jitter keeps several tablets on the same ward from retrying in lockstep
+        return backoffMs / 2 + (long) (jitter.nextDouble() * (backoffMs / 2));
+    }
+}
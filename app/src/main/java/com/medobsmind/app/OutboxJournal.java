@@ -0,0 +1,225 @@
+package com.medobsmind.app;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only file journal of LLMM requests that could not be sent. Each enqueue and each
+ * completion is one record, synced to disk before the call returns, so pending requests
+ * survive process death. Opening the journal replays it; a record torn by a crash
+ * mid-write is dropped. The file is rewritten with only the pending entries once enough
+ * completions have piled up.
+ */
+public class OutboxJournal {
+    private static final byte RECORD_ENQUEUE = 1;
+    private static final byte RECORD_COMPLETE = 2;
+    // An enqueue followed by the path of the attached image; older journals never contain it
+    private static final byte RECORD_ENQUEUE_IMAGE = 3;
+    // Rewrite the file once this many completed records could be dropped from it
+    private static final int COMPACT_THRESHOLD = 32;
+
+    /**
+     * A pending request and the id of the chat message waiting for its answer.
+     */
+    public static final class Entry {
+        private final long messageId;
+        private final long enqueuedAt;
+        private final LlmmRequest request;
+
+        Entry(long messageId, long enqueuedAt, LlmmRequest request) {
+            this.messageId = messageId;
+            this.enqueuedAt = enqueuedAt;
+            this.request = request;
+        }
+
+        public long getMessageId() {
+            return messageId;
+        }
+
+        public long getEnqueuedAt() {
+            return enqueuedAt;
+        }
+
+        public LlmmRequest getRequest() {
+            return request;
+        }
+    }
+
+    private final File file;
+    private final Map<Long, Entry> pending = new LinkedHashMap<>();
+    private FileOutputStream out;
+    private int completedRecords;
+
+    public OutboxJournal(File file) throws IOException {
+        this.file = file;
+        replay();
+        out = new FileOutputStream(file, true);
+    }
+
+    /**
+     * Records a request; returns once the record is on disk.
+     */
+    public synchronized Entry enqueue(long messageId, LlmmRequest request) throws IOException {
+        Entry entry = new Entry(messageId, System.currentTimeMillis(), request);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeEnqueue(new DataOutputStream(bytes), entry);
+        append(bytes);
+        pending.put(messageId, entry);
+        return entry;
+    }
+
+    /**
+     * Marks the request for {@code messageId} as answered so it is not replayed again.
+     */
+    public synchronized void complete(long messageId) throws IOException {
+        if (pending.remove(messageId) == null) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(RECORD_COMPLETE);
+        record.writeLong(messageId);
+        append(bytes);
+        completedRecords++;
+        if (pending.isEmpty() || completedRecords >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Pending entries, oldest first.
+     */
+    public synchronized List<Entry> getPending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void append(ByteArrayOutputStream record) throws IOException {
+        // One write per record so a crash can only tear the last one
+        out.write(record.toByteArray());
+        out.getFD().sync();
+    }
+
+    private void replay() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long validLength = 0;
+        boolean torn = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                long messageId = in.readLong();
+                if (type == RECORD_ENQUEUE || type == RECORD_ENQUEUE_IMAGE) {
+                    long enqueuedAt = in.readLong();
+                    String mode = readString(in);
+                    String prompt = readString(in);
+                    String context = readString(in);
+                    String systemPrompt = readString(in);
+                    String imagePath = type == RECORD_ENQUEUE_IMAGE ? readString(in) : null;
+                    LlmmRequest request = new LlmmRequest(prompt, context, systemPrompt,
+                            PerformanceProfile.fromMode(mode), imagePath);
+                    pending.put(messageId, new Entry(messageId, enqueuedAt, request));
+                    validLength += 1 + 8 + 8 + encodedLength(mode) + encodedLength(prompt)
+                            + encodedLength(context) + encodedLength(systemPrompt)
+                            + (imagePath != null ? encodedLength(imagePath) : 0);
+                } else if (type == RECORD_COMPLETE) {
+                    pending.remove(messageId);
+                    completedRecords++;
+                    validLength += 1 + 8;
+                } else {
+                    torn = true;
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            torn = true;
+        }
+        if (torn) {
+            // A crash tore the last record; drop it so new records start on a clean boundary
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        List<Entry> entries = new ArrayList<>(pending.values());
+        try (FileOutputStream tempOut = new FileOutputStream(temp)) {
+            DataOutputStream record = new DataOutputStream(tempOut);
+            for (Entry entry : entries) {
+                writeEnqueue(record, entry);
+            }
+            record.flush();
+            tempOut.getFD().sync();
+        }
+        out.close();
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            out = new FileOutputStream(file, true);
+            throw new IOException("Could not compact outbox journal " + file);
+        }
+        out = new FileOutputStream(file, true);
+        completedRecords = 0;
+    }
+
+    private static void writeEnqueue(DataOutputStream record, Entry entry) throws IOException {
+        LlmmRequest request = entry.request;
+        record.writeByte(request.getImagePath() != null ? RECORD_ENQUEUE_IMAGE : RECORD_ENQUEUE);
+        record.writeLong(entry.messageId);
+        record.writeLong(entry.enqueuedAt);
+        writeString(record, request.getPerformanceMode());
+        writeString(record, request.getPrompt());
+        writeString(record, request.getContext());
+        writeString(record, request.getSystemPrompt());
+        if (request.getImagePath() != null) {
+            writeString(record, request.getImagePath());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        // writeUTF is limited to 64 KB, which a long conversation context can exceed
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            // Only a torn record can hold a garbage length
+            throw new EOFException("Corrupt outbox string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long encodedLength(String value) {
+        return 4 + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
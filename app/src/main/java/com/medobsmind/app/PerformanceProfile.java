@@ -0,0 +1,143 @@
+package com.medobsmind.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Concrete request and capture settings behind each MedObsMind LLMM performance mode.
+ * The saved mode is read once and shared; it is refreshed automatically when Settings saves a
+ * new one.
+ */
+public enum PerformanceProfile {
+    MAXIMUM_ACCURACY("Maximum Accuracy", 2048, true, 8192, 90000, 1, 1024, 768, CachePolicy.SHORT, false),
+    BALANCED("Balanced", 1024, true, 4096, 60000, 2, 640, 480, CachePolicy.LONG, false),
+    FAST_RESPONSE("Fast Response", 256, true, 1024, 15000, 5, 320, 240, CachePolicy.LONG, true),
+    DETAILED_ANALYSIS("Detailed Analysis", 4096, true, 8192, 120000, 1, 1024, 768, CachePolicy.SHORT, false),
+    STANDARD("Standard", 512, false, 2048, 30000, 2, 512, 384, CachePolicy.LONG, true);
+
+    public enum CachePolicy {
+        DISABLED(0),
+        SHORT(15 * 60 * 1000L),
+        LONG(24 * 60 * 60 * 1000L);
+
+        private final long ttlMs;
+
+        CachePolicy(long ttlMs) {
+            this.ttlMs = ttlMs;
+        }
+
+        public long getTtlMs() {
+            return ttlMs;
+        }
+
+        public boolean isEnabled() {
+            return ttlMs > 0;
+        }
+    }
+
+    public static final String PREFS_NAME = "MedObsMindPrefs";
+    public static final String PREF_MODEL = "selected_model";
+
+    private static volatile PerformanceProfile current;
+    // Held statically because SharedPreferences only keeps weak references to listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener PREFERENCE_LISTENER =
+        (prefs, key) -> {
+            if (PREF_MODEL.equals(key)) {
+                current = fromMode(prefs.getString(PREF_MODEL, BALANCED.displayName));
+            }
+        };
+
+    private final String displayName;
+    private final int maxTokens;
+    private final boolean streaming;
+    private final int contextWindowTokens;
+    private final int timeoutMs;
+    private final int videoFramesPerSecond;
+    private final int videoWidth;
+    private final int videoHeight;
+    private final CachePolicy cachePolicy;
+    private final boolean localInference;
+
+    PerformanceProfile(String displayName, int maxTokens, boolean streaming, int contextWindowTokens,
+                       int timeoutMs, int videoFramesPerSecond, int videoWidth, int videoHeight,
+                       CachePolicy cachePolicy, boolean localInference) {
+        this.displayName = displayName;
+        this.maxTokens = maxTokens;
+        this.streaming = streaming;
+        this.contextWindowTokens = contextWindowTokens;
+        this.timeoutMs = timeoutMs;
+        this.videoFramesPerSecond = videoFramesPerSecond;
+        this.videoWidth = videoWidth;
+        this.videoHeight = videoHeight;
+        this.cachePolicy = cachePolicy;
+        this.localInference = localInference;
+    }
+
+    public static PerformanceProfile fromMode(String mode) {
+        for (PerformanceProfile profile : values()) {
+            if (profile.displayName.equals(mode)) {
+                return profile;
+            }
+        }
+        return BALANCED;
+    }
+
+    public static PerformanceProfile current(Context context) {
+        PerformanceProfile profile = current;
+        if (profile == null) {
+            synchronized (PerformanceProfile.class) {
+                if (current == null) {
+                    SharedPreferences prefs = context.getApplicationContext()
+                        .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+                    prefs.registerOnSharedPreferenceChangeListener(PREFERENCE_LISTENER);
+                    current = fromMode(prefs.getString(PREF_MODEL, BALANCED.displayName));
+                }
+                profile = current;
+            }
+        }
+        return profile;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public int getContextWindowTokens() {
+        return contextWindowTokens;
+    }
+
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public int getVideoFramesPerSecond() {
+        return videoFramesPerSecond;
+    }
+
+    public int getVideoWidth() {
+        return videoWidth;
+    }
+
+    public int getVideoHeight() {
+        return videoHeight;
+    }
+
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    /**
+     * Whether requests in this mode may be answered by the on-device model.
+     */
+    public boolean allowsLocalInference() {
+        return localInference;
+    }
+}
@@ -0,0 +1,72 @@
+package com.medobsmind.app;
+
+/**
+ * A response started speculatively from a stable partial speech hypothesis. Tokens are buffered
+ * until the final transcript confirms the prompt, then replayed into the chat listener, which
+ * keeps receiving the rest of the stream. Callbacks run on the main thread.
+ */
+public class PrefetchedResponse implements LlmmStreamingClient.Listener {
+    private final LlmmRequest request;
+    private final StringBuilder buffered = new StringBuilder();
+    private LlmmStreamingClient.Listener target;
+    private String fullText;
+    private Exception error;
+
+    public PrefetchedResponse(LlmmRequest request) {
+        this.request = request;
+    }
+
+    public LlmmRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * True when the final request would be identical to the one already in flight.
+     */
+    public boolean matches(LlmmRequest other) {
+        return request.getPrompt().equals(other.getPrompt())
+            && request.getPerformanceMode().equals(other.getPerformanceMode())
+            && request.getContext().equals(other.getContext())
+            && String.valueOf(request.getImagePath()).equals(String.valueOf(other.getImagePath()));
+    }
+
+    public void attach(LlmmStreamingClient.Listener listener) {
+        target = listener;
+        if (buffered.length() > 0) {
+            listener.onToken(buffered.toString());
+            buffered.setLength(0);
+        }
+        if (error != null) {
+            listener.onError(error);
+        } else if (fullText != null) {
+            listener.onComplete(fullText);
+        }
+    }
+
+    @Override
+    public void onToken(String token) {
+        if (target != null) {
+            target.onToken(token);
+        } else {
+            buffered.append(token);
+        }
+    }
+
+    @Override
+    public void onComplete(String fullText) {
+        if (target != null) {
+            target.onComplete(fullText);
+        } else {
+            this.fullText = fullText;
+        }
+    }
+
+    @Override
+    public void onError(Exception e) {
+        if (target != null) {
+            target.onError(e);
+        } else {
+            error = e;
+        }
+    }
+}
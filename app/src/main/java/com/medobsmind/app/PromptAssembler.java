@@ -0,0 +1,151 @@
+package com.medobsmind.app;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps the conversation context sent with each request, updated one turn at a time. Every
+ * turn is serialised and its tokens estimated once, when it is appended. The window keeps
+ * only the newest turns that fit the token budget. Turns pushed out of the window are folded
+ * into a running summary checkpoint at the front. Building a prompt reuses the cached prefix,
+ * so the per-turn cost depends on the window size, not on how long the consult has run.
+ * Only touched from the main thread.
+ */
+public class PromptAssembler {
+    /**
+     * Condenses turns that have left the window. The default keeps each turn's first sentence.
+     */
+    public interface Summarizer {
+        String summarize(String previousSummary, String evictedTurns);
+    }
+
+    // Role labels and separators cost a few tokens on top of the text itself
+    private static final int TURN_OVERHEAD_TOKENS = 4;
+    private static final int MAX_SUMMARY_CHARS = 2000;
+
+    private static final class Turn {
+        final String serialized;
+        final int tokens;
+
+        Turn(String serialized, int tokens) {
+            this.serialized = serialized;
+            this.tokens = tokens;
+        }
+    }
+
+    private final ArrayDeque<Turn> window = new ArrayDeque<>();
+    private final StringBuilder serializedWindow = new StringBuilder();
+    private final StringBuilder evictedSinceCheckpoint = new StringBuilder();
+    private final Summarizer summarizer;
+    private final int summaryInterval;
+    private int budgetTokens;
+    private int windowTokens;
+    private int evictedCount;
+    private String summary = "";
+    private String cachedPrefix;
+
+    /**
+     * @param summaryInterval number of evicted turns folded into each summary checkpoint
+     */
+    public PromptAssembler(int budgetTokens, int summaryInterval, Summarizer summarizer) {
+        this.budgetTokens = budgetTokens;
+        this.summaryInterval = summaryInterval;
+        this.summarizer = summarizer != null ? summarizer : PromptAssembler::firstSentences;
+    }
+
+    public static int estimateTokens(String text) {
+        // Roughly four characters per token for English clinical text
+        return (text.length() + 3) / 4;
+    }
+
+    public void setBudgetTokens(int budgetTokens) {
+        this.budgetTokens = budgetTokens;
+        evictOverBudget();
+    }
+
+    public void append(ChatMessage message) {
+        String serialized = (message.isUser() ? "User: " : "MedObsMind: ") + message.getMessage() + "\n";
+        Turn turn = new Turn(serialized, estimateTokens(message.getMessage()) + TURN_OVERHEAD_TOKENS);
+        window.addLast(turn);
+        serializedWindow.append(serialized);
+        windowTokens += turn.tokens;
+        cachedPrefix = null;
+        evictOverBudget();
+    }
+
+    public void clear() {
+        window.clear();
+        serializedWindow.setLength(0);
+        evictedSinceCheckpoint.setLength(0);
+        windowTokens = 0;
+        evictedCount = 0;
+        summary = "";
+        cachedPrefix = null;
+    }
+
+    /**
+     * Returns the context to send ahead of the new user prompt: the summary checkpoint (if any)
+     * followed by the turns still in the window.
+     */
+    public String getContext() {
+        if (cachedPrefix == null) {
+            cachedPrefix = summary.isEmpty()
+                ? serializedWindow.toString()
+                : "Summary of earlier conversation: " + summary + "\n" + serializedWindow;
+        }
+        return cachedPrefix;
+    }
+
+    public int getWindowTokens() {
+        return windowTokens + (summary.isEmpty() ? 0 : estimateTokens(summary) + TURN_OVERHEAD_TOKENS);
+    }
+
+    public int getWindowTurnCount() {
+        return window.size();
+    }
+
+    private void evictOverBudget() {
+        while (!window.isEmpty() && getWindowTokens() > budgetTokens) {
+            Turn oldest = window.removeFirst();
+            windowTokens -= oldest.tokens;
+            // The window is bounded by the budget, so this shift does not grow with the consult
+            serializedWindow.delete(0, oldest.serialized.length());
+            evictedSinceCheckpoint.append(oldest.serialized);
+            cachedPrefix = null;
+            if (++evictedCount % summaryInterval == 0) {
+                checkpoint();
+            }
+        }
+    }
+
+    private void checkpoint() {
+        String updated = summarizer.summarize(summary, evictedSinceCheckpoint.toString());
+        // Keep the summary itself from growing into the budget it is meant to save
+        summary = updated.length() > MAX_SUMMARY_CHARS
+            ? updated.substring(updated.length() - MAX_SUMMARY_CHARS)
+            : updated;
+        evictedSinceCheckpoint.setLength(0);
+        cachedPrefix = null;
+    }
+
+    static String firstSentences(String previousSummary, String evictedTurns) {
+        StringBuilder result = new StringBuilder(previousSummary);
+        for (String line : evictedTurns.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int end = line.length();
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if ((c == '.' || c == '?' || c == '!') && i > line.indexOf(':')) {
+                    end = i + 1;
+                    break;
+                }
+            }
+            if (result.length() > 0) {
+                result.append(' ');
+            }
+            result.append(line, 0, end);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,47 @@
+package com.medobsmind.app;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The MedObsMind LLMM service, reached through whichever {@link LlmmTransport} the app is
+ * configured for. Available while the device has a network.
+ */
+public class RemoteInferenceEngine implements InferenceEngine {
+    public interface NetworkState {
+        boolean isOnline();
+    }
+
+    private final LlmmTransport transport;
+    private final NetworkState networkState;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public RemoteInferenceEngine(LlmmTransport transport, NetworkState networkState) {
+        this.transport = transport;
+        this.networkState = networkState;
+    }
+
+    public LlmmTransport getTransport() {
+        return transport;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return networkState.isOnline();
+    }
+
+    @Override
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    @Override
+    public void stream(LlmmRequest request, TokenSink sink) throws IOException {
+        pending.incrementAndGet();
+        try {
+            transport.stream(request, sink);
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+}
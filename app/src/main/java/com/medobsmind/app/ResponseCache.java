@@ -0,0 +1,309 @@
+package com.medobsmind.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Two-tier cache of complete LLMM answers: an in-memory LRU in front of a size-capped directory
+ * of files. Entries expire after the TTL of the performance mode that produced them. Keys are
+ * the normalised prompt, the performance mode and a digest of the system prompt, so rewording
+ * the system prompt never serves stale answers. A follow-up that refers back to the
+ * conversation is also keyed by a digest of the context, so it is never answered from another
+ * conversation; a standalone question is not, so asking it again in a later turn still hits.
+ * Disk access happens on the caller's thread; call from a worker.
+ */
+public class ResponseCache {
+    private static final String FILE_SUFFIX = ".txt";
+    // Words that point back at the conversation: pronouns, the patient, and references to
+    // earlier turns. A question without any is answered the same in every conversation
+    private static final Set<String> CONTEXT_WORDS = new HashSet<>(Arrays.asList(
+        "it", "its", "that", "this", "these", "those", "they", "them", "their", "he", "him", "his",
+        "she", "her", "hers", "i", "me", "my", "we", "us", "our", "patient", "patients", "same",
+        "above", "previous", "earlier", "before", "again", "last", "then", "also", "else", "more"));
+
+    private final int maxMemoryEntries;
+    private final long maxDiskBytes;
+    private final File directory;
+    private final Map<String, Entry> memory;
+    // Guards the directory and diskBytes, so slow file writes never block memory hits
+    private final Object diskLock = new Object();
+    private long diskBytes = -1;
+
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+    private long latencySavedMs;
+    private double averageMissLatencyMs;
+
+    private static final class Entry {
+        final String response;
+        final long expiresAtMs;
+
+        Entry(String response, long expiresAtMs) {
+            this.response = response;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    public ResponseCache(File directory, int maxMemoryEntries, long maxDiskBytes) {
+        this.directory = directory;
+        this.maxMemoryEntries = maxMemoryEntries;
+        this.maxDiskBytes = maxDiskBytes;
+        this.memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            // Qualified: inside a map subclass the bare name Entry means Map.Entry
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResponseCache.Entry> eldest) {
+                return size() > ResponseCache.this.maxMemoryEntries;
+            }
+        };
+    }
+
+    public static String key(LlmmRequest request) {
+        // A follow-up means something else after a different conversation, and an answer about
+        // an image only fits that image. Digests rather than hashCode, as a collision would
+        // serve an answer meant for another prompt or conversation.
+        String prompt = normalize(request.getPrompt());
+        String context = request.getContext();
+        boolean conversational = context != null && !context.isEmpty() && dependsOnContext(prompt);
+        return prompt + '\u0000' + request.getPerformanceMode()
+            + '\u0000' + sha256(String.valueOf(request.getSystemPrompt()))
+            + (conversational ? "\u0000context:" + sha256(context) : "")
+            + (request.getImagePath() != null ? "\u0000image:" + request.getImagePath() : "");
+    }
+
+    /**
+     * Whether a normalised prompt refers back to the conversation, e.g. "is that normal", as
+     * opposed to a standalone question such as "what is a normal adult heart rate". Errs
+     * towards true, which only costs a cache miss.
+     */
+    static boolean dependsOnContext(String normalizedPrompt) {
+        for (String word : normalizedPrompt.split("[^\\p{L}]+")) {
+            if (CONTEXT_WORDS.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Folds case, whitespace and trailing punctuation so trivially different phrasings of the
+     * same question share an entry.
+     */
+    static String normalize(String prompt) {
+        String collapsed = prompt.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        int end = collapsed.length();
+        while (end > 0 && "?.!".indexOf(collapsed.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return collapsed.substring(0, end).trim();
+    }
+
+    public String get(String key) {
+        long startNanos = System.nanoTime();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                if (entry.expiresAtMs > now) {
+                    memoryHits++;
+                    recordSaved(startNanos);
+                    return entry.response;
+                }
+                memory.remove(key);
+            }
+        }
+
+        Entry entry = readFromDisk(key, now);
+        synchronized (this) {
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            memory.put(key, entry);
+            diskHits++;
+            recordSaved(startNanos);
+            return entry.response;
+        }
+    }
+
+    public void put(String key, String response, long ttlMs) {
+        if (ttlMs <= 0 || response.isEmpty()) {
+            return;
+        }
+        Entry entry = new Entry(response, System.currentTimeMillis() + ttlMs);
+        synchronized (this) {
+            memory.put(key, entry);
+        }
+        writeToDisk(key, entry);
+    }
+
+    /**
+     * Feeds the latency of answers that had to go to the API, used to estimate time saved by hits.
+     */
+    public synchronized void recordMissLatency(long latencyMs) {
+        averageMissLatencyMs = averageMissLatencyMs == 0
+            ? latencyMs
+            : 0.2 * latencyMs + 0.8 * averageMissLatencyMs;
+    }
+
+    public synchronized long getMemoryHits() {
+        return memoryHits;
+    }
+
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getLatencySavedMs() {
+        return latencySavedMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "cache hits %d memory / %d disk, %d misses, %d ms saved",
+            memoryHits, diskHits, misses, latencySavedMs);
+    }
+
+    private void recordSaved(long startNanos) {
+        long hitMs = (System.nanoTime() - startNanos) / 1_000_000;
+        latencySavedMs += Math.max(0, (long) averageMissLatencyMs - hitMs);
+    }
+
+    private Entry readFromDisk(String key, long now) {
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] bytes = readFully(in, (int) file.length());
+            String contents = new String(bytes, StandardCharsets.UTF_8);
+            int newline = contents.indexOf('\n');
+            long expiresAtMs = Long.parseLong(contents.substring(0, newline));
+            if (expiresAtMs <= now) {
+                deleteFile(file);
+                return null;
+            }
+            return new Entry(contents.substring(newline + 1), expiresAtMs);
+        } catch (IOException | RuntimeException e) {
+            // A torn or foreign file is just a miss
+            deleteFile(file);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        synchronized (diskLock) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+            File file = fileFor(key);
+            File temp = new File(directory, file.getName() + ".tmp");
+            byte[] bytes = (entry.expiresAtMs + "\n" + entry.response).getBytes(StandardCharsets.UTF_8);
+            try (OutputStream out = new FileOutputStream(temp)) {
+                out.write(bytes);
+            } catch (IOException e) {
+                temp.delete();
+                return;
+            }
+            ensureDiskSize();
+            long previous = file.length();
+            // Rename so readers never see a half-written file
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+            diskBytes += bytes.length - previous;
+            trimDisk();
+        }
+    }
+
+    private void ensureDiskSize() {
+        if (diskBytes >= 0) {
+            return;
+        }
+        diskBytes = 0;
+        for (File file : listEntries()) {
+            diskBytes += file.length();
+        }
+    }
+
+    private void trimDisk() {
+        if (diskBytes <= maxDiskBytes) {
+            return;
+        }
+        File[] files = listEntries();
+        // Oldest written first
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (diskBytes <= maxDiskBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private void deleteFile(File file) {
+        synchronized (diskLock) {
+            long length = file.length();
+            if (file.delete() && diskBytes >= 0) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private File[] listEntries() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        return files != null ? files : new File[0];
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, sha256(key) + FILE_SUFFIX);
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(bytes, offset, length - offset);
+            if (read < 0) {
+                throw new IOException("Truncated cache file");
+            }
+            offset += read;
+        }
+        return bytes;
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
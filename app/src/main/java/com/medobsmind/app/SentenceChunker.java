@@ -0,0 +1,86 @@
+package com.medobsmind.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits streamed answer text into sentences as soon as each one is complete, so speech can
+ * start before the rest of the answer has arrived. Decimals ("2.5 mg") and common clinical
+ * abbreviations ("e.g.", "Dr.") do not end a sentence.
+ */
+public class SentenceChunker {
+    private static final String[] ABBREVIATIONS = {
+        "e.g.", "i.e.", "dr.", "vs.", "approx.", "etc.", "no.", "mr.", "mrs.", "ms.", "st."
+    };
+
+    private final int minChunkChars;
+    private final StringBuilder pending = new StringBuilder();
+    private int scanFrom;
+
+    /**
+     * @param minChunkChars shorter sentences are merged with the next one to avoid choppy audio
+     */
+    public SentenceChunker(int minChunkChars) {
+        this.minChunkChars = minChunkChars;
+    }
+
+    public List<String> append(String text) {
+        pending.append(text);
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        // A boundary needs the following character, so stop one short of the end
+        for (int i = Math.max(scanFrom, 0); i < pending.length() - 1; i++) {
+            if (isBoundary(i) && i + 1 - start >= minChunkChars) {
+                String chunk = pending.substring(start, i + 1).trim();
+                if (!chunk.isEmpty()) {
+                    chunks.add(chunk);
+                }
+                start = i + 1;
+            }
+        }
+        pending.delete(0, start);
+        scanFrom = Math.max(0, pending.length() - 1);
+        return chunks;
+    }
+
+    /**
+     * Returns whatever text is left once the stream has ended, or null if there is none.
+     */
+    public String flush() {
+        String rest = pending.toString().trim();
+        reset();
+        return rest.isEmpty() ? null : rest;
+    }
+
+    public void reset() {
+        pending.setLength(0);
+        scanFrom = 0;
+    }
+
+    private boolean isBoundary(int index) {
+        char c = pending.charAt(index);
+        char next = pending.charAt(index + 1);
+        if (c == '\n') {
+            return true;
+        }
+        if ((c != '.' && c != '?' && c != '!') || !Character.isWhitespace(next)) {
+            return false;
+        }
+        return c != '.' || !endsWithAbbreviation(index);
+    }
+
+    private boolean endsWithAbbreviation(int periodIndex) {
+        int wordStart = periodIndex;
+        while (wordStart > 0 && !Character.isWhitespace(pending.charAt(wordStart - 1))) {
+            wordStart--;
+        }
+        String word = pending.substring(wordStart, periodIndex + 1).toLowerCase(Locale.ROOT);
+        for (String abbreviation : ABBREVIATIONS) {
+            if (word.equals(abbreviation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,51 @@
+package com.medobsmind.app;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * On-disk layout of a recorded video session. A session is a directory of numbered segment
+ * files and one index file. Segments hold records back to back, each a header followed by its
+ * payload; a new segment is started before a record would push the current one past the
+ * segment size. The index holds one fixed-size entry per record, in timestamp order, so any
+ * time in the session is found by binary search. All numbers are big-endian.
+ *
+ * <pre>
+ * Record   1 byte type, 8 bytes timestamp_ms, 4 bytes payload length, payload
+ *          type 1: frame, payload is the JPEG; type 2: annotation, payload is UTF-8 text
+ * Index    8 bytes timestamp_ms, 4 bytes segment number, 4 bytes offset in the segment
+ * </pre>
+ *
+ * Timestamps are milliseconds since the session started.
+ */
+public final class SessionFormat {
+    public static final byte RECORD_FRAME = 1;
+    public static final byte RECORD_ANNOTATION = 2;
+
+    static final int RECORD_HEADER_BYTES = 1 + 8 + 4;
+    static final int INDEX_ENTRY_BYTES = 8 + 4 + 4;
+
+    static final String INDEX_FILE = "index.bin";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".rec";
+
+    private SessionFormat() {}
+
+    static File segmentFile(File directory, int segment) {
+        return new File(directory, String.format(Locale.US, "%s%05d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Number of the segment file called {@code name}, or -1 if it is not a segment.
+     */
+    static int segmentNumber(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.medobsmind.app;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a session written by {@link SessionRecorder}. {@link #find} locates the first record
+ * at or after a time with a binary search over the index, reading O(log n) index entries;
+ * {@link #next} then walks forward through the segments. A session still being recorded can be
+ * read too: records and entries written after the last sync may simply not be seen yet, and a
+ * record torn by a crash reads as the end of the session.
+ */
+public class SessionReader implements Closeable {
+    /**
+     * One frame or annotation and where it is stored.
+     */
+    public static final class Record {
+        private final byte type;
+        private final long timestampMs;
+        private final byte[] payload;
+        private final int segment;
+        private final long offset;
+
+        Record(byte type, long timestampMs, byte[] payload, int segment, long offset) {
+            this.type = type;
+            this.timestampMs = timestampMs;
+            this.payload = payload;
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        /**
+         * {@link SessionFormat#RECORD_FRAME} or {@link SessionFormat#RECORD_ANNOTATION}.
+         */
+        public byte getType() {
+            return type;
+        }
+
+        public long getTimestampMs() {
+            return timestampMs;
+        }
+
+        /**
+         * The JPEG of a frame, or the UTF-8 text of an annotation.
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public String getText() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final File directory;
+    private final FileChannel index;
+    private final ByteBuffer entry = ByteBuffer.allocate(SessionFormat.INDEX_ENTRY_BYTES);
+    private final ByteBuffer header = ByteBuffer.allocate(SessionFormat.RECORD_HEADER_BYTES);
+
+    public SessionReader(File directory) throws IOException {
+        this.directory = directory;
+        // RandomAccessFile rather than FileChannel.open, which needs API 26
+        this.index = new RandomAccessFile(new File(directory, SessionFormat.INDEX_FILE), "r").getChannel();
+    }
+
+    /**
+     * The first record at or after {@code timestampMs} that is still on disk, or null if there
+     * is none.
+     */
+    public synchronized Record find(long timestampMs) throws IOException {
+        // A torn last entry is ignored
+        long count = index.size() / SessionFormat.INDEX_ENTRY_BYTES;
+        int oldest = oldestSegment();
+        if (oldest < 0) {
+            return null;
+        }
+        // Entries are in segment order as well, so the expired ones are a prefix
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            readEntry(mid);
+            if (entry.getInt(8) < oldest) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        high = count;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            readEntry(mid);
+            if (entry.getLong(0) < timestampMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == count) {
+            return null;
+        }
+        readEntry(low);
+        return read(entry.getInt(8), entry.getInt(12));
+    }
+
+    /**
+     * The record written after {@code record}, or null if it is the last one.
+     */
+    public synchronized Record next(Record record) throws IOException {
+        long offset = record.offset + SessionFormat.RECORD_HEADER_BYTES + record.payload.length;
+        File file = SessionFormat.segmentFile(directory, record.segment);
+        if (offset < file.length()) {
+            return read(record.segment, offset);
+        }
+        // The next segment only exists once the recorder rotated
+        return read(record.segment + 1, 0);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.close();
+    }
+
+    private void readEntry(long position) throws IOException {
+        entry.clear();
+        readFully(index, entry, position * SessionFormat.INDEX_ENTRY_BYTES);
+    }
+
+    private Record read(int segment, long offset) throws IOException {
+        File file = SessionFormat.segmentFile(directory, segment);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            long size = channel.size();
+            if (offset + SessionFormat.RECORD_HEADER_BYTES > size) {
+                return null;
+            }
+            header.clear();
+            readFully(channel, header, offset);
+            byte type = header.get(0);
+            long timestampMs = header.getLong(1);
+            int length = header.getInt(9);
+            if (length < 0 || offset + SessionFormat.RECORD_HEADER_BYTES + length > size) {
+                return null;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, offset + SessionFormat.RECORD_HEADER_BYTES);
+            return new Record(type, timestampMs, payload.array(), segment, offset);
+        }
+    }
+
+    private int oldestSegment() {
+        String[] names = directory.list();
+        int oldest = -1;
+        if (names != null) {
+            for (String name : names) {
+                int segment = SessionFormat.segmentNumber(name);
+                if (segment >= 0 && (oldest < 0 || segment < oldest)) {
+                    oldest = segment;
+                }
+            }
+        }
+        return oldest;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + channel);
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.medobsmind.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records a video session to disk, in the layout described by {@link SessionFormat}: the frames
+ * that were uploaded and the interpretations that came back. Callers never touch the disk. A
+ * record is copied into one of a fixed set of direct buffers allocated up front and handed to a
+ * writer thread, which writes it with a {@link FileChannel} and syncs the segment and the index
+ * once per sync interval rather than once per record. When every buffer is waiting for the
+ * disk, a frame is dropped instead of blocking the camera's analysis thread; an annotation
+ * waits briefly for a buffer, as there are few of them and they matter more.
+ *
+ * <p>Only the newest segments are kept, so a long session cannot fill the device, and
+ * {@link #pruneSessions} deletes the oldest sessions once together they pass a size cap. Index
+ * entries are only written for records whose timestamp is not older than the previous one's.
+ */
+public class SessionRecorder {
+    /**
+     * Told on the writer thread that recording stopped because the disk failed.
+     */
+    public interface ErrorListener {
+        void onRecordingFailed(IOException e);
+    }
+
+    private static final String TAG = "SessionRecorder";
+    // Long enough to ride out one sync, short enough not to stall the analysis thread
+    private static final long ANNOTATION_WAIT_MS = 100;
+    // Index entries collected between syncs; 4 KB
+    private static final int INDEX_BATCH_ENTRIES = 256;
+    // Queued after the last record to stop the writer
+    private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+
+    private final File directory;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final long syncIntervalNanos;
+    private final int bufferBytes;
+    private final ErrorListener errorListener;
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    // One slot more than there are buffers, so CLOSE always fits
+    private final ArrayBlockingQueue<ByteBuffer> filled;
+    private final Thread writer;
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final MetricsRegistry metrics = MetricsRegistry.get();
+    // Written under this lock, so no record is queued after CLOSE; read without it to refuse early
+    private volatile boolean closed;
+    private volatile boolean failed;
+
+    // Only touched on the writer thread
+    private final ByteBuffer indexBuffer = ByteBuffer.allocateDirect(INDEX_BATCH_ENTRIES * SessionFormat.INDEX_ENTRY_BYTES);
+    private FileChannel segment;
+    private FileChannel index;
+    private int segmentNumber = -1;
+    private long segmentOffset;
+    private long lastIndexedMs = Long.MIN_VALUE;
+    private long lastSyncNanos;
+    private boolean unsynced;
+
+    /**
+     * Starts recording into {@code directory}, which must not hold another session.
+     *
+     * @param segmentBytes   size a segment is not allowed to grow past, unless one record is larger
+     * @param maxSegments    number of newest segments kept; older ones are deleted
+     * @param buffers        number of records that can wait for the disk
+     * @param bufferBytes    largest record, header included
+     * @param syncIntervalMs longest time a written record waits to be synced
+     */
+    public SessionRecorder(File directory, long segmentBytes, int maxSegments, int buffers, int bufferBytes,
+                           long syncIntervalMs, ErrorListener errorListener) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMs);
+        this.bufferBytes = bufferBytes;
+        this.errorListener = errorListener;
+        this.free = new ArrayBlockingQueue<>(buffers);
+        this.filled = new ArrayBlockingQueue<>(buffers + 1);
+        for (int i = 0; i < buffers; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferBytes));
+        }
+        writer = new Thread(this::writeLoop, "session-recorder");
+        // I/O-bound; the buffers absorb the delay, the camera and render threads come first
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Queues the JPEG between {@code jpeg}'s position and limit, which are left as they are.
+     * Returns false if the frame was dropped; the buffer can be reused as soon as this returns.
+     */
+    public boolean recordFrame(long timestampMs, ByteBuffer jpeg) {
+        if (failed || closed) {
+            return false;
+        }
+        ByteBuffer buffer = free.poll();
+        return buffer != null ? fillAndQueue(buffer, SessionFormat.RECORD_FRAME, timestampMs, jpeg.duplicate())
+            : drop();
+    }
+
+    /**
+     * Queues an interpretation shown at {@code timestampMs}. Returns false if it was dropped.
+     */
+    public boolean recordAnnotation(long timestampMs, String text) {
+        if (failed || closed) {
+            return false;
+        }
+        ByteBuffer buffer;
+        try {
+            buffer = free.poll(ANNOTATION_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return drop();
+        }
+        return buffer != null ? fillAndQueue(buffer, SessionFormat.RECORD_ANNOTATION, timestampMs,
+            ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8))) : drop();
+    }
+
+    /**
+     * Stops accepting records. Records already queued are still written and synced on the
+     * writer thread; this does not wait for them. Records offered afterwards, say by an
+     * analysis thread still finishing an upload, are ignored and not counted as dropped.
+     */
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            filled.add(CLOSE);
+        }
+    }
+
+    /**
+     * Waits for the writer to finish after {@link #close}; true if it did within the timeout.
+     */
+    public boolean awaitClosed(long timeoutMs) throws InterruptedException {
+        writer.join(timeoutMs);
+        return !writer.isAlive();
+    }
+
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Deletes the oldest sessions in {@code root} until the rest take at most {@code maxBytes}.
+     * Sessions are directories named by start time, so name order is age order. {@code current}
+     * is neither counted nor deleted. Returns the number of sessions deleted.
+     */
+    static int pruneSessions(File root, long maxBytes, File current) {
+        File[] sessions = root.listFiles(File::isDirectory);
+        if (sessions == null) {
+            return 0;
+        }
+        // Newest first
+        Arrays.sort(sessions, Collections.reverseOrder());
+        long total = 0;
+        int deleted = 0;
+        for (File session : sessions) {
+            if (session.equals(current)) {
+                continue;
+            }
+            total += sizeOf(session);
+            if (total > maxBytes) {
+                deleteSession(session);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private static long sizeOf(File session) {
+        long size = 0;
+        File[] files = session.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    private static void deleteSession(File session) {
+        File[] files = session.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        session.delete();
+    }
+
+    private boolean fillAndQueue(ByteBuffer buffer, byte type, long timestampMs, ByteBuffer payload) {
+        if (SessionFormat.RECORD_HEADER_BYTES + payload.remaining() > bufferBytes) {
+            free.add(buffer);
+            return drop();
+        }
+        buffer.clear();
+        buffer.put(type).putLong(timestampMs).putInt(payload.remaining()).put(payload);
+        buffer.flip();
+        synchronized (this) {
+            if (closed) {
+                free.add(buffer);
+                return false;
+            }
+            filled.add(buffer);
+        }
+        recorded.incrementAndGet();
+        return true;
+    }
+
+    private boolean drop() {
+        dropped.incrementAndGet();
+        metrics.increment(MetricsRegistry.Counter.VIDEO_RECORD_DROPS);
+        return false;
+    }
+
+    private void writeLoop() {
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            // RandomAccessFile rather than FileChannel.open, which needs API 26
+            index = new RandomAccessFile(new File(directory, SessionFormat.INDEX_FILE), "rw").getChannel();
+            index.position(index.size());
+            while (true) {
+                ByteBuffer buffer;
+                if (unsynced) {
+                    long waitNanos = lastSyncNanos + syncIntervalNanos - System.nanoTime();
+                    buffer = waitNanos > 0 ? filled.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+                } else {
+                    buffer = filled.take();
+                }
+                if (buffer == CLOSE) {
+                    break;
+                }
+                if (buffer != null) {
+                    write(buffer);
+                    free.add(buffer);
+                }
+                if (unsynced && System.nanoTime() - lastSyncNanos >= syncIntervalNanos) {
+                    sync();
+                }
+            }
+            sync();
+        } catch (InterruptedException e) {
+            // Only a process shutting down interrupts the writer
+            failed = true;
+        } catch (IOException e) {
+            fail(e);
+        } catch (Throwable t) {
+            // Anything else ends the recording the same way, rather than killing the app from this thread
+            fail(new IOException("Session recording failed", t));
+        } finally {
+            closeQuietly(segment);
+            closeQuietly(index);
+        }
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        Log.e(TAG, "Recording to " + directory + " failed", e);
+        if (errorListener != null) {
+            errorListener.onRecordingFailed(e);
+        }
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        long timestampMs = record.getLong(1);
+        int length = record.remaining();
+        if (segment == null || (segmentOffset > 0 && segmentOffset + length > segmentBytes)) {
+            rotate();
+        }
+        long offset = segmentOffset;
+        while (record.hasRemaining()) {
+            segment.write(record);
+        }
+        segmentOffset += length;
+        if (!unsynced) {
+            lastSyncNanos = System.nanoTime();
+            unsynced = true;
+        }
+        if (timestampMs >= lastIndexedMs) {
+            if (!indexBuffer.hasRemaining()) {
+                sync();
+            }
+            indexBuffer.putLong(timestampMs).putInt(segmentNumber).putInt((int) offset);
+            lastIndexedMs = timestampMs;
+        }
+    }
+
+    private void rotate() throws IOException {
+        if (segment != null) {
+            // The full segment is synced before anything is written to the next one
+            sync();
+            segment.close();
+        }
+        segmentNumber++;
+        RandomAccessFile file = new RandomAccessFile(SessionFormat.segmentFile(directory, segmentNumber), "rw");
+        try {
+            // A segment left by an earlier run with the same name starts over
+            file.setLength(0);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        segment = file.getChannel();
+        segmentOffset = 0;
+        int expired = segmentNumber - maxSegments;
+        if (expired >= 0) {
+            // The index keeps its entries; readers skip those of deleted segments
+            SessionFormat.segmentFile(directory, expired).delete();
+        }
+    }
+
+    private void sync() throws IOException {
+        long startNanos = System.nanoTime();
+        // Records first, so a synced index entry never points past synced data
+        if (segment != null) {
+            segment.force(false);
+        }
+        indexBuffer.flip();
+        while (indexBuffer.hasRemaining()) {
+            index.write(indexBuffer);
+        }
+        indexBuffer.clear();
+        index.force(false);
+        unsynced = false;
+        lastSyncNanos = System.nanoTime();
+        metrics.recordNanos(MetricsRegistry.Stage.VIDEO_RECORD_SYNC, lastSyncNanos - startNanos);
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not close a session file", e);
+        }
+    }
+}
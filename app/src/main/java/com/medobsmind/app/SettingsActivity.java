@@ -14,9 +14,6 @@ public class SettingsActivity extends AppCompatActivity {
     private RadioButton radioMaxAccuracy, radioBalanced, radioFastResponse, radioDetailedAnalysis, radioStandard;
     private Button saveButton;
     
-    private static final String PREFS_NAME = "MedObsMindPrefs";
-    private static final String PREF_MODEL = "selected_model";
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -44,23 +41,20 @@ public class SettingsActivity extends AppCompatActivity {
     }
 
     private void loadSavedModel() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        String savedModel = prefs.getString(PREF_MODEL, "Balanced");
-
-        switch (savedModel) {
-            case "Maximum Accuracy":
+        switch (PerformanceProfile.current(this)) {
+            case MAXIMUM_ACCURACY:
                 radioMaxAccuracy.setChecked(true);
                 break;
-            case "Balanced":
+            case BALANCED:
                 radioBalanced.setChecked(true);
                 break;
-            case "Fast Response":
+            case FAST_RESPONSE:
                 radioFastResponse.setChecked(true);
                 break;
-            case "Detailed Analysis":
+            case DETAILED_ANALYSIS:
                 radioDetailedAnalysis.setChecked(true);
                 break;
-            case "Standard":
+            case STANDARD:
                 radioStandard.setChecked(true);
                 break;
         }
@@ -74,23 +68,23 @@ public class SettingsActivity extends AppCompatActivity {
             return;
         }
 
-        String selectedModel = "";
+        PerformanceProfile selectedProfile = PerformanceProfile.BALANCED;
         if (selectedId == R.id.radioGpt4) {
-            selectedModel = "Maximum Accuracy";
+            selectedProfile = PerformanceProfile.MAXIMUM_ACCURACY;
         } else if (selectedId == R.id.radioGpt35) {
-            selectedModel = "Balanced";
+            selectedProfile = PerformanceProfile.BALANCED;
         } else if (selectedId == R.id.radioClaude) {
-            selectedModel = "Fast Response";
+            selectedProfile = PerformanceProfile.FAST_RESPONSE;
         } else if (selectedId == R.id.radioPalm) {
-            selectedModel = "Detailed Analysis";
+            selectedProfile = PerformanceProfile.DETAILED_ANALYSIS;
         } else if (selectedId == R.id.radioLlama) {
-            selectedModel = "Standard";
+            selectedProfile = PerformanceProfile.STANDARD;
         }
 
-        // Save to SharedPreferences
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        // Save to SharedPreferences; the shared PerformanceProfile picks the change up
+        SharedPreferences prefs = getSharedPreferences(PerformanceProfile.PREFS_NAME, MODE_PRIVATE);
         SharedPreferences.Editor editor = prefs.edit();
-        editor.putString(PREF_MODEL, selectedModel);
+        editor.putString(PerformanceProfile.PREF_MODEL, selectedProfile.getDisplayName());
         editor.apply();
 
         Toast.makeText(this, R.string.settings_saved, Toast.LENGTH_SHORT).show();
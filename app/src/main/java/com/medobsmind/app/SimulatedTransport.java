@@ -0,0 +1,44 @@
+package com.medobsmind.app;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Local stand-in for the MedObsMind LLMM API used until a backend endpoint is configured.
+ * Emits the placeholder answer word by word so the streaming path is exercised end to end.
+ */
+public class SimulatedTransport implements LlmmTransport {
+    private final long tokenDelayMs;
+
+    public SimulatedTransport(long tokenDelayMs) {
+        this.tokenDelayMs = tokenDelayMs;
+    }
+
+    @Override
+    public void stream(LlmmRequest request, TokenSink sink) throws InterruptedIOException {
+        String response = "This is a simulated response from MedObsMind LLMM (running in " +
+            request.getPerformanceMode() + " mode).\n\n" +
+            "MedObsMind is a Large Language Medical Model specialized for healthcare and medical informatics.\n\n" +
+            "In a production app, Dsquare Med-assist platform would connect to the MedObsMind LLMM API.\n\n" +
+            "Your message: \"" + request.getPrompt() + "\"";
+
+        int start = 0;
+        while (start < response.length()) {
+            // Split after each run of whitespace so tokens concatenate back to the original text
+            int end = start;
+            while (end < response.length() && !Character.isWhitespace(response.charAt(end))) {
+                end++;
+            }
+            while (end < response.length() && Character.isWhitespace(response.charAt(end))) {
+                end++;
+            }
+            try {
+                Thread.sleep(tokenDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("LLMM stream cancelled");
+            }
+            sink.onToken(response.substring(start, end));
+            start = end;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.medobsmind.app;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets concurrent identical requests share one backend call. The first caller for a key runs
+ * the call on its own thread; callers arriving while it runs join it instead: they receive
+ * the text streamed so far in one piece, then every further token, and return or throw when
+ * the shared call does. Bookkeeping is split over lock stripes by key hash, so requests for
+ * different keys never wait on each other to start or finish.
+ */
+public class SingleFlight<K> {
+    public interface Call {
+        void run(LlmmTransport.TokenSink sink) throws IOException;
+    }
+
+    private final Stripe[] stripes;
+    private final MetricsRegistry.Counter savedCounter;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong saved = new AtomicLong();
+
+    private static final class Stripe {
+        final Map<Object, Flight> flights = new HashMap<>();
+    }
+
+    // Guarded by its own monitor; tokens are forwarded under it so a joining caller cannot
+    // miss one between the replay and its first forwarded token
+    private static final class Flight {
+        final StringBuilder text = new StringBuilder();
+        final List<LlmmTransport.TokenSink> followers = new ArrayList<>();
+        boolean done;
+        boolean cancelled;
+        IOException error;
+    }
+
+    /**
+     * @param stripeCount rounded up to a power of two
+     * @param savedCounter incremented for every caller served by another's call, or null
+     */
+    public SingleFlight(int stripeCount, MetricsRegistry.Counter savedCounter) {
+        int count = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.savedCounter = savedCounter;
+    }
+
+    /**
+     * Runs {@code call} for {@code key}, or joins the identical call already running, and
+     * streams its tokens to {@code sink} on the calling or the leading thread. A joined call
+     * that is cancelled before anything reached this caller is retried; one cancelled later
+     * fails here too, as the text it would continue is gone.
+     */
+    public void execute(K key, LlmmTransport.TokenSink sink, Call call) throws IOException {
+        Stripe stripe = stripeFor(key);
+        while (true) {
+            Flight flight;
+            boolean leader = false;
+            synchronized (stripe) {
+                flight = stripe.flights.get(key);
+                if (flight == null) {
+                    flight = new Flight();
+                    stripe.flights.put(key, flight);
+                    leader = true;
+                }
+            }
+            if (leader) {
+                lead(stripe, key, flight, sink, call);
+                return;
+            }
+            if (follow(flight, sink)) {
+                return;
+            }
+        }
+    }
+
+    private void lead(Stripe stripe, K key, Flight flight, LlmmTransport.TokenSink sink, Call call)
+            throws IOException {
+        calls.incrementAndGet();
+        IOException error = null;
+        try {
+            call.run(token -> {
+                synchronized (flight) {
+                    flight.text.append(token);
+                    sink.onToken(token);
+                    for (LlmmTransport.TokenSink follower : flight.followers) {
+                        follower.onToken(token);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            error = e;
+            throw e;
+        } catch (RuntimeException e) {
+            error = new IOException("Shared request failed", e);
+            throw e;
+        } finally {
+            // Unpublish first, so a caller arriving from now on starts a fresh call
+            synchronized (stripe) {
+                stripe.flights.remove(key);
+            }
+            boolean cancelled = error instanceof InterruptedIOException || Thread.currentThread().isInterrupted();
+            if (cancelled && error == null) {
+                // A transport may return quietly once interrupted; the text is cut short all the same
+                error = new InterruptedIOException("Shared request cancelled");
+            }
+            synchronized (flight) {
+                flight.done = true;
+                flight.error = error;
+                flight.cancelled = cancelled;
+                flight.notifyAll();
+            }
+        }
+    }
+
+    // Returns false when the leader was cancelled before this caller received anything
+    private boolean follow(Flight flight, LlmmTransport.TokenSink sink) throws IOException {
+        synchronized (flight) {
+            if (flight.done) {
+                // Finished between the lookup and here; its text is complete
+                if (flight.error == null) {
+                    countSaved();
+                    if (flight.text.length() > 0) {
+                        sink.onToken(flight.text.toString());
+                    }
+                    return true;
+                }
+                return false;
+            }
+            boolean received = flight.text.length() > 0;
+            if (received) {
+                sink.onToken(flight.text.toString());
+            }
+            flight.followers.add(sink);
+            try {
+                while (!flight.done) {
+                    flight.wait();
+                }
+            } catch (InterruptedException e) {
+                flight.followers.remove(sink);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Shared request abandoned");
+            }
+            received |= flight.text.length() > 0;
+            if (flight.error == null) {
+                countSaved();
+                return true;
+            }
+            if (!flight.cancelled) {
+                throw flight.error;
+            }
+            if (!received) {
+                return false;
+            }
+            // This caller was not cancelled, so it must not see the leader's cancellation as its own
+            throw new IOException("Shared request was cancelled", flight.error);
+        }
+    }
+
+    private void countSaved() {
+        saved.incrementAndGet();
+        if (savedCounter != null) {
+            MetricsRegistry.get().increment(savedCounter);
+        }
+    }
+
+    private Stripe stripeFor(K key) {
+        int h = key.hashCode();
+        // Spread the high bits down, as HashMap does, before masking
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * Backend calls actually made.
+     */
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    /**
+     * Callers served by another caller's backend call.
+     */
+    public long getSavedCount() {
+        return saved.get();
+    }
+}
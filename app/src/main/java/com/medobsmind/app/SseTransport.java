@@ -0,0 +1,85 @@
+package com.medobsmind.app;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Streams from the MedObsMind LLMM API using Server-Sent Events over the shared
+ * {@link LlmmApiClient}, so every turn reuses its pooled HTTP/2 connection.
+ * Each event's data is one token; a "[DONE]" event ends the stream.
+ */
+public class SseTransport implements LlmmTransport {
+    private static final String DONE = "[DONE]";
+
+    private final LlmmApiClient apiClient;
+
+    public SseTransport(LlmmApiClient apiClient) {
+        this.apiClient = apiClient;
+    }
+
+    @Override
+    public void stream(LlmmRequest request, TokenSink sink) throws IOException {
+        Request httpRequest = new Request.Builder()
+            .url(apiClient.getEndpoint())
+            .header("Accept", "text/event-stream")
+            .post(RequestBody.create(request.toJson(request.readImage()), LlmmApiClient.JSON))
+            .build();
+        // The performance mode decides how long a slow generation may take
+        Call call = apiClient.withReadTimeout(request.getTimeoutMs()).newCall(httpRequest);
+        try (Response response = call.execute()) {
+            if (response.code() != 200) {
+                throw new LlmmHttpException(response.code());
+            }
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8))) {
+                readEvents(reader, sink);
+            }
+        } catch (InterruptedIOException e) {
+            // Release the stream on the shared connection instead of leaving it half-read
+            call.cancel();
+            throw e;
+        }
+    }
+
+    static void readEvents(BufferedReader reader, TokenSink sink) throws IOException {
+        StringBuilder data = new StringBuilder();
+        boolean hasData = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("LLMM stream cancelled");
+            }
+            if (line.isEmpty()) {
+                // A blank line dispatches the event collected so far
+                if (hasData) {
+                    String token = data.toString();
+                    if (DONE.equals(token)) {
+                        return;
+                    }
+                    sink.onToken(token);
+                    data.setLength(0);
+                    hasData = false;
+                }
+            } else if (line.startsWith("data:")) {
+                if (hasData) {
+                    data.append('\n');
+                }
+                String value = line.substring(5);
+                data.append(value.startsWith(" ") ? value.substring(1) : value);
+                hasData = true;
+            }
+            // Comments (":") and other SSE fields are ignored
+        }
+        if (hasData && !DONE.contentEquals(data)) {
+            sink.onToken(data.toString());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.medobsmind.app;
+
+import java.util.Locale;
+
+/**
+ * Time-to-first-token and throughput of the most recent streamed responses.
+ */
+public class StreamMetrics {
+    private long lastTimeToFirstTokenMs = -1;
+    private double lastTokensPerSecond;
+    private long totalTimeToFirstTokenMs;
+    private long streamsWithFirstToken;
+    private long completedStreams;
+
+    public synchronized void recordFirstToken(long timeToFirstTokenMs) {
+        lastTimeToFirstTokenMs = timeToFirstTokenMs;
+        totalTimeToFirstTokenMs += timeToFirstTokenMs;
+        streamsWithFirstToken++;
+    }
+
+    public synchronized void recordCompletion(int tokenCount, long streamDurationMs) {
+        lastTokensPerSecond = streamDurationMs > 0 ? tokenCount * 1000.0 / streamDurationMs : 0;
+        completedStreams++;
+    }
+
+    public synchronized long getLastTimeToFirstTokenMs() {
+        return lastTimeToFirstTokenMs;
+    }
+
+    public synchronized double getAverageTimeToFirstTokenMs() {
+        return streamsWithFirstToken == 0 ? 0 : (double) totalTimeToFirstTokenMs / streamsWithFirstToken;
+    }
+
+    public synchronized double getLastTokensPerSecond() {
+        return lastTokensPerSecond;
+    }
+
+    public synchronized long getCompletedStreams() {
+        return completedStreams;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "TTFT %d ms (avg %.0f ms), %.1f tokens/s over %d streams",
+            lastTimeToFirstTokenMs, getAverageTimeToFirstTokenMs(), lastTokensPerSecond, completedStreams);
+    }
+}
@@ -0,0 +1,73 @@
+package com.medobsmind.app;
+
+import android.util.LruCache;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Measures long message text on a background thread with {@link PrecomputedTextCompat} and keeps
+ * the results in an LRU keyed by message id, view type and width, so rebinding a recycled view
+ * holder does not lay the text out again on the main thread.
+ */
+public class TextLayoutCache {
+    // Bounded by cached characters rather than entries, as answers vary a lot in length
+    private static final int MAX_CACHED_CHARS = 256 * 1024;
+
+    private final LruCache<String, PrecomputedTextCompat> cache =
+        new LruCache<String, PrecomputedTextCompat>(MAX_CACHED_CHARS) {
+            @Override
+            protected int sizeOf(String key, PrecomputedTextCompat value) {
+                return value.length();
+            }
+        };
+    private final ConcurrentHashMap<String, Future<PrecomputedTextCompat>> pending = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "text-layout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static String key(long messageId, int viewType, int width, int textLength) {
+        // Text length tells a finished answer apart from a partial one with the same id
+        return messageId + ":" + viewType + ":" + width + ":" + textLength;
+    }
+
+    public PrecomputedTextCompat get(String key) {
+        return cache.get(key);
+    }
+
+    public Future<PrecomputedTextCompat> precompute(String key, CharSequence text, PrecomputedTextCompat.Params params) {
+        Future<PrecomputedTextCompat> inFlight = pending.get(key);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        FutureTask<PrecomputedTextCompat> task = new FutureTask<PrecomputedTextCompat>(() -> {
+            PrecomputedTextCompat precomputed = PrecomputedTextCompat.create(text, params);
+            cache.put(key, precomputed);
+            return precomputed;
+        }) {
+            @Override
+            protected void done() {
+                // Only this task's own entry; a later one for the same key stays
+                pending.remove(key, this);
+            }
+        };
+        // Registered before it can run, so it can never finish first and leave a stale entry
+        Future<PrecomputedTextCompat> raced = pending.putIfAbsent(key, task);
+        if (raced != null) {
+            return raced;
+        }
+        executor.execute(task);
+        return task;
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+}
@@ -0,0 +1,341 @@
+package com.medobsmind.app;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shows attachment thumbnails in chat rows without decoding on the main thread. Every
+ * thumbnail is a center-cropped bitmap of one fixed size, which makes them interchangeable:
+ * once a bitmap is neither cached nor shown it goes back to a {@link BitmapPool} and the next
+ * decode writes into it. Thumbnails are kept in an LRU bounded by a fraction of the heap and,
+ * as small JPEGs, in a size-capped disk cache, so a thumbnail seen before is decoded at its
+ * final size instead of being cut again from the full attachment.
+ *
+ * <p>{@link #load}, {@link #clear} and {@link #trimMemory} must be called on the main thread,
+ * which owns the cache and the bookkeeping of what is shown; decoding runs on two background
+ * threads.
+ */
+public class ThumbnailLoader {
+    // An eighth of the heap holds a few hundred thumbnails on a typical phone
+    private static final int MEMORY_CACHE_HEAP_DIVISOR = 8;
+    // Enough for the rows that scroll out while the next ones are decoded
+    private static final int POOLED_BITMAPS = 12;
+    private static final int DECODE_THREADS = 2;
+    private static final int DISK_JPEG_QUALITY = 80;
+    private static final String DISK_SUFFIX = ".thumb";
+    // No alpha in photos, and half the memory of ARGB_8888
+    private static final Bitmap.Config CONFIG = Bitmap.Config.RGB_565;
+
+    private final AttachmentStore attachments;
+    private final File diskDirectory;
+    private final long maxDiskBytes;
+    private final int width;
+    private final int height;
+    private final BitmapPool pool;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final Set<Bitmap> cached = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Bitmap, Integer> shown = new IdentityHashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor;
+    // Guards the disk directory and diskBytes
+    private final Object diskLock = new Object();
+    private long diskBytes = -1;
+
+    // What an image view shows or is waiting for; kept in the view's tag
+    private static final class Binding {
+        final String key;
+        Future<?> task;
+        Bitmap bitmap;
+
+        Binding(String key) {
+            this.key = key;
+        }
+    }
+
+    public ThumbnailLoader(AttachmentStore attachments, File diskDirectory, long maxDiskBytes, int width,
+                           int height) {
+        this.attachments = attachments;
+        this.diskDirectory = diskDirectory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.width = width;
+        this.height = height;
+        this.pool = new BitmapPool(width, height, CONFIG, POOLED_BITMAPS);
+        int maxCacheBytes = (int) Math.min(Integer.MAX_VALUE,
+            Runtime.getRuntime().maxMemory() / MEMORY_CACHE_HEAP_DIVISOR);
+        this.memoryCache = new LruCache<String, Bitmap>(maxCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                cached.remove(oldValue);
+                releaseIfUnused(oldValue);
+            }
+        };
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(DECODE_THREADS, runnable -> {
+            Thread thread = new Thread(() -> {
+                // Decoding must not compete with the main and render threads while scrolling
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "thumbnail-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Shows the thumbnail of {@code attachment} in {@code view}, from memory if it is cached
+     * and otherwise once it has been decoded. Replaces whatever the view showed before.
+     */
+    public void load(ImageAttachment attachment, ImageView view) {
+        String key = attachment.getFileName();
+        Object tag = view.getTag();
+        if (tag instanceof Binding && ((Binding) tag).key.equals(key)) {
+            // Already shown or on its way, as on a rebind for a text-only change
+            return;
+        }
+        clear(view);
+        Binding binding = new Binding(key);
+        view.setTag(binding);
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            show(view, binding, bitmap);
+            return;
+        }
+        view.setImageDrawable(null);
+        binding.task = executor.submit(() -> {
+            Bitmap decoded = decode(attachment);
+            if (decoded != null) {
+                mainHandler.post(() -> deliver(view, binding, decoded));
+            }
+        });
+    }
+
+    /**
+     * Detaches the view from its thumbnail, for a recycled row or one without an attachment.
+     */
+    public void clear(ImageView view) {
+        Object tag = view.getTag();
+        if (!(tag instanceof Binding)) {
+            return;
+        }
+        Binding binding = (Binding) tag;
+        view.setTag(null);
+        if (binding.task != null) {
+            binding.task.cancel(false);
+        }
+        if (binding.bitmap != null) {
+            view.setImageDrawable(null);
+            Bitmap bitmap = binding.bitmap;
+            binding.bitmap = null;
+            int count = shown.get(bitmap) - 1;
+            if (count == 0) {
+                shown.remove(bitmap);
+                releaseIfUnused(bitmap);
+            } else {
+                shown.put(bitmap, count);
+            }
+        }
+    }
+
+    /**
+     * Gives memory back when the system asks for it; see {@link ComponentCallbacks2}.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            memoryCache.evictAll();
+            pool.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        memoryCache.evictAll();
+        pool.clear();
+    }
+
+    private void deliver(ImageView view, Binding binding, Bitmap decoded) {
+        Bitmap bitmap = memoryCache.get(binding.key);
+        if (bitmap == null) {
+            bitmap = decoded;
+            cached.add(bitmap);
+            memoryCache.put(binding.key, bitmap);
+        } else {
+            // Another row decoded the same image meanwhile
+            pool.release(decoded);
+        }
+        if (view.getTag() == binding) {
+            show(view, binding, bitmap);
+        }
+    }
+
+    private void show(ImageView view, Binding binding, Bitmap bitmap) {
+        binding.bitmap = bitmap;
+        Integer count = shown.get(bitmap);
+        shown.put(bitmap, count == null ? 1 : count + 1);
+        view.setImageBitmap(bitmap);
+    }
+
+    private void releaseIfUnused(Bitmap bitmap) {
+        if (!cached.contains(bitmap) && !shown.containsKey(bitmap)) {
+            pool.release(bitmap);
+        }
+    }
+
+    // Runs on a decode thread; null if the attachment is gone or unreadable
+    private Bitmap decode(ImageAttachment attachment) {
+        long startNanos = System.nanoTime();
+        File diskFile = new File(diskDirectory, attachment.getFileName() + '.' + width + 'x' + height + DISK_SUFFIX);
+        Bitmap target = pool.acquire();
+        Bitmap result = diskFile.isFile() ? decodeInto(diskFile, target) : null;
+        if (result == null) {
+            result = cropFrom(attachments.fileFor(attachment), target);
+            if (result == null) {
+                pool.release(target);
+                return null;
+            }
+            writeToDisk(diskFile, result);
+        }
+        MetricsRegistry.get().recordNanos(MetricsRegistry.Stage.CHAT_THUMBNAIL, System.nanoTime() - startNanos);
+        return result;
+    }
+
+    // A cached thumbnail already has the target size, so it decodes straight into the pooled bitmap
+    private Bitmap decodeInto(File file, Bitmap target) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = CONFIG;
+        options.inMutable = true;
+        options.inBitmap = target;
+        try {
+            Bitmap decoded = BitmapFactory.decodeFile(file.getPath(), options);
+            if (decoded == target) {
+                return target;
+            }
+        } catch (IllegalArgumentException e) {
+            // Not reusable after all; cut it again from the attachment
+        }
+        deleteFromDisk(file);
+        return null;
+    }
+
+    private Bitmap cropFrom(File source, Bitmap target) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = AttachmentStore.sampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = CONFIG;
+        Bitmap decoded = BitmapFactory.decodeFile(source.getPath(), options);
+        if (decoded == null) {
+            return null;
+        }
+        // Center crop to the thumbnail's aspect ratio
+        float scale = Math.max((float) width / decoded.getWidth(), (float) height / decoded.getHeight());
+        int cropWidth = Math.round(width / scale);
+        int cropHeight = Math.round(height / scale);
+        int left = (decoded.getWidth() - cropWidth) / 2;
+        int top = (decoded.getHeight() - cropHeight) / 2;
+        new Canvas(target).drawBitmap(decoded, new Rect(left, top, left + cropWidth, top + cropHeight),
+            new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+        decoded.recycle();
+        return target;
+    }
+
+    private void writeToDisk(File file, Bitmap bitmap) {
+        synchronized (diskLock) {
+            if (!diskDirectory.isDirectory() && !diskDirectory.mkdirs()) {
+                return;
+            }
+            File temp = new File(diskDirectory, file.getName() + ".tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_JPEG_QUALITY, out);
+            } catch (IOException e) {
+                temp.delete();
+                return;
+            }
+            ensureDiskSize();
+            long previous = file.length();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+            diskBytes += file.length() - previous;
+            trimDisk();
+        }
+    }
+
+    private void ensureDiskSize() {
+        if (diskBytes >= 0) {
+            return;
+        }
+        diskBytes = 0;
+        for (File file : listEntries()) {
+            diskBytes += file.length();
+        }
+    }
+
+    private void trimDisk() {
+        if (diskBytes <= maxDiskBytes) {
+            return;
+        }
+        File[] files = listEntries();
+        // Oldest written first
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (diskBytes <= maxDiskBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private void deleteFromDisk(File file) {
+        synchronized (diskLock) {
+            long length = file.length();
+            if (file.delete() && diskBytes >= 0) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private File[] listEntries() {
+        File[] files = diskDirectory.listFiles((dir, name) -> name.endsWith(DISK_SUFFIX));
+        return files != null ? files : new File[0];
+    }
+}
@@ -1,55 +1,90 @@
 package com.medobsmind.app;
 
 import android.Manifest;
+import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.graphics.SurfaceTexture;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCaptureSession;
-import android.hardware.camera2.CameraDevice;
-import android.hardware.camera2.CameraManager;
-import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CameraCharacteristics;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.view.Surface;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
 import android.view.TextureView;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.cardview.widget.CardView;
 import androidx.core.app.ActivityCompat;
 
-import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class VideoCallActivity extends AppCompatActivity {
+    // Result extras naming the snapshot attached to the next chat message
+    public static final String EXTRA_ATTACHMENT_FILE = "com.medobsmind.app.ATTACHMENT_FILE";
+    public static final String EXTRA_ATTACHMENT_WIDTH = "com.medobsmind.app.ATTACHMENT_WIDTH";
+    public static final String EXTRA_ATTACHMENT_HEIGHT = "com.medobsmind.app.ATTACHMENT_HEIGHT";
+
     private TextureView cameraPreview;
     private TextView statusText, aiResponseText;
     private CardView aiResponseCard;
-    private Button toggleCameraButton, muteButton, endCallButton;
+    private Button toggleCameraButton, muteButton, snapshotButton, endCallButton;
     
-    private CameraDevice cameraDevice;
-    private CameraCaptureSession cameraCaptureSession;
-    private CaptureRequest.Builder captureRequestBuilder;
-    private Handler backgroundHandler;
-    private HandlerThread backgroundThread;
+    private CameraController cameraController;
+    private FrameSampler frameSampler;
+    private JpegFrameEncoder jpegEncoder;
+    private final YuvPlanes framePlanes = new YuvPlanes();
+    private FrameUploadScheduler uploadScheduler;
+    private LlmmApiClient apiClient;
+    private String videoEndpoint;
+    private MetricsOverlay metricsOverlay;
+    private final MetricsRegistry metrics = MetricsRegistry.get();
+    private AttachmentStore attachmentStore;
+    private ExecutorService snapshotExecutor;
+    // Only touched on the snapshot thread
+    private ImageAttachment lastSnapshot;
+    private SessionRecorder sessionRecorder;
+    private long sessionStartMs;
+    // Only touched on the analysis thread; later upload errors are only counted
+    private boolean uploadErrorLogged;
     
     private boolean isMuted = false;
-    private boolean isFrontCamera = true;
-    private String selectedModel;
+    // Lens to reopen after a pause; front by default, as the patient usually faces the screen
+    private int lensFacing = CameraCharacteristics.LENS_FACING_FRONT;
+    private PerformanceProfile performanceProfile;
+
+    private static final String TAG = "VideoCallActivity";
+    private static final int UPLOAD_JPEG_QUALITY = 80;
+    private static final int DUPLICATE_HASH_BITS = 6;
+    private static final long MIN_UPLOAD_INTERVAL_MS = 500;
+    private static final long MAX_UPLOAD_INTERVAL_MS = 10000;
+    private static final long MAX_STALE_FRAME_MS = 15000;
+    private static final String SESSION_DIR = "sessions";
+    // 64 segments of 4 MB keep the last few hundred megabytes of a session
+    private static final long SESSION_SEGMENT_BYTES = 4L * 1024 * 1024;
+    private static final int SESSION_MAX_SEGMENTS = 64;
+    // Earlier sessions kept besides the one recording; room for at least one full-length session
+    private static final long SESSION_RETAINED_BYTES = 512L * 1024 * 1024;
+    private static final int SESSION_BUFFERS = 4;
+    private static final long SESSION_SYNC_INTERVAL_MS = 1000;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_video_call);
         
-        // Get selected model
-        selectedModel = getIntent().getStringExtra("selected_model");
-        if (selectedModel == null) {
-            selectedModel = "Balanced";
-        }
+        // Frame rate and resolution come from the shared performance profile
+        performanceProfile = PerformanceProfile.current(this);
 
         // Initialize UI components
         cameraPreview = findViewById(R.id.cameraPreview);
@@ -58,21 +93,43 @@ public class VideoCallActivity extends AppCompatActivity {
         aiResponseCard = findViewById(R.id.aiResponseCard);
         toggleCameraButton = findViewById(R.id.toggleCameraButton);
         muteButton = findViewById(R.id.muteButton);
+        snapshotButton = findViewById(R.id.snapshotButton);
         endCallButton = findViewById(R.id.endCallButton);
 
         // Setup button listeners
         toggleCameraButton.setOnClickListener(v -> toggleCamera());
         muteButton.setOnClickListener(v -> toggleMute());
+        snapshotButton.setOnClickListener(v -> attachSnapshot());
         endCallButton.setOnClickListener(v -> endCall());
 
+        // Frames are encoded on the analysis thread only
+        jpegEncoder = new JpegFrameEncoder(performanceProfile.getVideoWidth(),
+            performanceProfile.getVideoHeight(), UPLOAD_JPEG_QUALITY);
+        uploadScheduler = new FrameUploadScheduler(DUPLICATE_HASH_BITS, MIN_UPLOAD_INTERVAL_MS,
+            MAX_UPLOAD_INTERVAL_MS, MAX_STALE_FRAME_MS);
+
+        // Same client as chat: frames go over the connection chat already warmed, or this warms it
+        apiClient = LlmmApiClient.get(this);
+        videoEndpoint = getString(R.string.llmm_video_endpoint);
+        if (apiClient != null) {
+            apiClient.preconnect();
+        }
+        metricsOverlay = new MetricsOverlay(this);
+        attachmentStore = new AttachmentStore(this);
+        snapshotExecutor = Executors.newSingleThreadExecutor();
+        startSessionRecording();
+
+        // Reads each camera's characteristics once per process and picks the stream sizes
+        cameraController = new CameraController(this, performanceProfile.getVideoWidth(),
+            performanceProfile.getVideoHeight(), this::onCameraError);
+        toggleCameraButton.setEnabled(cameraController.hasCamera(CameraCharacteristics.LENS_FACING_FRONT)
+            && cameraController.hasCamera(CameraCharacteristics.LENS_FACING_BACK));
+
         // Setup camera preview
         cameraPreview.setSurfaceTextureListener(surfaceTextureListener);
         
         // Update status
-        statusText.setText(getString(R.string.video_interpreting) + " - Using " + selectedModel);
-        
-        // Simulate AI interpretation after a delay
-        new Handler().postDelayed(this::simulateAIInterpretation, 3000);
+        statusText.setText(getString(R.string.video_interpreting) + " - Using " + performanceProfile.getDisplayName());
     }
 
     private final TextureView.SurfaceTextureListener surfaceTextureListener = new TextureView.SurfaceTextureListener() {
@@ -82,11 +139,15 @@ public class VideoCallActivity extends AppCompatActivity {
         }
 
         @Override
-        public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {}
+        public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+            if (frameSampler != null) {
+                configurePreviewTransform(cameraController.choosePreviewSize(width, height));
+            }
+        }
 
         @Override
         public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
-            return false;
+            return true;
         }
 
         @Override
@@ -98,92 +159,56 @@ public class VideoCallActivity extends AppCompatActivity {
                 != PackageManager.PERMISSION_GRANTED) {
             return;
         }
-
-        CameraManager manager = (CameraManager) getSystemService(CAMERA_SERVICE);
-        try {
-            String[] cameraIdList = manager.getCameraIdList();
-            if (cameraIdList.length == 0) {
-                Toast.makeText(this, "No camera available", Toast.LENGTH_SHORT).show();
-                return;
-            }
-            
-            // Select camera: front camera if available and requested, otherwise use first camera
-            String cameraId;
-            if (isFrontCamera && cameraIdList.length > 1) {
-                cameraId = cameraIdList[1];
-            } else {
-                cameraId = cameraIdList[0];
-            }
-            
-            manager.openCamera(cameraId, stateCallback, backgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-            Toast.makeText(this, "Failed to open camera", Toast.LENGTH_SHORT).show();
-        }
-    }
-
-    private final CameraDevice.StateCallback stateCallback = new CameraDevice.StateCallback() {
-        @Override
-        public void onOpened(@NonNull CameraDevice camera) {
-            cameraDevice = camera;
-            createCameraPreview();
+        if (!cameraController.hasCamera()) {
+            Toast.makeText(this, R.string.error_camera_unavailable, Toast.LENGTH_SHORT).show();
+            return;
         }
-
-        @Override
-        public void onDisconnected(@NonNull CameraDevice camera) {
-            cameraDevice.close();
+        SurfaceTexture texture = cameraPreview.getSurfaceTexture();
+        if (texture == null || frameSampler != null) {
+            return;
         }
 
-        @Override
-        public void onError(@NonNull CameraDevice camera, int error) {
-            cameraDevice.close();
-            cameraDevice = null;
-        }
-    };
+        // Stream sizes come from what the cameras support, not from the view
+        Size previewSize = cameraController.choosePreviewSize(cameraPreview.getWidth(), cameraPreview.getHeight());
+        texture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
+        configurePreviewTransform(previewSize);
 
-    private void createCameraPreview() {
-        try {
-            SurfaceTexture texture = cameraPreview.getSurfaceTexture();
-            if (texture == null) return;
-            
-            texture.setDefaultBufferSize(cameraPreview.getWidth(), cameraPreview.getHeight());
-            Surface surface = new Surface(texture);
-            
-            captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            captureRequestBuilder.addTarget(surface);
-            
-            cameraDevice.createCaptureSession(Arrays.asList(surface), new CameraCaptureSession.StateCallback() {
-                @Override
-                public void onConfigured(@NonNull CameraCaptureSession session) {
-                    if (cameraDevice == null) return;
-                    
-                    cameraCaptureSession = session;
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
-                    
-                    try {
-                        cameraCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, backgroundHandler);
-                    } catch (CameraAccessException e) {
-                        e.printStackTrace();
-                    }
-                }
+        // Sample frames for analysis through a second target next to the preview; it outlives
+        // camera switches, as every camera supports its size
+        Size analysisSize = cameraController.getAnalysisSize();
+        frameSampler = new FrameSampler(analysisSize.getWidth(), analysisSize.getHeight(),
+            performanceProfile.getVideoFramesPerSecond(), this::analyzeFrame);
+        frameSampler.start(cameraController.getHandler());
+        cameraController.start(texture, frameSampler.getSurface(), lensFacing);
+    }
 
-                @Override
-                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
-                    Toast.makeText(VideoCallActivity.this, "Configuration change failed", Toast.LENGTH_SHORT).show();
-                }
-            }, null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+    /**
+     * Scales the preview to fill the view without distortion, cropping the overflow.
+     */
+    private void configurePreviewTransform(Size previewSize) {
+        int viewWidth = cameraPreview.getWidth();
+        int viewHeight = cameraPreview.getHeight();
+        if (viewWidth == 0 || viewHeight == 0) {
+            return;
         }
+        // The stream reaches the portrait view rotated, so its width is the picture's height
+        boolean rotated = cameraController.isSensorRotated();
+        float contentWidth = rotated ? previewSize.getHeight() : previewSize.getWidth();
+        float contentHeight = rotated ? previewSize.getWidth() : previewSize.getHeight();
+        float scale = Math.max(viewWidth / contentWidth, viewHeight / contentHeight);
+        Matrix matrix = new Matrix();
+        matrix.setScale(contentWidth * scale / viewWidth, contentHeight * scale / viewHeight,
+            viewWidth / 2f, viewHeight / 2f);
+        cameraPreview.setTransform(matrix);
+    }
+
+    private void onCameraError(int messageResId) {
+        runOnUiThread(() -> Toast.makeText(this, messageResId, Toast.LENGTH_SHORT).show());
     }
 
     private void toggleCamera() {
-        if (cameraDevice != null) {
-            cameraDevice.close();
-            cameraDevice = null;
-        }
-        isFrontCamera = !isFrontCamera;
-        openCamera();
+        // Reopens only the device; the camera thread and both surfaces are kept
+        cameraController.switchCamera();
     }
 
     private void toggleMute() {
@@ -196,13 +221,115 @@ public class VideoCallActivity extends AppCompatActivity {
         finish();
     }
 
+    private void attachSnapshot() {
+        int viewWidth = cameraPreview.getWidth();
+        int viewHeight = cameraPreview.getHeight();
+        if (!cameraPreview.isAvailable() || viewWidth == 0 || viewHeight == 0) {
+            return;
+        }
+        // Read the preview back at no more than the upload size rather than at screen size
+        int longSide = Math.max(performanceProfile.getVideoWidth(), performanceProfile.getVideoHeight());
+        int shortSide = Math.min(performanceProfile.getVideoWidth(), performanceProfile.getVideoHeight());
+        float scale = Math.min(1f, Math.min((float) longSide / Math.max(viewWidth, viewHeight),
+            (float) shortSide / Math.min(viewWidth, viewHeight)));
+        Bitmap snapshot = cameraPreview.getBitmap(Math.max(1, Math.round(viewWidth * scale)),
+            Math.max(1, Math.round(viewHeight * scale)));
+        if (snapshot == null) {
+            return;
+        }
+        snapshotExecutor.execute(() -> {
+            try {
+                ImageAttachment attachment = attachmentStore.save(snapshot,
+                    performanceProfile.getVideoWidth(), performanceProfile.getVideoHeight());
+                // Only the latest snapshot is handed to the chat
+                if (lastSnapshot != null) {
+                    attachmentStore.delete(lastSnapshot);
+                }
+                lastSnapshot = attachment;
+                runOnUiThread(() -> {
+                    // The chat picks the latest snapshot up when the call ends
+                    setResult(RESULT_OK, new Intent()
+                        .putExtra(EXTRA_ATTACHMENT_FILE, attachment.getFileName())
+                        .putExtra(EXTRA_ATTACHMENT_WIDTH, attachment.getWidth())
+                        .putExtra(EXTRA_ATTACHMENT_HEIGHT, attachment.getHeight()));
+                    Toast.makeText(this, R.string.snapshot_attached, Toast.LENGTH_SHORT).show();
+                });
+            } catch (IOException e) {
+                Log.w(TAG, "Could not store the snapshot", e);
+                runOnUiThread(() -> Toast.makeText(this, R.string.error_attachment, Toast.LENGTH_SHORT).show());
+            } finally {
+                snapshot.recycle();
+            }
+        });
+    }
+
+    private void startSessionRecording() {
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.US).format(new Date());
+        final File root = new File(getFilesDir(), SESSION_DIR);
+        final File directory = new File(root, name);
+        // One byte per pixel is several times what a JPEG of the frame takes
+        int bufferBytes = SessionFormat.RECORD_HEADER_BYTES
+            + performanceProfile.getVideoWidth() * performanceProfile.getVideoHeight();
+        sessionStartMs = SystemClock.elapsedRealtime();
+        // Opening and writing the files happens on the recorder's own thread
+        sessionRecorder = new SessionRecorder(directory, SESSION_SEGMENT_BYTES, SESSION_MAX_SEGMENTS,
+            SESSION_BUFFERS, bufferBytes, SESSION_SYNC_INTERVAL_MS,
+            e -> runOnUiThread(() -> Toast.makeText(this, R.string.error_session_recording, Toast.LENGTH_SHORT).show()));
+        // Oldest sessions go first; listing and deleting stays off the main thread
+        snapshotExecutor.execute(() -> SessionRecorder.pruneSessions(root, SESSION_RETAINED_BYTES, directory));
+    }
+
+    private void analyzeFrame(YuvFrame frame) {
+        // Runs on the analysis thread for each sampled frame; near-duplicates are never encoded
+        framePlanes.set(frame);
+        if (!uploadScheduler.shouldSend(framePlanes, SystemClock.elapsedRealtime())) {
+            metrics.increment(MetricsRegistry.Counter.VIDEO_FRAMES_SKIPPED);
+            updateFrameStats();
+            return;
+        }
+        long startMs = SystemClock.elapsedRealtime();
+        long encodeStartNanos = System.nanoTime();
+        ByteBuffer jpeg = jpegEncoder.encode(framePlanes);
+        metrics.recordNanos(MetricsRegistry.Stage.VIDEO_ENCODE, System.nanoTime() - encodeStartNanos);
+        metrics.increment(MetricsRegistry.Counter.VIDEO_FRAMES_SENT);
+        // Copied into the recorder's own buffer, or dropped if the disk is behind
+        sessionRecorder.recordFrame(SystemClock.elapsedRealtime() - sessionStartMs, jpeg);
+        try {
+            if (apiClient != null && !videoEndpoint.isEmpty()) {
+                // An identical frame already uploading, from this session or the one it replaced, is joined
+                showInterpretation(apiClient.postFrame(videoEndpoint, jpeg, performanceProfile,
+                    performanceProfile.getVideoWidth(), performanceProfile.getVideoHeight(),
+                    frame.getTimestampNanos(), uploadScheduler.getLastSentHash()));
+            } else {
+                simulateAIInterpretation();
+            }
+        } catch (IOException e) {
+            // A dropped frame is replaced by the next sampled one
+            metrics.increment(MetricsRegistry.Counter.VIDEO_UPLOAD_ERRORS);
+            if (!uploadErrorLogged) {
+                uploadErrorLogged = true;
+                Log.w(TAG, "Frame upload failed; further failures are only counted", e);
+            }
+        } finally {
+            jpegEncoder.release(jpeg);
+        }
+        uploadScheduler.recordRoundTrip(SystemClock.elapsedRealtime() - startMs);
+        updateFrameStats();
+    }
+
+    private void updateFrameStats() {
+        String stats = getString(R.string.video_frame_stats, uploadScheduler.getSentFrames(),
+            uploadScheduler.getSkippedDuplicates() + uploadScheduler.getSkippedThrottled());
+        runOnUiThread(() -> statusText.setText(getString(R.string.video_interpreting) +
+            " - Using " + performanceProfile.getDisplayName() + "\n" + stats));
+    }
+
     private void simulateAIInterpretation() {
         // In a real app, this would:
-        // 1. Capture frames from the camera
-        // 2. Send them to the MedObsMind LLMM API for interpretation
-        // 3. Display the LLMM's visual analysis
+        // 1. Send sampled frames to the MedObsMind LLMM API for interpretation
+        // 2. Display the LLMM's visual analysis
         
-        String interpretation = "MedObsMind LLMM Interpretation (" + selectedModel + " mode):\n\n" +
+        String interpretation = "MedObsMind LLMM Interpretation (" + performanceProfile.getDisplayName() + " mode):\n\n" +
             "This is a simulated video interpretation response from MedObsMind (Large Language Medical Model).\n\n" +
             "In a production app, the Dsquare Med-assist platform would:\n" +
             "• Send video frames to MedObsMind LLMM API\n" +
@@ -212,6 +339,11 @@ public class VideoCallActivity extends AppCompatActivity {
             "• Assist with medical documentation\n\n" +
             "MedObsMind LLMM is specialized for medical visual interpretation.";
         
+        showInterpretation(interpretation);
+    }
+
+    private void showInterpretation(String interpretation) {
+        sessionRecorder.recordAnnotation(SystemClock.elapsedRealtime() - sessionStartMs, interpretation);
         runOnUiThread(() -> {
             aiResponseCard.setVisibility(android.view.View.VISIBLE);
             aiResponseText.setText(interpretation);
@@ -221,7 +353,7 @@ public class VideoCallActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        startBackgroundThread();
+        metricsOverlay.show();
         if (cameraPreview.isAvailable()) {
             openCamera();
         } else {
@@ -231,38 +363,32 @@ public class VideoCallActivity extends AppCompatActivity {
 
     @Override
     protected void onPause() {
+        metricsOverlay.hide();
         closeCamera();
-        stopBackgroundThread();
         super.onPause();
     }
 
-    private void closeCamera() {
-        if (cameraCaptureSession != null) {
-            cameraCaptureSession.close();
-            cameraCaptureSession = null;
-        }
-        if (cameraDevice != null) {
-            cameraDevice.close();
-            cameraDevice = null;
-        }
+    @Override
+    protected void onDestroy() {
+        cameraController.release();
+        snapshotExecutor.shutdown();
+        // Queued records are still written and synced on the recorder's thread. The analysis
+        // thread may still be in an upload; what it records afterwards is ignored
+        sessionRecorder.close();
+        super.onDestroy();
     }
 
-    private void startBackgroundThread() {
-        backgroundThread = new HandlerThread("Camera Background");
-        backgroundThread.start();
-        backgroundHandler = new Handler(backgroundThread.getLooper());
+    private void closeCamera() {
+        lensFacing = cameraController.getLensFacing();
+        // Waits for the camera to close before its analysis target goes away
+        cameraController.stop();
+        stopFrameSampler();
     }
 
-    private void stopBackgroundThread() {
-        if (backgroundThread != null) {
-            backgroundThread.quitSafely();
-            try {
-                backgroundThread.join();
-                backgroundThread = null;
-                backgroundHandler = null;
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    private void stopFrameSampler() {
+        if (frameSampler != null) {
+            frameSampler.stop();
+            frameSampler = null;
         }
     }
 }
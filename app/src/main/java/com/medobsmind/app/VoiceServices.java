@@ -0,0 +1,182 @@
+package com.medobsmind.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.speech.RecognitionListener;
+import android.speech.SpeechRecognizer;
+import android.speech.tts.TextToSpeech;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Process-wide holder for the speech engines, so activities neither build them in
+ * onCreate nor rebuild them on every launch. The text-to-speech engine is bound on a
+ * background thread when {@link #warmUpTextToSpeech()} is first called (after the first
+ * frame); the speech recognizer is created the first time voice input is used.
+ * All public methods must be called from the main thread.
+ */
+public final class VoiceServices {
+    /**
+     * Receives the shared engine once it has bound and its language has been set.
+     */
+    public interface TextToSpeechCallback {
+        void onTextToSpeechReady(TextToSpeech textToSpeech, boolean languageSupported);
+    }
+
+    private static VoiceServices instance;
+
+    private final Context appContext;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<TextToSpeechCallback> pendingCallbacks = new ArrayList<>();
+    private Handler initHandler;
+
+    // Written on the init thread; the init callback is queued behind the constructor there
+    private volatile TextToSpeech textToSpeech;
+    private boolean textToSpeechReady;
+    private boolean languageSupported;
+    private long warmUpStartMs;
+    private long textToSpeechReadyLatencyMs = -1;
+
+    private SpeechRecognizer speechRecognizer;
+    private RecognitionListener recognizerOwner;
+    private long recognizerCreateLatencyMs = -1;
+
+    private VoiceServices(Context context) {
+        appContext = context.getApplicationContext();
+    }
+
+    public static synchronized VoiceServices get(Context context) {
+        if (instance == null) {
+            instance = new VoiceServices(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Starts binding the text-to-speech engine off the main thread. Safe to call repeatedly.
+     */
+    public void warmUpTextToSpeech() {
+        if (initHandler != null) {
+            return;
+        }
+        warmUpStartMs = SystemClock.elapsedRealtime();
+        HandlerThread initThread = new HandlerThread("voice-init");
+        initThread.start();
+        initHandler = new Handler(initThread.getLooper());
+        initHandler.post(() -> {
+            final Handler handler = initHandler;
+            textToSpeech = new TextToSpeech(appContext, status ->
+                    // setLanguage is a binder call, so it stays off the main thread too
+                    handler.post(() -> onTextToSpeechInit(status)));
+        });
+    }
+
+    /**
+     * Delivers the engine to {@code callback} once it is ready, starting warm-up if needed.
+     * The callback runs immediately when the engine is already ready.
+     */
+    public void whenTextToSpeechReady(TextToSpeechCallback callback) {
+        if (textToSpeechReady) {
+            callback.onTextToSpeechReady(textToSpeech, languageSupported);
+            return;
+        }
+        if (!pendingCallbacks.contains(callback)) {
+            pendingCallbacks.add(callback);
+        }
+        warmUpTextToSpeech();
+    }
+
+    public void removeTextToSpeechCallback(TextToSpeechCallback callback) {
+        pendingCallbacks.remove(callback);
+    }
+
+    /**
+     * Returns the shared recognizer with {@code listener} attached, creating it on first use,
+     * or null if no recognition service is available.
+     */
+    public SpeechRecognizer acquireSpeechRecognizer(RecognitionListener listener) {
+        if (speechRecognizer == null) {
+            long start = SystemClock.elapsedRealtime();
+            if (!SpeechRecognizer.isRecognitionAvailable(appContext)) {
+                return null;
+            }
+            speechRecognizer = SpeechRecognizer.createSpeechRecognizer(appContext);
+            recognizerCreateLatencyMs = SystemClock.elapsedRealtime() - start;
+        }
+        if (recognizerOwner != listener) {
+            speechRecognizer.setRecognitionListener(listener);
+            recognizerOwner = listener;
+        }
+        return speechRecognizer;
+    }
+
+    /**
+     * Stops recognition for {@code listener} and drops the recognizer so it does not keep the
+     * owning activity alive. Does nothing if another listener has acquired it since.
+     */
+    public void releaseSpeechRecognizer(RecognitionListener listener) {
+        if (speechRecognizer == null || recognizerOwner != listener) {
+            return;
+        }
+        speechRecognizer.cancel();
+        speechRecognizer.destroy();
+        speechRecognizer = null;
+        recognizerOwner = null;
+    }
+
+    public boolean isTextToSpeechReady() {
+        return textToSpeechReady;
+    }
+
+    /**
+     * Time from warm-up to a usable text-to-speech engine, or -1 if it is not ready yet.
+     */
+    public long getTextToSpeechReadyLatencyMs() {
+        return textToSpeechReadyLatencyMs;
+    }
+
+    /**
+     * Time spent creating the speech recognizer, or -1 if it has not been created.
+     */
+    public long getRecognizerCreateLatencyMs() {
+        return recognizerCreateLatencyMs;
+    }
+
+    private void onTextToSpeechInit(int status) {
+        boolean supported = false;
+        if (status == TextToSpeech.SUCCESS) {
+            int result = textToSpeech.setLanguage(Locale.US);
+            supported = result != TextToSpeech.LANG_MISSING_DATA && result != TextToSpeech.LANG_NOT_SUPPORTED;
+        }
+        final boolean ready = status == TextToSpeech.SUCCESS;
+        final boolean languageOk = supported;
+        mainHandler.post(() -> onTextToSpeechReady(ready, languageOk));
+    }
+
+    private void onTextToSpeechReady(boolean ready, boolean supported) {
+        if (!ready) {
+            // Binding failed; allow a later warm-up to try again
+            textToSpeech.shutdown();
+            textToSpeech = null;
+            initHandler.getLooper().quitSafely();
+            initHandler = null;
+            pendingCallbacks.clear();
+            return;
+        }
+        // The init thread is only needed for binding; keeping initHandler set blocks a re-warm
+        initHandler.getLooper().quitSafely();
+        textToSpeechReady = true;
+        languageSupported = supported;
+        textToSpeechReadyLatencyMs = SystemClock.elapsedRealtime() - warmUpStartMs;
+        List<TextToSpeechCallback> callbacks = new ArrayList<>(pendingCallbacks);
+        pendingCallbacks.clear();
+        for (TextToSpeechCallback callback : callbacks) {
+            callback.onTextToSpeechReady(textToSpeech, supported);
+        }
+    }
+}
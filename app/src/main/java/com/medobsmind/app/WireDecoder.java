@@ -0,0 +1,181 @@
+package com.medobsmind.app;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static com.medobsmind.app.WireFormat.*;
+
+/**
+ * Reads {@link WireFormat} envelopes one at a time from a stream, such as a response body
+ * arriving token by token. Call {@link #next()} for each envelope, then the matching read
+ * method for its payload; unread or unknown fields are skipped. Not thread-safe.
+ */
+public class WireDecoder {
+    private final InputStream in;
+    private byte[] stringBuffer = new byte[256];
+    // Payload bytes of the current envelope not consumed yet
+    private long remaining;
+
+    public WireDecoder(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Advances to the next envelope and returns its type, or -1 at the end of the stream.
+     */
+    public int next() throws IOException {
+        // Whatever the caller did not read of the previous payload
+        skip(remaining);
+        remaining = 0;
+        int first = in.read();
+        if (first < 0) {
+            return -1;
+        }
+        if (first != MAGIC_0 || readByte() != MAGIC_1) {
+            throw new IOException("Not a MedObsMind wire envelope");
+        }
+        int version = readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported wire format version " + version);
+        }
+        int type = readByte();
+        remaining = readRawVarint();
+        return type;
+    }
+
+    /**
+     * Reads the text of a {@link WireFormat#TYPE_TOKEN} envelope.
+     */
+    public String readToken() throws IOException {
+        String text = "";
+        while (remaining > 0) {
+            int tag = (int) readVarint();
+            if (tag == tag(TOKEN_TEXT, WIRE_LENGTH_DELIMITED)) {
+                text = readString();
+            } else {
+                skipField(tag);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Reads a {@link WireFormat#TYPE_CHAT_REQUEST} envelope. The performance mode maps back
+     * to its profile, which supplies the cache policy.
+     */
+    public LlmmRequest readChatRequest() throws IOException {
+        String prompt = null;
+        String context = null;
+        String systemPrompt = null;
+        String mode = null;
+        while (remaining > 0) {
+            int tag = (int) readVarint();
+            if (tag == tag(CHAT_PROMPT, WIRE_LENGTH_DELIMITED)) {
+                prompt = readString();
+            } else if (tag == tag(CHAT_CONTEXT, WIRE_LENGTH_DELIMITED)) {
+                context = readString();
+            } else if (tag == tag(CHAT_SYSTEM_PROMPT, WIRE_LENGTH_DELIMITED)) {
+                systemPrompt = readString();
+            } else if (tag == tag(CHAT_PARAMS, WIRE_LENGTH_DELIMITED)) {
+                mode = readParamsMode();
+            } else {
+                skipField(tag);
+            }
+        }
+        return new LlmmRequest(prompt, context, systemPrompt, PerformanceProfile.fromMode(mode));
+    }
+
+    private String readParamsMode() throws IOException {
+        long end = remaining - readVarint();
+        String mode = null;
+        while (remaining > end) {
+            int tag = (int) readVarint();
+            if (tag == tag(PARAMS_MODE, WIRE_LENGTH_DELIMITED)) {
+                mode = readString();
+            } else {
+                // max_tokens, stream and timeout follow from the mode's profile
+                skipField(tag);
+            }
+        }
+        return mode;
+    }
+
+    private String readString() throws IOException {
+        int length = (int) readVarint();
+        if (length < 0 || length > remaining) {
+            throw new IOException("Corrupt wire string length " + length);
+        }
+        if (stringBuffer.length < length) {
+            stringBuffer = new byte[Math.max(length, stringBuffer.length * 2)];
+        }
+        readFully(stringBuffer, length);
+        return new String(stringBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void skipField(int tag) throws IOException {
+        int wireType = tag & 0x7;
+        if (wireType == WIRE_VARINT) {
+            readVarint();
+        } else if (wireType == WIRE_LENGTH_DELIMITED) {
+            long length = readVarint();
+            remaining -= length;
+            skip(length);
+        } else {
+            throw new IOException("Unknown wire type " + wireType);
+        }
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            remaining--;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private long readRawVarint() throws IOException {
+        long before = remaining;
+        long value = readVarint();
+        // The envelope header is not part of any payload
+        remaining = before;
+        return value;
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Wire envelope ended early");
+            }
+            read += n;
+        }
+        remaining -= length;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Wire envelope ended early");
+        }
+        return b;
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                readByte();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
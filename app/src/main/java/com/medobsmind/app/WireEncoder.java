@@ -0,0 +1,192 @@
+package com.medobsmind.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static com.medobsmind.app.WireFormat.*;
+
+/**
+ * Writes {@link WireFormat} envelopes straight to a stream, usually the request body's
+ * socket sink. Sizes are computed up front, so nothing is serialised into an intermediate
+ * copy; strings are UTF-8 encoded through one small reusable scratch buffer. Not thread-safe.
+ */
+public class WireEncoder {
+    private static final int SCRATCH_BYTES = 4096;
+
+    private final OutputStream out;
+    private final byte[] scratch = new byte[SCRATCH_BYTES];
+    private int scratchLength;
+
+    public WireEncoder(OutputStream out) {
+        this.out = out;
+    }
+
+    public void writeChatRequest(LlmmRequest request) throws IOException {
+        // Read before the header, which carries the payload size
+        byte[] image = request.readImage();
+        int paramsSize = paramsSize(request.getPerformanceMode(), request.getMaxTokens(),
+            request.isStreaming(), request.getTimeoutMs());
+        int payloadSize = stringFieldSize(CHAT_PROMPT, request.getPrompt())
+            + stringFieldSize(CHAT_CONTEXT, request.getContext())
+            + stringFieldSize(CHAT_SYSTEM_PROMPT, request.getSystemPrompt())
+            + bytesFieldSize(CHAT_PARAMS, paramsSize)
+            + (image != null ? bytesFieldSize(CHAT_IMAGE, image.length) : 0);
+        writeHeader(TYPE_CHAT_REQUEST, payloadSize);
+        writeStringField(CHAT_PROMPT, request.getPrompt());
+        writeStringField(CHAT_CONTEXT, request.getContext());
+        writeStringField(CHAT_SYSTEM_PROMPT, request.getSystemPrompt());
+        writeParams(CHAT_PARAMS, paramsSize, request.getPerformanceMode(), request.getMaxTokens(),
+            request.isStreaming(), request.getTimeoutMs());
+        if (image != null) {
+            writeVarint(tag(CHAT_IMAGE, WIRE_LENGTH_DELIMITED));
+            writeVarint(image.length);
+            flushScratch();
+            writeBuffer(ByteBuffer.wrap(image));
+        }
+        flushScratch();
+    }
+
+    /**
+     * Writes one JPEG frame; {@code jpeg} is read between its position and limit and left
+     * unchanged. {@code profile} is the performance mode the frame was captured under.
+     */
+    public void writeFrame(PerformanceProfile profile, int width, int height, long timestampNs, ByteBuffer jpeg)
+            throws IOException {
+        int paramsSize = paramsSize(profile.getDisplayName(), profile.getMaxTokens(),
+            profile.isStreaming(), profile.getTimeoutMs());
+        int jpegSize = jpeg.remaining();
+        int payloadSize = bytesFieldSize(FRAME_PARAMS, paramsSize)
+            + varintFieldSize(FRAME_WIDTH, width)
+            + varintFieldSize(FRAME_HEIGHT, height)
+            + varintFieldSize(FRAME_TIMESTAMP, timestampNs)
+            + bytesFieldSize(FRAME_JPEG, jpegSize);
+        writeHeader(TYPE_FRAME, payloadSize);
+        writeParams(FRAME_PARAMS, paramsSize, profile.getDisplayName(), profile.getMaxTokens(),
+            profile.isStreaming(), profile.getTimeoutMs());
+        writeVarintField(FRAME_WIDTH, width);
+        writeVarintField(FRAME_HEIGHT, height);
+        writeVarintField(FRAME_TIMESTAMP, timestampNs);
+        writeVarint(tag(FRAME_JPEG, WIRE_LENGTH_DELIMITED));
+        writeVarint(jpegSize);
+        flushScratch();
+        writeBuffer(jpeg.duplicate());
+    }
+
+    public void writeToken(String text) throws IOException {
+        writeHeader(TYPE_TOKEN, stringFieldSize(TOKEN_TEXT, text));
+        writeStringField(TOKEN_TEXT, text);
+        flushScratch();
+    }
+
+    public void writeDone() throws IOException {
+        writeHeader(TYPE_DONE, 0);
+        flushScratch();
+    }
+
+    public void flush() throws IOException {
+        flushScratch();
+        out.flush();
+    }
+
+    private static int paramsSize(String mode, int maxTokens, boolean streaming, int timeoutMs) {
+        return stringFieldSize(PARAMS_MODE, mode)
+            + varintFieldSize(PARAMS_MAX_TOKENS, maxTokens)
+            + varintFieldSize(PARAMS_STREAM, streaming ? 1 : 0)
+            + varintFieldSize(PARAMS_TIMEOUT, timeoutMs);
+    }
+
+    private void writeParams(int field, int paramsSize, String mode, int maxTokens, boolean streaming,
+                             int timeoutMs) throws IOException {
+        writeVarint(tag(field, WIRE_LENGTH_DELIMITED));
+        writeVarint(paramsSize);
+        writeStringField(PARAMS_MODE, mode);
+        writeVarintField(PARAMS_MAX_TOKENS, maxTokens);
+        writeVarintField(PARAMS_STREAM, streaming ? 1 : 0);
+        writeVarintField(PARAMS_TIMEOUT, timeoutMs);
+    }
+
+    private void writeHeader(int type, int payloadSize) throws IOException {
+        writeByte(MAGIC_0);
+        writeByte(MAGIC_1);
+        writeByte(VERSION);
+        writeByte(type);
+        writeVarint(payloadSize);
+    }
+
+    private void writeVarintField(int field, long value) throws IOException {
+        writeVarint(tag(field, WIRE_VARINT));
+        writeVarint(value);
+    }
+
+    private void writeStringField(int field, String value) throws IOException {
+        if (value == null) {
+            // Absent fields are simply not written
+            return;
+        }
+        writeVarint(tag(field, WIRE_LENGTH_DELIMITED));
+        writeVarint(utf8Length(value));
+        writeUtf8(value);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeUtf8(String value) throws IOException {
+        int count = value.length();
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xC0 | c >> 6);
+                writeByte(0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < count
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                writeByte(0xF0 | codePoint >> 18);
+                writeByte(0x80 | codePoint >> 12 & 0x3F);
+                writeByte(0x80 | codePoint >> 6 & 0x3F);
+                writeByte(0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                writeByte('?');
+            } else {
+                writeByte(0xE0 | c >> 12);
+                writeByte(0x80 | c >> 6 & 0x3F);
+                writeByte(0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (scratchLength == scratch.length) {
+            flushScratch();
+        }
+        scratch[scratchLength++] = (byte) b;
+    }
+
+    private void writeBuffer(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        // Direct buffers (pooled JPEGs) are copied through the scratch buffer in chunks
+        while (buffer.hasRemaining()) {
+            int chunk = Math.min(buffer.remaining(), scratch.length);
+            buffer.get(scratch, 0, chunk);
+            out.write(scratch, 0, chunk);
+        }
+    }
+
+    private void flushScratch() throws IOException {
+        if (scratchLength > 0) {
+            out.write(scratch, 0, scratchLength);
+            scratchLength = 0;
+        }
+    }
+}
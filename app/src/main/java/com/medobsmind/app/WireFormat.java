@@ -0,0 +1,104 @@
+package com.medobsmind.app;
+
+/**
+ * Binary wire format for LLMM requests, frames and streamed tokens. Every message is an
+ * envelope: magic "MO", a version byte, a message type byte, the payload length as a
+ * varint, then the payload. Payloads are protobuf-style fields: a varint tag
+ * ({@code field << 3 | wireType}) followed by a varint or a length-prefixed byte run.
+ * Readers skip fields they do not know, so fields can be added without a version bump.
+ *
+ * <pre>
+ * ChatRequest (type 1)   1: prompt, 2: context, 3: system_prompt, 4: Params, 5: image_jpeg
+ * Frame       (type 2)   1: Params, 2: width, 3: height, 4: timestamp_ns, 5: jpeg
+ * Token       (type 3)   1: text
+ * Done        (type 4)   (empty)
+ * Params                 1: performance_mode, 2: max_tokens, 3: stream, 4: timeout_ms
+ * </pre>
+ */
+public final class WireFormat {
+    public static final String CONTENT_TYPE = "application/x-medobsmind";
+
+    static final int MAGIC_0 = 'M';
+    static final int MAGIC_1 = 'O';
+    static final int VERSION = 1;
+
+    public static final int TYPE_CHAT_REQUEST = 1;
+    public static final int TYPE_FRAME = 2;
+    public static final int TYPE_TOKEN = 3;
+    public static final int TYPE_DONE = 4;
+
+    static final int WIRE_VARINT = 0;
+    static final int WIRE_LENGTH_DELIMITED = 2;
+
+    static final int CHAT_PROMPT = 1;
+    static final int CHAT_CONTEXT = 2;
+    static final int CHAT_SYSTEM_PROMPT = 3;
+    static final int CHAT_PARAMS = 4;
+    static final int CHAT_IMAGE = 5;
+
+    static final int FRAME_PARAMS = 1;
+    static final int FRAME_WIDTH = 2;
+    static final int FRAME_HEIGHT = 3;
+    static final int FRAME_TIMESTAMP = 4;
+    static final int FRAME_JPEG = 5;
+
+    static final int TOKEN_TEXT = 1;
+
+    static final int PARAMS_MODE = 1;
+    static final int PARAMS_MAX_TOKENS = 2;
+    static final int PARAMS_STREAM = 3;
+    static final int PARAMS_TIMEOUT = 4;
+
+    private WireFormat() {}
+
+    static int tag(int field, int wireType) {
+        return field << 3 | wireType;
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Encoded size of {@code value} in UTF-8 without encoding it. Unpaired surrogates count
+     * as one byte because the encoder writes them as '?'.
+     */
+    static int utf8Length(String value) {
+        int length = 0;
+        int count = value.length();
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < count
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    static int varintFieldSize(int field, long value) {
+        return varintSize(tag(field, WIRE_VARINT)) + varintSize(value);
+    }
+
+    static int bytesFieldSize(int field, int length) {
+        return varintSize(tag(field, WIRE_LENGTH_DELIMITED)) + varintSize(length) + length;
+    }
+
+    static int stringFieldSize(int field, String value) {
+        return value == null ? 0 : bytesFieldSize(field, utf8Length(value));
+    }
+}
@@ -0,0 +1,122 @@
+package com.medobsmind.app;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable camera frame in packed I420 layout (full-size Y plane followed by quarter-size U
+ * and V planes) backed by one direct buffer allocated up front.
+ */
+public final class YuvFrame {
+    private final int width;
+    private final int height;
+    private final ByteBuffer data;
+    private final ByteBuffer yPlane;
+    private final ByteBuffer uPlane;
+    private final ByteBuffer vPlane;
+    private long timestampNanos;
+
+    public YuvFrame(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.data = ByteBuffer.allocateDirect(sizeOf(width, height));
+        this.yPlane = slice(0, getUOffset());
+        this.uPlane = slice(getUOffset(), getVOffset());
+        this.vPlane = slice(getVOffset(), data.capacity());
+    }
+
+    private ByteBuffer slice(int start, int end) {
+        ByteBuffer view = data.duplicate();
+        view.limit(end);
+        view.position(start);
+        return view.slice();
+    }
+
+    public static int sizeOf(int width, int height) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        return width * height + 2 * chromaWidth * chromaHeight;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * Returns the whole I420 buffer positioned at zero; callers must not keep it after releasing
+     * the frame back to its {@link FrameRing}.
+     */
+    public ByteBuffer getData() {
+        ByteBuffer view = data.duplicate();
+        view.clear();
+        return view;
+    }
+
+    public ByteBuffer getYPlane() {
+        return yPlane;
+    }
+
+    public ByteBuffer getUPlane() {
+        return uPlane;
+    }
+
+    public ByteBuffer getVPlane() {
+        return vPlane;
+    }
+
+    public int getUOffset() {
+        return width * height;
+    }
+
+    public int getVOffset() {
+        return getUOffset() + ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * Copies YUV_420_888 planes (any row and pixel stride) into this frame. The source must be
+     * the same size as the frame.
+     */
+    public void copyFrom(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v,
+                         int uvRowStride, int uvPixelStride, long timestampNanos) {
+        this.timestampNanos = timestampNanos;
+        ByteBuffer out = data;
+        out.clear();
+        copyPlane(y, yRowStride, 1, width, height, out);
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        copyPlane(u, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, out);
+        copyPlane(v, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, out);
+        out.flip();
+    }
+
+    private static void copyPlane(ByteBuffer plane, int rowStride, int pixelStride,
+                                  int planeWidth, int planeHeight, ByteBuffer out) {
+        ByteBuffer src = plane.duplicate();
+        int base = src.position();
+        if (pixelStride == 1 && rowStride == planeWidth) {
+            // Tightly packed plane: one bulk copy
+            src.limit(base + planeWidth * planeHeight);
+            out.put(src);
+            return;
+        }
+        for (int row = 0; row < planeHeight; row++) {
+            int rowStart = base + row * rowStride;
+            if (pixelStride == 1) {
+                src.limit(rowStart + planeWidth);
+                src.position(rowStart);
+                out.put(src);
+            } else {
+                for (int col = 0; col < planeWidth; col++) {
+                    out.put(src.get(rowStart + col * pixelStride));
+                }
+            }
+        }
+    }
+}
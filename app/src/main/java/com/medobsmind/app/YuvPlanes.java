@@ -0,0 +1,45 @@
+package com.medobsmind.app;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable view of YUV_420_888 planes, filled from either a camera {@code Image} or a
+ * {@link YuvFrame}. Buffers are read with absolute indexing from their current position.
+ */
+public final class YuvPlanes {
+    ByteBuffer y;
+    ByteBuffer u;
+    ByteBuffer v;
+    int yRowStride;
+    int uvRowStride;
+    int uvPixelStride;
+    int width;
+    int height;
+
+    public YuvPlanes set(int width, int height, ByteBuffer y, int yRowStride,
+                         ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride) {
+        this.width = width;
+        this.height = height;
+        this.y = y;
+        this.yRowStride = yRowStride;
+        this.u = u;
+        this.v = v;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+        return this;
+    }
+
+    public YuvPlanes set(YuvFrame frame) {
+        int chromaWidth = (frame.getWidth() + 1) / 2;
+        return set(frame.getWidth(), frame.getHeight(), frame.getYPlane(), frame.getWidth(),
+            frame.getUPlane(), frame.getVPlane(), chromaWidth, 1);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
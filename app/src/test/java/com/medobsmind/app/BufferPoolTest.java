@@ -0,0 +1,57 @@
+package com.medobsmind.app;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+    @Test
+    public void handsOutClearedDirectBuffers() {
+        BufferPool pool = new BufferPool(64, 2);
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        assertEquals(64, buffer.capacity());
+        buffer.putInt(7).flip();
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(64, reused.limit());
+        assertEquals(1, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void keepsNoMoreThanTheMaximum() {
+        BufferPool pool = new BufferPool(16, 2);
+        ByteBuffer[] buffers = {pool.acquire(), pool.acquire(), pool.acquire()};
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        pool.acquire();
+        pool.acquire();
+        assertEquals(3, pool.getAllocatedCount());
+        // The third release was dropped, so this one is new
+        pool.acquire();
+        assertEquals(4, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void ignoresBuffersItCannotHandOutAgain() {
+        BufferPool pool = new BufferPool(16, 2);
+        ByteBuffer heap = ByteBuffer.allocate(16);
+        ByteBuffer wrongSize = ByteBuffer.allocateDirect(32);
+        pool.release(heap);
+        pool.release(wrongSize);
+
+        ByteBuffer buffer = pool.acquire();
+        assertNotSame(heap, buffer);
+        assertNotSame(wrongSize, buffer);
+        assertEquals(1, pool.getAllocatedCount());
+    }
+}
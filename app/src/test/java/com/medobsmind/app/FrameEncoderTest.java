@@ -0,0 +1,91 @@
+package com.medobsmind.app;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameEncoderTest {
+    @Test
+    public void copiesPlanarPlanesAtTheSameSize() {
+        // Odd size and padded rows: chroma is 3x2 and rounds up
+        FrameEncoder encoder = new FrameEncoder(5, 3, 1);
+        ByteBuffer nv21 = encoder.encodeNv21(TestPlanes.planar(5, 3, 8, 4));
+        assertArrayEquals(TestPlanes.nv21(TestPlanes.range(5), TestPlanes.range(3)), TestPlanes.remaining(nv21));
+    }
+
+    @Test
+    public void copiesSemiPlanarPlanesAtTheSameSize() {
+        FrameEncoder encoder = new FrameEncoder(5, 3, 1);
+        ByteBuffer nv21 = encoder.encodeNv21(TestPlanes.semiPlanar(5, 3, 8, 8));
+        assertArrayEquals(TestPlanes.nv21(TestPlanes.range(5), TestPlanes.range(3)), TestPlanes.remaining(nv21));
+    }
+
+    @Test
+    public void samplesTheCentreOfEachTargetPixelWhenScaling() {
+        FrameEncoder encoder = new FrameEncoder(2, 2, 1);
+        ByteBuffer nv21 = encoder.encodeNv21(TestPlanes.semiPlanar(8, 8, 8, 8));
+        assertArrayEquals(TestPlanes.nv21(new int[] {2, 6}, new int[] {2, 6}), TestPlanes.remaining(nv21));
+    }
+
+    @Test
+    public void scalesToAnOddTargetSize() {
+        FrameEncoder encoder = new FrameEncoder(3, 3, 1);
+        ByteBuffer nv21 = encoder.encodeNv21(TestPlanes.planar(6, 6, 6, 3));
+        assertEquals(YuvFrame.sizeOf(3, 3), nv21.remaining());
+        assertArrayEquals(TestPlanes.nv21(new int[] {1, 3, 5}, new int[] {1, 3, 5}), TestPlanes.remaining(nv21));
+    }
+
+    @Test
+    public void cropsToTheRegionOfInterest() {
+        FrameEncoder encoder = new FrameEncoder(2, 2, 1);
+        encoder.setRegionOfInterest(0.5f, 0.25f, 1f, 0.75f);
+        ByteBuffer nv21 = encoder.encodeNv21(TestPlanes.planar(8, 8, 10, 6));
+        assertArrayEquals(TestPlanes.nv21(new int[] {5, 7}, new int[] {3, 5}), TestPlanes.remaining(nv21));
+    }
+
+    @Test
+    public void resamplesWhenTheSourceSizeChanges() {
+        FrameEncoder encoder = new FrameEncoder(2, 2, 1);
+        encoder.releaseNv21(encoder.encodeNv21(TestPlanes.planar(4, 4, 4, 2)));
+        ByteBuffer nv21 = encoder.encodeNv21(TestPlanes.planar(8, 8, 8, 4));
+        assertArrayEquals(TestPlanes.nv21(new int[] {2, 6}, new int[] {2, 6}), TestPlanes.remaining(nv21));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyRegionOfInterest() {
+        new FrameEncoder(2, 2, 1).setRegionOfInterest(0.5f, 0f, 0.5f, 1f);
+    }
+
+    @Test
+    public void convertsLimitedRangeYuvToRgb() {
+        FrameEncoder encoder = new FrameEncoder(3, 1, 1);
+        // Black, white and BT.601 red, one per column
+        int[][] yuv = {{16, 128, 128}, {235, 128, 128}, {81, 90, 240}};
+        YuvPlanes src = TestPlanes.planar(6, 1, 6, 3,
+            (x, y) -> yuv[x / 2][0], (x, y) -> yuv[x][1], (x, y) -> yuv[x][2]);
+        ByteBuffer rgb = encoder.encodeRgb(src);
+        assertEquals(3 * 3, rgb.remaining());
+        assertArrayEquals(new byte[] {0, 0, 0, (byte) 255, (byte) 255, (byte) 255, (byte) 255, 0, 0},
+            TestPlanes.remaining(rgb));
+    }
+
+    @Test
+    public void reusesReleasedBuffersAcrossFrames() {
+        FrameEncoder encoder = new FrameEncoder(4, 4, 2);
+        YuvPlanes src = TestPlanes.semiPlanar(8, 8, 8, 8);
+        ByteBuffer first = encoder.encodeNv21(src);
+        encoder.releaseNv21(first);
+        for (int i = 0; i < 10; i++) {
+            ByteBuffer nv21 = encoder.encodeNv21(src);
+            ByteBuffer rgb = encoder.encodeRgb(src);
+            assertEquals(YuvFrame.sizeOf(4, 4), nv21.remaining());
+            encoder.releaseNv21(nv21);
+            encoder.releaseRgb(rgb);
+        }
+        // One buffer per format, however many frames went through
+        assertEquals(2, encoder.getAllocatedBufferCount());
+    }
+}
@@ -0,0 +1,63 @@
+package com.medobsmind.app;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InferenceDispatcherTest {
+    private final InferenceDispatcher dispatcher = new InferenceDispatcher(3, 4);
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void supersedesTheRequestOnTheSameChannel() throws Exception {
+        Future<?> first = dispatcher.submit(InferenceDispatcher.CHANNEL_CHAT, "a", InferenceDispatcherTest::block);
+        dispatcher.submit(InferenceDispatcher.CHANNEL_CHAT, "b", InferenceDispatcherTest::block);
+
+        assertTrue(first.isCancelled());
+    }
+
+    @Test
+    public void keepsAnAdoptedPrefetchThroughTheNextPrefetch() throws Exception {
+        Future<?> older = dispatcher.submit(InferenceDispatcher.CHANNEL_CHAT, "older", InferenceDispatcherTest::block);
+        Future<?> adopted = dispatcher.submit(InferenceDispatcher.CHANNEL_PREFETCH, "hr 88",
+            InferenceDispatcherTest::block);
+
+        dispatcher.transfer(InferenceDispatcher.CHANNEL_PREFETCH, InferenceDispatcher.CHANNEL_CHAT);
+        assertTrue(older.isCancelled());
+        assertTrue(dispatcher.isInFlight(InferenceDispatcher.CHANNEL_CHAT, "hr 88"));
+
+        // The user speaks again while the adopted answer streams
+        dispatcher.submit(InferenceDispatcher.CHANNEL_PREFETCH, "spo2", InferenceDispatcherTest::block);
+        assertFalse(adopted.isCancelled());
+
+        // A new chat answer still supersedes it
+        dispatcher.submit(InferenceDispatcher.CHANNEL_CHAT, "spo2", InferenceDispatcherTest::block);
+        assertTrue(adopted.isCancelled());
+    }
+
+    @Test
+    public void transferringAFinishedPrefetchStillSupersedesTheChat() throws Exception {
+        Future<?> older = dispatcher.submit(InferenceDispatcher.CHANNEL_CHAT, "older", InferenceDispatcherTest::block);
+        dispatcher.submit(InferenceDispatcher.CHANNEL_PREFETCH, "hr 88", () -> "done").get(5, TimeUnit.SECONDS);
+
+        dispatcher.transfer(InferenceDispatcher.CHANNEL_PREFETCH, InferenceDispatcher.CHANNEL_CHAT);
+
+        assertTrue(older.isCancelled());
+    }
+
+    // Runs until cancelled
+    private static Object block() throws InterruptedException {
+        new CountDownLatch(1).await();
+        return null;
+    }
+}
@@ -0,0 +1,188 @@
+package com.medobsmind.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs chat and video calls against a stub server that speaks cleartext HTTP/2 (h2c with
+ * prior knowledge), so multiplexing can be checked without TLS.
+ */
+public class LlmmApiClientTest {
+    private static final String CHAT_PATH = "/v1/chat";
+    private static final String FRAME_PATH = "/v1/frames";
+
+    private MockWebServer server;
+    private LlmmApiClient apiClient;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // What the stub answers the pre-connect probe with, if anything
+    private volatile String acceptPost;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (CHAT_PATH.equals(request.getPath()) && WireFormat.CONTENT_TYPE.equals(request.getHeader("Content-Type"))) {
+                    return binaryAnswer("Wound ", "healing.");
+                }
+                if (CHAT_PATH.equals(request.getPath())) {
+                    StringBuilder body = new StringBuilder("data: Heart \n\n");
+                    for (int i = 0; i < 40; i++) {
+                        body.append(": keep-alive\n\n");
+                    }
+                    body.append("data: rate 88\n\ndata: [DONE]\n\n");
+                    // Still streaming, about half a second, while the frame goes up and back
+                    return new MockResponse().setBody(body.toString()).throttleBody(64, 50, TimeUnit.MILLISECONDS);
+                }
+                if (FRAME_PATH.equals(request.getPath())) {
+                    return new MockResponse().setBody("Patient resting.");
+                }
+                MockResponse probe = new MockResponse();
+                return acceptPost != null ? probe.setHeader("Accept-Post", acceptPost) : probe;
+            }
+        });
+        server.start();
+        apiClient = new LlmmApiClient(server.url(CHAT_PATH).toString(), false, true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void multiplexesChatAndFramesOnThePreconnectedConnection() throws Exception {
+        apiClient.preconnect();
+        awaitIdleConnection();
+
+        CountDownLatch firstToken = new CountDownLatch(1);
+        StringBuilder answer = new StringBuilder();
+        Future<?> chat = executor.submit(() -> {
+            new SseTransport(apiClient).stream(new LlmmRequest("Is a heart rate of 88 normal?", "",
+                "You are MedObsMind.", PerformanceProfile.BALANCED), token -> {
+                    answer.append(token);
+                    firstToken.countDown();
+                });
+            return null;
+        });
+        assertTrue(firstToken.await(5, TimeUnit.SECONDS));
+
+        String interpretation = apiClient.postFrame(server.url(FRAME_PATH).toString(),
+            ByteBuffer.wrap(new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9}),
+            PerformanceProfile.BALANCED, 640, 480, 0);
+        // The frame finished while the answer was still streaming on the same connection
+        assertEquals("Patient resting.", interpretation);
+        assertFalse(chat.isDone());
+        chat.get(5, TimeUnit.SECONDS);
+
+        assertEquals("Heart rate 88", answer.toString());
+        assertEquals(3, apiClient.getCallCount());
+        assertEquals(1, apiClient.getConnectionCount());
+        // The server numbers requests per connection: the probe, the chat stream, then the frame
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, server.takeRequest().getSequenceNumber());
+        }
+    }
+
+    @Test
+    public void sendsAttachmentsAsBinaryOnceTheServerAdvertisesIt() throws Exception {
+        acceptPost = "application/json, " + WireFormat.CONTENT_TYPE;
+        assertFalse(apiClient.isBinaryWire());
+        apiClient.preconnect();
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while (!apiClient.isBinaryWire() && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(10);
+        }
+        assertTrue(apiClient.isBinaryWire());
+
+        byte[] image = new byte[30 * 1024];
+        new Random(42).nextBytes(image);
+        File file = folder.newFile("wound.jpg");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(image);
+        }
+        List<String> tokens = new ArrayList<>();
+        new NegotiatedTransport(apiClient).stream(new LlmmRequest("Is this wound healing?", "",
+            "You are MedObsMind.", PerformanceProfile.BALANCED, file.getPath()), tokens::add);
+
+        assertEquals(Arrays.asList("Wound ", "healing."), tokens);
+        server.takeRequest();
+        RecordedRequest chat = server.takeRequest();
+        assertEquals(WireFormat.CONTENT_TYPE, chat.getHeader("Content-Type"));
+        byte[] body = chat.getBody().readByteArray();
+        // The image as it is, not a third larger in base64
+        assertTrue(body.length + " bytes", body.length < image.length + 256);
+        assertArrayEquals(image, Arrays.copyOfRange(body, body.length - image.length, body.length));
+    }
+
+    @Test
+    public void staysOnJsonWhenTheServerDoesNotAdvertiseTheWireFormat() throws Exception {
+        acceptPost = "application/json";
+        apiClient.preconnect();
+        awaitIdleConnection();
+
+        assertFalse(apiClient.isBinaryWire());
+        assertFalse(LlmmApiClient.acceptsWireFormat(null));
+        assertTrue(LlmmApiClient.acceptsWireFormat(WireFormat.CONTENT_TYPE + "; version=1"));
+    }
+
+    private static MockResponse binaryAnswer(String... tokens) {
+        try {
+            Buffer body = new Buffer();
+            WireEncoder encoder = new WireEncoder(body.outputStream());
+            for (String token : tokens) {
+                encoder.writeToken(token);
+            }
+            encoder.writeDone();
+            encoder.flush();
+            return new MockResponse().setHeader("Content-Type", WireFormat.CONTENT_TYPE).setBody(body);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void awaitIdleConnection() throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while (apiClient.getIdleConnectionCount() == 0 && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, apiClient.getIdleConnectionCount());
+    }
+}
@@ -0,0 +1,171 @@
+package com.medobsmind.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Streams through {@link SseTransport} and the shared client from a stub server on the
+ * loopback interface. Callbacks run directly on the worker thread.
+ */
+public class LlmmStreamingClientTest {
+    private static final String PROMPT = "Is a heart rate of 88 normal?";
+    private static final String SYSTEM_PROMPT = "You are MedObsMind, a clinical observation assistant.";
+
+    private MockWebServer server;
+    private InferenceDispatcher dispatcher;
+    private LlmmApiClient apiClient;
+    private LlmmStreamingClient client;
+    private final RecordingListener listener = new RecordingListener();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        dispatcher = new InferenceDispatcher(2, 4);
+        apiClient = new LlmmApiClient(server.url("/v1/chat").toString(), false);
+        client = new LlmmStreamingClient(new SseTransport(apiClient), dispatcher, Runnable::run, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        dispatcher.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void streamsTokensInOrderAndCompletes() throws Exception {
+        server.enqueue(new MockResponse()
+            .setHeader("Content-Type", "text/event-stream")
+            .setBody("data: Heart \n\n: keep-alive\n\ndata: rate \n\ndata: 88 \n\ndata: is normal.\n\ndata: [DONE]\n\n")
+            // Small writes, so tokens reach the client in separate reads
+            .throttleBody(12, 5, TimeUnit.MILLISECONDS));
+
+        client.stream(InferenceDispatcher.CHANNEL_CHAT, request(PerformanceProfile.BALANCED), listener);
+
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("Heart ", "rate ", "88 ", "is normal."), listener.tokens);
+        assertEquals("Heart rate 88 is normal.", listener.completed);
+        assertNull(listener.error);
+        RecordedRequest recorded = server.takeRequest();
+        assertEquals("POST", recorded.getMethod());
+        assertEquals("text/event-stream", recorded.getHeader("Accept"));
+        assertTrue(recorded.getBody().readUtf8().contains(PROMPT));
+    }
+
+    @Test
+    public void deliversANonStreamingAnswerInOnePiece() throws Exception {
+        server.enqueue(new MockResponse().setBody("data: Heart \n\ndata: rate \n\ndata: [DONE]\n\n"));
+
+        client.stream(InferenceDispatcher.CHANNEL_CHAT, request(PerformanceProfile.STANDARD), listener);
+
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("Heart rate "), listener.tokens);
+        assertEquals("Heart rate ", listener.completed);
+    }
+
+    @Test
+    public void reportsAnHttpErrorStatus() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+
+        client.stream(InferenceDispatcher.CHANNEL_CHAT, request(PerformanceProfile.BALANCED), listener);
+
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.error instanceof IOException);
+        assertTrue(listener.error.getMessage().contains("503"));
+        assertNull(listener.completed);
+    }
+
+    @Test
+    public void stopsCallbacksOnceCancelled() throws Exception {
+        StringBuilder body = new StringBuilder("data: first\n\n");
+        for (int i = 0; i < 100; i++) {
+            body.append(": keep-alive\n\n");
+        }
+        body.append("data: second\n\ndata: [DONE]\n\n");
+        // About a second between the two tokens; the throttle slows the request upload as well
+        server.enqueue(new MockResponse().setBody(body.toString()).throttleBody(64, 50, TimeUnit.MILLISECONDS));
+
+        Future<?> future = client.stream(InferenceDispatcher.CHANNEL_CHAT, request(PerformanceProfile.BALANCED),
+            listener);
+        assertTrue(listener.firstToken.await(5, TimeUnit.SECONDS));
+        future.cancel(true);
+        // Long enough for the rest of the stream to have arrived had it not been cancelled
+        Thread.sleep(2000);
+
+        assertEquals(Arrays.asList("first"), listener.tokens);
+        assertNull(listener.completed);
+        assertNull(listener.error);
+    }
+
+    @Test
+    public void cachesChatAnswersButNotPrefetchedOnes() throws Exception {
+        ResponseCache cache = new ResponseCache(folder.newFolder("cache"), 8, 1024 * 1024);
+        LlmmStreamingClient cachingClient = new LlmmStreamingClient(new SseTransport(apiClient), dispatcher,
+            Runnable::run, cache);
+        LlmmRequest request = request(PerformanceProfile.BALANCED);
+        server.enqueue(new MockResponse().setBody("data: From a partial transcript\n\ndata: [DONE]\n\n"));
+        server.enqueue(new MockResponse().setBody("data: Normal\n\ndata: [DONE]\n\n"));
+
+        cachingClient.stream(InferenceDispatcher.CHANNEL_PREFETCH, request, listener);
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertNull(cache.get(ResponseCache.key(request)));
+
+        RecordingListener chat = new RecordingListener();
+        cachingClient.stream(InferenceDispatcher.CHANNEL_CHAT, request, chat);
+        assertTrue(chat.done.await(5, TimeUnit.SECONDS));
+        assertEquals("Normal", cache.get(ResponseCache.key(request)));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    private static LlmmRequest request(PerformanceProfile profile) {
+        return new LlmmRequest(PROMPT, "", SYSTEM_PROMPT, profile);
+    }
+
+    private static final class RecordingListener implements LlmmStreamingClient.Listener {
+        final List<String> tokens = new ArrayList<>();
+        final CountDownLatch firstToken = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile String completed;
+        volatile Exception error;
+
+        @Override
+        public synchronized void onToken(String token) {
+            tokens.add(token);
+            firstToken.countDown();
+        }
+
+        @Override
+        public void onComplete(String fullText) {
+            completed = fullText;
+            done.countDown();
+        }
+
+        @Override
+        public void onError(Exception e) {
+            error = e;
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.medobsmind.app;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * How {@link MedicalTokenizer} splits doses, numbers and clinical codes.
+ */
+public class MedicalTokenizerTest {
+    @Test
+    public void splitsADoseFromItsUnit() {
+        assertEquals(Arrays.asList("500", "mg"), tokens("500mg"));
+        assertEquals(tokens("500mg"), tokens("500 mg"));
+        assertEquals(Arrays.asList("paracetamol", "1", "g", "qds"), tokens("Paracetamol 1g QDS"));
+    }
+
+    @Test
+    public void dropsThousandsSeparators() {
+        assertEquals(Arrays.asList("1500", "ml"), tokens("1,500 mL"));
+        assertEquals(Arrays.asList("1250000"), tokens("1,250,000"));
+    }
+
+    @Test
+    public void keepsNumbersApartWhenTheCommaIsNotAThousandsGroup() {
+        assertEquals(Arrays.asList("3", "4"), tokens("3,4"));
+        assertEquals(Arrays.asList("1", "5000"), tokens("1,5000"));
+        // A list of readings, not one number
+        assertEquals(Arrays.asList("98", "97", "99"), tokens("98, 97, 99"));
+    }
+
+    @Test
+    public void keepsDecimalsWhole() {
+        assertEquals(Arrays.asList("temp", "37.5"), tokens("Temp 37.5."));
+        assertEquals(Arrays.asList("2.5", "mg"), tokens("2.5mg"));
+    }
+
+    @Test
+    public void splitsRatiosAndRanges() {
+        assertEquals(Arrays.asList("bp", "128", "84"), tokens("BP 128/84"));
+        assertEquals(Arrays.asList("5", "10", "mins"), tokens("5-10 mins"));
+    }
+
+    @Test
+    public void keepsDigitsInLetterFirstCodes() {
+        assertEquals(Arrays.asList("spo2", "94"), tokens("SpO2 94%"));
+        assertEquals(Arrays.asList("hba1c", "news2"), tokens("HbA1c, NEWS2"));
+    }
+
+    @Test
+    public void readsEveryMicrogramSpellingAsMcg() {
+        List<String> expected = Arrays.asList("50", "mcg");
+        assertEquals(expected, tokens("50mcg"));
+        assertEquals(expected, tokens("50 ug"));
+        assertEquals(expected, tokens("50µg"));
+        assertEquals(expected, tokens("50 μg"));
+    }
+
+    @Test
+    public void joinsWordsAcrossApostrophes() {
+        assertEquals(Arrays.asList("patients", "obs"), tokens("Patient's obs"));
+        assertEquals(Arrays.asList("doesnt", "settle"), tokens("doesn’t settle"));
+        // A closing quote is not part of the word
+        assertEquals(Arrays.asList("said", "fine"), tokens("said 'fine'"));
+    }
+
+    private static List<String> tokens(String text) {
+        return MedicalTokenizer.tokenize(text);
+    }
+}
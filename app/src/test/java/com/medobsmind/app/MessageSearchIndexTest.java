@@ -0,0 +1,129 @@
+package com.medobsmind.app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Queries against {@link MessageSearchIndex}: prefixes, phrases, rewritten messages and
+ * compaction.
+ */
+public class MessageSearchIndexTest {
+    private static final int LIMIT = 50;
+
+    @Test
+    public void returnsMatchesNewestFirst() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        index.add(1, "Wound dressing changed.");
+        index.add(3, "Wound is healing.");
+        index.add(2, "Dressing dry, wound clean.");
+
+        assertArrayEquals(new long[] {3, 2, 1}, index.search("wound", LIMIT));
+        assertArrayEquals(new long[] {3, 2}, index.search("wound", 2));
+        assertArrayEquals(new long[] {2, 1}, index.search("wound dressing", LIMIT));
+        assertArrayEquals(new long[0], index.search("wound sepsis", LIMIT));
+    }
+
+    @Test
+    public void findsADoseHoweverItWasSpaced() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        index.add(1, "Amoxicillin 500mg given.");
+        index.add(2, "Amoxicillin 500 mg due at 18:00.");
+        index.add(3, "Paracetamol 1g given, 500 ml fluids.");
+
+        assertArrayEquals(new long[] {2, 1}, index.search("500mg", LIMIT));
+        assertArrayEquals(new long[] {2, 1}, index.search("\"500 mg\"", LIMIT));
+    }
+
+    @Test
+    public void findsNumbersWithThousandsSeparators() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        index.add(1, "Fluid balance +1,500 mL.");
+        index.add(2, "Pain score 3,4 on movement.");
+
+        assertArrayEquals(new long[] {1}, index.search("1500", LIMIT));
+        assertArrayEquals(new long[] {1}, index.search("1,500", LIMIT));
+        assertArrayEquals(new long[] {2}, index.search("3,4", LIMIT));
+        assertArrayEquals(new long[0], index.search("34", LIMIT));
+    }
+
+    @Test
+    public void matchesAPrefix() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        index.add(1, "Hypertension, on amlodipine.");
+        index.add(2, "Hyperkalaemia on bloods.");
+        index.add(3, "Hypotension after the dose.");
+        index.add(4, "Hyper alert, agitated.");
+
+        assertArrayEquals(new long[] {4, 2, 1}, index.search("hyper*", LIMIT));
+        assertArrayEquals(new long[] {4}, index.search("hyper", LIMIT));
+        assertArrayEquals(new long[] {2}, index.search("hyper* bloods", LIMIT));
+    }
+
+    @Test
+    public void matchesAQuotedPhraseInOrder() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        index.add(1, "Chest pain radiating to the left arm.");
+        index.add(2, "No pain; chest clear on auscultation.");
+        index.add(3, "Denies chest pain today.");
+
+        assertArrayEquals(new long[] {3, 2, 1}, index.search("chest pain", LIMIT));
+        assertArrayEquals(new long[] {3, 1}, index.search("\"chest pain\"", LIMIT));
+        assertArrayEquals(new long[] {1}, index.search("\"chest pain\" arm", LIMIT));
+        assertArrayEquals(new long[] {3}, index.search("\"denies chest", LIMIT));
+    }
+
+    @Test
+    public void replacesTheTextOfARewrittenMessage() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        index.add(1, "Febrile overnight.");
+        index.add(2, "Febrile, cultures sent.");
+        // A streamed answer is indexed as it grows and again with its final text
+        index.add(1, "Afebrile this morning.");
+
+        assertEquals(2, index.size());
+        assertArrayEquals(new long[] {2}, index.search("febrile", LIMIT));
+        assertArrayEquals(new long[] {1}, index.search("afebrile", LIMIT));
+        assertArrayEquals(new long[0], index.search("overnight", LIMIT));
+
+        index.add(2, "");
+        assertEquals(1, index.size());
+        assertArrayEquals(new long[0], index.search("febrile", LIMIT));
+    }
+
+    @Test
+    public void answersTheSameAfterCompacting() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        int messages = 2000;
+        for (long id = 1; id <= messages; id++) {
+            index.add(id, "Obs round " + id + ", NEWS2 score " + id % 5);
+        }
+        // Past the threshold with more dead documents than live ones, so the index compacts
+        for (long id = 1; id <= 1500; id++) {
+            index.remove(id);
+        }
+        index.add(2000, "Discharged home.");
+
+        assertEquals(500, index.size());
+        assertArrayEquals(new long[0], index.search("1200", LIMIT));
+        assertArrayEquals(new long[] {1600}, index.search("round 1600", LIMIT));
+        assertArrayEquals(new long[] {2000}, index.search("discharged", LIMIT));
+        assertArrayEquals(new long[] {1999, 1998, 1997}, index.search("obs", 3));
+
+        List<Long> expected = new ArrayList<>();
+        for (long id = 1999; id > 1500 && expected.size() < LIMIT; id--) {
+            if (id % 5 == 3) {
+                expected.add(id);
+            }
+        }
+        long[] results = index.search("\"news2 score 3\"", LIMIT);
+        assertEquals(expected.size(), results.length);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals((long) expected.get(i), results[i]);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.medobsmind.app;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OutboxJournalTest {
+    private static final String SYSTEM_PROMPT = "You are MedObsMind, a clinical observation assistant.";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysPendingRequestsAfterReopening() throws IOException {
+        File file = folder.newFile("outbox.journal");
+        OutboxJournal journal = new OutboxJournal(file);
+        journal.enqueue(1, request("Heart rate 88?", null));
+        journal.enqueue(2, request("What does this rash show?", "/data/attachments/rash.jpg"));
+        journal.enqueue(3, request("SpO2 94%?", null));
+        journal.complete(1);
+        journal.close();
+
+        OutboxJournal reopened = new OutboxJournal(file);
+        List<OutboxJournal.Entry> pending = reopened.getPending();
+        assertEquals(Arrays.asList(2L, 3L), messageIds(pending));
+        LlmmRequest request = pending.get(0).getRequest();
+        assertEquals("What does this rash show?", request.getPrompt());
+        assertEquals("User: earlier question", request.getContext());
+        assertEquals(SYSTEM_PROMPT, request.getSystemPrompt());
+        assertEquals(PerformanceProfile.BALANCED.getDisplayName(), request.getPerformanceMode());
+        assertEquals("/data/attachments/rash.jpg", request.getImagePath());
+        assertNull(pending.get(1).getRequest().getImagePath());
+        reopened.close();
+    }
+
+    @Test
+    public void dropsARecordTornByACrash() throws IOException {
+        File file = folder.newFile("outbox.journal");
+        OutboxJournal journal = new OutboxJournal(file);
+        journal.enqueue(1, request("Heart rate 88?", null));
+        long intactLength = file.length();
+        journal.enqueue(2, request("SpO2 94%?", null));
+        journal.close();
+        // The process died part-way through writing the second record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 5);
+        }
+
+        OutboxJournal reopened = new OutboxJournal(file);
+        assertEquals(Arrays.asList(1L), messageIds(reopened.getPending()));
+        assertEquals(intactLength, file.length());
+        // New records start on a clean boundary rather than after the torn bytes
+        reopened.enqueue(3, request("Respiratory rate 22?", null));
+        reopened.close();
+
+        OutboxJournal again = new OutboxJournal(file);
+        assertEquals(Arrays.asList(1L, 3L), messageIds(again.getPending()));
+        again.close();
+    }
+
+    @Test
+    public void dropsATornCompletion() throws IOException {
+        File file = folder.newFile("outbox.journal");
+        OutboxJournal journal = new OutboxJournal(file);
+        journal.enqueue(1, request("Heart rate 88?", null));
+        journal.enqueue(2, request("SpO2 94%?", null));
+        journal.complete(1);
+        journal.close();
+        // Only the type byte and half the id of the completion made it to disk
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 4);
+        }
+
+        OutboxJournal reopened = new OutboxJournal(file);
+        // The answer was never recorded as delivered, so it is sent again
+        assertEquals(Arrays.asList(1L, 2L), messageIds(reopened.getPending()));
+        reopened.close();
+    }
+
+    @Test
+    public void compactsOnceEnoughRequestsAreAnswered() throws IOException {
+        File file = folder.newFile("outbox.journal");
+        OutboxJournal journal = new OutboxJournal(file);
+        for (long id = 1; id <= 40; id++) {
+            journal.enqueue(id, request("Question " + id, null));
+        }
+        long fullLength = file.length();
+        for (long id = 1; id <= 32; id++) {
+            journal.complete(id);
+        }
+        // Rewritten with the eight pending requests and no completions
+        assertTrue(file.length() < fullLength / 4);
+        journal.enqueue(41, request("Question 41", null));
+        journal.close();
+
+        OutboxJournal reopened = new OutboxJournal(file);
+        List<Long> expected = new ArrayList<>();
+        for (long id = 33; id <= 41; id++) {
+            expected.add(id);
+        }
+        assertEquals(expected, messageIds(reopened.getPending()));
+        reopened.close();
+    }
+
+    @Test
+    public void emptiesTheFileOnceNothingIsPending() throws IOException {
+        File file = folder.newFile("outbox.journal");
+        OutboxJournal journal = new OutboxJournal(file);
+        journal.enqueue(1, request("Heart rate 88?", null));
+        journal.enqueue(2, request("SpO2 94%?", null));
+        journal.complete(2);
+        journal.complete(1);
+        assertEquals(0, file.length());
+        journal.close();
+
+        assertEquals(0, new OutboxJournal(file).size());
+    }
+
+    private static LlmmRequest request(String prompt, String imagePath) {
+        return new LlmmRequest(prompt, "User: earlier question", SYSTEM_PROMPT, PerformanceProfile.BALANCED,
+            imagePath);
+    }
+
+    private static List<Long> messageIds(List<OutboxJournal.Entry> entries) {
+        List<Long> ids = new ArrayList<>();
+        for (OutboxJournal.Entry entry : entries) {
+            ids.add(entry.getMessageId());
+        }
+        return ids;
+    }
+}
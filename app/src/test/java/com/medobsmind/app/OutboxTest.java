@@ -0,0 +1,240 @@
+package com.medobsmind.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays queued requests against a stub server on the loopback interface that answers 503
+ * while an outage lasts, or 400 to a request it refuses.
+ */
+public class OutboxTest {
+    private static final String SYSTEM_PROMPT = "You are MedObsMind, a clinical observation assistant.";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final FlakyServer flakyServer = new FlakyServer();
+    private MockWebServer server;
+    private SseTransport transport;
+    private File journalFile;
+    private Outbox outbox;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(flakyServer);
+        server.start();
+        transport = new SseTransport(new LlmmApiClient(server.url("/v1/chat").toString(), false));
+        journalFile = new File(folder.getRoot(), "outbox.journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (outbox != null) {
+            outbox.shutdown();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void backsOffThroughAnOutageAndDeliversInOrder() throws Exception {
+        flakyServer.failures.set(2);
+        RecordingListener listener = new RecordingListener(3);
+        outbox = new Outbox(new OutboxJournal(journalFile), transport, listener);
+
+        outbox.enqueue(1, request("Heart rate 88?"));
+        outbox.enqueue(2, request("SpO2 94%?"));
+        outbox.enqueue(3, request("Respiratory rate 22?"));
+
+        assertTrue(listener.delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1L, 2L, 3L), listener.messageIds);
+        assertEquals(Arrays.asList("Answer 1", "Answer 2", "Answer 3"), listener.responses);
+        assertEquals(2, outbox.getFailedAttempts());
+        awaitNothingPending();
+        // Half to all of one second, then half to all of two
+        List<Long> arrivals = flakyServer.arrivalsMs;
+        assertTrue(arrivals.get(1) - arrivals.get(0) >= 450);
+        assertTrue(arrivals.get(2) - arrivals.get(1) >= 950);
+        assertEquals(5, server.getRequestCount());
+    }
+
+    @Test
+    public void retriesAtOnceWhenTheNetworkReturns() throws Exception {
+        flakyServer.failures.set(Integer.MAX_VALUE);
+        RecordingListener listener = new RecordingListener(1);
+        outbox = new Outbox(new OutboxJournal(journalFile), transport, listener);
+        outbox.enqueue(1, request("Heart rate 88?"));
+        while (outbox.getFailedAttempts() < 2) {
+            Thread.sleep(20);
+        }
+
+        // The next scheduled replay is two to four seconds away
+        flakyServer.failures.set(0);
+        outbox.retryNow();
+
+        assertTrue(listener.delivered.await(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1L), listener.messageIds);
+    }
+
+    @Test
+    public void replaysRequestsLeftByAnEarlierProcess() throws Exception {
+        OutboxJournal earlier = new OutboxJournal(journalFile);
+        earlier.enqueue(7, request("Heart rate 88?"));
+        earlier.close();
+
+        RecordingListener listener = new RecordingListener(1);
+        outbox = new Outbox(new OutboxJournal(journalFile), transport, listener);
+
+        // No backoff: the first replay starts as the outbox opens
+        assertTrue(listener.delivered.await(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(7L), listener.messageIds);
+        awaitNothingPending();
+        assertEquals(0, new OutboxJournal(journalFile).size());
+    }
+
+    @Test
+    public void keepsARequestWhoseAnswerCouldNotBeStored() throws Exception {
+        RecordingListener listener = new RecordingListener(1);
+        listener.rejections.set(1);
+        outbox = new Outbox(new OutboxJournal(journalFile), transport, listener);
+        outbox.enqueue(1, request("Heart rate 88?"));
+
+        assertTrue(listener.delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1L), listener.messageIds);
+        assertEquals(1, outbox.getFailedAttempts());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void dropsARequestTheServerRefusesWithoutBackingOff() throws Exception {
+        flakyServer.refusals.set(1);
+        RecordingListener listener = new RecordingListener(1);
+        outbox = new Outbox(new OutboxJournal(journalFile), transport, listener);
+        outbox.enqueue(1, request("Heart rate 88?"));
+        outbox.enqueue(2, request("SpO2 94%?"));
+
+        // The refused request does not hold up the one behind it
+        assertTrue(listener.delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1L), listener.failedIds);
+        assertEquals(Arrays.asList(2L), listener.messageIds);
+        assertEquals(1, outbox.getRejectedCount());
+        assertEquals(0, outbox.getFailedAttempts());
+        awaitNothingPending();
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void dropsARequestWhoseAttachmentIsGone() throws Exception {
+        RecordingListener listener = new RecordingListener(0);
+        outbox = new Outbox(new OutboxJournal(journalFile), transport, listener);
+        outbox.enqueue(1, new LlmmRequest("Is this wound healing?", "", SYSTEM_PROMPT, PerformanceProfile.BALANCED,
+            new File(folder.getRoot(), "deleted.jpg").getPath()));
+
+        assertTrue(listener.failed.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1L), listener.failedIds);
+        assertEquals(0, outbox.getFailedAttempts());
+        awaitNothingPending();
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void tellsPermanentFailuresFromConnectivityOnes() {
+        assertTrue(Outbox.isPermanentFailure(new LlmmHttpException(400)));
+        assertTrue(Outbox.isPermanentFailure(new IOException("Shared request failed",
+            new AttachmentException("Truncated attachment", null))));
+        assertFalse(Outbox.isPermanentFailure(new LlmmHttpException(503)));
+        assertFalse(Outbox.isPermanentFailure(new LlmmHttpException(429)));
+        assertTrue(Outbox.isConnectivityFailure(new ConnectException("Connection refused")));
+        assertTrue(Outbox.isConnectivityFailure(new IOException("Shared request failed",
+            new UnknownHostException("api.medobsmind.example"))));
+        assertFalse(Outbox.isConnectivityFailure(new LlmmHttpException(503)));
+    }
+
+    // The journal records a delivery just after the listener returns
+    private void awaitNothingPending() throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + 1000;
+        while (outbox.getPendingCount() > 0 && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, outbox.getPendingCount());
+    }
+
+    private static LlmmRequest request(String prompt) {
+        return new LlmmRequest(prompt, "", SYSTEM_PROMPT, PerformanceProfile.BALANCED);
+    }
+
+    // Refuses the next `refusals` requests with a 400 and fails the next `failures` with a 503,
+    // then answers each with its number
+    private static final class FlakyServer extends Dispatcher {
+        final AtomicInteger refusals = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final List<Long> arrivalsMs = new ArrayList<>();
+        private final AtomicInteger answered = new AtomicInteger();
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            synchronized (arrivalsMs) {
+                arrivalsMs.add(System.nanoTime() / 1_000_000);
+            }
+            if (refusals.getAndDecrement() > 0) {
+                return new MockResponse().setResponseCode(400);
+            }
+            if (failures.getAndDecrement() > 0) {
+                return new MockResponse().setResponseCode(503);
+            }
+            return new MockResponse().setBody("data: Answer " + answered.incrementAndGet() + "\n\ndata: [DONE]\n\n");
+        }
+    }
+
+    private static final class RecordingListener implements Outbox.DeliveryListener {
+        final List<Long> messageIds = new ArrayList<>();
+        final List<String> responses = new ArrayList<>();
+        final List<Long> failedIds = new ArrayList<>();
+        final AtomicInteger rejections = new AtomicInteger();
+        final CountDownLatch delivered;
+        final CountDownLatch failed = new CountDownLatch(1);
+
+        RecordingListener(int expected) {
+            delivered = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onDelivered(long messageId, String response) throws IOException {
+            if (rejections.getAndDecrement() > 0) {
+                throw new IOException("Database is locked");
+            }
+            messageIds.add(messageId);
+            responses.add(response);
+            delivered.countDown();
+        }
+
+        @Override
+        public void onFailed(long messageId, IOException error) {
+            failedIds.add(messageId);
+            failed.countDown();
+        }
+    }
+}
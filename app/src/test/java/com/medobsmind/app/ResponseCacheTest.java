@@ -0,0 +1,78 @@
+package com.medobsmind.app;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCacheTest {
+    private static final String SYSTEM_PROMPT = "You are MedObsMind, a clinical observation assistant.";
+    private static final long TTL_MS = 60_000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sharesAKeyBetweenTriviallyDifferentPhrasings() {
+        assertEquals(ResponseCache.key(request("Is that normal?", "User: Heart rate 88")),
+            ResponseCache.key(request("  is THAT   normal ", "User: Heart rate 88")));
+    }
+
+    @Test
+    public void keysTheSameFollowUpByItsConversation() {
+        String afterHeartRate = ResponseCache.key(request("Is that normal?", "User: Heart rate 88"));
+        String afterSaturation = ResponseCache.key(request("Is that normal?", "User: SpO2 88%"));
+        String withoutContext = ResponseCache.key(request("Is that normal?", ""));
+        assertNotEquals(afterHeartRate, afterSaturation);
+        assertNotEquals(afterHeartRate, withoutContext);
+        assertEquals(withoutContext, ResponseCache.key(request("Is that normal?", null)));
+    }
+
+    @Test
+    public void servesAnAnswerOnlyToItsOwnConversation() throws IOException {
+        ResponseCache cache = new ResponseCache(folder.newFolder("cache"), 8, 1024 * 1024);
+        cache.put(ResponseCache.key(request("Is that normal?", "User: Heart rate 88")), "Yes.", TTL_MS);
+
+        assertEquals("Yes.", cache.get(ResponseCache.key(request("Is that normal?", "User: Heart rate 88"))));
+        assertNull(cache.get(ResponseCache.key(request("Is that normal?", "User: SpO2 88%"))));
+    }
+
+    @Test
+    public void servesARepeatedStandaloneQuestionAcrossTurns() throws IOException {
+        ResponseCache cache = new ResponseCache(folder.newFolder("cache"), 8, 1024 * 1024);
+        String question = "What is a normal adult resting heart rate?";
+        cache.put(ResponseCache.key(request(question, "User: Heart rate 88")), "60 to 100 bpm.", TTL_MS);
+
+        // Two turns later the context has changed, but the question does not refer to it
+        assertEquals("60 to 100 bpm.", cache.get(ResponseCache.key(request(question,
+            "User: Heart rate 88\nMedObsMind: Normal.\nUser: SpO2 97%\nMedObsMind: Normal."))));
+    }
+
+    @Test
+    public void keysOnlyFollowUpsByTheConversation() {
+        assertTrue(ResponseCache.dependsOnContext(ResponseCache.normalize("Is that normal?")));
+        assertTrue(ResponseCache.dependsOnContext(ResponseCache.normalize("What dose should my patient get?")));
+        assertFalse(ResponseCache.dependsOnContext(ResponseCache.normalize("What is a normal SpO2?")));
+    }
+
+    @Test
+    public void readsEntriesBackFromDisk() throws IOException {
+        String key = ResponseCache.key(request("Is that normal?", "User: Heart rate 88"));
+        new ResponseCache(folder.getRoot(), 8, 1024 * 1024).put(key, "Yes.", TTL_MS);
+
+        ResponseCache reopened = new ResponseCache(folder.getRoot(), 8, 1024 * 1024);
+        assertEquals("Yes.", reopened.get(key));
+        assertEquals(1, reopened.getDiskHits());
+    }
+
+    private static LlmmRequest request(String prompt, String context) {
+        return new LlmmRequest(prompt, context, SYSTEM_PROMPT, PerformanceProfile.BALANCED);
+    }
+}
@@ -0,0 +1,99 @@
+package com.medobsmind.app;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records through {@link SessionRecorder}, reads back with {@link SessionReader}, and prunes
+ * old sessions.
+ */
+public class SessionRecorderTest {
+    private static final int BUFFER_BYTES = 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasRecorded() throws Exception {
+        File directory = new File(folder.getRoot(), "20261018-090000-000");
+        SessionRecorder recorder = recorder(directory);
+        assertTrue(recorder.recordFrame(100, ByteBuffer.wrap(new byte[] {1, 2, 3})));
+        assertTrue(recorder.recordAnnotation(150, "Patient resting."));
+        recorder.close();
+        assertTrue(recorder.awaitClosed(5000));
+
+        try (SessionReader reader = new SessionReader(directory)) {
+            SessionReader.Record record = reader.find(120);
+            assertEquals(SessionFormat.RECORD_ANNOTATION, record.getType());
+            assertEquals("Patient resting.", record.getText());
+            assertNull(reader.next(record));
+        }
+    }
+
+    @Test
+    public void ignoresRecordsAfterClose() throws Exception {
+        SessionRecorder recorder = recorder(new File(folder.getRoot(), "20261018-090000-000"));
+        assertTrue(recorder.recordFrame(100, ByteBuffer.wrap(new byte[] {1, 2, 3})));
+        recorder.close();
+
+        // An analysis thread that was still uploading when the screen closed
+        assertFalse(recorder.recordFrame(200, ByteBuffer.wrap(new byte[] {4, 5, 6})));
+        assertFalse(recorder.recordAnnotation(250, "Late interpretation."));
+
+        assertTrue(recorder.awaitClosed(5000));
+        assertEquals(1, recorder.getRecordedCount());
+        assertEquals(0, recorder.getDroppedCount());
+    }
+
+    @Test
+    public void prunesTheOldestSessionsOverTheCap() throws IOException {
+        File root = folder.getRoot();
+        File oldest = session(root, "20261016-080000-000", 400);
+        File older = session(root, "20261017-080000-000", 400);
+        File newer = session(root, "20261018-080000-000", 400);
+        File current = session(root, "20261018-090000-000", 4000);
+
+        assertEquals(2, SessionRecorder.pruneSessions(root, 500, current));
+
+        assertFalse(oldest.exists());
+        assertFalse(older.exists());
+        assertTrue(newer.exists());
+        // Bigger than the cap on its own, but still being recorded
+        assertTrue(current.exists());
+    }
+
+    @Test
+    public void keepsEverySessionUnderTheCap() throws IOException {
+        File root = folder.getRoot();
+        session(root, "20261017-080000-000", 400);
+        session(root, "20261018-080000-000", 400);
+
+        assertEquals(0, SessionRecorder.pruneSessions(root, 800, null));
+        assertEquals(2, root.listFiles().length);
+    }
+
+    private static SessionRecorder recorder(File directory) {
+        return new SessionRecorder(directory, 64 * 1024, 4, 2, BUFFER_BYTES, 10, null);
+    }
+
+    private static File session(File root, String name, int bytes) throws IOException {
+        File directory = new File(root, name);
+        assertTrue(directory.mkdir());
+        try (OutputStream out = new FileOutputStream(SessionFormat.segmentFile(directory, 0))) {
+            out.write(new byte[bytes]);
+        }
+        return directory;
+    }
+}
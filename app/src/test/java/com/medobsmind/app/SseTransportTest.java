@@ -0,0 +1,111 @@
+package com.medobsmind.app;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SseTransportTest {
+    private final List<String> tokens = new ArrayList<>();
+
+    private void read(Reader source) throws IOException {
+        SseTransport.readEvents(new BufferedReader(source), tokens::add);
+    }
+
+    @Test
+    public void deliversOneTokenPerEventUntilDone() throws IOException {
+        read(new StringReader("data: Heart\n\ndata: rate\n\ndata: [DONE]\n\ndata: ignored\n\n"));
+        assertEquals(Arrays.asList("Heart", "rate"), tokens);
+    }
+
+    @Test
+    public void joinsEventsSplitAcrossReads() throws IOException {
+        // The network hands over a few bytes at a time, splitting lines and events
+        read(new ChunkedReader("data: Blood \n\ndata: pressure\r\n\r\ndata: [DONE]\n\n", 3));
+        assertEquals(Arrays.asList("Blood ", "pressure"), tokens);
+    }
+
+    @Test
+    public void joinsMultiLineDataWithNewlines() throws IOException {
+        read(new StringReader("data: Line one\ndata: Line two\ndata:no space\n\n"));
+        assertEquals(Arrays.asList("Line one\nLine two\nno space"), tokens);
+    }
+
+    @Test
+    public void keepsOnlyTheFirstSpaceAfterTheColon() throws IOException {
+        read(new StringReader("data:  two spaces\n\n"));
+        assertEquals(Arrays.asList(" two spaces"), tokens);
+    }
+
+    @Test
+    public void ignoresCommentsAndOtherFields() throws IOException {
+        read(new StringReader(": keep-alive\nevent: token\nid: 7\ndata: 72 bpm\nretry: 1000\n\n: ping\n\n"));
+        assertEquals(Arrays.asList("72 bpm"), tokens);
+    }
+
+    @Test
+    public void deliversTheLastEventWhenTheStreamEndsEarly() throws IOException {
+        read(new StringReader("data: SpO2\n\ndata: 98%"));
+        assertEquals(Arrays.asList("SpO2", "98%"), tokens);
+    }
+
+    @Test
+    public void doesNotDeliverAnUnterminatedDone() throws IOException {
+        read(new StringReader("data: normal\n\ndata: [DONE]"));
+        assertEquals(Arrays.asList("normal"), tokens);
+    }
+
+    @Test
+    public void endsWithoutTokensOnAnEmptyStream() throws IOException {
+        read(new StringReader(""));
+        assertEquals(new ArrayList<String>(), tokens);
+    }
+
+    @Test
+    public void stopsOnceTheThreadIsInterrupted() throws IOException {
+        Thread.currentThread().interrupt();
+        try {
+            read(new StringReader("data: never\n\n"));
+            fail("Expected the interrupted read to stop");
+        } catch (InterruptedIOException expected) {
+            assertEquals(new ArrayList<String>(), tokens);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    // Returns at most chunkSize characters per read, like a slow socket
+    private static final class ChunkedReader extends Reader {
+        private final String text;
+        private final int chunkSize;
+        private int position;
+
+        ChunkedReader(String text, int chunkSize) {
+            this.text = text;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == text.length()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, chunkSize), text.length() - position);
+            text.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {}
+    }
+}
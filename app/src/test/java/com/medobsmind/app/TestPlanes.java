@@ -0,0 +1,107 @@
+package com.medobsmind.app;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * YUV_420_888 planes laid out the way camera images are, with row padding and with each plane's
+ * buffer ending right after its last sample. By default every sample's value is derived from
+ * its position, so a wrong row, column or plane shows up as a wrong byte.
+ */
+final class TestPlanes {
+    static final IntBinaryOperator LUMA = (x, y) -> 16 + x + 20 * y;
+    static final IntBinaryOperator CHROMA_U = (x, y) -> 60 + x + 10 * y;
+    static final IntBinaryOperator CHROMA_V = (x, y) -> 160 + x + 10 * y;
+
+    // Bytes before each plane's position, which readers must skip
+    private static final int LEADING_BYTES = 3;
+
+    private TestPlanes() {}
+
+    /**
+     * Separate U and V planes with a pixel stride of 1.
+     */
+    static YuvPlanes planar(int width, int height, int yRowStride, int uvRowStride) {
+        return planar(width, height, yRowStride, uvRowStride, LUMA, CHROMA_U, CHROMA_V);
+    }
+
+    static YuvPlanes planar(int width, int height, int yRowStride, int uvRowStride,
+                            IntBinaryOperator luma, IntBinaryOperator u, IntBinaryOperator v) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        return new YuvPlanes().set(width, height, plane(width, height, yRowStride, 1, luma), yRowStride,
+            plane(chromaWidth, chromaHeight, uvRowStride, 1, u),
+            plane(chromaWidth, chromaHeight, uvRowStride, 1, v), uvRowStride, 1);
+    }
+
+    /**
+     * Interleaved V/U samples with a pixel stride of 2, the U plane one byte into the V plane's
+     * memory, as most devices deliver NV21-backed images.
+     */
+    static YuvPlanes semiPlanar(int width, int height, int yRowStride, int uvRowStride) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        byte[] chroma = new byte[uvRowStride * (chromaHeight - 1) + 2 * chromaWidth];
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                chroma[y * uvRowStride + 2 * x] = (byte) CHROMA_V.applyAsInt(x, y);
+                chroma[y * uvRowStride + 2 * x + 1] = (byte) CHROMA_U.applyAsInt(x, y);
+            }
+        }
+        ByteBuffer v = ByteBuffer.wrap(chroma, 0, chroma.length - 1).slice();
+        ByteBuffer u = ByteBuffer.wrap(chroma, 1, chroma.length - 1).slice();
+        return new YuvPlanes().set(width, height, plane(width, height, yRowStride, 1, LUMA), yRowStride,
+            u, v, uvRowStride, 2);
+    }
+
+    /**
+     * The NV21 bytes of sampling the default planes at columns {@code xs} and rows {@code ys}.
+     */
+    static byte[] nv21(int[] xs, int[] ys) {
+        int chromaWidth = (xs.length + 1) / 2;
+        int chromaHeight = (ys.length + 1) / 2;
+        byte[] expected = new byte[xs.length * ys.length + 2 * chromaWidth * chromaHeight];
+        int i = 0;
+        for (int y : ys) {
+            for (int x : xs) {
+                expected[i++] = (byte) LUMA.applyAsInt(x, y);
+            }
+        }
+        for (int row = 0; row < ys.length; row += 2) {
+            for (int column = 0; column < xs.length; column += 2) {
+                expected[i++] = (byte) CHROMA_V.applyAsInt(xs[column] >> 1, ys[row] >> 1);
+                expected[i++] = (byte) CHROMA_U.applyAsInt(xs[column] >> 1, ys[row] >> 1);
+            }
+        }
+        return expected;
+    }
+
+    static int[] range(int count) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+
+    static byte[] remaining(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer plane(int width, int height, int rowStride, int pixelStride, IntBinaryOperator value) {
+        // Padding bytes are left at a value no sample has
+        byte[] bytes = new byte[LEADING_BYTES + rowStride * (height - 1) + pixelStride * (width - 1) + 1];
+        Arrays.fill(bytes, (byte) 0xEE);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                bytes[LEADING_BYTES + y * rowStride + x * pixelStride] = (byte) value.applyAsInt(x, y);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(LEADING_BYTES);
+        return buffer;
+    }
+}
@@ -0,0 +1,125 @@
+package com.medobsmind.app;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sizes of the binary envelopes against the JSON they replace, and round trips through
+ * {@link WireDecoder}.
+ */
+public class WireFormatTest {
+    private static final String PROMPT = "Is this wound healing as expected?";
+    private static final String SYSTEM_PROMPT = "You are MedObsMind, a clinical observation assistant.";
+    // Roughly a photo downscaled to 640x480
+    private static final int IMAGE_BYTES = 30 * 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sendsAnAttachmentAsRawBytesInsteadOfBase64() throws IOException {
+        byte[] image = randomImage();
+        LlmmRequest request = new LlmmRequest(PROMPT, context(), SYSTEM_PROMPT, PerformanceProfile.BALANCED,
+            writeImage(image).getPath());
+
+        byte[] binary = encode(request);
+        int json = request.toJson(request.readImage()).getBytes(StandardCharsets.UTF_8).length;
+
+        // The image bytes end the envelope as they are
+        assertArrayEquals(image, Arrays.copyOfRange(binary, binary.length - image.length, binary.length));
+        int textBytes = (PROMPT + context() + SYSTEM_PROMPT).getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(binary.length + " bytes", binary.length <= image.length + textBytes + 64);
+        // Base64 alone adds a third
+        assertTrue(json + " bytes", json >= image.length * 4 / 3 + textBytes);
+        assertTrue(binary.length * 5 < json * 4);
+    }
+
+    @Test
+    public void encodesATextOnlyRequestSmallerThanJson() throws IOException {
+        LlmmRequest request = new LlmmRequest(PROMPT, context(), SYSTEM_PROMPT, PerformanceProfile.BALANCED);
+
+        int binary = encode(request).length;
+        int json = request.toJson().getBytes(StandardCharsets.UTF_8).length;
+
+        assertTrue(binary + " bytes binary, " + json + " bytes JSON", binary < json);
+    }
+
+    @Test
+    public void decodesTheFieldsAroundTheAttachment() throws IOException {
+        LlmmRequest request = new LlmmRequest(PROMPT, context(), SYSTEM_PROMPT, PerformanceProfile.STANDARD,
+            writeImage(randomImage()).getPath());
+        WireDecoder decoder = new WireDecoder(new ByteArrayInputStream(encode(request)));
+
+        assertEquals(WireFormat.TYPE_CHAT_REQUEST, decoder.next());
+        LlmmRequest decoded = decoder.readChatRequest();
+        assertEquals(PROMPT, decoded.getPrompt());
+        assertEquals(context(), decoded.getContext());
+        assertEquals(SYSTEM_PROMPT, decoded.getSystemPrompt());
+        assertEquals(request.getPerformanceMode(), decoded.getPerformanceMode());
+        assertEquals(-1, decoder.next());
+    }
+
+    @Test
+    public void readsTokensUntilDone() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WireEncoder encoder = new WireEncoder(out);
+        encoder.writeToken("Healing ");
+        encoder.writeToken("well.");
+        encoder.writeDone();
+        encoder.writeToken("ignored");
+        encoder.flush();
+        List<String> tokens = new ArrayList<>();
+
+        BinaryTransport.readTokens(new WireDecoder(new ByteArrayInputStream(out.toByteArray())), tokens::add);
+
+        assertEquals(Arrays.asList("Healing ", "well."), tokens);
+    }
+
+    private static byte[] encode(LlmmRequest request) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WireEncoder encoder = new WireEncoder(out);
+        encoder.writeChatRequest(request);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static String context() {
+        StringBuilder context = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            context.append("User: Dressing changed, wound ").append(i + 2).append(" cm\n");
+        }
+        return context.toString();
+    }
+
+    // Compressed data looks random, so neither format can shrink it
+    private static byte[] randomImage() {
+        byte[] image = new byte[IMAGE_BYTES];
+        new Random(42).nextBytes(image);
+        return image;
+    }
+
+    private File writeImage(byte[] image) throws IOException {
+        File file = folder.newFile("attachment.jpg");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(image);
+        }
+        return file;
+    }
+}
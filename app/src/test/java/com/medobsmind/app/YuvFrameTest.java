@@ -0,0 +1,68 @@
+package com.medobsmind.app;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class YuvFrameTest {
+    @Test
+    public void packsPaddedPlanarPlanesAsI420() {
+        YuvFrame frame = copy(TestPlanes.planar(5, 3, 8, 4));
+        assertArrayEquals(i420(5, 3), TestPlanes.remaining(frame.getData()));
+    }
+
+    @Test
+    public void packsInterleavedChromaAsI420() {
+        YuvFrame frame = copy(TestPlanes.semiPlanar(5, 3, 6, 8));
+        assertArrayEquals(i420(5, 3), TestPlanes.remaining(frame.getData()));
+    }
+
+    @Test
+    public void copiesTightlyPackedPlanes() {
+        YuvFrame frame = copy(TestPlanes.planar(4, 4, 4, 2));
+        assertArrayEquals(i420(4, 4), TestPlanes.remaining(frame.getData()));
+    }
+
+    @Test
+    public void describesItsOwnPlanesForTheEncoder() {
+        YuvFrame frame = copy(TestPlanes.semiPlanar(5, 3, 8, 8));
+        YuvPlanes planes = new YuvPlanes().set(frame);
+        assertEquals(5, planes.getWidth());
+        assertEquals(3, planes.getHeight());
+        ByteBuffer nv21 = new FrameEncoder(5, 3, 1).encodeNv21(planes);
+        assertArrayEquals(TestPlanes.nv21(TestPlanes.range(5), TestPlanes.range(3)), TestPlanes.remaining(nv21));
+    }
+
+    private static YuvFrame copy(YuvPlanes src) {
+        YuvFrame frame = new YuvFrame(src.getWidth(), src.getHeight());
+        frame.copyFrom(src.y, src.yRowStride, src.u, src.v, src.uvRowStride, src.uvPixelStride, 42L);
+        assertEquals(42L, frame.getTimestampNanos());
+        return frame;
+    }
+
+    private static byte[] i420(int width, int height) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        byte[] expected = new byte[YuvFrame.sizeOf(width, height)];
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                expected[i++] = (byte) TestPlanes.LUMA.applyAsInt(x, y);
+            }
+        }
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                expected[i++] = (byte) TestPlanes.CHROMA_U.applyAsInt(x, y);
+            }
+        }
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                expected[i++] = (byte) TestPlanes.CHROMA_V.applyAsInt(x, y);
+            }
+        }
+        return expected;
+    }
+}
@@ -0,0 +1,112 @@
+package com.medobsmind.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The model-side work of a streamed answer in a long conversation: growing the last message and
+ * finding its row for the payload update, against taking and diffing a whole snapshot as a
+ * structural change does, plus assembling the next prompt. Binding and text layout need a device;
+ * {@code ChatBindBenchmark} in the app's instrumented tests covers them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChatPipelineBenchmark {
+    private static final String[] SAMPLE_TEXTS = {
+        "Blood pressure 128/84, heart rate 88.",
+        "The readings are within normal limits for an adult at rest; continue routine observations "
+            + "every four hours and escalate if the systolic pressure rises above 160 mmHg.",
+        "SpO2 94% on room air.",
+        "A respiratory rate of 22 is mildly raised. Re-check in 30 minutes and review the NEWS2 score; "
+            + "consider oxygen therapy if saturation falls below 92%. Document the findings in the chart "
+            + "and inform the nurse in charge."
+    };
+    private static final int MAX_ANSWER_CHARS = 4000;
+
+    @Param({"1000"})
+    public int messages;
+
+    private MessageWindow window;
+    private List<ChatMessage> previousSnapshot;
+    private PromptAssembler assembler;
+    private ChatMessage[] turns;
+    private int nextTurn;
+
+    @Setup
+    public void setUp() {
+        window = new MessageWindow(messages);
+        List<ChatMessage> history = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            history.add(new ChatMessage(i, i * 1000L, SAMPLE_TEXTS[i % SAMPLE_TEXTS.length], i % 2 == 0));
+        }
+        window.reset(history, false);
+        previousSnapshot = window.snapshot();
+        assembler = new PromptAssembler(PerformanceProfile.BALANCED.getContextWindowTokens(), 8, null);
+        turns = history.toArray(new ChatMessage[0]);
+    }
+
+    /**
+     * One streamed token: the answer grows and its row is found from the end of the adapter's
+     * list, which is all the adapter does before notifying that one row.
+     */
+    @Benchmark
+    public int streamToken() {
+        ChatMessage grown = growAnswer();
+        for (int i = previousSnapshot.size() - 1; i >= 0; i--) {
+            if (previousSnapshot.get(i).getId() == grown.getId()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A structural change, or what every token cost before streaming bypassed the differ: a
+     * snapshot is taken and diffed position by position.
+     */
+    @Benchmark
+    public int submitSnapshot() {
+        growAnswer();
+        List<ChatMessage> snapshot = window.snapshot();
+        int changed = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            ChatMessage oldItem = previousSnapshot.get(i);
+            ChatMessage newItem = snapshot.get(i);
+            if (oldItem.getId() == newItem.getId() && !newItem.hasSameContent(oldItem)) {
+                changed += newItem.appendedSince(oldItem) != null ? 1 : 2;
+            }
+        }
+        previousSnapshot = snapshot;
+        return changed;
+    }
+
+    private ChatMessage growAnswer() {
+        int last = window.size() - 1;
+        ChatMessage answer = window.get(last);
+        ChatMessage grown = answer.getMessage().length() > MAX_ANSWER_CHARS
+            ? answer.withText("")
+            : answer.withAppendedText("token ");
+        window.set(last, grown);
+        return grown;
+    }
+
+    /**
+     * Appends one turn to a full context window and builds the prompt context from it.
+     */
+    @Benchmark
+    public String assemblePrompt() {
+        assembler.append(turns[nextTurn++ % turns.length]);
+        return assembler.getContext();
+    }
+}
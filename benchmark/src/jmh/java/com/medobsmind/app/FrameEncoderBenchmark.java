@@ -0,0 +1,62 @@
+package com.medobsmind.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The video path from a 640x480 camera image to the upload-sized picture: copying the image
+ * planes into a pooled {@link YuvFrame}, then scaling to each profile's resolution as RGB or
+ * as the NV21 that the JPEG stage takes. With the gc profiler, steady state should show no
+ * allocation per operation because every buffer is pooled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameEncoderBenchmark {
+    @Param({"FAST_RESPONSE", "STANDARD", "BALANCED"})
+    public String profile;
+
+    private SyntheticCamera camera;
+    private YuvFrame frame;
+    private final YuvPlanes planes = new YuvPlanes();
+    private FrameEncoder encoder;
+
+    @Setup
+    public void setUp() {
+        PerformanceProfile performanceProfile = PerformanceProfile.valueOf(profile);
+        camera = new SyntheticCamera(640, 480);
+        frame = camera.capture(camera.newFrame());
+        encoder = new FrameEncoder(performanceProfile.getVideoWidth(), performanceProfile.getVideoHeight(), 2);
+        planes.set(frame);
+    }
+
+    @Benchmark
+    public YuvFrame copyPlanes() {
+        return camera.copyTo(frame);
+    }
+
+    @Benchmark
+    public int encodeRgb() {
+        ByteBuffer rgb = encoder.encodeRgb(planes.set(frame));
+        int size = rgb.remaining();
+        encoder.releaseRgb(rgb);
+        return size;
+    }
+
+    @Benchmark
+    public int encodeNv21() {
+        ByteBuffer nv21 = encoder.encodeNv21(planes.set(frame));
+        int size = nv21.remaining();
+        encoder.releaseNv21(nv21);
+        return size;
+    }
+}
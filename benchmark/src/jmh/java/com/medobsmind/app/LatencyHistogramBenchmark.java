@@ -0,0 +1,49 @@
+package com.medobsmind.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording a latency from the UI and camera threads, alone and with four threads
+ * recording into the same histogram.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatencyHistogramBenchmark {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @State(Scope.Thread)
+    public static class Sample {
+        long nanos = 1_000_000;
+
+        long next() {
+            // Walk across several buckets, 1-60 ms
+            nanos = nanos * 7 % 60_000_000 + 1_000_000;
+            return nanos;
+        }
+    }
+
+    @Benchmark
+    public void record(Sample sample) {
+        histogram.recordNanos(sample.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended(Sample sample) {
+        histogram.recordNanos(sample.next());
+    }
+
+    @Benchmark
+    public double percentile() {
+        return histogram.getPercentileMillis(99);
+    }
+}
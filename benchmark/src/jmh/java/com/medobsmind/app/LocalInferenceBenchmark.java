@@ -0,0 +1,72 @@
+package com.medobsmind.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The on-device path at the size of the 15M-parameter llama2.c model (random weights): one
+ * forward pass, and a whole short answer through {@link LocalInferenceEngine}, which is what
+ * a short question in Fast Response mode waits for. Run on a phone-class core count for
+ * numbers that carry over; the JVM here gives the relative cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LocalInferenceBenchmark {
+    private File directory;
+    private LocalModel model;
+    private LocalInferenceEngine engine;
+    private LlmmRequest request;
+    private int pos;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("medobsmind-model").toFile();
+        File modelFile = new File(directory, "model.bin");
+        File tokenizerFile = new File(directory, "tokenizer.bin");
+        SyntheticModel shape = SyntheticModel.stories15M();
+        shape.writeModel(modelFile, 42);
+        shape.writeTokenizer(tokenizerFile);
+        model = new LocalModel(modelFile);
+        engine = new LocalInferenceEngine(modelFile, tokenizerFile);
+        request = new LlmmRequest("Is a heart rate of 88 normal?", null,
+            "You are MedObsMind, a clinical observation assistant.", PerformanceProfile.FAST_RESPONSE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public float[] forwardToken() {
+        // Cycle through the context so attention cost averages over a short prompt and answer
+        float[] logits = model.forward(pos % 300, pos);
+        pos = (pos + 1) % 128;
+        return logits;
+    }
+
+    @Benchmark
+    public int shortAnswer() throws IOException {
+        final int[] pieces = {0};
+        engine.stream(request, token -> pieces[0]++);
+        return pieces[0];
+    }
+}
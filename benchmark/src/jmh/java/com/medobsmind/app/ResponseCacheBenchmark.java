@@ -0,0 +1,76 @@
+package com.medobsmind.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response cache lookups: building the key from a request, a memory hit, and a disk hit
+ * (the memory tier is sized to zero so every lookup reads the file).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseCacheBenchmark {
+    private static final String ANSWER = "Blood pressure 128/84 and heart rate 88 are within normal limits "
+        + "for an adult at rest. Continue routine observations every four hours.";
+
+    private File directory;
+    private ResponseCache memoryCache;
+    private ResponseCache diskCache;
+    private LlmmRequest request;
+    private String key;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("medobsmind-cache").toFile();
+        request = new LlmmRequest("  Is a heart rate of 88 normal?? ", null,
+            "You are MedObsMind, a clinical observation assistant.", PerformanceProfile.BALANCED);
+        key = ResponseCache.key(request);
+        long ttlMs = PerformanceProfile.BALANCED.getCachePolicy().getTtlMs();
+        memoryCache = new ResponseCache(new File(directory, "memory"), 64, 1024 * 1024);
+        memoryCache.put(key, ANSWER, ttlMs);
+        diskCache = new ResponseCache(new File(directory, "disk"), 0, 1024 * 1024);
+        diskCache.put(key, ANSWER, ttlMs);
+    }
+
+    @TearDown
+    public void tearDown() {
+        deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public String key() {
+        return ResponseCache.key(request);
+    }
+
+    @Benchmark
+    public String memoryHit() {
+        return memoryCache.get(key);
+    }
+
+    @Benchmark
+    public String diskHit() {
+        return diskCache.get(key);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
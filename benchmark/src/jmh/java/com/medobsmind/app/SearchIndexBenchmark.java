@@ -0,0 +1,111 @@
+package com.medobsmind.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversation search over a long history: common and rare terms, several terms together, a
+ * prefix, a phrase and a dose written without a space, each returning the newest 50 hits the
+ * way the chat screen asks for them. The target is under 5 ms per query at 50k messages.
+ * Also measures indexing one message, which runs on every store write.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchIndexBenchmark {
+    private static final int RESULT_LIMIT = 50;
+    private static final String[] DRUGS = {
+        "paracetamol", "amoxicillin", "metformin", "atorvastatin", "furosemide", "heparin", "insulin",
+        "salbutamol", "prednisolone", "ondansetron", "morphine", "ceftriaxone", "levothyroxine"
+    };
+    private static final String[] FINDINGS = {
+        "hypertension", "hypotension", "hyperglycaemia", "hypoglycaemia", "tachycardia", "bradycardia",
+        "pyrexia", "hypoxia", "dehydration", "sepsis", "oedema", "arrhythmia"
+    };
+
+    @Param({"50000"})
+    public int messages;
+
+    private MessageSearchIndex index;
+    private String[] history;
+    private int nextSlot;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        history = new String[messages];
+        index = new MessageSearchIndex();
+        for (int i = 0; i < messages; i++) {
+            history[i] = i % 2 == 0 ? question(random) : answer(random);
+            index.add(i + 1, history[i]);
+        }
+    }
+
+    private static String question(Random random) {
+        return String.format("Blood pressure %d/%d, heart rate %d, SpO2 %d%%. Is %s a concern?",
+            90 + random.nextInt(90), 50 + random.nextInt(50), 50 + random.nextInt(80),
+            85 + random.nextInt(15), FINDINGS[random.nextInt(FINDINGS.length)]);
+    }
+
+    private static String answer(Random random) {
+        String drug = DRUGS[random.nextInt(DRUGS.length)];
+        return String.format("The readings suggest %s. Consider %s %dmg every %d hours and repeat the "
+                + "observations in %d minutes; escalate if the NEWS2 score rises above %d or the "
+                + "patient's respiratory rate exceeds %d.",
+            FINDINGS[random.nextInt(FINDINGS.length)], drug, 50 * (1 + random.nextInt(20)),
+            4 + 2 * random.nextInt(4), 15 * (1 + random.nextInt(4)), 3 + random.nextInt(5),
+            20 + random.nextInt(10));
+    }
+
+    @Benchmark
+    public long[] commonTerm() {
+        return index.search("pressure", RESULT_LIMIT);
+    }
+
+    @Benchmark
+    public long[] rareTerm() {
+        return index.search("ondansetron", RESULT_LIMIT);
+    }
+
+    @Benchmark
+    public long[] allTerms() {
+        return index.search("heparin sepsis escalate", RESULT_LIMIT);
+    }
+
+    @Benchmark
+    public long[] prefix() {
+        return index.search("hyper*", RESULT_LIMIT);
+    }
+
+    @Benchmark
+    public long[] phrase() {
+        return index.search("\"respiratory rate exceeds 25\"", RESULT_LIMIT);
+    }
+
+    @Benchmark
+    public long[] doseWithUnit() {
+        // Indexed as "500" then "mg", so this is a two-term phrase
+        return index.search("500mg", RESULT_LIMIT);
+    }
+
+    /**
+     * Rewrites one message with another's text, like a streamed answer's final write. The old
+     * document is marked dead, so this includes the share of compaction each write pays for,
+     * and the index stays the same size however long the run is.
+     */
+    @Benchmark
+    public void indexMessage() {
+        int slot = nextSlot;
+        nextSlot = (nextSlot + 1) % messages;
+        index.add(slot + 1, history[(slot + 1) % messages]);
+    }
+}
@@ -0,0 +1,88 @@
+package com.medobsmind.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session recording: what the analysis thread pays to hand a Balanced-mode JPEG to the recorder,
+ * and locating a time in an hour-long session of about 36,000 records. The loop offers frames
+ * far faster than any disk takes them, so the recording score is mostly the cost of a drop,
+ * which is the worst case for the disk and the best for the camera.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SessionRecorderBenchmark {
+    private static final int JPEG_BYTES = 40 * 1024;
+    private static final long SESSION_MS = 60 * 60 * 1000;
+    private static final long RECORD_INTERVAL_MS = 100;
+
+    private File directory;
+    private SessionRecorder recorder;
+    private SessionReader reader;
+    private final ByteBuffer jpeg = ByteBuffer.allocateDirect(JPEG_BYTES);
+    private long timestampMs;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("medobsmind-session").toFile();
+        File session = new File(directory, "read");
+        SessionRecorder writer = new SessionRecorder(session, 4L * 1024 * 1024, Integer.MAX_VALUE, 4,
+            1024, 1000, null);
+        ByteBuffer frame = ByteBuffer.allocate(256);
+        for (long t = 0; t < SESSION_MS; t += RECORD_INTERVAL_MS) {
+            frame.clear();
+            while (!writer.recordFrame(t, frame)) {
+                // Filling the session as fast as possible; wait for the writer
+                Thread.sleep(1);
+            }
+        }
+        writer.close();
+        writer.awaitClosed(60000);
+        reader = new SessionReader(session);
+        recorder = new SessionRecorder(new File(directory, "write"), 4L * 1024 * 1024, 4, 4,
+            SessionFormat.RECORD_HEADER_BYTES + 640 * 480, 1000, null);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        recorder.close();
+        recorder.awaitClosed(10000);
+        reader.close();
+        deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public boolean recordFrame() {
+        jpeg.clear();
+        return recorder.recordFrame(timestampMs++, jpeg);
+    }
+
+    @Benchmark
+    public SessionReader.Record find() throws IOException {
+        timestampMs = (timestampMs + 7919 * RECORD_INTERVAL_MS) % SESSION_MS;
+        return reader.find(timestampMs);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
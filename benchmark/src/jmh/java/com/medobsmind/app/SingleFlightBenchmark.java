@@ -0,0 +1,69 @@
+package com.medobsmind.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What every chat request and frame upload pays for coalescing: registering a call, streaming
+ * a few tokens through it and unregistering, alone and from four threads with different keys
+ * (the common case, which the lock stripes keep apart).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SingleFlightBenchmark {
+    private static final String[] TOKENS = {"Heart ", "rate ", "88 ", "is ", "normal."};
+
+    private final SingleFlight<String> flights = new SingleFlight<>(8, null);
+
+    @State(Scope.Thread)
+    public static class Caller {
+        private static int nextId;
+
+        final String[] keys = new String[16];
+        int index;
+        int received;
+
+        public Caller() {
+            int id;
+            synchronized (Caller.class) {
+                id = nextId++;
+            }
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "Fast Response\u0000caller " + id + " question " + i;
+            }
+        }
+
+        String nextKey() {
+            index = (index + 1) & (keys.length - 1);
+            return keys[index];
+        }
+    }
+
+    private static void streamTokens(LlmmTransport.TokenSink sink) {
+        for (String token : TOKENS) {
+            sink.onToken(token);
+        }
+    }
+
+    @Benchmark
+    public int execute(Caller caller) throws IOException {
+        flights.execute(caller.nextKey(), token -> caller.received++, SingleFlightBenchmark::streamTokens);
+        return caller.received;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int executeConcurrent(Caller caller) throws IOException {
+        flights.execute(caller.nextKey(), token -> caller.received++, SingleFlightBenchmark::streamTokens);
+        return caller.received;
+    }
+}
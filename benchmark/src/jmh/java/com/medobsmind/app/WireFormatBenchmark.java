@@ -0,0 +1,139 @@
+package com.medobsmind.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary {@link WireFormat} envelopes against the JSON and SSE they replace: encoding a chat
+ * request with ~30 turns of context, with and without an attached photo, encoding a frame, and
+ * decoding a 40-token answer. The payload sizes are printed once per fork.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WireFormatBenchmark {
+    private static final int ANSWER_TOKENS = 40;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+    private LlmmRequest request;
+    private LlmmRequest imageRequest;
+    private File image;
+    private ByteBuffer jpeg;
+    private byte[] binaryAnswer;
+    private byte[] sseAnswer;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder context = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            context.append("User: Observation ").append(i).append(": BP 132/85, HR 91, RR 18, temp 37.4 °C\n")
+                .append("MedObsMind: Readings are stable; continue hourly observations.\n");
+        }
+        request = new LlmmRequest("Is the trend in blood pressure concerning?", context.toString(),
+            "You are MedObsMind, a clinical observation assistant.", PerformanceProfile.BALANCED);
+        // Roughly the size of a compressed 640x480 frame
+        jpeg = ByteBuffer.allocateDirect(30 * 1024);
+        while (jpeg.hasRemaining()) {
+            jpeg.put((byte) jpeg.position());
+        }
+        jpeg.flip();
+        // Random, like compressed data; read from disk per request, as the app does
+        byte[] photo = new byte[jpeg.remaining()];
+        new Random(42).nextBytes(photo);
+        image = File.createTempFile("wire-benchmark", ".jpg");
+        try (FileOutputStream file = new FileOutputStream(image)) {
+            file.write(photo);
+        }
+        imageRequest = new LlmmRequest(request.getPrompt(), request.getContext(), request.getSystemPrompt(),
+            PerformanceProfile.BALANCED, image.getPath());
+
+        WireEncoder encoder = new WireEncoder(out);
+        StringBuilder sse = new StringBuilder();
+        for (int i = 0; i < ANSWER_TOKENS; i++) {
+            String token = "token" + i + ' ';
+            encoder.writeToken(token);
+            sse.append("data: ").append(token).append("\n\n");
+        }
+        encoder.writeDone();
+        encoder.flush();
+        binaryAnswer = out.toByteArray();
+        sseAnswer = sse.append("data: [DONE]\n\n").toString().getBytes(StandardCharsets.UTF_8);
+
+        System.out.printf("%nchat request: %d bytes binary, %d bytes JSON; with a %d-byte photo: %d bytes binary,"
+            + " %d bytes JSON; %d-token answer: %d bytes binary, %d bytes SSE%n",
+            chatRequestBinary(), chatRequestJson(), photo.length, imageRequestBinary(), imageRequestJson(),
+            ANSWER_TOKENS, binaryAnswer.length, sseAnswer.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        image.delete();
+    }
+
+    @Benchmark
+    public int chatRequestBinary() throws IOException {
+        out.reset();
+        WireEncoder encoder = new WireEncoder(out);
+        encoder.writeChatRequest(request);
+        encoder.flush();
+        return out.size();
+    }
+
+    @Benchmark
+    public int chatRequestJson() {
+        return request.toJson().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Benchmark
+    public int imageRequestBinary() throws IOException {
+        out.reset();
+        WireEncoder encoder = new WireEncoder(out);
+        encoder.writeChatRequest(imageRequest);
+        encoder.flush();
+        return out.size();
+    }
+
+    @Benchmark
+    public int imageRequestJson() throws IOException {
+        return imageRequest.toJson(imageRequest.readImage()).getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Benchmark
+    public int frameBinary() throws IOException {
+        out.reset();
+        WireEncoder encoder = new WireEncoder(out);
+        encoder.writeFrame(PerformanceProfile.BALANCED, 640, 480, 123456789L, jpeg);
+        encoder.flush();
+        return out.size();
+    }
+
+    @Benchmark
+    public void answerBinary(Blackhole blackhole) throws IOException {
+        BinaryTransport.readTokens(new WireDecoder(new ByteArrayInputStream(binaryAnswer)), blackhole::consume);
+    }
+
+    @Benchmark
+    public void answerSse(Blackhole blackhole) throws IOException {
+        SseTransport.readEvents(new BufferedReader(new InputStreamReader(
+            new ByteArrayInputStream(sseAnswer), StandardCharsets.UTF_8)), blackhole::consume);
+    }
+}
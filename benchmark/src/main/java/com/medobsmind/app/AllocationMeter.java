@@ -0,0 +1,48 @@
+package com.medobsmind.app;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures bytes allocated by the whole process between {@link #start()} and {@link #stop()}
+ * by summing per-thread allocation counters. Worker pools live through a run, so their
+ * threads are all counted; a thread that ends before {@link #stop()} is missed.
+ */
+public class AllocationMeter {
+    private final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final Map<Long, Long> baseline = new HashMap<>();
+
+    public AllocationMeter() {
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    public void start() {
+        baseline.clear();
+        long[] ids = threads.getAllThreadIds();
+        long[] allocated = threads.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (allocated[i] >= 0) {
+                baseline.put(ids[i], allocated[i]);
+            }
+        }
+    }
+
+    /**
+     * Bytes allocated since {@link #start()}.
+     */
+    public long stop() {
+        long[] ids = threads.getAllThreadIds();
+        long[] allocated = threads.getThreadAllocatedBytes(ids);
+        long total = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (allocated[i] < 0) {
+                continue;
+            }
+            Long before = baseline.get(ids[i]);
+            total += allocated[i] - (before != null ? before : 0);
+        }
+        return total;
+    }
+}
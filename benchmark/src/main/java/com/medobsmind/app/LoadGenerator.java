@@ -0,0 +1,409 @@
+package com.medobsmind.app;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Drives the chat and frame pipelines end to end against a {@link MockLlmmServer} (or a real
+ * endpoint) with a number of concurrent virtual users, then prints p50/p99 latency and the
+ * allocation rate per scenario. Each chat user keeps its own message window and prompt
+ * assembler and applies every streamed token the way the chat screen does; each video user
+ * samples, encodes and uploads synthetic camera frames.
+ *
+ * <pre>
+ * ./gradlew :benchmark:run --args="--scenario all --concurrency 8 --requests 200"
+ *
+ *   --scenario chat|frames|outbox|all   (all)
+ *   --concurrency N                     virtual users (4)
+ *   --requests N                        requests per scenario (100)
+ *   --wire json|binary                  chat and frame encoding (json)
+ *   --mode NAME                         performance mode display name (Balanced)
+ *   --tokens N                          tokens per mock answer (40)
+ *   --first-token-ms N                  mock generation delay (50)
+ *   --token-interval-ms N               mock delay between tokens (5)
+ *   --outage-ms N                       mock outage before the outbox replays (3000)
+ *   --endpoint URL                      use a running server instead of the mock
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final String SYSTEM_PROMPT = "You are MedObsMind, a clinical observation assistant.";
+    private static final long SCENARIO_TIMEOUT_MINUTES = 10;
+
+    private final Options options;
+    private final AllocationMeter allocationMeter = new AllocationMeter();
+
+    static final class Options {
+        String scenario = "all";
+        int concurrency = 4;
+        int requests = 100;
+        boolean binaryWire;
+        PerformanceProfile profile = PerformanceProfile.BALANCED;
+        int tokens = 40;
+        long firstTokenMs = 50;
+        long tokenIntervalMs = 5;
+        long outageMs = 3000;
+        String endpoint;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--scenario":
+                        options.scenario = value;
+                        break;
+                    case "--concurrency":
+                        options.concurrency = Integer.parseInt(value);
+                        break;
+                    case "--requests":
+                        options.requests = Integer.parseInt(value);
+                        break;
+                    case "--wire":
+                        options.binaryWire = "binary".equals(value);
+                        break;
+                    case "--mode":
+                        options.profile = PerformanceProfile.fromMode(value);
+                        break;
+                    case "--tokens":
+                        options.tokens = Integer.parseInt(value);
+                        break;
+                    case "--first-token-ms":
+                        options.firstTokenMs = Long.parseLong(value);
+                        break;
+                    case "--token-interval-ms":
+                        options.tokenIntervalMs = Long.parseLong(value);
+                        break;
+                    case "--outage-ms":
+                        options.outageMs = Long.parseLong(value);
+                        break;
+                    case "--endpoint":
+                        options.endpoint = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            return options;
+        }
+    }
+
+    public LoadGenerator(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        MockLlmmServer server = null;
+        String baseUrl = options.endpoint;
+        if (baseUrl == null) {
+            server = new MockLlmmServer(options.concurrency * 2, options.tokens, options.firstTokenMs,
+                options.tokenIntervalMs);
+            baseUrl = server.getBaseUrl();
+        }
+        System.out.printf(Locale.US, "MedObsMind load: %s, %d users, %d requests, %s wire, %s mode, server %s%n",
+            options.scenario, options.concurrency, options.requests, options.binaryWire ? "binary" : "json",
+            options.profile.getDisplayName(), baseUrl);
+        try {
+            LoadGenerator generator = new LoadGenerator(options);
+            boolean all = "all".equals(options.scenario);
+            if (all || "chat".equals(options.scenario)) {
+                generator.runChat(baseUrl);
+            }
+            if (all || "frames".equals(options.scenario)) {
+                generator.runFrames(baseUrl);
+            }
+            if (all || "outbox".equals(options.scenario)) {
+                if (server == null) {
+                    System.out.println("outbox: skipped, it needs the mock server to simulate an outage");
+                } else {
+                    generator.runOutbox(server);
+                }
+            }
+            System.out.println();
+            System.out.println(MetricsRegistry.get().toSummary());
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+        // OkHttp and the dispatcher keep idle threads around for a while
+        System.exit(0);
+    }
+
+    /**
+     * Streams chat answers through {@link LlmmStreamingClient}, growing each answer in a
+     * {@link MessageWindow} token by token and diffing it as the adapter would.
+     */
+    void runChat(String baseUrl) throws Exception {
+        final LlmmApiClient apiClient = newApiClient(baseUrl + MockLlmmServer.CHAT_PATH);
+        preconnect(apiClient);
+        LlmmTransport transport = options.binaryWire ? new BinaryTransport(apiClient) : new SseTransport(apiClient);
+        InferenceDispatcher dispatcher = new InferenceDispatcher(options.concurrency, options.concurrency);
+        File cacheDir = createTempDir("chat-cache");
+        final LlmmStreamingClient client = new LlmmStreamingClient(transport, dispatcher, Runnable::run,
+            new ResponseCache(cacheDir, 64, 4 * 1024 * 1024));
+        final LatencyHistogram firstToken = new LatencyHistogram();
+        final LatencyHistogram complete = new LatencyHistogram();
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicInteger next = new AtomicInteger();
+
+        Scenario scenario = new Scenario("chat", user -> {
+            MessageWindow window = new MessageWindow(200);
+            PromptAssembler assembler = new PromptAssembler(options.profile.getContextWindowTokens(), 8, null);
+            long messageId = 0;
+            int n;
+            while ((n = next.getAndIncrement()) < options.requests) {
+                String prompt = "Patient " + user + " observation " + n
+                    + ": blood pressure 128/84, heart rate 88, any concerns?";
+                ChatMessage question = new ChatMessage(messageId++, System.currentTimeMillis(), prompt, true);
+                window.append(question);
+                LlmmRequest request = new LlmmRequest(prompt, assembler.getContext(), SYSTEM_PROMPT, options.profile);
+                assembler.append(question);
+                window.append(new ChatMessage(messageId++, System.currentTimeMillis(), "", false));
+                final int answerIndex = window.size() - 1;
+                final CountDownLatch done = new CountDownLatch(1);
+                final long startNanos = System.nanoTime();
+                client.stream("load-" + user, request, new LlmmStreamingClient.Listener() {
+                    // Grown in place per token, as the activity does; copied into the window once
+                    final StringBuilder answer = new StringBuilder();
+
+                    @Override
+                    public void onToken(String token) {
+                        if (answer.length() == 0) {
+                            firstToken.recordNanos(System.nanoTime() - startNanos);
+                        }
+                        answer.append(token);
+                    }
+
+                    @Override
+                    public void onComplete(String fullText) {
+                        complete.recordNanos(System.nanoTime() - startNanos);
+                        ChatMessage streamed = window.get(answerIndex);
+                        ChatMessage finished = streamed.withText(answer.toString());
+                        // The adapter's diff for the final snapshot
+                        if (!finished.hasSameContent(streamed)) {
+                            finished.appendedSince(streamed);
+                        }
+                        window.set(answerIndex, finished);
+                        assembler.append(finished);
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        errors.incrementAndGet();
+                        done.countDown();
+                    }
+                });
+                done.await();
+            }
+        });
+        scenario.run();
+        dispatcher.shutdown();
+        scenario.report(options.requests);
+        printHistogram("chat.first_token", firstToken);
+        printHistogram("chat.complete", complete);
+        System.out.printf(Locale.US, "  errors %d, calls %d over %d connections, %s%n", errors.get(),
+            apiClient.getCallCount(), apiClient.getConnectionCount(), client.getMetrics());
+    }
+
+    /**
+     * Samples synthetic camera frames, scales them with {@link FrameEncoder}, compresses them
+     * to JPEG and posts them through {@link LlmmApiClient#postFrame}.
+     */
+    void runFrames(String baseUrl) throws Exception {
+        final LlmmApiClient apiClient = newApiClient(baseUrl);
+        preconnect(apiClient);
+        final String frameUrl = baseUrl + MockLlmmServer.FRAME_PATH;
+        final PerformanceProfile profile = options.profile;
+        final LatencyHistogram encode = new LatencyHistogram();
+        final LatencyHistogram upload = new LatencyHistogram();
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicInteger next = new AtomicInteger();
+
+        Scenario scenario = new Scenario("frames", user -> {
+            SyntheticCamera camera = new SyntheticCamera(640, 480);
+            YuvFrame frame = camera.newFrame();
+            YuvPlanes planes = new YuvPlanes();
+            FrameEncoder encoder = new FrameEncoder(profile.getVideoWidth(), profile.getVideoHeight(), 2);
+            BufferedImage image = new BufferedImage(profile.getVideoWidth(), profile.getVideoHeight(),
+                BufferedImage.TYPE_INT_RGB);
+            int[] pixels = new int[profile.getVideoWidth() * profile.getVideoHeight()];
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream(64 * 1024);
+            while (next.getAndIncrement() < options.requests) {
+                camera.capture(frame);
+                long startNanos = System.nanoTime();
+                ByteBuffer rgb = encoder.encodeRgb(planes.set(frame));
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] = (rgb.get() & 0xFF) << 16 | (rgb.get() & 0xFF) << 8 | (rgb.get() & 0xFF);
+                }
+                encoder.releaseRgb(rgb);
+                // The app compresses NV21 with YuvImage, which exists only on Android
+                image.setRGB(0, 0, image.getWidth(), image.getHeight(), pixels, 0, image.getWidth());
+                jpeg.reset();
+                ImageIO.write(image, "jpg", jpeg);
+                long encodedNanos = System.nanoTime();
+                encode.recordNanos(encodedNanos - startNanos);
+                try {
+                    apiClient.postFrame(frameUrl, ByteBuffer.wrap(jpeg.toByteArray()), profile,
+                        image.getWidth(), image.getHeight(), frame.getTimestampNanos());
+                    upload.recordNanos(System.nanoTime() - encodedNanos);
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                }
+            }
+        });
+        scenario.run();
+        scenario.report(options.requests);
+        printHistogram("frames.encode", encode);
+        printHistogram("frames.round_trip", upload);
+        System.out.printf(Locale.US, "  errors %d, calls %d over %d connections%n", errors.get(),
+            apiClient.getCallCount(), apiClient.getConnectionCount());
+    }
+
+    /**
+     * Queues requests in the {@link Outbox} while the mock server is down and times how long
+     * each takes to be delivered once it is back. The outbox replays on a single thread, so
+     * the concurrency option does not apply.
+     */
+    void runOutbox(MockLlmmServer server) throws Exception {
+        LlmmApiClient apiClient = newApiClient(server.getBaseUrl() + MockLlmmServer.CHAT_PATH);
+        LlmmTransport transport = options.binaryWire ? new BinaryTransport(apiClient) : new SseTransport(apiClient);
+        File journalFile = new File(createTempDir("outbox"), "outbox.journal");
+        OutboxJournal journal = new OutboxJournal(journalFile);
+        final long[] enqueuedAt = new long[options.requests];
+        final LatencyHistogram delivery = new LatencyHistogram();
+        final CountDownLatch delivered = new CountDownLatch(options.requests);
+        Outbox outbox = new Outbox(journal, transport, new Outbox.DeliveryListener() {
+            @Override
+            public void onDelivered(long messageId, String response) {
+                delivery.recordNanos(System.nanoTime() - enqueuedAt[(int) messageId]);
+                delivered.countDown();
+            }
+
+            @Override
+            public void onFailed(long messageId, IOException error) {
+                // The mock only refuses with 503, so nothing should end up here
+                error.printStackTrace();
+                delivered.countDown();
+            }
+        });
+
+        server.startOutage(options.outageMs);
+        allocationMeter.start();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < options.requests; i++) {
+            enqueuedAt[i] = System.nanoTime();
+            outbox.enqueue(i, new LlmmRequest("Queued observation " + i + ": respiratory rate 22, SpO2 93%",
+                null, SYSTEM_PROMPT, options.profile));
+        }
+        boolean finished = delivered.await(SCENARIO_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocated = allocationMeter.stop();
+        outbox.shutdown();
+        journal.close();
+
+        printScenario("outbox", options.requests, elapsedNanos, allocated);
+        printHistogram("outbox.delivery", delivery);
+        System.out.printf(Locale.US, "  %s, %d failed attempts, %d requests rejected during a %d ms outage, "
+                + "journal %d bytes%n", finished ? "all delivered" : "timed out", outbox.getFailedAttempts(),
+            server.getRejectedRequestCount(), options.outageMs, journalFile.length());
+    }
+
+    /**
+     * One virtual user's loop; users share the request budget through a counter.
+     */
+    interface UserLoop {
+        void run(int user) throws Exception;
+    }
+
+    private final class Scenario {
+        private final String name;
+        private final UserLoop loop;
+        private long elapsedNanos;
+        private long allocatedBytes;
+
+        Scenario(String name, UserLoop loop) {
+            this.name = name;
+            this.loop = loop;
+        }
+
+        void run() throws InterruptedException {
+            ExecutorService users = Executors.newFixedThreadPool(options.concurrency);
+            final CountDownLatch finished = new CountDownLatch(options.concurrency);
+            allocationMeter.start();
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < options.concurrency; i++) {
+                final int user = i;
+                users.execute(() -> {
+                    try {
+                        loop.run(user);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        finished.countDown();
+                    }
+                });
+            }
+            if (!finished.await(SCENARIO_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                System.out.println(name + ": timed out");
+            }
+            elapsedNanos = System.nanoTime() - startNanos;
+            // Measured before the user threads exit, while their counters are still readable
+            allocatedBytes = allocationMeter.stop();
+            users.shutdownNow();
+        }
+
+        void report(int requests) {
+            printScenario(name, requests, elapsedNanos, allocatedBytes);
+        }
+    }
+
+    // The mock server speaks cleartext HTTP/2; a real endpoint negotiates it over TLS
+    private LlmmApiClient newApiClient(String url) {
+        return new LlmmApiClient(url, options.binaryWire, options.endpoint == null);
+    }
+
+    // As the app does at start; users starting together would otherwise each open a connection
+    private static void preconnect(LlmmApiClient apiClient) throws InterruptedException {
+        apiClient.preconnect();
+        long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (apiClient.getIdleConnectionCount() == 0 && System.nanoTime() < deadlineNanos) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void printScenario(String name, int requests, long elapsedNanos, long allocatedBytes) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf(Locale.US, "%s: %d requests in %.2f s (%.1f/s), allocated %.1f MB (%.1f MB/s, %.1f KB/request)%n",
+            name, requests, seconds, requests / seconds, allocatedBytes / 1048576.0,
+            allocatedBytes / 1048576.0 / seconds, allocatedBytes / 1024.0 / Math.max(1, requests));
+    }
+
+    private static void printHistogram(String name, LatencyHistogram histogram) {
+        System.out.printf(Locale.US, "  %-18s p50 %7.1f  p99 %7.1f  mean %7.1f  max %7.1f ms  n=%d%n", name,
+            histogram.getPercentileMillis(50), histogram.getPercentileMillis(99), histogram.getMeanMillis(),
+            histogram.getMaxMillis(), histogram.getCount());
+    }
+
+    private static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile("medobsmind-" + prefix, "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        dir.deleteOnExit();
+        return dir;
+    }
+}
@@ -0,0 +1,223 @@
+package com.medobsmind.app;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Local stand-in for the MedObsMind LLMM API on the loopback interface. Chat requests are
+ * answered as SSE or, when they arrive as {@link WireFormat} envelopes, as binary token
+ * envelopes; frames get a one-line interpretation. The first-token delay and token interval
+ * mimic generation time, and {@link #startOutage(long)} answers 503 for a while so the
+ * outbox's replay can be exercised. Speaks cleartext HTTP/2 to clients that start with the
+ * HTTP/2 preface (prior knowledge, as {@link LlmmApiClient} does against it), so chat streams
+ * and frame uploads multiplex on one connection as they do over TLS; HTTP/1.1 still works.
+ */
+public class MockLlmmServer implements Closeable {
+    public static final String CHAT_PATH = "/v1/chat";
+    public static final String FRAME_PATH = "/v1/frames";
+    private static final String[] WORDS = {
+        "Vital ", "signs ", "are ", "within ", "normal ", "limits. ", "Heart ", "rate ", "is ", "72 ",
+        "bpm ", "and ", "SpO2 ", "is ", "98% ", "on ", "room ", "air. "
+    };
+
+    // Acceptor, selector and connection housekeeping, on top of the request threads
+    private static final int SERVER_THREADS = 4;
+
+    private final Server server;
+    private final ServerConnector connector;
+    private final int tokenCount;
+    private final long firstTokenDelayMs;
+    private final long tokenIntervalMs;
+    private final AtomicInteger chatRequests = new AtomicInteger();
+    private final AtomicInteger frameRequests = new AtomicInteger();
+    private final AtomicInteger rejectedRequests = new AtomicInteger();
+    private volatile long outageUntilMs;
+
+    public MockLlmmServer(int threads, int tokenCount, long firstTokenDelayMs, long tokenIntervalMs)
+            throws IOException {
+        this.tokenCount = tokenCount;
+        this.firstTokenDelayMs = firstTokenDelayMs;
+        this.tokenIntervalMs = tokenIntervalMs;
+        QueuedThreadPool pool = new QueuedThreadPool(threads + SERVER_THREADS, SERVER_THREADS);
+        pool.setName("mock-llmm");
+        pool.setDaemon(true);
+        pool.setReservedThreads(0);
+        server = new Server(pool);
+        HttpConfiguration config = new HttpConfiguration();
+        HTTP2CServerConnectionFactory http2 = new HTTP2CServerConnectionFactory(config);
+        // Every load generator user streams on the one shared connection at the same time
+        http2.setMaxConcurrentStreams(Math.max(128, threads * 2));
+        connector = new ServerConnector(server, 1, 1, new HttpConnectionFactory(config), http2);
+        connector.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                if (CHAT_PATH.equals(target)) {
+                    handleChat(request, response);
+                } else if (FRAME_PATH.equals(target)) {
+                    handleFrame(request, response);
+                } else {
+                    handleRoot(request, response);
+                }
+            }
+        });
+        try {
+            server.start();
+        } catch (Exception e) {
+            throw new IOException("Could not start the mock server", e);
+        }
+    }
+
+    public String getBaseUrl() {
+        return "http://" + connector.getHost() + ":" + connector.getLocalPort();
+    }
+
+    /**
+     * Answers every chat and frame request with 503 for the next {@code durationMs}.
+     */
+    public void startOutage(long durationMs) {
+        outageUntilMs = System.currentTimeMillis() + durationMs;
+    }
+
+    public int getChatRequestCount() {
+        return chatRequests.get();
+    }
+
+    public int getFrameRequestCount() {
+        return frameRequests.get();
+    }
+
+    public int getRejectedRequestCount() {
+        return rejectedRequests.get();
+    }
+
+    @Override
+    public void close() {
+        try {
+            server.stop();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handleRoot(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // Pre-connect probes send HEAD /
+        drain(request.getInputStream());
+        response.setStatus(200);
+    }
+
+    private void handleChat(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            chatRequests.incrementAndGet();
+            boolean binary = WireFormat.CONTENT_TYPE.equals(request.getContentType());
+            if (binary) {
+                // Decoding checks that the client produced a well-formed envelope
+                WireDecoder decoder = new WireDecoder(request.getInputStream());
+                if (decoder.next() != WireFormat.TYPE_CHAT_REQUEST) {
+                    throw new IOException("Expected a chat request envelope");
+                }
+                decoder.readChatRequest();
+            }
+            drain(request.getInputStream());
+            if (rejectDuringOutage(response)) {
+                return;
+            }
+            response.setContentType(binary ? WireFormat.CONTENT_TYPE : "text/event-stream");
+            response.setStatus(200);
+            OutputStream out = response.getOutputStream();
+            WireEncoder encoder = binary ? new WireEncoder(out) : null;
+            sleep(firstTokenDelayMs);
+            for (int i = 0; i < tokenCount; i++) {
+                if (i > 0) {
+                    sleep(tokenIntervalMs);
+                }
+                String token = WORDS[i % WORDS.length];
+                if (encoder != null) {
+                    encoder.writeToken(token);
+                    encoder.flush();
+                } else {
+                    out.write(("data: " + token + "\n\n").getBytes(StandardCharsets.UTF_8));
+                }
+                // Each token leaves as its own DATA frame
+                out.flush();
+            }
+            if (encoder != null) {
+                encoder.writeDone();
+                encoder.flush();
+            } else {
+                out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            if (!response.isCommitted()) {
+                response.setStatus(400);
+            }
+        }
+    }
+
+    private void handleFrame(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        frameRequests.incrementAndGet();
+        long bytes = drain(request.getInputStream());
+        if (rejectDuringOutage(response)) {
+            return;
+        }
+        sleep(firstTokenDelayMs);
+        byte[] body = ("Frame of " + bytes + " bytes reviewed: patient resting, no acute distress.")
+            .getBytes(StandardCharsets.UTF_8);
+        response.setContentType("text/plain; charset=utf-8");
+        response.setContentLength(body.length);
+        response.setStatus(200);
+        response.getOutputStream().write(body);
+    }
+
+    private boolean rejectDuringOutage(HttpServletResponse response) {
+        if (System.currentTimeMillis() >= outageUntilMs) {
+            return false;
+        }
+        rejectedRequests.incrementAndGet();
+        response.setStatus(503);
+        return true;
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    private static void sleep(long ms) throws IOException {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Mock server stopped");
+        }
+    }
+}
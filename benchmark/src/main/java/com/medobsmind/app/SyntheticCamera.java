@@ -0,0 +1,70 @@
+package com.medobsmind.app;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Produces YUV_420_888 frames the way most camera HALs lay them out: a full Y plane and
+ * interleaved chroma (pixel stride 2), with row padding. The picture is a gradient that
+ * drifts a little every frame, so consecutive frames differ but stay similar.
+ */
+public class SyntheticCamera {
+    private static final int ROW_PADDING = 64;
+
+    private final int width;
+    private final int height;
+    private final int rowStride;
+    private final ByteBuffer y;
+    private final ByteBuffer chroma;
+    private int sequence;
+
+    public SyntheticCamera(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.rowStride = width + ROW_PADDING;
+        this.y = ByteBuffer.allocateDirect(rowStride * height);
+        this.chroma = ByteBuffer.allocateDirect(rowStride * ((height + 1) / 2));
+    }
+
+    public YuvFrame newFrame() {
+        return new YuvFrame(width, height);
+    }
+
+    /**
+     * Paints the next picture and copies it into {@code frame}.
+     */
+    public YuvFrame capture(YuvFrame frame) {
+        paint();
+        return copyTo(frame);
+    }
+
+    /**
+     * Copies the current picture into {@code frame}, as the sampler does with an Image from
+     * the ImageReader.
+     */
+    public YuvFrame copyTo(YuvFrame frame) {
+        ByteBuffer u = chroma.duplicate();
+        ByteBuffer v = chroma.duplicate();
+        // Interleaved chroma: V starts one byte after U in the same buffer
+        v.position(1);
+        frame.copyFrom(y.duplicate(), rowStride, u, v.slice(), rowStride, 2, System.nanoTime());
+        return frame;
+    }
+
+    private void paint() {
+        int shift = sequence++;
+        for (int row = 0; row < height; row++) {
+            int base = row * rowStride;
+            for (int col = 0; col < width; col++) {
+                y.put(base + col, (byte) (16 + ((row + col + shift) & 0x7F)));
+            }
+        }
+        int chromaHeight = (height + 1) / 2;
+        for (int row = 0; row < chromaHeight; row++) {
+            int base = row * rowStride;
+            for (int col = 0; col + 1 < width; col += 2) {
+                chroma.put(base + col, (byte) (128 + ((col + shift) & 0x1F)));
+                chroma.put(base + col + 1, (byte) (128 - ((row + shift) & 0x1F)));
+            }
+        }
+    }
+}
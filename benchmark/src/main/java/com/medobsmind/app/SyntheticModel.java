@@ -0,0 +1,140 @@
+package com.medobsmind.app;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Writes a randomly initialised model and tokenizer in the formats {@link LocalModel} and
+ * {@link LocalTokenizer} read, so the on-device runtime can be timed at a realistic size
+ * without shipping real weights. The answers are noise; the arithmetic per token is the same.
+ */
+public class SyntheticModel {
+    private static final int MAGIC = 0x616b3432;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 256;
+    private static final float WEIGHT_SCALE = 0.05f;
+
+    public final int dim;
+    public final int hiddenDim;
+    public final int layers;
+    public final int heads;
+    public final int kvHeads;
+    public final int vocabSize;
+    public final int seqLen;
+    public final int groupSize;
+
+    public SyntheticModel(int dim, int hiddenDim, int layers, int heads, int kvHeads, int vocabSize,
+                          int seqLen, int groupSize) {
+        this.dim = dim;
+        this.hiddenDim = hiddenDim;
+        this.layers = layers;
+        this.heads = heads;
+        this.kvHeads = kvHeads;
+        this.vocabSize = vocabSize;
+        this.seqLen = seqLen;
+        this.groupSize = groupSize;
+    }
+
+    /**
+     * The shape of the 15M-parameter TinyStories model from llama2.c, a typical size for
+     * a CPU-only phone model.
+     */
+    public static SyntheticModel stories15M() {
+        return new SyntheticModel(288, 768, 6, 6, 6, 32000, 256, 32);
+    }
+
+    public void writeModel(File file, long seed) throws IOException {
+        Random random = new Random(seed);
+        int kvDim = dim / heads * kvHeads;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(dim).putInt(hiddenDim).putInt(layers).putInt(heads)
+                .putInt(kvHeads).putInt(vocabSize).putInt(seqLen).put((byte) 1).putInt(groupSize);
+            out.write(header.array());
+            // Attention and feed-forward norms per layer, then the final norm
+            writeNorms(out, random, 2 * layers * dim + dim);
+            writeQuantized(out, random, vocabSize * dim);
+            for (int size : new int[]{dim * dim, dim * kvDim, dim * kvDim, dim * dim,
+                    dim * hiddenDim, hiddenDim * dim, dim * hiddenDim}) {
+                for (int l = 0; l < layers; l++) {
+                    writeQuantized(out, random, size);
+                }
+            }
+        }
+    }
+
+    private static void writeNorms(OutputStream out, Random random, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            buffer.putFloat(1f + (float) random.nextGaussian() * 0.1f);
+        }
+        out.write(buffer.array());
+    }
+
+    private void writeQuantized(OutputStream out, Random random, int size) throws IOException {
+        byte[] values = new byte[size];
+        ByteBuffer scales = ByteBuffer.allocate(size / groupSize * 4).order(ByteOrder.LITTLE_ENDIAN);
+        float[] group = new float[groupSize];
+        for (int start = 0; start < size; start += groupSize) {
+            float max = 0;
+            for (int i = 0; i < groupSize; i++) {
+                group[i] = (float) random.nextGaussian() * WEIGHT_SCALE;
+                max = Math.max(max, Math.abs(group[i]));
+            }
+            float scale = max / 127f;
+            for (int i = 0; i < groupSize; i++) {
+                values[start + i] = (byte) Math.round(group[i] / scale);
+            }
+            scales.putFloat(scale);
+        }
+        out.write(values);
+        out.write(scales.array());
+    }
+
+    /**
+     * Three special tokens, the 256 byte-fallback pieces, the printable ASCII characters with
+     * and without a leading space, then filler pieces up to the vocabulary size.
+     */
+    public void writeTokenizer(File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            ByteBuffer field = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            out.write(field.putInt(0, 16).array());
+            int written = 0;
+            for (String special : new String[]{"<unk>", "<s>", "</s>"}) {
+                writePiece(out, field, special, 0f);
+                written++;
+            }
+            for (int b = 0; b < 256; b++) {
+                writePiece(out, field, String.format("<0x%02X>", b), 0f);
+                written++;
+            }
+            for (char c = ' '; c <= '~' && written < vocabSize; c++) {
+                writePiece(out, field, String.valueOf(c), -written);
+                written++;
+            }
+            for (char c = '!'; c <= '~' && written < vocabSize; c++) {
+                writePiece(out, field, " " + c, -written);
+                written++;
+            }
+            while (written < vocabSize) {
+                writePiece(out, field, " w" + written, -written);
+                written++;
+            }
+        }
+    }
+
+    private static void writePiece(OutputStream out, ByteBuffer field, String piece, float score)
+            throws IOException {
+        byte[] bytes = piece.getBytes(StandardCharsets.UTF_8);
+        out.write(field.putFloat(0, score).array());
+        out.write(field.putInt(0, bytes.length).array());
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,15 @@
+package com.medobsmind.app;
+
+/**
+ * Stand-in for the resource class the Android build generates, so that {@link LlmmApiClient}
+ * compiles for the JVM. The benchmark never looks resources up; it builds clients directly.
+ */
+public final class R {
+    public static final class string {
+        public static final int llmm_endpoint = 0;
+    }
+
+    public static final class bool {
+        public static final int llmm_binary_wire = 0;
+    }
+}
@@ -0,0 +1,64 @@
+package com.medobsmind.macrobenchmark;
+
+import android.content.Intent;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * Cold start of the chat screen, from launch to the first frame, with and without the
+ * text-to-speech warm-up that {@code ChatActivity} runs after its first frame. The warm-up is
+ * meant to stay off the startup path, so the two should measure the same.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+    private static final String PACKAGE_NAME = "com.medobsmind.app";
+    private static final String CHAT_ACTIVITY = PACKAGE_NAME + ".ChatActivity";
+    // ChatActivity.EXTRA_SKIP_VOICE_WARM_UP; the app's classes are not on this module's classpath
+    private static final String EXTRA_SKIP_VOICE_WARM_UP = "com.medobsmind.app.SKIP_VOICE_WARM_UP";
+    private static final int ITERATIONS = 10;
+
+    @Rule
+    public final MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void coldStartWithVoiceWarmUp() {
+        measureColdStart(false);
+    }
+
+    @Test
+    public void coldStartWithoutVoiceWarmUp() {
+        measureColdStart(true);
+    }
+
+    private void measureColdStart(boolean skipVoiceWarmUp) {
+        Intent intent = new Intent(Intent.ACTION_MAIN)
+            .setClassName(PACKAGE_NAME, CHAT_ACTIVITY)
+            .putExtra(EXTRA_SKIP_VOICE_WARM_UP, skipVoiceWarmUp);
+        benchmarkRule.measureRepeated(
+            PACKAGE_NAME,
+            Collections.singletonList(new StartupTimingMetric()),
+            CompilationMode.DEFAULT,
+            StartupMode.COLD,
+            ITERATIONS,
+            scope -> {
+                scope.pressHome();
+                return Unit.INSTANCE;
+            },
+            scope -> {
+                scope.startActivityAndWait(intent);
+                return Unit.INSTANCE;
+            });
+    }
+}